@@ -0,0 +1,73 @@
+package com.googlesource.gerrit.plugins.chatgpt;
+
+import com.googlesource.gerrit.plugins.chatgpt.client.TokenEstimator;
+import com.googlesource.gerrit.plugins.chatgpt.config.ModelTier;
+
+import java.nio.file.FileSystems;
+import java.nio.file.Path;
+import java.nio.file.PathMatcher;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Optional;
+
+/**
+ * Picks the first model tier that a patch set fits into, so small changes are reviewed by a fast model and only large
+ * ones wait for a model with a long context. A patch set fits into a tier when its estimated prompt tokens and its
+ * changed lines are within the limits of the tier, and every changed file matches one of the file patterns of the
+ * tier.
+ */
+public class ModelRouter {
+    static final String DIFF_HEADER = "diff --git ";
+
+    private ModelRouter() {
+        throw new IllegalStateException("Utility class");
+    }
+
+    public static Optional<ModelTier> route(List<ModelTier> tiers, String prompt, String patchSet) {
+        int promptTokens = TokenEstimator.estimatePrompt(prompt, patchSet);
+        int changedLines = 0;
+        List<Path> files = new ArrayList<>();
+        for (String line : patchSet.split("\n")) {
+            if (line.startsWith(DIFF_HEADER)) {
+                files.add(Paths.get(fileName(line)));
+            } else if ((line.startsWith("+") && !line.startsWith("+++"))
+                    || (line.startsWith("-") && !line.startsWith("---"))) {
+                changedLines++;
+            }
+        }
+
+        for (ModelTier tier : tiers) {
+            if (promptTokens <= tier.getMaxTokens()
+                    && (tier.getMaxChangedLines() <= 0 || changedLines <= tier.getMaxChangedLines())
+                    && matchesFiles(tier, files)) {
+                return Optional.of(tier);
+            }
+        }
+        return Optional.empty();
+    }
+
+    public static int maxTokens(List<ModelTier> tiers) {
+        return tiers.stream().mapToInt(ModelTier::getMaxTokens).max().orElse(0);
+    }
+
+    private static boolean matchesFiles(ModelTier tier, List<Path> files) {
+        if (tier.getFiles().isEmpty()) {
+            return true;
+        }
+        // Without diff headers, e.g. after the patch set reduction, the files are unknown
+        if (files.isEmpty()) {
+            return false;
+        }
+        List<PathMatcher> matchers = new ArrayList<>();
+        for (String glob : tier.getFiles()) {
+            matchers.add(FileSystems.getDefault().getPathMatcher("glob:" + glob));
+        }
+        return files.stream().allMatch(file -> matchers.stream().anyMatch(matcher -> matcher.matches(file)));
+    }
+
+    static String fileName(String diffHeader) {
+        int newPath = diffHeader.lastIndexOf(" b/");
+        return newPath < 0 ? diffHeader.substring(DIFF_HEADER.length()) : diffHeader.substring(newPath + 3);
+    }
+}
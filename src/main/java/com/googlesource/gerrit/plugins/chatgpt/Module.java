@@ -1,17 +1,37 @@
 package com.googlesource.gerrit.plugins.chatgpt;
 
+import com.google.gerrit.extensions.events.GitReferenceUpdatedListener;
+import com.google.gerrit.extensions.registration.DynamicSet;
+import com.google.gerrit.lifecycle.LifecycleModule;
+import com.google.gerrit.server.config.GerritConfigListener;
 import com.google.gerrit.server.events.EventListener;
-import com.google.inject.AbstractModule;
 import com.google.inject.multibindings.Multibinder;
+import com.googlesource.gerrit.plugins.chatgpt.config.ConfigInvalidator;
+import com.googlesource.gerrit.plugins.chatgpt.coordination.ReviewCoordinator;
+import com.googlesource.gerrit.plugins.chatgpt.coordination.SharedDirectoryReviewCoordinator;
+import com.googlesource.gerrit.plugins.chatgpt.listener.ChangeClosedListener;
+import com.googlesource.gerrit.plugins.chatgpt.listener.ChangeReadyListener;
 import com.googlesource.gerrit.plugins.chatgpt.listener.GptMentionedCommentListener;
 import com.googlesource.gerrit.plugins.chatgpt.listener.PatchSetCreatedListener;
+import com.googlesource.gerrit.plugins.chatgpt.listener.ReviewPipelineStopper;
+import com.googlesource.gerrit.plugins.chatgpt.listener.ReviewJournalReplayer;
 
-public class Module extends AbstractModule {
+public class Module extends LifecycleModule {
 
     @Override
     protected void configure() {
         Multibinder<EventListener> eventListenerBinder = Multibinder.newSetBinder(binder(), EventListener.class);
         eventListenerBinder.addBinding().to(PatchSetCreatedListener.class);
         eventListenerBinder.addBinding().to(GptMentionedCommentListener.class);
+        eventListenerBinder.addBinding().to(ChangeClosedListener.class);
+        eventListenerBinder.addBinding().to(ChangeReadyListener.class);
+
+        DynamicSet.bind(binder(), GitReferenceUpdatedListener.class).to(ConfigInvalidator.class);
+        DynamicSet.bind(binder(), GerritConfigListener.class).to(ConfigInvalidator.class);
+
+        listener().to(ReviewJournalReplayer.class);
+        listener().to(ReviewPipelineStopper.class);
+
+        bind(ReviewCoordinator.class).to(SharedDirectoryReviewCoordinator.class);
     }
 }
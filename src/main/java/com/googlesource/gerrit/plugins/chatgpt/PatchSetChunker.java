@@ -0,0 +1,156 @@
+package com.googlesource.gerrit.plugins.chatgpt;
+
+import com.googlesource.gerrit.plugins.chatgpt.client.TokenEstimator;
+import lombok.Value;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Set;
+
+/**
+ * Splits a unified diff into chunks that fit a token budget, so a large change can be reviewed piece by piece.
+ * Whole files are packed together in diff order. A file that does not fit on its own is split at its hunks, and a
+ * hunk that does not fit on its own at its lines. Every piece of a file repeats the file header, and every chunk
+ * starts with the commit message as long as that leaves room for the diff. A patch set without any content has no
+ * chunks.
+ */
+public class PatchSetChunker {
+    private static final String DIFF_HEADER = "diff --git ";
+    private static final String HUNK_HEADER = "@@";
+
+    private PatchSetChunker() {
+        throw new IllegalStateException("Utility class");
+    }
+
+    @Value
+    public static class Chunk {
+        List<String> files;
+        String content;
+    }
+
+    public static List<Chunk> split(String patchSet, int maxTokens) {
+        if (patchSet.isBlank()) {
+            return List.of();
+        }
+        List<String> lines = Arrays.asList(patchSet.split("\n"));
+        int firstDiff = indexOfDiffHeader(lines, 0);
+        String commitMessage = firstDiff > 0 ? join(lines.subList(0, firstDiff)) : "";
+        if (TokenEstimator.estimate(commitMessage) > maxTokens / 2) {
+            commitMessage = "";
+        }
+        int budget = Math.max(1, maxTokens - TokenEstimator.estimate(commitMessage));
+
+        List<Chunk> pieces = new ArrayList<>();
+        if (firstDiff < 0) {
+            // Without diff headers, e.g. after the patch set reduction, only the lines are left to split at
+            splitLines(pieces, List.of(), "", lines, budget);
+        } else {
+            for (int start = firstDiff; start < lines.size(); ) {
+                int end = indexOfDiffHeader(lines, start + 1);
+                end = end < 0 ? lines.size() : end;
+                splitFile(pieces, lines.subList(start, end), budget);
+                start = end;
+            }
+        }
+        return pack(pieces, commitMessage, budget);
+    }
+
+    private static void splitFile(List<Chunk> pieces, List<String> fileLines, int budget) {
+        List<String> file = List.of(fileName(fileLines.get(0)));
+        String content = join(fileLines);
+        if (TokenEstimator.estimate(content) <= budget) {
+            pieces.add(new Chunk(file, content));
+            return;
+        }
+
+        int firstHunk = indexOf(fileLines, HUNK_HEADER, 0);
+        if (firstHunk < 0) {
+            splitLines(pieces, file, "", fileLines, budget);
+            return;
+        }
+        String fileHeader = join(fileLines.subList(0, firstHunk)) + "\n";
+        for (int start = firstHunk; start < fileLines.size(); ) {
+            int end = indexOf(fileLines, HUNK_HEADER, start + 1);
+            end = end < 0 ? fileLines.size() : end;
+            String hunk = fileHeader + join(fileLines.subList(start, end));
+            if (TokenEstimator.estimate(hunk) <= budget) {
+                pieces.add(new Chunk(file, hunk));
+            } else {
+                String header = fileHeader + fileLines.get(start) + "\n";
+                splitLines(pieces, file, header, fileLines.subList(start + 1, end), budget);
+            }
+            start = end;
+        }
+    }
+
+    private static void splitLines(List<Chunk> pieces, List<String> files, String header, List<String> lines,
+                                   int budget) {
+        StringBuilder piece = new StringBuilder(header);
+        for (String line : lines) {
+            // The piece ends with a newline, which is stripped again once the line is its last one
+            if (piece.length() > header.length()
+                    && TokenEstimator.estimateChars(piece.length() + line.length()) > budget) {
+                pieces.add(new Chunk(files, stripTrailingNewline(piece)));
+                piece = new StringBuilder(header);
+            }
+            piece.append(line).append('\n');
+        }
+        if (piece.length() > header.length()) {
+            pieces.add(new Chunk(files, stripTrailingNewline(piece)));
+        }
+    }
+
+    private static List<Chunk> pack(List<Chunk> pieces, String commitMessage, int budget) {
+        List<Chunk> chunks = new ArrayList<>();
+        Set<String> files = new LinkedHashSet<>();
+        StringBuilder content = new StringBuilder();
+        for (Chunk piece : pieces) {
+            if (content.length() > 0
+                    && TokenEstimator.estimateChars(content.length() + piece.getContent().length()) > budget) {
+                chunks.add(createChunk(files, commitMessage, content));
+                files = new LinkedHashSet<>();
+                content = new StringBuilder();
+            }
+            files.addAll(piece.getFiles());
+            content.append(piece.getContent()).append('\n');
+        }
+        if (content.length() > 0) {
+            chunks.add(createChunk(files, commitMessage, content));
+        }
+        return chunks;
+    }
+
+    private static Chunk createChunk(Set<String> files, String commitMessage, StringBuilder content) {
+        String diff = stripTrailingNewline(content);
+        return new Chunk(List.copyOf(files), commitMessage.isEmpty() ? diff : commitMessage + "\n" + diff);
+    }
+
+    private static String fileName(String diffHeader) {
+        int newPath = diffHeader.lastIndexOf(" b/");
+        return newPath < 0 ? diffHeader.substring(DIFF_HEADER.length()) : diffHeader.substring(newPath + 3);
+    }
+
+    private static int indexOfDiffHeader(List<String> lines, int from) {
+        return indexOf(lines, DIFF_HEADER, from);
+    }
+
+    private static int indexOf(List<String> lines, String prefix, int from) {
+        for (int i = from; i < lines.size(); i++) {
+            if (lines.get(i).startsWith(prefix)) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    private static String join(List<String> lines) {
+        return String.join("\n", lines);
+    }
+
+    private static String stripTrailingNewline(StringBuilder text) {
+        int length = text.length();
+        return length > 0 && text.charAt(length - 1) == '\n' ? text.substring(0, length - 1) : text.toString();
+    }
+}
@@ -0,0 +1,152 @@
+package com.googlesource.gerrit.plugins.chatgpt;
+
+import java.io.IOException;
+import java.io.Reader;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Drops the lines of a patch set that carry little for a review: headers, imports and removed lines.
+ * Lines are trimmed, matched against the skip prefixes by their first character and copied to the output in a
+ * single pass, without splitting the patch set into intermediate strings.
+ */
+public class PatchSetReducer {
+    private static final String[] SKIP_PREFIXES = {
+            "import", "-", "+package", "+import", "From", "Date:", "Subject:",
+            "Change-Id:", "diff --git", "index", "---", "+++", "@@", "Binary files differ"
+    };
+    private static final int READ_BUFFER_SIZE = 8192;
+    // Skip prefixes indexed by their first character, all of them are ASCII
+    private static final String[][] SKIP_PREFIXES_BY_FIRST_CHAR = new String[128][];
+
+    static {
+        List<List<String>> prefixesByFirstChar = new ArrayList<>();
+        for (int c = 0; c < SKIP_PREFIXES_BY_FIRST_CHAR.length; c++) {
+            prefixesByFirstChar.add(new ArrayList<>());
+        }
+        for (String prefix : SKIP_PREFIXES) {
+            prefixesByFirstChar.get(prefix.charAt(0)).add(prefix);
+        }
+        for (int c = 0; c < SKIP_PREFIXES_BY_FIRST_CHAR.length; c++) {
+            List<String> prefixes = prefixesByFirstChar.get(c);
+            SKIP_PREFIXES_BY_FIRST_CHAR[c] = prefixes.isEmpty() ? null : prefixes.toArray(new String[0]);
+        }
+    }
+
+    private PatchSetReducer() {
+        throw new IllegalStateException("Utility class");
+    }
+
+    public static String reduce(CharSequence patchSet) {
+        StringBuilder reduced = new StringBuilder(patchSet.length() / 2);
+        int lineStart = 0;
+        for (int i = 0; i < patchSet.length(); i++) {
+            if (patchSet.charAt(i) == '\n') {
+                appendReducedLine(patchSet, lineStart, i, reduced);
+                lineStart = i + 1;
+            }
+        }
+        appendReducedLine(patchSet, lineStart, patchSet.length(), reduced);
+        return reduced.toString();
+    }
+
+    public static String reduce(Reader patchSet) throws IOException {
+        StringBuilder reduced = new StringBuilder();
+        StringBuilder line = new StringBuilder();
+        char[] buffer = new char[READ_BUFFER_SIZE];
+        CharArrayView bufferView = new CharArrayView(buffer);
+        int read;
+        while ((read = patchSet.read(buffer)) != -1) {
+            int lineStart = 0;
+            for (int i = 0; i < read; i++) {
+                if (buffer[i] != '\n') {
+                    continue;
+                }
+                if (line.length() == 0) {
+                    appendReducedLine(bufferView, lineStart, i, reduced);
+                } else {
+                    line.append(buffer, lineStart, i - lineStart);
+                    appendReducedLine(line, 0, line.length(), reduced);
+                    line.setLength(0);
+                }
+                lineStart = i + 1;
+            }
+            line.append(buffer, lineStart, read - lineStart);
+        }
+        appendReducedLine(line, 0, line.length(), reduced);
+        return reduced.toString();
+    }
+
+    private static void appendReducedLine(CharSequence text, int start, int end, StringBuilder reduced) {
+        // Same as String.trim()
+        while (start < end && text.charAt(start) <= ' ') {
+            start++;
+        }
+        while (end > start && text.charAt(end - 1) <= ' ') {
+            end--;
+        }
+        if (start == end || isSkipped(text, start, end)) {
+            return;
+        }
+        if (reduced.length() > 0) {
+            reduced.append('\n');
+        }
+        reduced.append(text, start, end);
+    }
+
+    private static boolean isSkipped(CharSequence text, int start, int end) {
+        char firstChar = text.charAt(start);
+        if (firstChar >= SKIP_PREFIXES_BY_FIRST_CHAR.length || SKIP_PREFIXES_BY_FIRST_CHAR[firstChar] == null) {
+            return false;
+        }
+        for (String prefix : SKIP_PREFIXES_BY_FIRST_CHAR[firstChar]) {
+            if (startsWith(text, start, end, prefix)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private static boolean startsWith(CharSequence text, int start, int end, String prefix) {
+        if (end - start < prefix.length()) {
+            return false;
+        }
+        for (int i = 1; i < prefix.length(); i++) {
+            if (text.charAt(start + i) != prefix.charAt(i)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Lets whole lines inside the read buffer be reduced without copying them.
+     */
+    private static class CharArrayView implements CharSequence {
+        private final char[] chars;
+
+        private CharArrayView(char[] chars) {
+            this.chars = chars;
+        }
+
+        @Override
+        public int length() {
+            return chars.length;
+        }
+
+        @Override
+        public char charAt(int index) {
+            return chars[index];
+        }
+
+        @Override
+        public CharSequence subSequence(int start, int end) {
+            return new String(chars, start, end - start);
+        }
+
+        @Override
+        public String toString() {
+            return new String(chars);
+        }
+    }
+}
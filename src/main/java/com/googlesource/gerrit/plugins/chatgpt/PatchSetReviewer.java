@@ -1,83 +1,419 @@
 package com.googlesource.gerrit.plugins.chatgpt;
 
+import com.google.common.base.Strings;
+import com.google.gerrit.metrics.Timer2;
 import com.google.inject.Inject;
 import com.google.inject.Singleton;
+import com.googlesource.gerrit.plugins.chatgpt.client.Deadline;
 import com.googlesource.gerrit.plugins.chatgpt.client.GerritClient;
+import com.googlesource.gerrit.plugins.chatgpt.client.GitDiffClient;
+import com.googlesource.gerrit.plugins.chatgpt.client.HttpClientWithRetry;
 import com.googlesource.gerrit.plugins.chatgpt.client.OpenAiClient;
+import com.googlesource.gerrit.plugins.chatgpt.client.PatchSetContent;
+import com.googlesource.gerrit.plugins.chatgpt.client.PatchSetDiff;
+import com.googlesource.gerrit.plugins.chatgpt.client.PatchSetRevision;
+import com.googlesource.gerrit.plugins.chatgpt.client.ReviewInput;
 import com.googlesource.gerrit.plugins.chatgpt.config.Configuration;
+import com.googlesource.gerrit.plugins.chatgpt.config.DiffSource;
+import com.googlesource.gerrit.plugins.chatgpt.config.ModelTier;
+import com.googlesource.gerrit.plugins.chatgpt.metrics.ReviewMetrics;
+import lombok.Value;
 import lombok.extern.slf4j.Slf4j;
 
+import java.io.IOException;
+import java.io.Reader;
+import java.net.http.HttpTimeoutException;
 import java.util.*;
-import java.util.stream.Collectors;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.atomic.AtomicInteger;
 
 @Slf4j
 @Singleton
+// Metric timers are only opened for the scope they time
+@SuppressWarnings("try")
 public class PatchSetReviewer {
     private static final String SPLIT_REVIEW_MSG = "Too many changes. Please consider splitting into patches smaller than %s lines for review.";
-    private static final int COMMENT_BATCH_SIZE = 200;
+    private static final String SPLIT_TOKENS_REVIEW_MSG = "Too many changes. Please consider splitting into patches smaller than %s tokens for review.";
+    private static final String SPLIT_CHUNKS_REVIEW_MSG = "Too many changes. Please consider splitting into patches that fit into %s review chunks.";
+    private static final String CHUNK_REVIEW_HEADER = "Review of %s:";
+    private static final String INCREMENTAL_REVIEW_PROMPT = " You already reviewed patch set %d of this change " +
+            "and your review was:\n%s\nThe patch set below only shows what changed since patch set %d. Review " +
+            "these changes, and do not repeat remarks on code they leave unchanged.";
+    private static final int MAX_SUMMARY_LENGTH = 2000;
     private final GerritClient gerritClient;
+    private final GitDiffClient gitDiffClient;
     private final OpenAiClient openAiClient;
+    private final ReviewCache reviewCache;
+    private final ReviewHistory reviewHistory;
+    private final ReviewFilter reviewFilter;
+    private final ReviewMetrics metrics;
 
     @Inject
-    PatchSetReviewer(GerritClient gerritClient, OpenAiClient openAiClient) {
+    PatchSetReviewer(GerritClient gerritClient, GitDiffClient gitDiffClient, OpenAiClient openAiClient,
+                     ReviewCache reviewCache, ReviewHistory reviewHistory, ReviewFilter reviewFilter,
+                     ReviewMetrics metrics) {
         this.gerritClient = gerritClient;
+        this.gitDiffClient = gitDiffClient;
         this.openAiClient = openAiClient;
+        this.reviewCache = reviewCache;
+        this.reviewHistory = reviewHistory;
+        this.reviewFilter = reviewFilter;
+        this.metrics = metrics;
     }
 
     public static String reducePatchSet(String patchSet) {
-        Set<String> skipPrefixes = new HashSet<>(Arrays.asList(
-                "import", "-", "+package", "+import", "From", "Date:", "Subject:",
-                "Change-Id:", "diff --git", "index", "---", "+++", "@@", "Binary files differ"
-        ));
+        return PatchSetReducer.reduce(patchSet);
+    }
+
+    /**
+     * Reviews the change within {@code reviewTimeoutSeconds}. Every stage is limited by its own timeout as well as by
+     * the time left of the review. With {@code incrementalReview}, a {@code patchSetReview} only sends what changed
+     * since the last reviewed patch set, together with the summary of that review. The first patch set and rebased
+     * patch sets are reviewed in full. Answers to questions are neither incremental nor filtered by file.
+     */
+    public void review(Configuration config, String fullChangeId, boolean patchSetReview) throws Exception {
+        Deadline deadline = Deadline.afterSeconds(config.getReviewTimeoutSeconds());
+        Optional<PreparedReview> prepared = prepare(config, fullChangeId, patchSetReview, deadline);
+        if (prepared.isEmpty()) {
+            return;
+        }
+        ReviewInput reviewInput = complete(prepared.get(), deadline);
+        checkNotSuperseded(fullChangeId);
+        post(prepared.get(), reviewInput, deadline);
+    }
 
-        return Arrays.stream(patchSet.split("\n"))
-                .map(String::trim)
-                .filter(line -> skipPrefixes.stream().noneMatch(line::startsWith))
-                .filter(line -> !line.trim().isEmpty())
-                .collect(Collectors.joining("\n"));
+    /**
+     * Fetches and reduces the patch set, the first stage of a review, which only waits on Gerrit. Returns empty when
+     * there is nothing to review, e.g. when no diff is left after the reduction.
+     */
+    public Optional<PreparedReview> prepare(Configuration config, String fullChangeId, boolean patchSetReview,
+                                            Deadline deadline) throws Exception {
+        if (config.isInlineComments() && config.isPatchSetReduction()) {
+            log.warn("patchSetReduction removes the line information of the diff, posting the review of changeId: {} "
+                    + "without inline comments", fullChangeId);
+            return prepareReview(config.withInlineComments(false), fullChangeId, patchSetReview, deadline);
+        }
+        return prepareReview(config, fullChangeId, patchSetReview, deadline);
     }
 
-    public void review(Configuration config, String fullChangeId) throws Exception {
-        String patchSet = gerritClient.getPatchSet(config, fullChangeId);
-        if (config.isPatchSetReduction()) {
-            patchSet = reducePatchSet(patchSet);
-            log.debug("Reduced patch set: {}", patchSet);
+    private Optional<PreparedReview> prepareReview(Configuration config, String fullChangeId, boolean patchSetReview,
+                                                   Deadline deadline) throws Exception {
+        boolean incremental = patchSetReview && config.isIncrementalReview();
+        Deadline fetchDeadline = deadline.stage(config.getPatchFetchTimeoutSeconds());
+        // The review is fetched from and posted on this patch set, even if a newer one is uploaded in between
+        PatchSetRevision revision = gerritClient.getCurrentRevision(config, fullChangeId, fetchDeadline);
+        Optional<ReviewHistory.Entry> previousReview = incremental
+                ? previousReview(fullChangeId, revision)
+                : Optional.empty();
+
+        PatchSetContent content;
+        if (previousReview.isPresent()) {
+            Optional<PatchSetContent> delta = fetchDelta(config, fullChangeId, revision, previousReview.get(),
+                    fetchDeadline);
+            if (delta.isEmpty()) {
+                log.info("No files changed in changeId: {} since patch set {}, skipping review", fullChangeId,
+                        previousReview.get().getPatchSet());
+                reviewHistory.put(fullChangeId, new ReviewHistory.Entry(revision.getNumber(), revision.getParent(),
+                        previousReview.get().getSummary()));
+                return Optional.empty();
+            }
+            content = delta.get();
+        } else {
+            content = fetchPatchSet(config, fullChangeId, revision, fetchDeadline);
+        }
+        String patchSet;
+        try (content) {
+            if (patchSetReview && !reviewFilter.acceptFiles(config, fullChangeId, content)) {
+                return Optional.empty();
+            }
+            metrics.countPatchBytes(config, content.size());
+            if (config.isPatchSetReduction()) {
+                try (Timer2.Context<String, String> ignored = metrics.startReduction(config);
+                     Reader reader = content.openReader()) {
+                    // Only the reduced patch set is materialized, large ones are read from their temporary file
+                    patchSet = PatchSetReducer.reduce(reader);
+                }
+                log.debug("Reduced patch set: {}", patchSet);
+            } else {
+                patchSet = content.asString();
+            }
         }
 
-        String reviewSuggestion = getReviewSuggestion(config, fullChangeId, patchSet);
-        List<String> reviewBatches = splitReviewIntoBatches(reviewSuggestion);
+        if (patchSetReview && patchSet.isBlank()) {
+            log.info("Nothing left to review in changeId: {}, skipping review", fullChangeId);
+            return Optional.empty();
+        }
 
-        for (String reviewBatch : reviewBatches) {
-            gerritClient.postComment(config, fullChangeId, reviewBatch);
+        Configuration reviewConfig = previousReview
+                .map(previous -> config.withGptPrompt(config.getGptPrompt() + String.format(INCREMENTAL_REVIEW_PROMPT,
+                        previous.getPatchSet(), previous.getSummary(), previous.getPatchSet())))
+                .orElse(config);
+        if (config.isInlineComments()) {
+            reviewConfig = reviewConfig.withGptPrompt(reviewConfig.getGptPrompt()
+                    + ReviewParser.INLINE_COMMENTS_PROMPT);
         }
+        return Optional.of(new PreparedReview(config, reviewConfig, fullChangeId, patchSet, revision, incremental));
+    }
+
+    /**
+     * Asks the model for the review of a prepared patch set, the stage that waits on the model.
+     */
+    public ReviewInput complete(PreparedReview prepared, Deadline deadline) throws Exception {
+        checkNotSuperseded(prepared.getFullChangeId());
+        List<ReviewParser.ReviewPart> reviewParts = getReviewSuggestion(prepared.getReviewConfig(),
+                prepared.getFullChangeId(), prepared.getPatchSet(), deadline);
+        return ReviewParser.toReviewInput(reviewParts, prepared.getPatchSet(),
+                prepared.getConfig().isInlineComments());
     }
 
-    private List<String> splitReviewIntoBatches(String review) {
-        List<String> batches = new ArrayList<>();
-        String[] lines = review.split("\n");
+    /**
+     * Posts the review to Gerrit and records it for the incremental review of later patch sets.
+     */
+    public void post(PreparedReview prepared, ReviewInput reviewInput, Deadline deadline) throws Exception {
+        Configuration config = prepared.getConfig();
+        String fullChangeId = prepared.getFullChangeId();
+        PatchSetRevision revision = prepared.getRevision();
+        try (Timer2.Context<String, String> ignored = metrics.startCommentPost(config)) {
+            postReview(config, fullChangeId, revision.getNumber(), reviewInput,
+                    deadline.stage(config.getCommentPostTimeoutSeconds()));
+        }
+        if (prepared.isIncremental()) {
+            reviewHistory.put(fullChangeId, new ReviewHistory.Entry(revision.getNumber(), revision.getParent(),
+                    summarize(reviewInput)));
+        }
+    }
 
-        StringBuilder batch = new StringBuilder();
-        for (int i = 0; i < lines.length; i++) {
-            batch.append(lines[i]).append("\n");
-            if ((i + 1) % COMMENT_BATCH_SIZE == 0) {
-                batches.add(batch.toString());
-                batch = new StringBuilder();
+    private Optional<ReviewHistory.Entry> previousReview(String fullChangeId, PatchSetRevision revision) {
+        Optional<ReviewHistory.Entry> previousReview = reviewHistory.get(fullChangeId);
+        if (previousReview.isEmpty() || previousReview.get().getPatchSet() >= revision.getNumber()) {
+            return Optional.empty();
+        }
+        // The diff to a patch set with another parent also holds the changes it was rebased onto
+        if (!Objects.equals(previousReview.get().getParent(), revision.getParent())) {
+            log.info("Patch set {} of changeId: {} was rebased, reviewing it in full", revision.getNumber(),
+                    fullChangeId);
+            return Optional.empty();
+        }
+        return previousReview;
+    }
+
+    /**
+     * Fetches what changed since the previous review through the file diffs, since the patch endpoint has no base.
+     * Returns empty when no file changed.
+     */
+    private Optional<PatchSetContent> fetchDelta(Configuration config, String fullChangeId,
+                                                 PatchSetRevision revision, ReviewHistory.Entry previousReview,
+                                                 Deadline deadline) throws Exception {
+        try (Timer2.Context<String, String> ignored = metrics.startPatchFetch(config)) {
+            PatchSetDiff delta = gerritClient.getPatchSetDiff(config, fullChangeId, revision.getNumber(),
+                    previousReview.getPatchSet(), deadline);
+            if (delta.getFiles().isEmpty()) {
+                return Optional.empty();
             }
+            log.info("Reviewing changeId: {} incrementally from patch set {} to {}", fullChangeId,
+                    previousReview.getPatchSet(), revision.getNumber());
+            return Optional.of(PatchSetContent.of(delta.toUnifiedDiff()));
         }
-        if (batch.length() > 0) {
-            batches.add(batch.toString());
+    }
+
+    private static String summarize(ReviewInput reviewInput) {
+        String summary = Strings.nullToEmpty(ReviewParser.withoutInlineComments(reviewInput).getMessage()).strip();
+        return summary.length() <= MAX_SUMMARY_LENGTH ? summary : summary.substring(0, MAX_SUMMARY_LENGTH) + "...";
+    }
+
+    private PatchSetContent fetchPatchSet(Configuration config, String fullChangeId, PatchSetRevision revision,
+                                          Deadline deadline) throws Exception {
+        try (Timer2.Context<String, String> ignored = metrics.startPatchFetch(config)) {
+            if (config.getDiffSource() == DiffSource.FILES) {
+                return PatchSetContent.of(gerritClient.getPatchSetDiff(config, fullChangeId, revision.getNumber(),
+                        deadline).toUnifiedDiff());
+            }
+            if (config.getDiffSource() == DiffSource.GIT) {
+                // Gerrit only tells which commit the patch set is, the diff is formatted locally
+                return gitDiffClient.getPatchSetContent(config, fullChangeId, revision);
+            }
+            return gerritClient.getPatchSetContent(config, fullChangeId, revision.getNumber(), deadline);
         }
-        log.info("Review batches created: {}", batches.size());
-        return batches;
     }
 
-    private String getReviewSuggestion(Configuration config, String changeId, String patchSet) throws Exception {
+    private void postReview(Configuration config, String fullChangeId, int patchSet, ReviewInput reviewInput,
+                            Deadline deadline) throws Exception {
+        if (reviewInput.getComments() == null) {
+            gerritClient.postReview(config, fullChangeId, patchSet, reviewInput, deadline);
+            return;
+        }
+        try {
+            gerritClient.postReview(config, fullChangeId, patchSet, reviewInput, deadline);
+        } catch (HttpTimeoutException e) {
+            throw e;
+        } catch (IOException e) {
+            log.warn("Gerrit refused the inline comments of changeId: {}, posting them in the message",
+                    fullChangeId, e);
+            gerritClient.postReview(config, fullChangeId, patchSet, ReviewParser.withoutInlineComments(reviewInput),
+                    deadline);
+        }
+    }
+
+    private void checkNotSuperseded(String fullChangeId) throws InterruptedException {
+        // The scheduler interrupts the worker when a newer patch set of the same change is submitted
+        if (Thread.currentThread().isInterrupted()) {
+            throw new InterruptedException("Review of " + fullChangeId + " was superseded");
+        }
+    }
+
+    private List<ReviewParser.ReviewPart> getReviewSuggestion(Configuration config, String changeId, String patchSet,
+                                                              Deadline deadline) throws Exception {
+        Deadline completionDeadline = deadline.stage(config.getGptTimeoutSeconds());
+        if (config.isReviewChunking()) {
+            return getChunkedReviewSuggestion(config, changeId, patchSet, completionDeadline);
+        }
+        List<ModelTier> tiers = config.getGptModelTiers();
+        if (!tiers.isEmpty()) {
+            // The context window of the tiers takes the place of maxReviewLines
+            Optional<ModelTier> tier = ModelRouter.route(tiers, config.getGptPrompt(), patchSet);
+            if (tier.isEmpty()) {
+                log.warn("Patch set fits into no model tier. Skipping review. changeId: {}", changeId);
+                return List.of(new ReviewParser.ReviewPart(null,
+                        String.format(SPLIT_TOKENS_REVIEW_MSG, ModelRouter.maxTokens(tiers))));
+            }
+            log.debug("Reviewing changeId: {} with {}", changeId, tier.get().getModel());
+            String review = HttpClientWithRetry.await(
+                    reviewAsync(config.withGptModel(tier.get().getModel()), changeId, patchSet, completionDeadline));
+            return List.of(new ReviewParser.ReviewPart(null, review));
+        }
         List<String> patchLines = Arrays.asList(patchSet.split("\n"));
         if (patchLines.size() > config.getMaxReviewLines()) {
             log.warn("Patch set too large. Skipping review. changeId: {}", changeId);
-            return String.format(SPLIT_REVIEW_MSG, config.getMaxReviewLines());
+            return List.of(new ReviewParser.ReviewPart(null,
+                    String.format(SPLIT_REVIEW_MSG, config.getMaxReviewLines())));
         }
-        return openAiClient.ask(config, patchSet);
+        String review = HttpClientWithRetry.await(reviewAsync(config, changeId, patchSet, completionDeadline));
+        return List.of(new ReviewParser.ReviewPart(null, review));
+    }
+
+    /**
+     * Reviews the chunks of a large patch set concurrently, at most {@code maxParallelChunks} at a time, and merges
+     * the reviews in diff order.
+     */
+    private List<ReviewParser.ReviewPart> getChunkedReviewSuggestion(Configuration config, String changeId,
+                                                                     String patchSet, Deadline deadline)
+            throws Exception {
+        List<PatchSetChunker.Chunk> chunks = PatchSetChunker.split(patchSet, config.getMaxChunkTokens());
+        if (chunks.isEmpty()) {
+            // Only a question about an empty patch set gets here, the question itself still needs an answer
+            String review = HttpClientWithRetry.await(reviewAsync(config, changeId, patchSet, deadline));
+            return List.of(new ReviewParser.ReviewPart(null, review));
+        }
+        if (chunks.size() == 1) {
+            String review = HttpClientWithRetry.await(reviewAsync(routeChunk(config, chunks.get(0)), changeId,
+                    chunks.get(0).getContent(), deadline));
+            return List.of(new ReviewParser.ReviewPart(null, review));
+        }
+        if (chunks.size() > config.getMaxReviewChunks()) {
+            log.warn("Patch set too large even in {} chunks. Skipping review. changeId: {}", chunks.size(), changeId);
+            return List.of(new ReviewParser.ReviewPart(null,
+                    String.format(SPLIT_CHUNKS_REVIEW_MSG, config.getMaxReviewChunks())));
+        }
+        log.info("Reviewing {} chunks of changeId: {}", chunks.size(), changeId);
+
+        List<CompletableFuture<String>> reviews = new ArrayList<>();
+        for (int i = 0; i < chunks.size(); i++) {
+            reviews.add(new CompletableFuture<>());
+        }
+        AtomicInteger nextChunk = new AtomicInteger();
+        try {
+            for (int i = 0; i < Math.min(chunks.size(), Math.max(1, config.getMaxParallelChunks())); i++) {
+                reviewNextChunk(config, changeId, chunks, reviews, nextChunk, deadline);
+            }
+            List<ReviewParser.ReviewPart> reviewParts = new ArrayList<>();
+            for (int i = 0; i < chunks.size(); i++) {
+                String heading = String.format(CHUNK_REVIEW_HEADER, String.join(", ", chunks.get(i).getFiles()));
+                reviewParts.add(new ReviewParser.ReviewPart(heading, HttpClientWithRetry.await(reviews.get(i))));
+            }
+            return reviewParts;
+        } finally {
+            reviews.forEach(review -> review.cancel(true));
+        }
+    }
+
+    /**
+     * Starts the review of the next chunk, and of the one after it once that review is done. Every call keeps one
+     * chunk review in flight until all chunks are started, without holding a thread while it waits.
+     */
+    private void reviewNextChunk(Configuration config, String changeId, List<PatchSetChunker.Chunk> chunks,
+                                 List<CompletableFuture<String>> reviews, AtomicInteger nextChunk,
+                                 Deadline deadline) {
+        int index = nextChunk.getAndIncrement();
+        if (index >= chunks.size()) {
+            return;
+        }
+        CompletableFuture<String> result = reviews.get(index);
+        if (result.isDone()) {
+            // Cancelled, since the review failed or was superseded
+            reviewNextChunk(config, changeId, chunks, reviews, nextChunk, deadline);
+            return;
+        }
+        PatchSetChunker.Chunk chunk = chunks.get(index);
+        CompletableFuture<String> review = reviewAsync(routeChunk(config, chunk), changeId, chunk.getContent(),
+                deadline);
+        result.whenComplete((content, error) -> review.cancel(true));
+        review.whenComplete((content, error) -> {
+            if (error != null) {
+                result.completeExceptionally(error);
+            } else {
+                result.complete(content);
+            }
+            reviewNextChunk(config, changeId, chunks, reviews, nextChunk, deadline);
+        });
+    }
+
+    /**
+     * Chunks already fit into maxChunkTokens, so a chunk that fits into no tier is still reviewed by gptModel.
+     */
+    private Configuration routeChunk(Configuration config, PatchSetChunker.Chunk chunk) {
+        return ModelRouter.route(config.getGptModelTiers(), config.getGptPrompt(), chunk.getContent())
+                .map(tier -> config.withGptModel(tier.getModel()))
+                .orElse(config);
     }
-}
 
+    private CompletableFuture<String> reviewAsync(Configuration config, String changeId, String patchSet,
+                                                  Deadline deadline) {
+        if (!config.isReviewCacheEnabled()) {
+            return openAiClient.askAsync(config, patchSet, delta -> {}, deadline);
+        }
+
+        String cacheKey = reviewCache.createKey(config, patchSet);
+        Optional<String> cachedReview = reviewCache.get(config, cacheKey);
+        if (cachedReview.isPresent()) {
+            metrics.countCacheHit(config);
+            log.info("Reusing cached review for changeId: {}. Cache hits: {}, misses: {}",
+                    changeId, reviewCache.getHits(), reviewCache.getMisses());
+            return CompletableFuture.completedFuture(cachedReview.get());
+        }
+        metrics.countCacheMiss(config);
+        CompletableFuture<String> completion = openAiClient.askAsync(config, patchSet, delta -> {}, deadline);
+        CompletableFuture<String> review = completion.thenApply(content -> {
+            reviewCache.put(config, cacheKey, content);
+            return content;
+        });
+        // Cancelling the review cancels the completion in flight as well
+        review.whenComplete((content, error) -> completion.cancel(true));
+        return review;
+    }
+
+    /**
+     * A fetched and reduced patch set, ready to be sent to the model.
+     */
+    @Value
+    public static class PreparedReview {
+        Configuration config;
+        // The configuration with the prompt of this review
+        Configuration reviewConfig;
+        String fullChangeId;
+        String patchSet;
+        // The reviewed patch set, which the review is posted on
+        PatchSetRevision revision;
+        // Whether the review is recorded for the incremental review of later patch sets
+        boolean incremental;
+    }
+}
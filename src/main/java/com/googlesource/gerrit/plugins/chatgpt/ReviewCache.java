@@ -0,0 +1,210 @@
+package com.googlesource.gerrit.plugins.chatgpt;
+
+import com.google.common.hash.Hashing;
+import com.google.gerrit.extensions.annotations.PluginData;
+import com.google.gson.Gson;
+import com.google.inject.Inject;
+import com.google.inject.Singleton;
+import com.googlesource.gerrit.plugins.chatgpt.config.Configuration;
+import lombok.AllArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.Comparator;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Optional;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+/**
+ * Remembers reviews by a hash of the normalized patch set, the prompt, the model, the temperature and the limit of
+ * the answer, so byte-identical changes such as cherry-picks or re-pushed commits are not sent to the model again.
+ * Inline comments refer to lines of the new files, so with them the hunk line numbers are part of the key.
+ * Entries live in a size and TTL bounded in-memory tier, and optionally in a disk tier under the plugin data
+ * directory that survives restarts.
+ */
+@Slf4j
+@Singleton
+public class ReviewCache {
+    private static final String CACHE_DIRECTORY = "review-cache";
+    private static final String ENTRY_SUFFIX = ".json";
+    private static final int DISK_PRUNE_INTERVAL = 64;
+
+    private final Gson gson = new Gson();
+    private final Path cacheDirectory;
+    // Access ordered, so iteration starts with the least recently used entry
+    private final LinkedHashMap<String, Entry> memoryCache = new LinkedHashMap<>(16, 0.75f, true);
+    private final AtomicLong hits = new AtomicLong();
+    private final AtomicLong misses = new AtomicLong();
+    private final AtomicLong diskWrites = new AtomicLong();
+
+    @Inject
+    ReviewCache(@PluginData Path pluginDataDir) {
+        this.cacheDirectory = pluginDataDir.resolve(CACHE_DIRECTORY);
+    }
+
+    public String createKey(Configuration config, String patchSet) {
+        return Hashing.sha256().newHasher()
+                .putString(config.getGptModel(), StandardCharsets.UTF_8).putByte((byte) 0)
+                .putDouble(config.getGptTemperature()).putByte((byte) 0)
+                .putInt(config.getGptMaxTokens()).putByte((byte) 0)
+                .putString(config.getGptPrompt(), StandardCharsets.UTF_8).putByte((byte) 0)
+                .putString(normalize(patchSet, !config.isInlineComments()), StandardCharsets.UTF_8)
+                .hash()
+                .toString();
+    }
+
+    public Optional<String> get(Configuration config, String key) {
+        long ttlMillis = TimeUnit.MINUTES.toMillis(config.getReviewCacheTtlMinutes());
+        Entry entry;
+        synchronized (memoryCache) {
+            entry = memoryCache.get(key);
+            if (entry != null && entry.isExpired(ttlMillis)) {
+                memoryCache.remove(key);
+                entry = null;
+            }
+        }
+        if (entry == null && config.isReviewCacheDiskEnabled()) {
+            entry = readFromDisk(key, ttlMillis);
+            if (entry != null) {
+                putInMemory(config, key, entry);
+            }
+        }
+
+        if (entry == null) {
+            misses.incrementAndGet();
+            return Optional.empty();
+        }
+        hits.incrementAndGet();
+        return Optional.of(entry.review);
+    }
+
+    public void put(Configuration config, String key, String review) {
+        Entry entry = new Entry(review, System.currentTimeMillis());
+        putInMemory(config, key, entry);
+        if (config.isReviewCacheDiskEnabled()) {
+            writeToDisk(config, key, entry);
+        }
+    }
+
+    public long getHits() {
+        return hits.get();
+    }
+
+    public long getMisses() {
+        return misses.get();
+    }
+
+    /**
+     * Drops what differs between otherwise identical diffs: the commit header and message, blob ids and, unless the
+     * review is posted as inline comments on those lines, hunk line numbers.
+     */
+    static String normalize(String patchSet, boolean dropLineNumbers) {
+        int diffStart = patchSet.startsWith("diff --git") ? 0 : patchSet.indexOf("\ndiff --git");
+        if (diffStart < 0) {
+            return patchSet;
+        }
+        StringBuilder normalized = new StringBuilder(patchSet.length() - diffStart);
+        for (String line : patchSet.substring(diffStart).split("\n")) {
+            if (line.startsWith("index ")) {
+                continue;
+            }
+            if (dropLineNumbers && line.startsWith("@@")) {
+                int end = line.indexOf("@@", 2);
+                line = end < 0 ? "@@" : "@@" + line.substring(end + 2);
+            }
+            normalized.append(line).append('\n');
+        }
+        return normalized.toString();
+    }
+
+    private void putInMemory(Configuration config, String key, Entry entry) {
+        int maxSize = Math.max(0, config.getReviewCacheSize());
+        synchronized (memoryCache) {
+            memoryCache.put(key, entry);
+            Iterator<String> eldest = memoryCache.keySet().iterator();
+            while (memoryCache.size() > maxSize && eldest.hasNext()) {
+                eldest.next();
+                eldest.remove();
+            }
+        }
+    }
+
+    private Entry readFromDisk(String key, long ttlMillis) {
+        Path file = cacheDirectory.resolve(key + ENTRY_SUFFIX);
+        if (!Files.isRegularFile(file)) {
+            return null;
+        }
+        try {
+            Entry entry = gson.fromJson(Files.readString(file, StandardCharsets.UTF_8), Entry.class);
+            if (entry == null || entry.review == null || entry.isExpired(ttlMillis)) {
+                Files.deleteIfExists(file);
+                return null;
+            }
+            return entry;
+        } catch (IOException | RuntimeException e) {
+            log.warn("Failed to read cached review {}", file, e);
+            return null;
+        }
+    }
+
+    private void writeToDisk(Configuration config, String key, Entry entry) {
+        try {
+            Files.createDirectories(cacheDirectory);
+            Path tmp = Files.createTempFile(cacheDirectory, key, ".tmp");
+            Files.writeString(tmp, gson.toJson(entry), StandardCharsets.UTF_8);
+            Files.move(tmp, cacheDirectory.resolve(key + ENTRY_SUFFIX),
+                    StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } catch (IOException e) {
+            log.warn("Failed to write cached review {}", key, e);
+            return;
+        }
+        if (diskWrites.incrementAndGet() % DISK_PRUNE_INTERVAL == 0) {
+            pruneDisk(config);
+        }
+    }
+
+    private void pruneDisk(Configuration config) {
+        long ttlMillis = TimeUnit.MINUTES.toMillis(config.getReviewCacheTtlMinutes());
+        try (Stream<Path> files = Files.list(cacheDirectory)) {
+            List<Path> entries = files.filter(file -> file.toString().endsWith(ENTRY_SUFFIX))
+                    .sorted(Comparator.comparingLong(ReviewCache::lastModified).reversed())
+                    .collect(Collectors.toList());
+            long now = System.currentTimeMillis();
+            for (int i = 0; i < entries.size(); i++) {
+                Path file = entries.get(i);
+                if (i >= config.getReviewCacheSize() || now - lastModified(file) > ttlMillis) {
+                    Files.deleteIfExists(file);
+                }
+            }
+        } catch (IOException e) {
+            log.warn("Failed to prune the review cache in {}", cacheDirectory, e);
+        }
+    }
+
+    private static long lastModified(Path file) {
+        try {
+            return Files.getLastModifiedTime(file).toMillis();
+        } catch (IOException e) {
+            return 0;
+        }
+    }
+
+    @AllArgsConstructor
+    private static class Entry {
+        private String review;
+        private long createdAt;
+
+        private boolean isExpired(long ttlMillis) {
+            return System.currentTimeMillis() - createdAt > ttlMillis;
+        }
+    }
+}
@@ -0,0 +1,144 @@
+package com.googlesource.gerrit.plugins.chatgpt;
+
+import com.google.common.base.Supplier;
+import com.google.gerrit.server.data.AccountAttribute;
+import com.google.gerrit.server.data.ChangeAttribute;
+import com.google.gerrit.server.data.PatchSetAttribute;
+import com.google.gerrit.server.events.PatchSetCreatedEvent;
+import com.google.gerrit.server.events.PatchSetEvent;
+import com.google.inject.Inject;
+import com.google.inject.Singleton;
+import com.googlesource.gerrit.plugins.chatgpt.client.PatchSetContent;
+import com.googlesource.gerrit.plugins.chatgpt.config.Configuration;
+import com.googlesource.gerrit.plugins.chatgpt.metrics.ReviewMetrics;
+import lombok.extern.slf4j.Slf4j;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.nio.file.FileSystems;
+import java.nio.file.Path;
+import java.nio.file.PathMatcher;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+import java.util.Optional;
+
+/**
+ * Drops the patch sets that are not worth a review before they are queued, from what the event tells about the
+ * patch set and its change: trivial rebases and other change kinds without new code, work in progress and private
+ * changes, and configured authors, uploaders and branches. The event does not list the changed files, so the files
+ * are checked once the patch set is fetched. Every skipped review is counted per rule.
+ */
+@Slf4j
+@Singleton
+public class ReviewFilter {
+    public enum Rule {
+        CHANGE_KIND,
+        WORK_IN_PROGRESS,
+        PRIVATE,
+        AUTHOR,
+        UPLOADER,
+        BRANCH,
+        FILES
+    }
+
+    private final ReviewMetrics metrics;
+
+    @Inject
+    public ReviewFilter(ReviewMetrics metrics) {
+        this.metrics = metrics;
+    }
+
+    /**
+     * Returns whether the patch set of the event is to be reviewed. The change kind is only checked for new patch
+     * sets, since a change that turns ready for review or public had all its patch sets skipped before.
+     */
+    public boolean accept(Configuration config, PatchSetEvent event) {
+        Optional<Rule> rule = check(config, event);
+        rule.ifPresent(skipped -> skip(config, event.getChangeKey().get(), skipped));
+        return rule.isEmpty();
+    }
+
+    /**
+     * Returns whether the fetched patch set changes any file that does not match {@code skipFiles}.
+     */
+    public boolean acceptFiles(Configuration config, String fullChangeId, PatchSetContent content)
+            throws IOException {
+        if (config.getSkipFiles().isEmpty()) {
+            return true;
+        }
+        List<Path> files = new ArrayList<>();
+        try (BufferedReader reader = new BufferedReader(content.openReader())) {
+            String line;
+            while ((line = reader.readLine()) != null) {
+                if (line.startsWith(ModelRouter.DIFF_HEADER)) {
+                    files.add(Paths.get(ModelRouter.fileName(line)));
+                }
+            }
+        }
+        List<PathMatcher> matchers = matchers(config.getSkipFiles());
+        if (files.isEmpty() || !files.stream().allMatch(file -> matches(matchers, file))) {
+            return true;
+        }
+        skip(config, fullChangeId, Rule.FILES);
+        return false;
+    }
+
+    static Optional<Rule> check(Configuration config, PatchSetEvent event) {
+        PatchSetAttribute patchSet = get(event.patchSet);
+        ChangeAttribute change = get(event.change);
+        if (event instanceof PatchSetCreatedEvent && patchSet != null && patchSet.kind != null
+                && config.getSkipChangeKinds().contains(patchSet.kind)) {
+            return Optional.of(Rule.CHANGE_KIND);
+        }
+        if (change != null && config.isSkipWorkInProgress() && Boolean.TRUE.equals(change.wip)) {
+            return Optional.of(Rule.WORK_IN_PROGRESS);
+        }
+        if (change != null && config.isSkipPrivate() && Boolean.TRUE.equals(change.isPrivate)) {
+            return Optional.of(Rule.PRIVATE);
+        }
+        if (patchSet != null && matchesAccount(config.getSkipAuthors(), patchSet.author)) {
+            return Optional.of(Rule.AUTHOR);
+        }
+        AccountAttribute uploader = patchSet != null && patchSet.uploader != null
+                ? patchSet.uploader
+                : event instanceof PatchSetCreatedEvent ? get(((PatchSetCreatedEvent) event).uploader) : null;
+        if (matchesAccount(config.getSkipUploaders(), uploader)) {
+            return Optional.of(Rule.UPLOADER);
+        }
+        if (!config.getSkipBranches().isEmpty() && event.getBranchNameKey() != null
+                && matches(matchers(config.getSkipBranches()), Paths.get(event.getBranchNameKey().shortName()))) {
+            return Optional.of(Rule.BRANCH);
+        }
+        return Optional.empty();
+    }
+
+    private void skip(Configuration config, String changeId, Rule rule) {
+        String ruleName = rule.name().toLowerCase(Locale.ROOT);
+        log.info("Skipping review of changeId: {} by rule {}", changeId, ruleName);
+        metrics.countSkip(config, ruleName);
+    }
+
+    private static boolean matchesAccount(List<String> accounts, AccountAttribute account) {
+        return account != null
+                && ((account.email != null && accounts.contains(account.email))
+                || (account.username != null && accounts.contains(account.username)));
+    }
+
+    private static List<PathMatcher> matchers(List<String> globs) {
+        List<PathMatcher> matchers = new ArrayList<>();
+        for (String glob : globs) {
+            matchers.add(FileSystems.getDefault().getPathMatcher("glob:" + glob));
+        }
+        return matchers;
+    }
+
+    private static boolean matches(List<PathMatcher> matchers, Path path) {
+        return matchers.stream().anyMatch(matcher -> matcher.matches(path));
+    }
+
+    private static <T> T get(Supplier<T> supplier) {
+        return supplier == null ? null : supplier.get();
+    }
+}
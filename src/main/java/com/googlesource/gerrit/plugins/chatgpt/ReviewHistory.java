@@ -0,0 +1,109 @@
+package com.googlesource.gerrit.plugins.chatgpt;
+
+import com.google.common.hash.Hashing;
+import com.google.gerrit.extensions.annotations.PluginData;
+import com.google.gson.Gson;
+import com.google.inject.Inject;
+import com.google.inject.Singleton;
+import lombok.Value;
+import lombok.extern.slf4j.Slf4j;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.time.Duration;
+import java.util.Optional;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.stream.Stream;
+
+/**
+ * Remembers per change which patch set was reviewed last and what the review said, so the next patch set can be
+ * reviewed incrementally. Entries are files under the plugin data directory, dropped when the change is closed or
+ * when they have not been updated for {@link #RETENTION}.
+ */
+@Slf4j
+@Singleton
+public class ReviewHistory {
+    private static final String HISTORY_DIRECTORY = "review-history";
+    private static final String ENTRY_SUFFIX = ".json";
+    private static final Duration RETENTION = Duration.ofDays(90);
+    private static final int PRUNE_INTERVAL = 64;
+
+    private final Gson gson = new Gson();
+    private final Path historyDirectory;
+    private final AtomicLong writes = new AtomicLong();
+
+    @Inject
+    public ReviewHistory(@PluginData Path pluginDataDir) {
+        this.historyDirectory = pluginDataDir.resolve(HISTORY_DIRECTORY);
+    }
+
+    @Value
+    public static class Entry {
+        int patchSet;
+        // The first parent of the reviewed patch set, null for a root commit
+        String parent;
+        String summary;
+    }
+
+    public Optional<Entry> get(String fullChangeId) {
+        Path file = entryFile(fullChangeId);
+        if (!Files.isRegularFile(file)) {
+            return Optional.empty();
+        }
+        try {
+            return Optional.ofNullable(gson.fromJson(Files.readString(file, StandardCharsets.UTF_8), Entry.class));
+        } catch (IOException | RuntimeException e) {
+            log.warn("Failed to read the review history {} of {}", file, fullChangeId, e);
+            return Optional.empty();
+        }
+    }
+
+    public void put(String fullChangeId, Entry entry) {
+        try {
+            Files.createDirectories(historyDirectory);
+            Path tmp = Files.createTempFile(historyDirectory, fileName(fullChangeId), ".tmp");
+            Files.writeString(tmp, gson.toJson(entry), StandardCharsets.UTF_8);
+            Files.move(tmp, entryFile(fullChangeId), StandardCopyOption.REPLACE_EXISTING,
+                    StandardCopyOption.ATOMIC_MOVE);
+        } catch (IOException e) {
+            log.warn("Failed to record the review history of {}", fullChangeId, e);
+            return;
+        }
+        if (writes.incrementAndGet() % PRUNE_INTERVAL == 0) {
+            prune();
+        }
+    }
+
+    public void remove(String fullChangeId) {
+        try {
+            Files.deleteIfExists(entryFile(fullChangeId));
+        } catch (IOException e) {
+            log.warn("Failed to remove the review history of {}", fullChangeId, e);
+        }
+    }
+
+    private void prune() {
+        long cutoff = System.currentTimeMillis() - RETENTION.toMillis();
+        try (Stream<Path> files = Files.list(historyDirectory)) {
+            for (Path file : (Iterable<Path>) files::iterator) {
+                if (file.toString().endsWith(ENTRY_SUFFIX)
+                        && Files.getLastModifiedTime(file).toMillis() < cutoff) {
+                    Files.deleteIfExists(file);
+                }
+            }
+        } catch (IOException e) {
+            log.warn("Failed to prune the review history in {}", historyDirectory, e);
+        }
+    }
+
+    private Path entryFile(String fullChangeId) {
+        return historyDirectory.resolve(fileName(fullChangeId) + ENTRY_SUFFIX);
+    }
+
+    private static String fileName(String fullChangeId) {
+        return Hashing.sha256().hashString(fullChangeId, StandardCharsets.UTF_8).toString();
+    }
+}
@@ -0,0 +1,168 @@
+package com.googlesource.gerrit.plugins.chatgpt;
+
+import com.google.common.collect.Range;
+import com.google.common.collect.RangeSet;
+import com.google.common.collect.TreeRangeSet;
+import com.google.gson.Gson;
+import com.google.gson.JsonParseException;
+import com.googlesource.gerrit.plugins.chatgpt.client.ReviewInput;
+import lombok.Data;
+import lombok.Value;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * Turns the answers of the model into one Gerrit review. With inline comments, the model is asked to answer with
+ * a summary and comments on file lines. Comments are only posted inline on lines the diff shows, since Gerrit
+ * rejects the whole review for a single comment outside of the file. Other comments, and answers that are not in
+ * the requested format, end up in the review message.
+ */
+public class ReviewParser {
+    public static final String INLINE_COMMENTS_PROMPT = " Respond only with a JSON object of the form " +
+            "{\"summary\": \"<overall review>\", \"comments\": [{\"file\": \"<path of the file in the diff>\", " +
+            "\"line\": <line number in the new version of the file>, \"message\": \"<comment>\"}]}. " +
+            "Leave the comments empty if no line needs a comment.";
+    private static final Pattern HUNK_HEADER = Pattern.compile("^@@ -\\d+(?:,\\d+)? \\+(\\d+)(?:,(\\d+))? @@");
+    private static final String OLD_FILE_HEADER = "--- ";
+    private static final String NEW_FILE_HEADER = "+++ ";
+    private static final Gson gson = new Gson();
+
+    private ReviewParser() {
+        throw new IllegalStateException("Utility class");
+    }
+
+    /**
+     * The answer of the model to the whole patch set or to one of its chunks.
+     */
+    @Value
+    public static class ReviewPart {
+        // Null when the answer covers the whole patch set
+        String heading;
+        String review;
+    }
+
+    @Data
+    private static class Suggestion {
+        private String summary;
+        private List<SuggestedComment> comments;
+    }
+
+    @Data
+    private static class SuggestedComment {
+        private String file;
+        private Integer line;
+        private String message;
+    }
+
+    public static ReviewInput toReviewInput(List<ReviewPart> parts, String patchSet, boolean inlineComments) {
+        if (!inlineComments && parts.size() == 1 && parts.get(0).getHeading() == null) {
+            return ReviewInput.builder().message(parts.get(0).getReview()).build();
+        }
+
+        Map<String, RangeSet<Integer>> commentableLines = inlineComments ? commentableLines(patchSet) : Map.of();
+        StringBuilder message = new StringBuilder();
+        Map<String, List<ReviewInput.CommentInput>> comments = new LinkedHashMap<>();
+        for (ReviewPart part : parts) {
+            Optional<Suggestion> suggestion = inlineComments ? parse(part.getReview()) : Optional.empty();
+            if (message.length() > 0) {
+                message.append("\n\n");
+            }
+            if (part.getHeading() != null) {
+                message.append(part.getHeading()).append('\n');
+            }
+            message.append(suggestion.map(Suggestion::getSummary).orElse(part.getReview()).strip());
+
+            for (SuggestedComment comment : suggestion.map(Suggestion::getComments).orElse(List.of())) {
+                if (comment == null || comment.getMessage() == null || comment.getMessage().isBlank()) {
+                    continue;
+                }
+                RangeSet<Integer> lines = comment.getFile() == null ? null : commentableLines.get(comment.getFile());
+                if (lines != null && comment.getLine() != null && lines.contains(comment.getLine())) {
+                    comments.computeIfAbsent(comment.getFile(), file -> new ArrayList<>())
+                            .add(ReviewInput.CommentInput.builder()
+                                    .line(comment.getLine())
+                                    .message(comment.getMessage())
+                                    .build());
+                } else {
+                    message.append("\n\n").append(comment.getFile()).append(':').append(comment.getLine())
+                            .append(": ").append(comment.getMessage().strip());
+                }
+            }
+        }
+        return ReviewInput.builder()
+                .message(message.toString())
+                .comments(comments.isEmpty() ? null : comments)
+                .build();
+    }
+
+    /**
+     * Folds the inline comments of a review into its message, for when Gerrit refused them.
+     */
+    public static ReviewInput withoutInlineComments(ReviewInput reviewInput) {
+        if (reviewInput.getComments() == null) {
+            return reviewInput;
+        }
+        StringBuilder message = new StringBuilder(reviewInput.getMessage());
+        reviewInput.getComments().forEach((file, fileComments) -> fileComments.forEach(comment ->
+                message.append("\n\n").append(file).append(':').append(comment.getLine())
+                        .append(": ").append(comment.getMessage().strip())));
+        return ReviewInput.builder().message(message.toString()).build();
+    }
+
+    private static Optional<Suggestion> parse(String review) {
+        // Models tend to wrap JSON in a code block despite being asked not to
+        int start = review.indexOf('{');
+        int end = review.lastIndexOf('}');
+        if (start < 0 || end < start) {
+            return Optional.empty();
+        }
+        try {
+            Suggestion suggestion = gson.fromJson(review.substring(start, end + 1), Suggestion.class);
+            if (suggestion == null || suggestion.getSummary() == null && suggestion.getComments() == null) {
+                return Optional.empty();
+            }
+            if (suggestion.getSummary() == null) {
+                suggestion.setSummary("");
+            }
+            return Optional.of(suggestion);
+        } catch (JsonParseException e) {
+            return Optional.empty();
+        }
+    }
+
+    /**
+     * Collects the lines of the new file versions that the hunks of the diff cover, by file path.
+     */
+    static Map<String, RangeSet<Integer>> commentableLines(String patchSet) {
+        Map<String, RangeSet<Integer>> commentableLines = new HashMap<>();
+        RangeSet<Integer> fileLines = null;
+        String previousLine = "";
+        for (String line : patchSet.split("\n")) {
+            boolean isNewFileHeader = line.startsWith(NEW_FILE_HEADER) && previousLine.startsWith(OLD_FILE_HEADER);
+            previousLine = line;
+            if (isNewFileHeader) {
+                String path = line.substring(NEW_FILE_HEADER.length()).strip();
+                fileLines = path.startsWith("b/")
+                        ? commentableLines.computeIfAbsent(path.substring(2), file -> TreeRangeSet.create())
+                        : null;
+                continue;
+            }
+            Matcher hunkHeader = HUNK_HEADER.matcher(line);
+            if (fileLines != null && hunkHeader.find()) {
+                int start = Integer.parseInt(hunkHeader.group(1));
+                int count = hunkHeader.group(2) == null ? 1 : Integer.parseInt(hunkHeader.group(2));
+                if (count > 0) {
+                    fileLines.add(Range.closedOpen(start, start + count));
+                }
+            }
+        }
+        return commentableLines;
+    }
+}
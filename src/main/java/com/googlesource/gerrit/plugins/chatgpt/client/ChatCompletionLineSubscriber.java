@@ -0,0 +1,73 @@
+package com.googlesource.gerrit.plugins.chatgpt.client;
+
+import lombok.extern.slf4j.Slf4j;
+
+import java.io.IOException;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.Flow;
+import java.util.function.Consumer;
+
+/**
+ * Collects the content of a streamed chat completion line by line as the response arrives. A stream that ends before
+ * its {@code [DONE]} event, or that had chunks which could not be parsed, fails instead of returning the content it
+ * got so far, so a partial completion is neither posted nor cached.
+ */
+@Slf4j
+class ChatCompletionLineSubscriber implements Flow.Subscriber<String> {
+    private final ChatCompletionStreamParser streamParser;
+    private final Consumer<String> deltaConsumer;
+    private final StringBuilder content = new StringBuilder();
+    private boolean done;
+    private int malformedChunks;
+
+    ChatCompletionLineSubscriber(ChatCompletionStreamParser streamParser, Consumer<String> deltaConsumer) {
+        this.streamParser = streamParser;
+        this.deltaConsumer = deltaConsumer;
+    }
+
+    @Override
+    public void onSubscribe(Flow.Subscription subscription) {
+        subscription.request(Long.MAX_VALUE);
+    }
+
+    @Override
+    public void onNext(String line) {
+        if (streamParser.isDone(line)) {
+            done = true;
+            return;
+        }
+        try {
+            streamParser.parseDeltaContent(line).ifPresent(delta -> {
+                content.append(delta);
+                deltaConsumer.accept(delta);
+            });
+        } catch (IOException | RuntimeException e) {
+            malformedChunks++;
+            log.error("Skipping malformed completion chunk: {}", line, e);
+        }
+    }
+
+    @Override
+    public void onError(Throwable throwable) {
+        log.debug("Completion stream failed", throwable);
+    }
+
+    @Override
+    public void onComplete() {
+        log.debug("Completion stream finished");
+    }
+
+    /**
+     * Returns the content of the finished stream, and fails with an {@link IOException} when it is incomplete.
+     */
+    String getContent() {
+        if (malformedChunks > 0) {
+            throw new CompletionException(new IOException("Completion stream had " + malformedChunks
+                    + " malformed chunks"));
+        }
+        if (!done) {
+            throw new CompletionException(new IOException("Completion stream ended before it was done"));
+        }
+        return content.toString();
+    }
+}
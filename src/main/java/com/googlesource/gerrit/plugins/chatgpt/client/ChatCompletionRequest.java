@@ -1,5 +1,6 @@
 package com.googlesource.gerrit.plugins.chatgpt.client;
 
+import com.google.gson.annotations.SerializedName;
 import lombok.Builder;
 import lombok.Data;
 
@@ -11,6 +12,9 @@ public class ChatCompletionRequest {
     private String model;
     private boolean stream;
     private double temperature;
+    // Left out of the request when null
+    @SerializedName("max_tokens")
+    private Integer maxTokens;
     private List<Message> messages;
 
     @Data
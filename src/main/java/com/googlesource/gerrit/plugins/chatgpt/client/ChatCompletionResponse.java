@@ -13,10 +13,14 @@ public class ChatCompletionResponse {
     private long created;
     private String model;
     private List<Choice> choices;
+    private Usage usage;
 
     @Data
     public static class Choice {
+        // Set on streamed chunks
         private Delta delta;
+        // Set on non-streamed completions
+        private Message message;
         private int index;
         @SerializedName("finish_reason")
         private String finishReason;
@@ -27,4 +31,20 @@ public class ChatCompletionResponse {
         private String role;
         private String content;
     }
+
+    @Data
+    public static class Message {
+        private String role;
+        private String content;
+    }
+
+    @Data
+    public static class Usage {
+        @SerializedName("prompt_tokens")
+        private int promptTokens;
+        @SerializedName("completion_tokens")
+        private int completionTokens;
+        @SerializedName("total_tokens")
+        private int totalTokens;
+    }
 }
@@ -0,0 +1,77 @@
+package com.googlesource.gerrit.plugins.chatgpt.client;
+
+import com.google.gson.stream.JsonReader;
+import com.google.gson.stream.JsonToken;
+
+import java.io.IOException;
+import java.io.StringReader;
+import java.util.Optional;
+
+/**
+ * Extracts {@code choices[0].delta.content} from server-sent event lines of a streamed chat completion.
+ * The JSON is walked with a streaming reader and every other field is skipped,
+ * so no {@link ChatCompletionResponse} is built per token.
+ */
+public class ChatCompletionStreamParser {
+    private static final String DATA_PREFIX = "data:";
+    private static final String DONE_MARKER = "[DONE]";
+
+    public Optional<String> parseDeltaContent(String line) throws IOException {
+        if (!line.startsWith(DATA_PREFIX)) {
+            return Optional.empty();
+        }
+        String data = line.substring(DATA_PREFIX.length()).trim();
+        if (data.isEmpty() || data.equals(DONE_MARKER)) {
+            return Optional.empty();
+        }
+
+        try (JsonReader reader = new JsonReader(new StringReader(data))) {
+            return Optional.ofNullable(readChoices(reader));
+        }
+    }
+
+    public boolean isDone(String line) {
+        return line.startsWith(DATA_PREFIX) && line.substring(DATA_PREFIX.length()).trim().equals(DONE_MARKER);
+    }
+
+    private String readChoices(JsonReader reader) throws IOException {
+        if (reader.peek() != JsonToken.BEGIN_OBJECT) {
+            return null;
+        }
+        reader.beginObject();
+        while (reader.hasNext()) {
+            if (reader.nextName().equals("choices") && reader.peek() == JsonToken.BEGIN_ARRAY) {
+                reader.beginArray();
+                // Only the first choice is requested
+                return reader.hasNext() ? readChoice(reader) : null;
+            }
+            reader.skipValue();
+        }
+        return null;
+    }
+
+    private String readChoice(JsonReader reader) throws IOException {
+        if (reader.peek() != JsonToken.BEGIN_OBJECT) {
+            return null;
+        }
+        reader.beginObject();
+        while (reader.hasNext()) {
+            if (reader.nextName().equals("delta") && reader.peek() == JsonToken.BEGIN_OBJECT) {
+                return readDelta(reader);
+            }
+            reader.skipValue();
+        }
+        return null;
+    }
+
+    private String readDelta(JsonReader reader) throws IOException {
+        reader.beginObject();
+        while (reader.hasNext()) {
+            if (reader.nextName().equals("content") && reader.peek() == JsonToken.STRING) {
+                return reader.nextString();
+            }
+            reader.skipValue();
+        }
+        return null;
+    }
+}
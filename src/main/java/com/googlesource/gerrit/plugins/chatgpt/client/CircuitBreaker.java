@@ -0,0 +1,91 @@
+package com.googlesource.gerrit.plugins.chatgpt.client;
+
+import lombok.extern.slf4j.Slf4j;
+
+import java.time.Duration;
+import java.time.Instant;
+
+/**
+ * Tracks the health of one endpoint. After {@code failureThreshold} consecutive failures the breaker opens and
+ * requests are refused until the open period ends. Then a single probe request is let through: its success closes
+ * the breaker, its failure opens it again.
+ */
+@Slf4j
+public class CircuitBreaker {
+
+    public enum State {
+        CLOSED, OPEN, HALF_OPEN
+    }
+
+    private final String endpoint;
+    private final int failureThreshold;
+    private final Duration openDuration;
+    private State state = State.CLOSED;
+    private int consecutiveFailures;
+    private Instant openUntil = Instant.MIN;
+
+    public CircuitBreaker(String endpoint, int failureThreshold, Duration openDuration) {
+        this.endpoint = endpoint;
+        this.failureThreshold = failureThreshold;
+        this.openDuration = openDuration;
+    }
+
+    /**
+     * Returns whether a request may be sent now. In the half-open state only the first caller gets through.
+     */
+    public synchronized boolean tryAcquire() {
+        if (state == State.OPEN && !Instant.now().isBefore(openUntil)) {
+            log.info("Circuit breaker of {} is half-open, probing the endpoint", endpoint);
+            state = State.HALF_OPEN;
+            return true;
+        }
+        return state == State.CLOSED;
+    }
+
+    /**
+     * Returns when the next request may be attempted.
+     */
+    public synchronized Instant getRetryAt() {
+        return state == State.OPEN ? openUntil : Instant.now().plus(Duration.ofSeconds(1));
+    }
+
+    public synchronized State getState() {
+        return state;
+    }
+
+    public synchronized void recordSuccess() {
+        if (state != State.CLOSED) {
+            log.info("Circuit breaker of {} is closed again", endpoint);
+        }
+        state = State.CLOSED;
+        consecutiveFailures = 0;
+    }
+
+    /**
+     * Lets another request probe the endpoint when the probe request ended without an answer telling about the
+     * health of the endpoint, e.g. was cancelled or rejected as a bad request. Outside of a probe it changes nothing.
+     */
+    public synchronized void abandonProbe() {
+        if (state == State.HALF_OPEN) {
+            state = State.OPEN;
+            openUntil = Instant.now();
+        }
+    }
+
+    /**
+     * Records a failure of the endpoint. A server hint about when to come back keeps the breaker open at least
+     * that long.
+     */
+    public synchronized void recordFailure(Duration serverHint) {
+        consecutiveFailures++;
+        if (state == State.HALF_OPEN || consecutiveFailures >= failureThreshold) {
+            Duration duration = serverHint != null && serverHint.compareTo(openDuration) > 0 ? serverHint : openDuration;
+            openUntil = Instant.now().plus(duration);
+            if (state != State.OPEN) {
+                log.warn("Circuit breaker of {} opened for {} after {} consecutive failures",
+                        endpoint, duration, consecutiveFailures);
+            }
+            state = State.OPEN;
+        }
+    }
+}
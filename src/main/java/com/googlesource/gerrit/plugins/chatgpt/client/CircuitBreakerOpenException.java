@@ -0,0 +1,18 @@
+package com.googlesource.gerrit.plugins.chatgpt.client;
+
+import lombok.Getter;
+
+import java.io.IOException;
+import java.time.Instant;
+
+@Getter
+public class CircuitBreakerOpenException extends IOException {
+    private static final long serialVersionUID = 1L;
+
+    private final Instant retryAt;
+
+    public CircuitBreakerOpenException(String endpoint, Instant retryAt) {
+        super(String.format("Circuit breaker of %s is open until %s", endpoint, retryAt));
+        this.retryAt = retryAt;
+    }
+}
@@ -0,0 +1,103 @@
+package com.googlesource.gerrit.plugins.chatgpt.client;
+
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+
+import java.net.http.HttpRequest;
+import java.net.http.HttpTimeoutException;
+import java.time.Duration;
+import java.util.Optional;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * The point in time by which a review, or a stage of it, has to be done. A stage gets the earlier of its own timeout
+ * and the deadline of the whole review, so a slow stage leaves less time to the stages after it. A timeout of zero
+ * seconds or less means no limit.
+ */
+public class Deadline {
+    private static final Deadline NONE = new Deadline(Long.MAX_VALUE);
+    // HttpRequest.timeout only accepts positive durations
+    private static final Duration MIN_REQUEST_TIMEOUT = Duration.ofMillis(1);
+    // Cancelled timeouts are removed right away instead of piling up until their delay is over
+    private static final ScheduledThreadPoolExecutor TIMER = createTimer();
+
+    private final long deadlineNanos;
+
+    private Deadline(long deadlineNanos) {
+        this.deadlineNanos = deadlineNanos;
+    }
+
+    public static Deadline none() {
+        return NONE;
+    }
+
+    public static Deadline afterSeconds(long seconds) {
+        return seconds <= 0 ? NONE : new Deadline(System.nanoTime() + TimeUnit.SECONDS.toNanos(seconds));
+    }
+
+    /**
+     * Returns the deadline of a stage that may take at most {@code seconds} of the time left.
+     */
+    public Deadline stage(long seconds) {
+        Deadline stage = afterSeconds(seconds);
+        if (this == NONE) {
+            return stage;
+        }
+        return stage == NONE || deadlineNanos - stage.deadlineNanos < 0 ? this : stage;
+    }
+
+    /**
+     * Returns the time left, or empty without a limit.
+     */
+    public Optional<Duration> remaining() {
+        if (this == NONE) {
+            return Optional.empty();
+        }
+        return Optional.of(Duration.ofNanos(Math.max(0, deadlineNanos - System.nanoTime())));
+    }
+
+    /**
+     * Limits every attempt of the request to the time left.
+     */
+    public HttpRequest.Builder applyTo(HttpRequest.Builder request) {
+        remaining().ifPresent(remaining -> request.timeout(
+                remaining.compareTo(MIN_REQUEST_TIMEOUT) < 0 ? MIN_REQUEST_TIMEOUT : remaining));
+        return request;
+    }
+
+    /**
+     * Fails {@code future} with an {@link HttpTimeoutException} when it is not done in time. Futures returned by
+     * {@link HttpClientWithRetry} cancel the request in flight when they fail.
+     */
+    public <T> CompletableFuture<T> applyTo(CompletableFuture<T> future, String stage) {
+        Optional<Duration> remaining = remaining();
+        if (remaining.isPresent()) {
+            runUnlessDone(future, remaining.get(), () ->
+                    future.completeExceptionally(new HttpTimeoutException(stage + " timed out")));
+        }
+        return future;
+    }
+
+    /**
+     * Runs {@code task} after {@code delay} unless {@code future} is done by then. The task is cancelled as soon as
+     * the future is done, so futures that finish in time leave nothing behind.
+     */
+    static void runUnlessDone(CompletableFuture<?> future, Duration delay, Runnable task) {
+        if (future.isDone()) {
+            return;
+        }
+        ScheduledFuture<?> scheduled = TIMER.schedule(task, delay.toNanos(), TimeUnit.NANOSECONDS);
+        future.whenComplete((result, error) -> scheduled.cancel(false));
+    }
+
+    private static ScheduledThreadPoolExecutor createTimer() {
+        ScheduledThreadPoolExecutor timer = new ScheduledThreadPoolExecutor(1, new ThreadFactoryBuilder()
+                .setNameFormat("Deadline-%d")
+                .setDaemon(true)
+                .build());
+        timer.setRemoveOnCancelPolicy(true);
+        return timer;
+    }
+}
@@ -0,0 +1,160 @@
+package com.googlesource.gerrit.plugins.chatgpt.client;
+
+import com.google.gerrit.entities.Account;
+import com.google.gerrit.extensions.api.GerritApi;
+import com.google.gerrit.extensions.api.changes.RevisionApi;
+import com.google.gerrit.extensions.client.ListChangesOption;
+import com.google.gerrit.extensions.common.ChangeInfo;
+import com.google.gerrit.extensions.common.CommitInfo;
+import com.google.gerrit.extensions.common.DiffInfo;
+import com.google.gerrit.extensions.common.FileInfo;
+import com.google.gerrit.extensions.common.RevisionInfo;
+import com.google.gerrit.server.account.AccountCache;
+import com.google.gerrit.server.account.AccountState;
+import com.google.gerrit.server.util.ManualRequestContext;
+import com.google.gerrit.server.util.OneOffRequestContext;
+import com.google.inject.Inject;
+import com.google.inject.Singleton;
+import com.googlesource.gerrit.plugins.chatgpt.config.Configuration;
+import lombok.extern.slf4j.Slf4j;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.EnumSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Calls the Java API of the Gerrit server the plugin runs in, as the account of {@code gerritUserName}, instead of
+ * its REST API over HTTP. This saves the connection, the authentication and the JSON round trip of every request.
+ * The calls run synchronously on the calling thread.
+ */
+@Slf4j
+@Singleton
+// Request contexts are only opened for the scope of the call
+@SuppressWarnings("try")
+public class GerritApiClient {
+    private final GerritApi gerritApi;
+    private final OneOffRequestContext requestContext;
+    private final AccountCache accountCache;
+    private final Set<String> unknownAccounts = ConcurrentHashMap.newKeySet();
+
+    @Inject
+    public GerritApiClient(GerritApi gerritApi, OneOffRequestContext requestContext, AccountCache accountCache) {
+        this.gerritApi = gerritApi;
+        this.requestContext = requestContext;
+        this.accountCache = accountCache;
+    }
+
+    /**
+     * Returns the account of {@code gerritUserName}, or empty when Gerrit does not know it, in which case the REST
+     * API is used.
+     */
+    public Optional<Account.Id> getAccount(Configuration config) {
+        String userName = config.getGerritUserName();
+        Optional<Account.Id> account = accountCache.getByUsername(userName)
+                .map(AccountState::account)
+                .map(Account::id);
+        if (account.isEmpty() && unknownAccounts.add(userName)) {
+            log.warn("Gerrit has no account {}, calling it over REST instead", userName);
+        }
+        return account;
+    }
+
+    /**
+     * Returns the patch of {@code patchSet}, or of the current patch set when it is null.
+     */
+    public PatchSetContent getPatchSetContent(Account.Id account, String fullChangeId, Integer patchSet,
+                                              long spillThreshold) throws Exception {
+        try (ManualRequestContext ignored = requestContext.openAs(account)) {
+            return PatchSetContent.write(revision(fullChangeId, patchSet).patch()::writeTo, spillThreshold);
+        }
+    }
+
+    public PatchSetRevision getCurrentRevision(Account.Id account, String fullChangeId) throws Exception {
+        ChangeInfo change;
+        try (ManualRequestContext ignored = requestContext.openAs(account)) {
+            change = gerritApi.changes().id(fullChangeId)
+                    .get(EnumSet.of(ListChangesOption.CURRENT_REVISION, ListChangesOption.CURRENT_COMMIT));
+        }
+        RevisionInfo revision = change.revisions == null ? null : change.revisions.get(change.currentRevision);
+        if (revision == null) {
+            throw new IOException("Gerrit returned no current revision of " + fullChangeId);
+        }
+        List<CommitInfo> parents = revision.commit == null ? null : revision.commit.parents;
+        return new PatchSetRevision(revision._number, change.currentRevision,
+                parents == null || parents.isEmpty() ? null : parents.get(0).commit);
+    }
+
+    /**
+     * Returns the files of the current patch set, or of {@code patchSet} against {@code basePatchSet} when both are
+     * given.
+     */
+    public Map<String, FileInfo> getFiles(Account.Id account, String fullChangeId, Integer patchSet,
+                                          Integer basePatchSet) throws Exception {
+        try (ManualRequestContext ignored = requestContext.openAs(account)) {
+            return basePatchSet == null
+                    ? revision(fullChangeId, patchSet).files()
+                    : revision(fullChangeId, patchSet).files(basePatchSet.toString());
+        }
+    }
+
+    /**
+     * Returns the diffs of {@code paths} in their order, see {@link #getFiles}.
+     */
+    public Map<String, DiffInfo> getFileDiffs(Account.Id account, String fullChangeId, Integer patchSet,
+                                              Integer basePatchSet, List<String> paths) throws Exception {
+        Map<String, DiffInfo> diffs = new LinkedHashMap<>();
+        try (ManualRequestContext ignored = requestContext.openAs(account)) {
+            RevisionApi revision = revision(fullChangeId, patchSet);
+            for (String path : paths) {
+                diffs.put(path, basePatchSet == null
+                        ? revision.file(path).diff()
+                        : revision.file(path).diffRequest().withBase(basePatchSet.toString()).get());
+            }
+        }
+        return diffs;
+    }
+
+    /**
+     * Posts the review on {@code patchSet}, or on the current patch set when it is null.
+     */
+    public void postReview(Account.Id account, String fullChangeId, Integer patchSet, ReviewInput reviewInput)
+            throws Exception {
+        try (ManualRequestContext ignored = requestContext.openAs(account)) {
+            revision(fullChangeId, patchSet).review(toGerritReviewInput(reviewInput));
+        }
+    }
+
+    private RevisionApi revision(String fullChangeId, Integer patchSet) throws Exception {
+        return patchSet == null
+                ? gerritApi.changes().id(fullChangeId).current()
+                : gerritApi.changes().id(fullChangeId).revision(patchSet);
+    }
+
+    private static com.google.gerrit.extensions.api.changes.ReviewInput toGerritReviewInput(ReviewInput reviewInput) {
+        com.google.gerrit.extensions.api.changes.ReviewInput gerritReviewInput =
+                new com.google.gerrit.extensions.api.changes.ReviewInput();
+        gerritReviewInput.message = reviewInput.getMessage();
+        if (reviewInput.getComments() != null) {
+            gerritReviewInput.comments = new LinkedHashMap<>();
+            reviewInput.getComments().forEach((path, comments) -> {
+                List<com.google.gerrit.extensions.api.changes.ReviewInput.CommentInput> fileComments =
+                        new ArrayList<>();
+                for (ReviewInput.CommentInput comment : comments) {
+                    com.google.gerrit.extensions.api.changes.ReviewInput.CommentInput commentInput =
+                            new com.google.gerrit.extensions.api.changes.ReviewInput.CommentInput();
+                    commentInput.line = comment.getLine();
+                    commentInput.message = comment.getMessage();
+                    fileComments.add(commentInput);
+                }
+                gerritReviewInput.comments.put(path, fileComments);
+            });
+        }
+        return gerritReviewInput;
+    }
+}
@@ -1,20 +1,44 @@
 package com.googlesource.gerrit.plugins.chatgpt.client;
 
 import com.google.common.net.HttpHeaders;
+import com.google.gerrit.entities.Account;
+import com.google.gerrit.extensions.common.DiffInfo;
+import com.google.gerrit.extensions.common.FileInfo;
+import com.google.gson.FieldNamingPolicy;
 import com.google.gson.Gson;
+import com.google.gson.GsonBuilder;
+import com.google.gson.annotations.SerializedName;
+import com.google.gson.reflect.TypeToken;
+import com.google.inject.Inject;
 import com.google.inject.Singleton;
 import com.googlesource.gerrit.plugins.chatgpt.config.Configuration;
+import com.googlesource.gerrit.plugins.chatgpt.metrics.ReviewMetrics;
+import lombok.Data;
 import lombok.extern.slf4j.Slf4j;
 import org.apache.http.entity.ContentType;
 
 import java.io.IOException;
+import java.io.InputStream;
+import java.lang.reflect.Type;
 import java.net.URI;
 import java.net.http.HttpRequest;
 import java.net.http.HttpResponse;
+import java.net.http.HttpTimeoutException;
 import java.nio.charset.StandardCharsets;
+import java.nio.file.FileSystems;
+import java.nio.file.Path;
+import java.nio.file.PathMatcher;
+import java.nio.file.Paths;
+import java.util.ArrayList;
 import java.util.Base64;
-import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
 import java.util.Map;
+import java.util.Optional;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.function.Function;
+import java.util.stream.Collectors;
 
 import static java.net.HttpURLConnection.HTTP_OK;
 
@@ -22,26 +46,360 @@ import static java.net.HttpURLConnection.HTTP_OK;
 @Singleton
 public class GerritClient {
     private final Gson gson = new Gson();
-    private final HttpClientWithRetry httpClientWithRetry = new HttpClientWithRetry();
+    private static final String GERRIT_JSON_PREFIX = ")]}'";
+    private static final String COMMIT_MSG_PATH = "/COMMIT_MSG";
+    private static final int MAX_PARALLEL_FILE_DIFFS = 8;
+    private static final long PATCH_SPILL_THRESHOLD = 1024 * 1024;
+    private static final Type FILES_TYPE = new TypeToken<Map<String, FileInfo>>() {}.getType();
+    private final Gson gerritGson = new GsonBuilder()
+            .setFieldNamingPolicy(FieldNamingPolicy.LOWER_CASE_WITH_UNDERSCORES)
+            .create();
+    private final HttpClientWithRetry httpClientWithRetry = new HttpClientWithRetry(RetryPolicy.forGerrit());
+    private final ReviewMetrics metrics;
+    private final GerritApiClient apiClient;
+
+    public GerritClient(ReviewMetrics metrics) {
+        this(metrics, null);
+    }
+
+    @Inject
+    public GerritClient(ReviewMetrics metrics, GerritApiClient apiClient) {
+        this.metrics = metrics;
+        this.apiClient = apiClient;
+    }
 
     public String getPatchSet(Configuration config, String fullChangeId) throws Exception {
-        HttpRequest request = HttpRequest.newBuilder()
+        try (PatchSetContent content = getPatchSetContent(config, fullChangeId)) {
+            return content.asString();
+        }
+    }
+
+    /**
+     * Downloads the patch and decodes it from base64 while it streams in, without holding the encoded body in
+     * memory. Patches above {@link #PATCH_SPILL_THRESHOLD} bytes are decoded into a temporary file.
+     */
+    public PatchSetContent getPatchSetContent(Configuration config, String fullChangeId) throws Exception {
+        return getPatchSetContent(config, fullChangeId, Deadline.afterSeconds(config.getPatchFetchTimeoutSeconds()));
+    }
+
+    public PatchSetContent getPatchSetContent(Configuration config, String fullChangeId, Deadline deadline)
+            throws Exception {
+        return getPatchSetContent(config, fullChangeId, null, deadline);
+    }
+
+    /**
+     * Downloads the patch of {@code patchSet}, or of the current patch set when it is null.
+     */
+    public PatchSetContent getPatchSetContent(Configuration config, String fullChangeId, Integer patchSet,
+                                              Deadline deadline) throws Exception {
+        Optional<Account.Id> account = inProcessAccount(config);
+        if (account.isPresent()) {
+            return apiClient.getPatchSetContent(account.get(), fullChangeId, patchSet, PATCH_SPILL_THRESHOLD);
+        }
+        HttpRequest request = deadline.applyTo(HttpRequest.newBuilder())
                 .header(HttpHeaders.AUTHORIZATION, generateBasicAuth(config.getGerritUserName(),
                         config.getGerritPassword()))
                 .uri(URI.create(config.getGerritAuthBaseUrl()
-                        + UriResourceLocator.gerritPatchSetUri(fullChangeId)))
+                        + UriResourceLocator.gerritPatchSetUri(fullChangeId, patchSet)))
+                .build();
+
+        HttpResponse<InputStream> response = HttpClientWithRetry.await(deadline.applyTo(
+                httpClientWithRetry.executeAsync(request, HttpResponse.BodyHandlers.ofInputStream(),
+                        countRetry(config)),
+                "Fetching the patch of " + fullChangeId));
+        try (InputStream body = response.body()) {
+            if (response.statusCode() != HTTP_OK) {
+                log.error("Failed to get patch. Response: {}", response);
+                throw new IOException("Failed to get patch from Gerrit");
+            }
+            log.info("Successfully obtained patch. Decoding response body.");
+            return readBefore(deadline, body, "Reading the patch of " + fullChangeId);
+        }
+    }
+
+    /**
+     * Decodes the patch from {@code body}. The request timeout ends with the response headers, so the deadline
+     * closes a body that stalls, which fails the read blocked on it.
+     */
+    private static PatchSetContent readBefore(Deadline deadline, InputStream body, String stage) throws IOException {
+        CompletableFuture<Void> read = deadline.applyTo(new CompletableFuture<>(), stage);
+        read.whenComplete((ignored, error) -> {
+            if (error != null) {
+                closeQuietly(body);
+            }
+        });
+        try {
+            PatchSetContent content = PatchSetContent.read(Base64.getDecoder().wrap(body), PATCH_SPILL_THRESHOLD);
+            read.complete(null);
+            return content;
+        } catch (IOException e) {
+            if (read.isCompletedExceptionally()) {
+                // Reports the timeout rather than the closed stream
+                HttpTimeoutException timeout = new HttpTimeoutException(stage + " timed out");
+                timeout.addSuppressed(e);
+                throw timeout;
+            }
+            read.complete(null);
+            throw e;
+        }
+    }
+
+    private static void closeQuietly(InputStream body) {
+        try {
+            body.close();
+        } catch (IOException e) {
+            log.debug("Failed to close the patch stream", e);
+        }
+    }
+
+    @Data
+    private static class ChangeRevisions {
+        private String currentRevision;
+        private Map<String, Revision> revisions;
+    }
+
+    @Data
+    private static class Revision {
+        @SerializedName("_number")
+        private int number;
+        private Commit commit;
+    }
+
+    @Data
+    private static class Commit {
+        private String commit;
+        private List<Commit> parents;
+    }
+
+    /**
+     * Looks up the number and the parent of the current patch set.
+     */
+    public PatchSetRevision getCurrentRevision(Configuration config, String fullChangeId, Deadline deadline)
+            throws Exception {
+        Optional<Account.Id> account = inProcessAccount(config);
+        if (account.isPresent()) {
+            return apiClient.getCurrentRevision(account.get(), fullChangeId);
+        }
+        ChangeRevisions change = HttpClientWithRetry.await(getJson(config,
+                UriResourceLocator.gerritCurrentRevisionUri(fullChangeId), ChangeRevisions.class, deadline));
+        Revision revision = change.getRevisions() == null
+                ? null
+                : change.getRevisions().get(change.getCurrentRevision());
+        if (revision == null) {
+            throw new IOException("Gerrit returned no current revision of " + fullChangeId);
+        }
+        List<Commit> parents = revision.getCommit() == null ? null : revision.getCommit().getParents();
+        return new PatchSetRevision(revision.getNumber(), change.getCurrentRevision(),
+                parents == null || parents.isEmpty() ? null : parents.get(0).getCommit());
+    }
+
+    public PatchSetDiff getPatchSetDiff(Configuration config, String fullChangeId) throws Exception {
+        return getPatchSetDiff(config, fullChangeId, Deadline.afterSeconds(config.getPatchFetchTimeoutSeconds()));
+    }
+
+    public PatchSetDiff getPatchSetDiff(Configuration config, String fullChangeId, Deadline deadline)
+            throws Exception {
+        return HttpClientWithRetry.await(getPatchSetDiffAsync(config, fullChangeId, deadline));
+    }
+
+    public CompletableFuture<PatchSetDiff> getPatchSetDiffAsync(Configuration config, String fullChangeId) {
+        return getPatchSetDiffAsync(config, fullChangeId,
+                Deadline.afterSeconds(config.getPatchFetchTimeoutSeconds()));
+    }
+
+    public CompletableFuture<PatchSetDiff> getPatchSetDiffAsync(Configuration config, String fullChangeId,
+                                                                Deadline deadline) {
+        return getPatchSetDiffAsync(config, fullChangeId, null, deadline);
+    }
+
+    public PatchSetDiff getPatchSetDiff(Configuration config, String fullChangeId, Integer patchSet,
+                                        Deadline deadline) throws Exception {
+        return HttpClientWithRetry.await(getPatchSetDiffAsync(config, fullChangeId, patchSet, deadline));
+    }
+
+    /**
+     * Fetches the file list of {@code patchSet}, or of the current patch set when it is null, and then the diffs of
+     * the files in parallel. Binary files and files matching the excluded globs are dropped before their diffs are
+     * downloaded.
+     */
+    public CompletableFuture<PatchSetDiff> getPatchSetDiffAsync(Configuration config, String fullChangeId,
+                                                                Integer patchSet, Deadline deadline) {
+        Optional<Account.Id> account = inProcessAccount(config);
+        if (account.isPresent()) {
+            return getPatchSetDiffInProcess(config, account.get(), fullChangeId, patchSet, null);
+        }
+        return getPatchSetDiffOverRest(config, UriResourceLocator.gerritFilesUri(fullChangeId, patchSet),
+                path -> UriResourceLocator.gerritFileDiffUri(fullChangeId, patchSet, path), deadline);
+    }
+
+    /**
+     * Fetches what changed from patch set {@code basePatchSet} to patch set {@code patchSet}, e.g. to review only what
+     * changed since the last review.
+     */
+    public PatchSetDiff getPatchSetDiff(Configuration config, String fullChangeId, int patchSet, int basePatchSet,
+                                        Deadline deadline) throws Exception {
+        Optional<Account.Id> account = inProcessAccount(config);
+        if (account.isPresent()) {
+            return HttpClientWithRetry.await(getPatchSetDiffInProcess(config, account.get(), fullChangeId, patchSet,
+                    basePatchSet));
+        }
+        return HttpClientWithRetry.await(getPatchSetDiffOverRest(config,
+                UriResourceLocator.gerritFilesUri(fullChangeId, patchSet, basePatchSet),
+                path -> UriResourceLocator.gerritFileDiffUri(fullChangeId, patchSet, basePatchSet, path), deadline));
+    }
+
+    private CompletableFuture<PatchSetDiff> getPatchSetDiffOverRest(Configuration config, String filesUri,
+                                                                    Function<String, String> fileDiffUri,
+                                                                    Deadline deadline) {
+        return this.<Map<String, FileInfo>>getJson(config, filesUri, FILES_TYPE, deadline)
+                .thenCompose(files -> {
+                    List<String> paths = selectFiles(config, files);
+                    log.info("Fetching the diffs of {} of {} files", paths.size(), files.size());
+                    return getFileDiffs(config, fileDiffUri, paths, deadline);
+                })
+                .thenApply(GerritClient::toPatchSetDiff);
+    }
+
+    /**
+     * Reads the file list and the diffs through the in-process API on the calling thread, so the returned future is
+     * already complete.
+     */
+    private CompletableFuture<PatchSetDiff> getPatchSetDiffInProcess(Configuration config, Account.Id account,
+                                                                     String fullChangeId, Integer patchSet,
+                                                                     Integer basePatchSet) {
+        try {
+            Map<String, FileInfo> files = apiClient.getFiles(account, fullChangeId, patchSet, basePatchSet);
+            List<String> paths = selectFiles(config, files);
+            log.info("Fetching the diffs of {} of {} files", paths.size(), files.size());
+            return CompletableFuture.completedFuture(toPatchSetDiff(
+                    apiClient.getFileDiffs(account, fullChangeId, patchSet, basePatchSet, paths)));
+        } catch (Exception e) {
+            return CompletableFuture.failedFuture(e);
+        }
+    }
+
+    private static PatchSetDiff toPatchSetDiff(Map<String, DiffInfo> diffs) {
+        String commitMessage = null;
+        List<PatchSetDiff.FileDiff> fileDiffs = new ArrayList<>();
+        for (Map.Entry<String, DiffInfo> diff : diffs.entrySet()) {
+            if (COMMIT_MSG_PATH.equals(diff.getKey())) {
+                commitMessage = newContent(diff.getValue());
+            } else {
+                fileDiffs.add(toFileDiff(diff.getValue()));
+            }
+        }
+        return PatchSetDiff.builder()
+                .commitMessage(commitMessage)
+                .files(fileDiffs)
+                .build();
+    }
+
+    private List<String> selectFiles(Configuration config, Map<String, FileInfo> files) {
+        List<PathMatcher> excludedFiles = config.getExcludedFiles().stream()
+                .map(glob -> FileSystems.getDefault().getPathMatcher("glob:" + glob))
+                .collect(Collectors.toList());
+        List<String> paths = new ArrayList<>();
+        files.forEach((path, fileInfo) -> {
+            if (path.startsWith("/") && !COMMIT_MSG_PATH.equals(path)) {
+                return;
+            }
+            if (Boolean.TRUE.equals(fileInfo.binary)) {
+                log.debug("Skipping binary file {}", path);
+                return;
+            }
+            Path filePath = Paths.get(path);
+            if (excludedFiles.stream().anyMatch(matcher -> matcher.matches(filePath))) {
+                log.debug("Skipping excluded file {}", path);
+                return;
+            }
+            paths.add(path);
+        });
+        return paths;
+    }
+
+    /**
+     * Downloads the diffs with at most {@link #MAX_PARALLEL_FILE_DIFFS} requests in flight. The result keeps the
+     * order of the file list.
+     */
+    private CompletableFuture<Map<String, DiffInfo>> getFileDiffs(Configuration config,
+                                                                  Function<String, String> fileDiffUri,
+                                                                  List<String> paths, Deadline deadline) {
+        List<CompletableFuture<DiffInfo>> diffs = new ArrayList<>();
+        for (int i = 0; i < paths.size(); i++) {
+            String path = paths.get(i);
+            CompletableFuture<?> previous = i < MAX_PARALLEL_FILE_DIFFS
+                    ? CompletableFuture.completedFuture(null)
+                    : diffs.get(i - MAX_PARALLEL_FILE_DIFFS);
+            // Starts when the request MAX_PARALLEL_FILE_DIFFS places earlier has finished, successfully or not
+            diffs.add(previous.handle((result, error) -> null)
+                    .thenCompose(ignored -> getJson(config, fileDiffUri.apply(path), DiffInfo.class, deadline)));
+        }
+        return CompletableFuture.allOf(diffs.toArray(new CompletableFuture<?>[0]))
+                .thenApply(ignored -> {
+                    Map<String, DiffInfo> diffsByPath = new LinkedHashMap<>();
+                    for (int i = 0; i < paths.size(); i++) {
+                        diffsByPath.put(paths.get(i), diffs.get(i).join());
+                    }
+                    return diffsByPath;
+                });
+    }
+
+    private static PatchSetDiff.FileDiff toFileDiff(DiffInfo diffInfo) {
+        return PatchSetDiff.FileDiff.builder()
+                .oldPath(diffInfo.metaA != null ? diffInfo.metaA.name : null)
+                .newPath(diffInfo.metaB != null ? diffInfo.metaB.name : null)
+                .hunks(PatchSetDiff.toHunks(diffInfo))
+                .build();
+    }
+
+    private static String newContent(DiffInfo diffInfo) {
+        StringBuilder content = new StringBuilder();
+        if (diffInfo.content != null) {
+            for (DiffInfo.ContentEntry entry : diffInfo.content) {
+                List<String> lines = entry.ab != null ? entry.ab : entry.b;
+                if (lines != null) {
+                    lines.forEach(line -> content.append(line).append('\n'));
+                }
+            }
+        }
+        return content.toString();
+    }
+
+    private <T> CompletableFuture<T> getJson(Configuration config, String uri, Type type, Deadline deadline) {
+        HttpRequest request = deadline.applyTo(HttpRequest.newBuilder())
+                .header(HttpHeaders.AUTHORIZATION, generateBasicAuth(config.getGerritUserName(),
+                        config.getGerritPassword()))
+                .uri(URI.create(config.getGerritAuthBaseUrl() + uri))
                 .build();
 
-        HttpResponse<String> response = httpClientWithRetry.execute(request);
+        return deadline.applyTo(httpClientWithRetry.executeAsync(request, HttpResponse.BodyHandlers.ofString(),
+                        countRetry(config)), "Fetching " + uri)
+                .thenApply(response -> {
+                    if (response.statusCode() != HTTP_OK) {
+                        log.error("Failed to get {}. Response: {}", uri, response);
+                        throw new CompletionException(new IOException("Failed to get " + uri + " from Gerrit"));
+                    }
+                    String body = response.body();
+                    // Gerrit prefixes JSON responses to prevent XSSI
+                    if (body.startsWith(GERRIT_JSON_PREFIX)) {
+                        body = body.substring(GERRIT_JSON_PREFIX.length());
+                    }
+                    return gerritGson.fromJson(body, type);
+                });
+    }
 
-        if (response.statusCode() != HTTP_OK) {
-            log.error("Failed to get patch. Response: {}", response);
-            throw new IOException("Failed to get patch from Gerrit");
+    /**
+     * Returns the account to call the in-process API as, or empty to call the REST API.
+     */
+    private Optional<Account.Id> inProcessAccount(Configuration config) {
+        if (apiClient == null || !config.isGerritInProcess()) {
+            return Optional.empty();
         }
+        return apiClient.getAccount(config);
+    }
 
-        String responseBody = response.body();
-        log.info("Successfully obtained patch. Decoding response body.");
-        return new String(Base64.getDecoder().decode(responseBody));
+    private Runnable countRetry(Configuration config) {
+        return () -> metrics.countRetry(ReviewMetrics.SERVICE_GERRIT, config);
     }
 
     private String generateBasicAuth(String username, String password) {
@@ -50,24 +408,70 @@ public class GerritClient {
     }
 
     public void postComment(Configuration config, String fullChangeId, String message) throws Exception {
-        Map<String, String> map = new HashMap<>();
-        map.put("message", message);
-        String json = gson.toJson(map);
+        postReview(config, fullChangeId, ReviewInput.builder().message(message).build());
+    }
+
+    public void postReview(Configuration config, String fullChangeId, ReviewInput reviewInput) throws Exception {
+        postReview(config, fullChangeId, reviewInput, Deadline.afterSeconds(config.getCommentPostTimeoutSeconds()));
+    }
+
+    public void postReview(Configuration config, String fullChangeId, ReviewInput reviewInput, Deadline deadline)
+            throws Exception {
+        postReview(config, fullChangeId, null, reviewInput, deadline);
+    }
+
+    public void postReview(Configuration config, String fullChangeId, Integer patchSet, ReviewInput reviewInput,
+                           Deadline deadline) throws Exception {
+        HttpClientWithRetry.await(postReviewAsync(config, fullChangeId, patchSet, reviewInput, deadline));
+    }
 
-        HttpRequest request = HttpRequest.newBuilder()
+    public CompletableFuture<Void> postReviewAsync(Configuration config, String fullChangeId,
+                                                   ReviewInput reviewInput) {
+        return postReviewAsync(config, fullChangeId, reviewInput,
+                Deadline.afterSeconds(config.getCommentPostTimeoutSeconds()));
+    }
+
+    public CompletableFuture<Void> postReviewAsync(Configuration config, String fullChangeId,
+                                                   ReviewInput reviewInput, Deadline deadline) {
+        return postReviewAsync(config, fullChangeId, null, reviewInput, deadline);
+    }
+
+    /**
+     * Posts the message and all inline comments of a review in a single request, on {@code patchSet} or on the
+     * current patch set when it is null. Inline comments belong to the patch set whose lines they refer to.
+     */
+    public CompletableFuture<Void> postReviewAsync(Configuration config, String fullChangeId, Integer patchSet,
+                                                   ReviewInput reviewInput, Deadline deadline) {
+        Optional<Account.Id> account = inProcessAccount(config);
+        if (account.isPresent()) {
+            try {
+                apiClient.postReview(account.get(), fullChangeId, patchSet, reviewInput);
+                return CompletableFuture.completedFuture(null);
+            } catch (Exception e) {
+                log.error("Review post failed for {}", fullChangeId, e);
+                return CompletableFuture.failedFuture(new IOException("Failed to post review to Gerrit", e));
+            }
+        }
+        String json = gson.toJson(reviewInput);
+
+        HttpRequest request = deadline.applyTo(HttpRequest.newBuilder())
                 .header(HttpHeaders.AUTHORIZATION, generateBasicAuth(config.getGerritUserName(),
                         config.getGerritPassword()))
                 .header(HttpHeaders.CONTENT_TYPE, ContentType.APPLICATION_JSON.toString())
                 .uri(URI.create(config.getGerritAuthBaseUrl()
-                        + UriResourceLocator.gerritCommentUri(fullChangeId)))
+                        + UriResourceLocator.gerritCommentUri(fullChangeId, patchSet)))
                 .POST(HttpRequest.BodyPublishers.ofString(json))
                 .build();
 
-        HttpResponse<String> response = httpClientWithRetry.execute(request);
-
-        if (response.statusCode() != HTTP_OK) {
-            log.error("Review post failed with status code: {}", response.statusCode());
-        }
+        return deadline.applyTo(httpClientWithRetry.executeAsync(request, HttpResponse.BodyHandlers.ofString(),
+                        countRetry(config)), "Posting the review of " + fullChangeId)
+                .thenAccept(response -> {
+                    if (response.statusCode() != HTTP_OK) {
+                        log.error("Review post failed with status code: {}, body: {}", response.statusCode(),
+                                response.body());
+                        throw new CompletionException(new IOException("Failed to post review to Gerrit"));
+                    }
+                });
     }
 
 }
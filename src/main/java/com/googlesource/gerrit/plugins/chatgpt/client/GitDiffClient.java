@@ -0,0 +1,182 @@
+package com.googlesource.gerrit.plugins.chatgpt.client;
+
+import com.google.gerrit.entities.Project;
+import com.google.gerrit.server.git.GitRepositoryManager;
+import com.google.inject.Inject;
+import com.google.inject.Singleton;
+import com.googlesource.gerrit.plugins.chatgpt.config.Configuration;
+import lombok.extern.slf4j.Slf4j;
+import org.eclipse.jgit.diff.DiffEntry;
+import org.eclipse.jgit.diff.DiffFormatter;
+import org.eclipse.jgit.diff.RawText;
+import org.eclipse.jgit.lib.AbbreviatedObjectId;
+import org.eclipse.jgit.lib.Constants;
+import org.eclipse.jgit.lib.FileMode;
+import org.eclipse.jgit.lib.ObjectId;
+import org.eclipse.jgit.lib.ObjectReader;
+import org.eclipse.jgit.lib.Repository;
+import org.eclipse.jgit.revwalk.RevCommit;
+import org.eclipse.jgit.revwalk.RevTree;
+import org.eclipse.jgit.revwalk.RevWalk;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.FileSystems;
+import java.nio.file.PathMatcher;
+import java.nio.file.Paths;
+import java.util.List;
+import java.util.stream.Collectors;
+
+/**
+ * Formats the diff of a patch set with JGit, straight from the repository of the project, into a
+ * {@link PatchSetContent}. Unlike the patch download, nothing is base64 encoded and no copy of the whole patch is
+ * built. Files above {@code gitDiffMaxFileBytes}, binary files, files matching {@code excludedFiles} and files whose
+ * diff exceeds {@code gitDiffMaxFileDiffBytes} are left out, so a single pathological file cannot fill the heap.
+ */
+@Slf4j
+@Singleton
+public class GitDiffClient {
+    private static final long PATCH_SPILL_THRESHOLD = 1024 * 1024;
+
+    private final GitRepositoryManager repoManager;
+
+    @Inject
+    public GitDiffClient(GitRepositoryManager repoManager) {
+        this.repoManager = repoManager;
+    }
+
+    /**
+     * Diffs the commit of the patch set against its first parent, or against the empty tree for a root commit.
+     */
+    public PatchSetContent getPatchSetContent(Configuration config, String fullChangeId, PatchSetRevision revision)
+            throws IOException {
+        try (Repository repo = repoManager.openRepository(Project.nameKey(config.getProjectName()));
+             RevWalk revWalk = new RevWalk(repo)) {
+            RevCommit commit = revWalk.parseCommit(ObjectId.fromString(revision.getCommit()));
+            RevTree parentTree = commit.getParentCount() > 0
+                    ? revWalk.parseCommit(commit.getParent(0)).getTree()
+                    : null;
+            return PatchSetContent.write(out -> format(config, fullChangeId, repo, revWalk.getObjectReader(),
+                    commit, parentTree, out), PATCH_SPILL_THRESHOLD);
+        }
+    }
+
+    private static void format(Configuration config, String fullChangeId, Repository repo, ObjectReader reader,
+                               RevCommit commit, RevTree parentTree, OutputStream out) throws IOException {
+        out.write((commit.getFullMessage().strip() + "\n\n").getBytes(StandardCharsets.UTF_8));
+
+        List<PathMatcher> excludedFiles = config.getExcludedFiles().stream()
+                .map(glob -> FileSystems.getDefault().getPathMatcher("glob:" + glob))
+                .collect(Collectors.toList());
+        FileDiffBuffer fileDiff = new FileDiffBuffer(config.getGitDiffMaxFileDiffBytes());
+        int formatted = 0;
+        int skipped = 0;
+        try (DiffFormatter formatter = new DiffFormatter(fileDiff)) {
+            formatter.setRepository(repo);
+            formatter.setBinaryFileThreshold(config.getGitDiffMaxFileBytes());
+            formatter.setDetectRenames(config.isGitDiffRenameDetection());
+            if (config.isGitDiffRenameDetection()) {
+                formatter.getRenameDetector().setRenameScore(config.getGitDiffRenameScore());
+            }
+            for (DiffEntry entry : formatter.scan(parentTree, commit.getTree())) {
+                String path = entry.getChangeType() == DiffEntry.ChangeType.DELETE
+                        ? entry.getOldPath()
+                        : entry.getNewPath();
+                if (excludedFiles.stream().anyMatch(matcher -> matcher.matches(Paths.get(path)))) {
+                    log.debug("Skipping excluded file {}", path);
+                    skipped++;
+                    continue;
+                }
+                if (isTooLarge(reader, entry.getOldMode(), entry.getOldId(), config.getGitDiffMaxFileBytes())
+                        || isTooLarge(reader, entry.getNewMode(), entry.getNewId(), config.getGitDiffMaxFileBytes())) {
+                    log.debug("Skipping file {} larger than {} bytes", path, config.getGitDiffMaxFileBytes());
+                    skipped++;
+                    continue;
+                }
+                if (isBinary(reader, entry.getOldMode(), entry.getOldId())
+                        || isBinary(reader, entry.getNewMode(), entry.getNewId())) {
+                    log.debug("Skipping binary file {}", path);
+                    skipped++;
+                    continue;
+                }
+                fileDiff.reset();
+                formatter.format(entry);
+                formatter.flush();
+                if (fileDiff.isOverflown()) {
+                    log.debug("Skipping file {} with a diff larger than {} bytes", path,
+                            config.getGitDiffMaxFileDiffBytes());
+                    skipped++;
+                    continue;
+                }
+                fileDiff.writeTo(out);
+                formatted++;
+            }
+        }
+        log.info("Formatted the diffs of {} files of changeId: {}, skipped {} files", formatted, fullChangeId,
+                skipped);
+    }
+
+    private static boolean isTooLarge(ObjectReader reader, FileMode mode, AbbreviatedObjectId id, long maxBytes)
+            throws IOException {
+        return isBlob(mode, id) && reader.getObjectSize(id.toObjectId(), Constants.OBJ_BLOB) > maxBytes;
+    }
+
+    private static boolean isBinary(ObjectReader reader, FileMode mode, AbbreviatedObjectId id) throws IOException {
+        if (!isBlob(mode, id)) {
+            return false;
+        }
+        // Only the beginning of the blob is read to tell text from binary
+        try (InputStream in = reader.open(id.toObjectId(), Constants.OBJ_BLOB).openStream()) {
+            return RawText.isBinary(in);
+        }
+    }
+
+    private static boolean isBlob(FileMode mode, AbbreviatedObjectId id) {
+        return mode.getObjectType() == Constants.OBJ_BLOB && id.isComplete()
+                && !ObjectId.zeroId().equals(id.toObjectId());
+    }
+
+    /**
+     * Holds the diff of one file up to a limit. Writes beyond the limit are dropped and the diff is marked as
+     * overflown, so it can be left out as a whole instead of being cut in the middle of a hunk.
+     */
+    private static class FileDiffBuffer extends ByteArrayOutputStream {
+        private final int limit;
+        private boolean overflown;
+
+        private FileDiffBuffer(int limit) {
+            this.limit = limit;
+        }
+
+        @Override
+        public synchronized void write(int b) {
+            if (count + 1 > limit) {
+                overflown = true;
+                return;
+            }
+            super.write(b);
+        }
+
+        @Override
+        public synchronized void write(byte[] b, int off, int len) {
+            if (count + len > limit) {
+                overflown = true;
+                return;
+            }
+            super.write(b, off, len);
+        }
+
+        @Override
+        public synchronized void reset() {
+            super.reset();
+            overflown = false;
+        }
+
+        private boolean isOverflown() {
+            return overflown;
+        }
+    }
+}
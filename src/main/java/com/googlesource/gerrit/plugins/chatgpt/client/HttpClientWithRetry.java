@@ -1,22 +1,32 @@
 package com.googlesource.gerrit.plugins.chatgpt.client;
 
-import com.github.rholder.retry.*;
 import com.google.inject.Singleton;
 import lombok.extern.slf4j.Slf4j;
 
+import java.io.IOException;
+import java.net.URI;
 import java.net.http.HttpClient;
 import java.net.http.HttpRequest;
 import java.net.http.HttpResponse;
 import java.time.Duration;
+import java.time.Instant;
+import java.util.Map;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.ExecutionException;
 import java.util.concurrent.TimeUnit;
+import java.util.function.BooleanSupplier;
 
 import static java.net.HttpURLConnection.HTTP_OK;
 
 @Singleton
 @Slf4j
 public class HttpClientWithRetry {
-    private final Retryer<HttpResponse<String>> retryer;
+    private final RetryPolicy retryPolicy;
+    // One breaker per endpoint, so an unhealthy endpoint does not affect the others
+    private final Map<String, CircuitBreaker> circuitBreakers = new ConcurrentHashMap<>();
 
     private final HttpClient httpClient = HttpClient.newBuilder()
             // Don't use default HttpClient.Version.HTTP_2 for some old inference servers
@@ -24,35 +34,167 @@ public class HttpClientWithRetry {
             .connectTimeout(Duration.ofMinutes(5))
             .build();
 
-    public HttpClientWithRetry() {
-        //Attention, 'com.github.rholder.retry.RetryListener' is marked unstable with @Beta annotation
-        RetryListener listener = new RetryListener() {
-            @Override
-            public <V> void onRetry(Attempt<V> attempt) {
-                if (attempt.hasException()) {
-                    log.error("Retry failed with exception: " + attempt.getExceptionCause());
+    public HttpClientWithRetry(RetryPolicy retryPolicy) {
+        this.retryPolicy = retryPolicy;
+    }
+
+    /**
+     * Blocks until the request succeeded or all attempts are used up.
+     * Interrupting the calling thread cancels the pending attempts.
+     */
+    public HttpResponse<String> execute(HttpRequest request) throws IOException, InterruptedException {
+        return execute(request, HttpResponse.BodyHandlers.ofString());
+    }
+
+    public <T> HttpResponse<T> execute(HttpRequest request, HttpResponse.BodyHandler<T> bodyHandler)
+            throws IOException, InterruptedException {
+        return await(executeAsync(request, bodyHandler));
+    }
+
+    /**
+     * Sends the request without blocking. Retryable failures are retried on a timer, so no thread is held while
+     * waiting. When the request cannot be retried, the future completes with the last response, or exceptionally
+     * with the last error. While the circuit breaker of the endpoint is open, the request is deferred until the
+     * breaker lets requests through again, or fails fast with {@link CircuitBreakerOpenException} if that is too far
+     * away.
+     */
+    public <T> CompletableFuture<HttpResponse<T>> executeAsync(HttpRequest request,
+                                                               HttpResponse.BodyHandler<T> bodyHandler) {
+        return executeAsync(request, bodyHandler, () -> {});
+    }
+
+    /**
+     * Like {@link #executeAsync(HttpRequest, HttpResponse.BodyHandler)}, running {@code onRetry} whenever a failed
+     * attempt is retried.
+     */
+    public <T> CompletableFuture<HttpResponse<T>> executeAsync(HttpRequest request,
+                                                               HttpResponse.BodyHandler<T> bodyHandler,
+                                                               Runnable onRetry) {
+        return executeAsync(request, bodyHandler, onRetry, () -> true);
+    }
+
+    /**
+     * Like {@link #executeAsync(HttpRequest, HttpResponse.BodyHandler, Runnable)}, retrying a failed attempt only
+     * while {@code mayRetry} holds, e.g. as long as a streaming body handler has not handed anything on yet.
+     */
+    public <T> CompletableFuture<HttpResponse<T>> executeAsync(HttpRequest request,
+                                                               HttpResponse.BodyHandler<T> bodyHandler,
+                                                               Runnable onRetry, BooleanSupplier mayRetry) {
+        CompletableFuture<HttpResponse<T>> result = new CompletableFuture<>();
+        attempt(request, bodyHandler, onRetry, mayRetry, 1, result);
+        return result;
+    }
+
+    /**
+     * Waits for an asynchronous result, unwrapping its failure into an {@link IOException}.
+     */
+    public static <T> T await(CompletableFuture<T> future) throws IOException, InterruptedException {
+        try {
+            return future.get();
+        } catch (InterruptedException e) {
+            future.cancel(true);
+            throw e;
+        } catch (CancellationException e) {
+            throw new InterruptedException("Request was cancelled");
+        } catch (ExecutionException e) {
+            Throwable cause = e.getCause() instanceof CompletionException ? e.getCause().getCause() : e.getCause();
+            if (cause instanceof IOException) {
+                throw (IOException) cause;
+            }
+            throw new IOException(cause);
+        }
+    }
+
+    private <T> void attempt(HttpRequest request, HttpResponse.BodyHandler<T> bodyHandler, Runnable onRetry,
+                             BooleanSupplier mayRetry, int attemptNumber, CompletableFuture<HttpResponse<T>> result) {
+        if (result.isDone()) {
+            return;
+        }
+        String endpoint = endpointOf(request.uri());
+        CircuitBreaker circuitBreaker = circuitBreakerFor(request.uri());
+        if (!circuitBreaker.tryAcquire()) {
+            Instant retryAt = circuitBreaker.getRetryAt();
+            Duration wait = Duration.between(Instant.now(), retryAt);
+            if (attemptNumber >= retryPolicy.getMaxAttempts() || wait.compareTo(retryPolicy.getMaxDelay()) > 0) {
+                result.completeExceptionally(new CircuitBreakerOpenException(endpoint, retryAt));
+                return;
+            }
+            log.info("Circuit breaker of {} is open, deferring request by {}", endpoint, wait);
+            schedule(wait, () -> attempt(request, bodyHandler, onRetry, mayRetry, attemptNumber + 1, result));
+            return;
+        }
+
+        CompletableFuture<HttpResponse<T>> sent = httpClient.sendAsync(request, bodyHandler);
+        result.whenComplete((response, error) -> sent.cancel(true));
+        sent.whenComplete((response, error) -> {
+            boolean retryable;
+            if (error != null) {
+                retryable = retryPolicy.isRetryable(error);
+                if (retryable) {
+                    circuitBreaker.recordFailure(null);
+                } else {
+                    circuitBreaker.abandonProbe();
+                }
+            } else {
+                if (retryPolicy.isEndpointFailure(response.statusCode())) {
+                    circuitBreaker.recordFailure(retryPolicy.serverHint(response.headers()).orElse(null));
+                } else if (response.statusCode() < 400) {
+                    circuitBreaker.recordSuccess();
+                } else {
+                    // A rejected request says nothing about the health of the endpoint
+                    circuitBreaker.abandonProbe();
+                }
+                if (response.statusCode() == HTTP_OK) {
+                    result.complete(response);
+                    return;
+                }
+                retryable = retryPolicy.isRetryable(response.statusCode());
+            }
+
+            if (!retryable || attemptNumber >= retryPolicy.getMaxAttempts() || !mayRetry.getAsBoolean()) {
+                if (error != null) {
+                    result.completeExceptionally(error);
+                } else {
+                    result.complete(response);
                 }
+                return;
             }
-        };
 
-        this.retryer = RetryerBuilder.<HttpResponse<String>>newBuilder()
-                .retryIfException()
-                .retryIfResult(response -> {
-                    if (response.statusCode() != HTTP_OK) {
-                        log.error("Retry because HTTP status code is not 200. The status code is: " + response.statusCode());
-                        return true;
-                    } else {
-                        return false;
-                    }
-                }).withWaitStrategy(WaitStrategies.fixedWait(20, TimeUnit.SECONDS))
-                .withStopStrategy(StopStrategies.stopAfterAttempt(5))
-                .withRetryListener(listener)
-                .build();
+            Duration delay = retryPolicy.delayBeforeAttempt(attemptNumber + 1, response);
+            if (error != null) {
+                log.error("Retrying {} in {} after exception: {}", endpoint, delay, error.toString());
+            } else {
+                log.error("Retrying {} in {} because HTTP status code is not 200. The status code is: {}",
+                        endpoint, delay, response.statusCode());
+                closeBody(response);
+            }
+            onRetry.run();
+            schedule(delay, () -> attempt(request, bodyHandler, onRetry, mayRetry, attemptNumber + 1, result));
+        });
     }
 
-    public HttpResponse<String> execute(HttpRequest request) throws ExecutionException, RetryException {
-        return retryer.call(() -> httpClient.send(request, HttpResponse.BodyHandlers.ofString()));
+    private CircuitBreaker circuitBreakerFor(URI uri) {
+        return circuitBreakers.computeIfAbsent(endpointOf(uri), endpoint -> new CircuitBreaker(endpoint,
+                retryPolicy.getFailureThreshold(), retryPolicy.getOpenDuration()));
     }
 
-}
+    private static String endpointOf(URI uri) {
+        return uri.getScheme() + "://" + uri.getAuthority();
+    }
+
+    private static void schedule(Duration delay, Runnable task) {
+        CompletableFuture.delayedExecutor(Math.max(0, delay.toMillis()), TimeUnit.MILLISECONDS).execute(task);
+    }
 
+    private static void closeBody(HttpResponse<?> response) {
+        // Streamed bodies hold the connection until they are closed
+        if (response.body() instanceof AutoCloseable) {
+            try {
+                ((AutoCloseable) response.body()).close();
+            } catch (Exception e) {
+                log.debug("Failed to close response body", e);
+            }
+        }
+    }
+
+}
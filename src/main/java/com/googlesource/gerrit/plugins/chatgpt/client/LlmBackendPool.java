@@ -0,0 +1,156 @@
+package com.googlesource.gerrit.plugins.chatgpt.client;
+
+import com.googlesource.gerrit.plugins.chatgpt.config.BackendSelection;
+import com.googlesource.gerrit.plugins.chatgpt.config.Configuration;
+import com.googlesource.gerrit.plugins.chatgpt.config.GptBackend;
+import lombok.extern.slf4j.Slf4j;
+
+import java.time.Clock;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.Set;
+import java.util.stream.Collectors;
+
+/**
+ * Spreads completions over the configured backends and keeps track of their health. A backend that failed with a
+ * timeout, a connection error or a server error is left out for a while, longer with every failure in a row, and
+ * gets requests again once that time is over. When every remaining backend is left out, the one that is due back
+ * first is used anyway, so completions never stop while any backend might answer.
+ */
+@Slf4j
+public class LlmBackendPool {
+    private static final Duration BASE_EJECTION = Duration.ofSeconds(10);
+    private static final Duration MAX_EJECTION = Duration.ofMinutes(5);
+
+    private final Clock clock;
+    private final Map<GptBackend, BackendState> states = new HashMap<>();
+    private int nextTieBreak;
+
+    public LlmBackendPool(Clock clock) {
+        this.clock = clock;
+    }
+
+    private static class BackendState {
+        private int outstanding;
+        private int consecutiveFailures;
+        private Instant ejectedUntil = Instant.MIN;
+        // Smooth weighted round-robin, see selectRoundRobin
+        private long currentWeight;
+    }
+
+    /**
+     * Returns the backends that serve the model of {@code config}, which is empty when no backend does.
+     */
+    public static List<GptBackend> backendsOf(Configuration config) {
+        List<GptBackend> backends = config.getGptBackends();
+        if (backends == null || backends.isEmpty()) {
+            return List.of(GptBackend.of(config.getGptDomain()));
+        }
+        return backends.stream()
+                .filter(backend -> backend.serves(config.getGptModel()))
+                .collect(Collectors.toList());
+    }
+
+    /**
+     * Picks a backend that is not in {@code excluded} and counts a request in flight on it. Returns empty when every
+     * backend is excluded.
+     */
+    public synchronized Optional<GptBackend> select(Configuration config, Set<GptBackend> excluded) {
+        List<GptBackend> candidates = new ArrayList<>();
+        for (GptBackend backend : backendsOf(config)) {
+            if (!excluded.contains(backend)) {
+                candidates.add(backend);
+            }
+        }
+        if (candidates.isEmpty()) {
+            return Optional.empty();
+        }
+        Instant now = clock.instant();
+        List<GptBackend> healthy = new ArrayList<>();
+        GptBackend dueFirst = null;
+        for (GptBackend backend : candidates) {
+            Instant ejectedUntil = state(backend).ejectedUntil;
+            if (!ejectedUntil.isAfter(now)) {
+                healthy.add(backend);
+            } else if (dueFirst == null || ejectedUntil.isBefore(state(dueFirst).ejectedUntil)) {
+                dueFirst = backend;
+            }
+        }
+
+        GptBackend selected;
+        if (healthy.isEmpty()) {
+            selected = dueFirst;
+        } else if (config.getGptBackendSelection() == BackendSelection.ROUND_ROBIN) {
+            selected = selectRoundRobin(healthy);
+        } else {
+            selected = selectLeastOutstanding(healthy);
+        }
+        state(selected).outstanding++;
+        return Optional.of(selected);
+    }
+
+    /**
+     * Ends a request on {@code backend}. A backend that answered at all counts as healthy, even if the answer was
+     * an error, because another backend would not answer a bad request any better.
+     */
+    public synchronized void release(GptBackend backend, boolean unavailable) {
+        BackendState state = state(backend);
+        state.outstanding = Math.max(0, state.outstanding - 1);
+        if (!unavailable) {
+            state.consecutiveFailures = 0;
+            state.ejectedUntil = Instant.MIN;
+            return;
+        }
+        state.consecutiveFailures++;
+        Duration ejection = BASE_EJECTION.multipliedBy(1L << Math.min(state.consecutiveFailures - 1, 16));
+        if (ejection.compareTo(MAX_EJECTION) > 0) {
+            ejection = MAX_EJECTION;
+        }
+        state.ejectedUntil = clock.instant().plus(ejection);
+        log.warn("Backend {} is unavailable, leaving it out for {}", backend, ejection);
+    }
+
+    private GptBackend selectLeastOutstanding(List<GptBackend> healthy) {
+        // Starts at a different backend each time, so idle backends with equal weights take turns
+        int offset = Math.floorMod(nextTieBreak++, healthy.size());
+        GptBackend selected = null;
+        double lowestLoad = Double.MAX_VALUE;
+        for (int i = 0; i < healthy.size(); i++) {
+            GptBackend backend = healthy.get((offset + i) % healthy.size());
+            double load = (state(backend).outstanding + 1) / (double) backend.getWeight();
+            if (load < lowestLoad) {
+                lowestLoad = load;
+                selected = backend;
+            }
+        }
+        return selected;
+    }
+
+    /**
+     * Every backend gains its weight, the backend with the most is selected and pays back the total weight. This
+     * spreads the turns of a heavy backend instead of running them back to back.
+     */
+    private GptBackend selectRoundRobin(List<GptBackend> healthy) {
+        long totalWeight = 0;
+        GptBackend selected = null;
+        for (GptBackend backend : healthy) {
+            BackendState state = state(backend);
+            state.currentWeight += backend.getWeight();
+            totalWeight += backend.getWeight();
+            if (selected == null || state.currentWeight > state(selected).currentWeight) {
+                selected = backend;
+            }
+        }
+        state(selected).currentWeight -= totalWeight;
+        return selected;
+    }
+
+    private BackendState state(GptBackend backend) {
+        return states.computeIfAbsent(backend, ignored -> new BackendState());
+    }
+}
@@ -2,54 +2,301 @@ package com.googlesource.gerrit.plugins.chatgpt.client;
 
 import com.google.common.net.HttpHeaders;
 import com.google.gson.Gson;
+import com.google.inject.Inject;
 import com.google.inject.Singleton;
 import com.googlesource.gerrit.plugins.chatgpt.config.Configuration;
+import com.googlesource.gerrit.plugins.chatgpt.config.GptBackend;
+import com.googlesource.gerrit.plugins.chatgpt.metrics.ReviewMetrics;
 import lombok.extern.slf4j.Slf4j;
 import org.apache.http.entity.ContentType;
 
-import java.io.BufferedReader;
 import java.io.IOException;
-import java.io.StringReader;
 import java.net.URI;
 import java.net.http.HttpRequest;
 import java.net.http.HttpResponse;
+import java.net.http.HttpTimeoutException;
+import java.nio.charset.StandardCharsets;
+import java.time.Clock;
+import java.time.Duration;
+import java.util.HashSet;
 import java.util.List;
+import java.util.Map;
 import java.util.Optional;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.function.Consumer;
+
+import static java.net.HttpURLConnection.HTTP_OK;
 
 @Slf4j
 @Singleton
 public class OpenAiClient {
     private final Gson gson = new Gson();
-    private final HttpClientWithRetry httpClientWithRetry = new HttpClientWithRetry();
+    private final RetryPolicy retryPolicy = RetryPolicy.forLlm();
+    private final HttpClientWithRetry httpClientWithRetry = new HttpClientWithRetry(retryPolicy);
+    // With several backends, a failing backend is retried less, since the request can fail over to another one
+    private final HttpClientWithRetry pooledHttpClientWithRetry = new HttpClientWithRetry(RetryPolicy.forLlmBackend());
+    private final LlmBackendPool backendPool = new LlmBackendPool(Clock.systemUTC());
+    private final ChatCompletionStreamParser streamParser = new ChatCompletionStreamParser();
+    // Every backend has quotas of its own, by domain
+    private final Map<String, OpenAiRateLimiter> rateLimiters = new ConcurrentHashMap<>();
+    private final ReviewMetrics metrics;
+
+    @Inject
+    public OpenAiClient(ReviewMetrics metrics) {
+        this.metrics = metrics;
+    }
 
     public String ask(Configuration config, String patchSet) throws Exception {
-        HttpRequest request = createRequest(config, patchSet);
+        return ask(config, patchSet, delta -> {});
+    }
+
+    /**
+     * Hands every content delta to {@code deltaConsumer} as soon as it arrives.
+     * Without streaming output the whole content is handed over at once.
+     */
+    public String ask(Configuration config, String patchSet, Consumer<String> deltaConsumer) throws Exception {
+        return HttpClientWithRetry.await(askAsync(config, patchSet, deltaConsumer));
+    }
+
+    public CompletableFuture<String> askAsync(Configuration config, String patchSet) {
+        return askAsync(config, patchSet, delta -> {});
+    }
+
+    public CompletableFuture<String> askAsync(Configuration config, String patchSet, Consumer<String> deltaConsumer) {
+        return askAsync(config, patchSet, deltaConsumer, Deadline.afterSeconds(config.getGptTimeoutSeconds()));
+    }
+
+    /**
+     * Sends the completion to one of the backends of {@code config}. When the backend turns out to be unavailable
+     * before it sent any content, or sends no content within {@code gptFirstTokenTimeoutSeconds}, the completion
+     * fails over to another backend. Every request waits for the rate limits of the backend it is sent to. The
+     * completion fails when it is not done by {@code deadline}.
+     */
+    public CompletableFuture<String> askAsync(Configuration config, String patchSet, Consumer<String> deltaConsumer,
+                                              Deadline deadline) {
+        long start = System.nanoTime();
+        int promptTokens = TokenEstimator.estimatePrompt(config.getGptPrompt(), patchSet);
+        Consumer<String> timedDeltaConsumer = recordFirstDelta(config, start, deltaConsumer);
+        CompletableFuture<String> completion = deadline.applyTo(new CompletableFuture<>(), "Completion");
+        if (!trySend(config, patchSet, promptTokens, timedDeltaConsumer, deadline, new HashSet<>(), completion)) {
+            completion.completeExceptionally(new IOException("No backend serves model " + config.getGptModel()));
+        }
+        // The completion itself is returned, so cancelling it still cancels the request
+        completion.whenComplete((content, error) ->
+                metrics.recordLlmLatency(config, error == null, System.nanoTime() - start));
+        return completion;
+    }
 
-        HttpResponse<String> response = httpClientWithRetry.execute(request);
+    private Consumer<String> recordFirstDelta(Configuration config, long start, Consumer<String> deltaConsumer) {
+        AtomicBoolean firstDelta = new AtomicBoolean(true);
+        return delta -> {
+            if (!delta.isEmpty() && firstDelta.compareAndSet(true, false)) {
+                metrics.recordLlmTimeToFirstToken(config, System.nanoTime() - start);
+            }
+            deltaConsumer.accept(delta);
+        };
+    }
 
-        String body = response.body();
-        if (body == null) {
-            throw new IOException("responseBody is null");
+    private boolean trySend(Configuration config, String patchSet, int promptTokens, Consumer<String> deltaConsumer,
+                            Deadline deadline, Set<GptBackend> tried, CompletableFuture<String> completion) {
+        if (completion.isDone()) {
+            return true;
         }
+        Optional<GptBackend> selected = backendPool.select(config, tried);
+        if (selected.isEmpty()) {
+            return false;
+        }
+        GptBackend backend = selected.get();
+        tried.add(backend);
+        Duration wait = rateLimiter(backend).reserve(config, reservedTokens(config, promptTokens));
+        Runnable send = () -> sendTo(config, backend, patchSet, promptTokens, deltaConsumer, deadline, tried,
+                completion);
+        if (wait.isZero()) {
+            send.run();
+        } else {
+            CompletableFuture.delayedExecutor(wait.toMillis(), TimeUnit.MILLISECONDS).execute(send);
+        }
+        return true;
+    }
 
-        StringBuilder finalContent = new StringBuilder();
-        try (BufferedReader reader = new BufferedReader(new StringReader(body))) {
-            String line;
-            while ((line = reader.readLine()) != null) {
-                extractContentFromLine(line).ifPresent(finalContent::append);
+    private void sendTo(Configuration config, GptBackend backend, String patchSet, int promptTokens,
+                        Consumer<String> deltaConsumer, Deadline deadline, Set<GptBackend> tried,
+                        CompletableFuture<String> completion) {
+        if (completion.isDone()) {
+            // E.g. timed out while waiting for the rate limit
+            backendPool.release(backend, false);
+            return;
+        }
+        // Content that reached the consumer cannot be taken back, so only a backend that sent nothing fails over
+        AtomicBoolean streamed = new AtomicBoolean();
+        Consumer<String> streamedDeltaConsumer = delta -> {
+            if (!delta.isEmpty()) {
+                streamed.set(true);
             }
+            deltaConsumer.accept(delta);
+        };
+        CompletableFuture<HttpResponse<String>> response;
+        try {
+            response = send(config, backend, patchSet, promptTokens, streamedDeltaConsumer, streamed, deadline);
+        } catch (RuntimeException e) {
+            // E.g. a missing token, which no other backend can make up for
+            backendPool.release(backend, false);
+            completion.completeExceptionally(e);
+            return;
+        }
+        completion.whenComplete((content, error) -> response.cancel(true));
+        if (config.isGptStreamOutput() && config.getGptFirstTokenTimeoutSeconds() > 0) {
+            failWithoutContent(response, streamed, backend, config.getGptFirstTokenTimeoutSeconds());
         }
+        response.handle((result, error) -> {
+                    if (error != null) {
+                        throw new CompletionException(new BackendUnavailableException(backend, unwrap(error)));
+                    }
+                    return toContent(config, backend, result, promptTokens, streamedDeltaConsumer);
+                })
+                .whenComplete((content, error) -> {
+                    Throwable cause = error == null ? null : unwrap(error);
+                    // A request cancelled because the completion is already done says nothing about the backend
+                    boolean unavailable = cause instanceof BackendUnavailableException && !completion.isDone();
+                    backendPool.release(backend, unavailable);
+                    if (error == null) {
+                        completion.complete(content);
+                        return;
+                    }
+                    if (unavailable && !streamed.get() && !completion.isDone()) {
+                        log.warn("{}, trying another backend", cause.getMessage());
+                        if (trySend(config, patchSet, promptTokens, deltaConsumer, deadline, tried, completion)) {
+                            metrics.countRetry(ReviewMetrics.SERVICE_LLM, config);
+                            return;
+                        }
+                    }
+                    // Without another backend, callers see the failure as it was before the pool
+                    completion.completeExceptionally(unavailable && cause.getCause() != null
+                            ? cause.getCause()
+                            : cause);
+                });
+    }
 
-        return finalContent.toString();
+    /**
+     * Fails the response of a backend that streams no content within {@code seconds}, which cancels the request.
+     */
+    private static void failWithoutContent(CompletableFuture<HttpResponse<String>> response, AtomicBoolean streamed,
+                                           GptBackend backend, int seconds) {
+        Deadline.runUnlessDone(response, Duration.ofSeconds(seconds), () -> {
+            if (!streamed.get()) {
+                response.completeExceptionally(new HttpTimeoutException(
+                        "No content from backend " + backend + " within " + seconds + " seconds"));
+            }
+        });
     }
 
-    private HttpRequest createRequest(Configuration config, String patchSet) {
+    private CompletableFuture<HttpResponse<String>> send(Configuration config, GptBackend backend, String patchSet,
+                                                         int promptTokens, Consumer<String> deltaConsumer,
+                                                         AtomicBoolean streamed, Deadline deadline) {
+        // A stream starts with its headers, a complete response only once the completion is done
+        Deadline requestDeadline = config.isGptStreamOutput()
+                ? deadline.stage(config.getGptFirstTokenTimeoutSeconds())
+                : deadline;
+        HttpRequest request = createRequest(config, backend, patchSet, requestDeadline);
+        HttpClientWithRetry client = LlmBackendPool.backendsOf(config).size() > 1
+                ? pooledHttpClientWithRetry
+                : httpClientWithRetry;
+        Runnable onRetry = () -> {
+            metrics.countRetry(ReviewMetrics.SERVICE_LLM, config);
+            rateLimiter(backend).charge(config, reservedTokens(config, promptTokens));
+        };
+        if (!config.isGptStreamOutput()) {
+            return client.executeAsync(request, HttpResponse.BodyHandlers.ofString(), onRetry);
+        }
+        // A stream that broke off after some content is not retried, the retry would hand the content on again
+        return client.executeAsync(request, responseInfo -> createStreamSubscriber(responseInfo, deltaConsumer),
+                onRetry, () -> !streamed.get());
+    }
+
+    private HttpResponse.BodySubscriber<String> createStreamSubscriber(HttpResponse.ResponseInfo responseInfo,
+                                                                       Consumer<String> deltaConsumer) {
+        if (responseInfo.statusCode() != HTTP_OK) {
+            return HttpResponse.BodySubscribers.ofString(StandardCharsets.UTF_8);
+        }
+        // Lines are parsed as they arrive, the event stream itself is never buffered
+        return HttpResponse.BodySubscribers.fromLineSubscriber(
+                new ChatCompletionLineSubscriber(streamParser, deltaConsumer),
+                ChatCompletionLineSubscriber::getContent, StandardCharsets.UTF_8, null);
+    }
+
+    private String toContent(Configuration config, GptBackend backend, HttpResponse<String> response,
+                             int promptTokens, Consumer<String> deltaConsumer) {
+        if (config.isGptStreamOutput()) {
+            String content = validate(backend, response).body();
+            // Streamed completions do not report their usage
+            metrics.countTokens(config, promptTokens, TokenEstimator.estimate(content));
+            return content;
+        }
+        String content = extractContent(config, backend, response, promptTokens);
+        deltaConsumer.accept(content);
+        return content;
+    }
+
+    private String extractContent(Configuration config, GptBackend backend, HttpResponse<String> response,
+                                  int promptTokens) {
+        String body = validate(backend, response).body();
+        ChatCompletionResponse chatCompletionResponse = gson.fromJson(body, ChatCompletionResponse.class);
+        ChatCompletionResponse.Usage usage = chatCompletionResponse.getUsage();
+        if (chatCompletionResponse.getChoices() == null || chatCompletionResponse.getChoices().isEmpty()
+                || chatCompletionResponse.getChoices().get(0).getMessage() == null) {
+            throw new CompletionException(new IOException("Completion contains no message"));
+        }
+        String content = chatCompletionResponse.getChoices().get(0).getMessage().getContent();
+        content = content == null ? "" : content;
+        if (usage != null) {
+            metrics.countTokens(config, usage.getPromptTokens(), usage.getCompletionTokens());
+        } else {
+            metrics.countTokens(config, promptTokens, TokenEstimator.estimate(content));
+        }
+        return content;
+    }
+
+    private OpenAiRateLimiter rateLimiter(GptBackend backend) {
+        return rateLimiters.computeIfAbsent(backend.getDomain(), ignored -> new OpenAiRateLimiter(Clock.systemUTC()));
+    }
+
+    private HttpResponse<String> validate(GptBackend backend, HttpResponse<String> response) {
+        rateLimiter(backend).syncWithServer(response.headers());
+        if (response.statusCode() != HTTP_OK) {
+            log.error("Completion failed. Response: {}, body: {}", response, response.body());
+            IOException failure = new IOException("Failed to get completion from " + response.uri());
+            if (retryPolicy.isEndpointFailure(response.statusCode())) {
+                throw new CompletionException(new BackendUnavailableException(backend, failure));
+            }
+            throw new CompletionException(failure);
+        }
+        if (response.body() == null) {
+            throw new CompletionException(new IOException("responseBody is null"));
+        }
+        return response;
+    }
+
+    private static int reservedTokens(Configuration config, int promptTokens) {
+        return promptTokens + TokenEstimator.estimateCompletion(config.getGptMaxTokens());
+    }
+
+    private static Throwable unwrap(Throwable error) {
+        return error instanceof CompletionException && error.getCause() != null ? error.getCause() : error;
+    }
+
+    private HttpRequest createRequest(Configuration config, GptBackend backend, String patchSet, Deadline deadline) {
         String requestBody = createRequestBody(config, patchSet);
+        String token = backend.getToken() != null ? backend.getToken() : config.getGptToken();
 
-        return HttpRequest.newBuilder()
-                .header(HttpHeaders.AUTHORIZATION, "Bearer " + config.getGptToken())
+        return deadline.applyTo(HttpRequest.newBuilder())
+                .header(HttpHeaders.AUTHORIZATION, "Bearer " + token)
                 .header(HttpHeaders.CONTENT_TYPE, ContentType.APPLICATION_JSON.toString())
-                .uri(URI.create(URI.create(config.getGptDomain()) + UriResourceLocator.chatCompletionsUri()))
+                .uri(URI.create(URI.create(backend.getDomain()) + UriResourceLocator.chatCompletionsUri()))
                 .POST(HttpRequest.BodyPublishers.ofString(requestBody))
                 .build();
     }
@@ -70,22 +317,22 @@ public class OpenAiClient {
                 .model(config.getGptModel())
                 .messages(messages)
                 .temperature(config.getGptTemperature())
-                .stream(true)
+                .maxTokens(config.getGptMaxTokens() > 0 ? config.getGptMaxTokens() : null)
+                .stream(config.isGptStreamOutput())
                 .build();
 
         return gson.toJson(chatCompletionRequest);
     }
 
-    private Optional<String> extractContentFromLine(String line) {
-        String dataPrefix = "data: {\"id\"";
+    /**
+     * A backend that did not answer, or answered with a server error or a rate limit. The cause is the failure
+     * the caller would have seen without a pool.
+     */
+    private static class BackendUnavailableException extends IOException {
+        private static final long serialVersionUID = 1L;
 
-        if (!line.startsWith(dataPrefix)) {
-            return Optional.empty();
+        BackendUnavailableException(GptBackend backend, Throwable cause) {
+            super(String.format("Completion failed on backend %s: %s", backend, cause), cause);
         }
-        ChatCompletionResponse chatCompletionResponse =
-                gson.fromJson(line.substring("data: ".length()), ChatCompletionResponse.class);
-        String content = chatCompletionResponse.getChoices().get(0).getDelta().getContent();
-        return Optional.ofNullable(content);
     }
-
-}
\ No newline at end of file
+}
@@ -0,0 +1,114 @@
+package com.googlesource.gerrit.plugins.chatgpt.client;
+
+import com.googlesource.gerrit.plugins.chatgpt.config.Configuration;
+import lombok.extern.slf4j.Slf4j;
+
+import java.net.http.HttpHeaders;
+import java.time.Clock;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+
+/**
+ * Admits completion requests against the requests-per-minute and tokens-per-minute quotas of the organization,
+ * and against the optional sub-budgets of each project. Every request sent is charged, retries included, with the
+ * tokens of its prompt and of its answer.
+ */
+@Slf4j
+public class OpenAiRateLimiter {
+    private static final String GLOBAL_BUDGET = "";
+
+    private final Map<String, TokenBucket> requestBuckets = new HashMap<>();
+    private final Map<String, TokenBucket> tokenBuckets = new HashMap<>();
+    private final Clock clock;
+
+    public OpenAiRateLimiter(Clock clock) {
+        this.clock = clock;
+    }
+
+    /**
+     * Reserves one request and {@code estimatedTokens} tokens and returns how long the caller has to wait before
+     * sending the request.
+     */
+    public synchronized Duration reserve(Configuration config, int estimatedTokens) {
+        Duration wait = charge(config, estimatedTokens);
+        if (!wait.isZero()) {
+            log.info("Rate limit reached, delaying completion of project {} by {}", config.getProjectName(), wait);
+        }
+        return wait;
+    }
+
+    /**
+     * Charges one request and {@code estimatedTokens} tokens for a request that is sent regardless, e.g. a retry
+     * whose delay is decided by the retry policy. Returns how long a request would have had to wait, which the
+     * requests reserved after it make up for.
+     */
+    public synchronized Duration charge(Configuration config, int estimatedTokens) {
+        String project = config.getProjectName() == null ? GLOBAL_BUDGET : config.getProjectName();
+        List<TokenBucket> buckets = new ArrayList<>();
+        List<Integer> amounts = new ArrayList<>();
+        addBucket(buckets, amounts, bucket(requestBuckets, GLOBAL_BUDGET, config.getGptRequestsPerMinute()), 1);
+        addBucket(buckets, amounts, bucket(tokenBuckets, GLOBAL_BUDGET, config.getGptTokensPerMinute()),
+                estimatedTokens);
+        if (!project.equals(GLOBAL_BUDGET)) {
+            addBucket(buckets, amounts, bucket(requestBuckets, project, config.getGptProjectRequestsPerMinute()), 1);
+            addBucket(buckets, amounts, bucket(tokenBuckets, project, config.getGptProjectTokensPerMinute()),
+                    estimatedTokens);
+        }
+
+        Duration wait = Duration.ZERO;
+        for (int i = 0; i < buckets.size(); i++) {
+            Duration bucketWait = buckets.get(i).waitTime(amounts.get(i));
+            if (bucketWait.compareTo(wait) > 0) {
+                wait = bucketWait;
+            }
+        }
+        for (int i = 0; i < buckets.size(); i++) {
+            buckets.get(i).reserve(amounts.get(i));
+        }
+        return wait;
+    }
+
+    /**
+     * Aligns the global buckets with the remaining quota reported by the OpenAI rate-limit headers,
+     * in case other clients share the same organization quota.
+     */
+    public synchronized void syncWithServer(HttpHeaders headers) {
+        limitTo(requestBuckets.get(GLOBAL_BUDGET), headers.firstValue("x-ratelimit-remaining-requests"));
+        limitTo(tokenBuckets.get(GLOBAL_BUDGET), headers.firstValue("x-ratelimit-remaining-tokens"));
+    }
+
+    private void limitTo(TokenBucket bucket, Optional<String> remaining) {
+        if (bucket == null || remaining.isEmpty()) {
+            return;
+        }
+        try {
+            bucket.limitTo(Long.parseLong(remaining.get().trim()));
+        } catch (NumberFormatException e) {
+            log.debug("Ignoring malformed rate-limit header: {}", remaining.get());
+        }
+    }
+
+    private TokenBucket bucket(Map<String, TokenBucket> buckets, String key, int perMinute) {
+        if (perMinute <= 0) {
+            buckets.remove(key);
+            return null;
+        }
+        TokenBucket bucket = buckets.get(key);
+        if (bucket == null || bucket.getCapacity() != perMinute) {
+            bucket = new TokenBucket(perMinute, clock);
+            buckets.put(key, bucket);
+        }
+        return bucket;
+    }
+
+    private static void addBucket(List<TokenBucket> buckets, List<Integer> amounts, TokenBucket bucket, int amount) {
+        if (bucket != null) {
+            buckets.add(bucket);
+            amounts.add(amount);
+        }
+    }
+}
@@ -0,0 +1,150 @@
+package com.googlesource.gerrit.plugins.chatgpt.client;
+
+import lombok.extern.slf4j.Slf4j;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.io.Reader;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+
+/**
+ * A downloaded patch set. Small patch sets are kept in memory, larger ones are spilled to a temporary file while
+ * they are downloaded, so their bytes never sit on the heap at once. Either way the content can be read lazily
+ * through {@link #openReader()}. Closing deletes the temporary file.
+ */
+@Slf4j
+public class PatchSetContent implements AutoCloseable {
+    private static final int BUFFER_SIZE = 8192;
+
+    private final byte[] bytes;
+    private final Path file;
+    private final long size;
+
+    private PatchSetContent(byte[] bytes, Path file, long size) {
+        this.bytes = bytes;
+        this.file = file;
+        this.size = size;
+    }
+
+    public static PatchSetContent of(String content) {
+        byte[] bytes = content.getBytes(StandardCharsets.UTF_8);
+        return new PatchSetContent(bytes, null, bytes.length);
+    }
+
+    /**
+     * Writes the patch set through {@code writer}, e.g. straight from the Gerrit API without an intermediate copy.
+     */
+    @FunctionalInterface
+    public interface ContentWriter {
+        void writeTo(OutputStream out) throws IOException;
+    }
+
+    /**
+     * Reads the stream to its end, in memory up to {@code spillThreshold} bytes and in a temporary file beyond.
+     */
+    public static PatchSetContent read(InputStream content, long spillThreshold) throws IOException {
+        return write(content::transferTo, spillThreshold);
+    }
+
+    /**
+     * Collects what {@code writer} writes, in memory up to {@code spillThreshold} bytes and in a temporary file
+     * beyond.
+     */
+    public static PatchSetContent write(ContentWriter writer, long spillThreshold) throws IOException {
+        SpillingOutputStream out = new SpillingOutputStream(spillThreshold);
+        try (out) {
+            writer.writeTo(out);
+        } catch (IOException | RuntimeException e) {
+            out.discard();
+            throw e;
+        }
+        return out.file != null
+                ? new PatchSetContent(null, out.file, out.size)
+                : new PatchSetContent(out.memory.toByteArray(), null, out.size);
+    }
+
+    private static class SpillingOutputStream extends OutputStream {
+        private final long spillThreshold;
+        private ByteArrayOutputStream memory = new ByteArrayOutputStream(BUFFER_SIZE);
+        private Path file;
+        private OutputStream fileOut;
+        private long size;
+
+        private SpillingOutputStream(long spillThreshold) {
+            this.spillThreshold = spillThreshold;
+        }
+
+        @Override
+        public void write(int b) throws IOException {
+            write(new byte[] {(byte) b}, 0, 1);
+        }
+
+        @Override
+        public void write(byte[] b, int off, int len) throws IOException {
+            if (fileOut == null && size + len > spillThreshold) {
+                file = Files.createTempFile("chatgpt-patch-set", ".diff");
+                fileOut = Files.newOutputStream(file);
+                memory.writeTo(fileOut);
+                memory = null;
+            }
+            if (fileOut != null) {
+                fileOut.write(b, off, len);
+            } else {
+                memory.write(b, off, len);
+            }
+            size += len;
+        }
+
+        @Override
+        public void close() throws IOException {
+            if (fileOut != null) {
+                fileOut.close();
+                log.debug("Spilled patch set of {} bytes to {}", size, file);
+            }
+        }
+
+        private void discard() throws IOException {
+            if (file != null) {
+                Files.deleteIfExists(file);
+            }
+        }
+    }
+
+    public long size() {
+        return size;
+    }
+
+    public boolean isSpilled() {
+        return file != null;
+    }
+
+    public Reader openReader() throws IOException {
+        InputStream in = file != null ? Files.newInputStream(file) : new ByteArrayInputStream(bytes);
+        return new InputStreamReader(in, StandardCharsets.UTF_8);
+    }
+
+    public String asString() throws IOException {
+        if (file == null) {
+            return new String(bytes, StandardCharsets.UTF_8);
+        }
+        return Files.readString(file, StandardCharsets.UTF_8);
+    }
+
+    @Override
+    public void close() {
+        if (file == null) {
+            return;
+        }
+        try {
+            Files.deleteIfExists(file);
+        } catch (IOException e) {
+            log.warn("Failed to delete {}", file, e);
+        }
+    }
+}
@@ -0,0 +1,180 @@
+package com.googlesource.gerrit.plugins.chatgpt.client;
+
+import com.google.gerrit.extensions.common.DiffInfo;
+import lombok.Builder;
+import lombok.Data;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.List;
+
+/**
+ * The files of a patch set with their changed lines, as assembled from the Gerrit file list and per-file diffs.
+ * Line numbers are kept, so the reviewer can refer to files and lines.
+ */
+@Data
+@Builder
+public class PatchSetDiff {
+    public static final int CONTEXT_LINES = 3;
+
+    private String commitMessage;
+    private List<FileDiff> files;
+
+    @Data
+    @Builder
+    public static class FileDiff {
+        // Null for added files
+        private String oldPath;
+        // Null for deleted files
+        private String newPath;
+        private List<Hunk> hunks;
+    }
+
+    @Data
+    @Builder
+    public static class Hunk {
+        private int oldStart;
+        private int oldLines;
+        private int newStart;
+        private int newLines;
+        // Prefixed with ' ', '-' or '+' like in a unified diff
+        private List<String> lines;
+    }
+
+    /**
+     * Renders the diff in the unified format of the patch endpoint, so it can be reduced, chunked and cached alike.
+     */
+    public String toUnifiedDiff() {
+        StringBuilder diff = new StringBuilder();
+        if (commitMessage != null && !commitMessage.isEmpty()) {
+            diff.append(commitMessage.strip()).append("\n\n");
+        }
+        for (FileDiff file : files) {
+            String oldPath = file.getOldPath() != null ? file.getOldPath() : file.getNewPath();
+            String newPath = file.getNewPath() != null ? file.getNewPath() : file.getOldPath();
+            diff.append("diff --git a/").append(oldPath).append(" b/").append(newPath).append('\n')
+                    .append("--- ").append(file.getOldPath() != null ? "a/" + file.getOldPath() : "/dev/null")
+                    .append('\n')
+                    .append("+++ ").append(file.getNewPath() != null ? "b/" + file.getNewPath() : "/dev/null")
+                    .append('\n');
+            for (Hunk hunk : file.getHunks()) {
+                diff.append("@@ -").append(hunk.getOldStart()).append(',').append(hunk.getOldLines())
+                        .append(" +").append(hunk.getNewStart()).append(',').append(hunk.getNewLines())
+                        .append(" @@\n");
+                hunk.getLines().forEach(line -> diff.append(line).append('\n'));
+            }
+        }
+        return diff.toString();
+    }
+
+    /**
+     * Turns the content of a Gerrit diff into hunks with a few lines of context around the changed lines.
+     */
+    public static List<Hunk> toHunks(DiffInfo diffInfo) {
+        List<Hunk> hunks = new ArrayList<>();
+        if (diffInfo.content == null) {
+            return hunks;
+        }
+        HunkBuilder hunkBuilder = new HunkBuilder(hunks);
+        for (DiffInfo.ContentEntry entry : diffInfo.content) {
+            if (entry.skip != null) {
+                hunkBuilder.skip(entry.skip);
+            }
+            if (entry.ab != null) {
+                hunkBuilder.common(entry.ab);
+            }
+            if (entry.a != null || entry.b != null) {
+                hunkBuilder.changed(entry.a == null ? List.of() : entry.a, entry.b == null ? List.of() : entry.b);
+            }
+        }
+        hunkBuilder.close();
+        return hunks;
+    }
+
+    private static class HunkBuilder {
+        private final List<Hunk> hunks;
+        // The last common lines seen outside of a hunk, they precede the next change
+        private final Deque<String> leadingContext = new ArrayDeque<>();
+        private int oldLine = 1;
+        private int newLine = 1;
+        private Hunk hunk;
+
+        private HunkBuilder(List<Hunk> hunks) {
+            this.hunks = hunks;
+        }
+
+        private void skip(int lines) {
+            close();
+            oldLine += lines;
+            newLine += lines;
+        }
+
+        private void common(List<String> lines) {
+            int trailingStart = 0;
+            if (hunk != null) {
+                if (lines.size() <= 2 * CONTEXT_LINES) {
+                    lines.forEach(this::appendContext);
+                    oldLine += lines.size();
+                    newLine += lines.size();
+                    return;
+                }
+                lines.subList(0, CONTEXT_LINES).forEach(this::appendContext);
+                close();
+                trailingStart = CONTEXT_LINES;
+            }
+            for (String line : lines.subList(Math.max(trailingStart, lines.size() - CONTEXT_LINES), lines.size())) {
+                leadingContext.addLast(line);
+                if (leadingContext.size() > CONTEXT_LINES) {
+                    leadingContext.removeFirst();
+                }
+            }
+            oldLine += lines.size();
+            newLine += lines.size();
+        }
+
+        private void changed(List<String> removed, List<String> added) {
+            if (hunk == null) {
+                hunk = Hunk.builder()
+                        .oldStart(oldLine - leadingContext.size())
+                        .newStart(newLine - leadingContext.size())
+                        .lines(new ArrayList<>())
+                        .build();
+                leadingContext.forEach(this::appendContext);
+                leadingContext.clear();
+            }
+            removed.forEach(line -> {
+                hunk.getLines().add("-" + line);
+                hunk.setOldLines(hunk.getOldLines() + 1);
+            });
+            added.forEach(line -> {
+                hunk.getLines().add("+" + line);
+                hunk.setNewLines(hunk.getNewLines() + 1);
+            });
+            oldLine += removed.size();
+            newLine += added.size();
+        }
+
+        private void appendContext(String line) {
+            hunk.getLines().add(" " + line);
+            hunk.setOldLines(hunk.getOldLines() + 1);
+            hunk.setNewLines(hunk.getNewLines() + 1);
+        }
+
+        private void close() {
+            leadingContext.clear();
+            if (hunk == null) {
+                return;
+            }
+            // Like in unified diffs, an empty side starts at the line before
+            if (hunk.getOldLines() == 0) {
+                hunk.setOldStart(hunk.getOldStart() - 1);
+            }
+            if (hunk.getNewLines() == 0) {
+                hunk.setNewStart(hunk.getNewStart() - 1);
+            }
+            hunks.add(hunk);
+            hunk = null;
+        }
+    }
+}
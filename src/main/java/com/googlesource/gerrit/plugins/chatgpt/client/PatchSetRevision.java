@@ -0,0 +1,15 @@
+package com.googlesource.gerrit.plugins.chatgpt.client;
+
+import lombok.Value;
+
+/**
+ * A patch set of a change, its commit and the commit it is based on. A patch set with another parent than its
+ * predecessor was rebased, so the diff between the two also holds the changes it was rebased onto.
+ */
+@Value
+public class PatchSetRevision {
+    int number;
+    String commit;
+    // The first parent, null for a root commit
+    String parent;
+}
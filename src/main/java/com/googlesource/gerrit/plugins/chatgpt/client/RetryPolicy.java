@@ -0,0 +1,181 @@
+package com.googlesource.gerrit.plugins.chatgpt.client;
+
+import lombok.Getter;
+
+import java.io.IOException;
+import java.net.http.HttpHeaders;
+import java.net.http.HttpResponse;
+import java.time.Duration;
+import java.time.ZonedDateTime;
+import java.time.format.DateTimeFormatter;
+import java.time.format.DateTimeParseException;
+import java.util.Optional;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * Decides which failures are worth retrying and how long to wait before the next attempt.
+ * Server hints such as {@code Retry-After} and the OpenAI rate-limit reset headers take precedence over
+ * the exponential backoff. Jitter is always added, so clients that failed together do not retry in lockstep.
+ * No delay exceeds {@code maxDelay}.
+ */
+@Getter
+public class RetryPolicy {
+    private static final Pattern GO_DURATION = Pattern.compile("(\\d+(?:\\.\\d+)?)(ms|h|m|s)");
+    private static final String[] RATE_LIMIT_RESET_HEADERS = {
+            "x-ratelimit-reset-requests", "x-ratelimit-reset-tokens"
+    };
+    private static final int HTTP_TOO_EARLY = 425;
+    private static final int HTTP_TOO_MANY_REQUESTS = 429;
+
+    private final int maxAttempts;
+    private final Duration baseDelay;
+    private final Duration maxDelay;
+    private final int failureThreshold;
+    private final Duration openDuration;
+
+    public RetryPolicy(int maxAttempts, Duration baseDelay, Duration maxDelay, int failureThreshold,
+                       Duration openDuration) {
+        this.maxAttempts = maxAttempts;
+        this.baseDelay = baseDelay;
+        this.maxDelay = maxDelay;
+        this.failureThreshold = failureThreshold;
+        this.openDuration = openDuration;
+    }
+
+    public static RetryPolicy forGerrit() {
+        return new RetryPolicy(5, Duration.ofSeconds(1), Duration.ofSeconds(30), 5, Duration.ofSeconds(30));
+    }
+
+    public static RetryPolicy forLlm() {
+        return new RetryPolicy(5, Duration.ofSeconds(2), Duration.ofSeconds(60), 3, Duration.ofSeconds(60));
+    }
+
+    /**
+     * For one of several LLM backends: a failing backend is retried once and then left to the other backends.
+     */
+    public static RetryPolicy forLlmBackend() {
+        return new RetryPolicy(2, Duration.ofSeconds(1), Duration.ofSeconds(10), 3, Duration.ofSeconds(60));
+    }
+
+    public boolean isRetryable(int statusCode) {
+        switch (statusCode) {
+            case 408:
+            case HTTP_TOO_EARLY:
+            case HTTP_TOO_MANY_REQUESTS:
+            case 500:
+            case 502:
+            case 503:
+            case 504:
+                return true;
+            default:
+                return false;
+        }
+    }
+
+    public boolean isRetryable(Throwable error) {
+        Throwable cause = error instanceof CompletionException && error.getCause() != null ? error.getCause() : error;
+        return cause instanceof IOException;
+    }
+
+    /**
+     * Whether the failure tells something about the health of the endpoint, as opposed to a bad request.
+     */
+    public boolean isEndpointFailure(int statusCode) {
+        return statusCode >= 500 || statusCode == HTTP_TOO_MANY_REQUESTS;
+    }
+
+    public Duration delayBeforeAttempt(int nextAttempt, HttpResponse<?> response) {
+        Duration jitter = randomDuration(baseDelay);
+        Optional<Duration> serverHint = response == null ? Optional.empty() : serverHint(response.headers());
+        if (serverHint.isPresent()) {
+            return min(serverHint.get().plus(jitter), maxDelay);
+        }
+        // Exponential backoff with equal jitter: half of the delay is fixed, the other half random
+        Duration exponential = min(baseDelay.multipliedBy(1L << Math.min(nextAttempt - 2, 20)), maxDelay);
+        return exponential.dividedBy(2).plus(randomDuration(exponential.dividedBy(2)));
+    }
+
+    public Optional<Duration> serverHint(HttpHeaders headers) {
+        Optional<Duration> retryAfter = headers.firstValue("retry-after-ms")
+                .flatMap(value -> parseLong(value).map(Duration::ofMillis));
+        if (retryAfter.isEmpty()) {
+            retryAfter = headers.firstValue("Retry-After").flatMap(RetryPolicy::parseRetryAfter);
+        }
+        if (retryAfter.isPresent()) {
+            return retryAfter;
+        }
+
+        Duration longestReset = null;
+        for (String header : RATE_LIMIT_RESET_HEADERS) {
+            Optional<Duration> reset = headers.firstValue(header).flatMap(RetryPolicy::parseGoDuration);
+            if (reset.isPresent() && (longestReset == null || reset.get().compareTo(longestReset) > 0)) {
+                longestReset = reset.get();
+            }
+        }
+        return Optional.ofNullable(longestReset);
+    }
+
+    private static Optional<Duration> parseRetryAfter(String value) {
+        Optional<Long> seconds = parseLong(value);
+        if (seconds.isPresent()) {
+            return Optional.of(Duration.ofSeconds(Math.max(0, seconds.get())));
+        }
+        try {
+            ZonedDateTime retryAt = ZonedDateTime.parse(value.trim(), DateTimeFormatter.RFC_1123_DATE_TIME);
+            Duration delay = Duration.between(ZonedDateTime.now(retryAt.getZone()), retryAt);
+            return Optional.of(delay.isNegative() ? Duration.ZERO : delay);
+        } catch (DateTimeParseException e) {
+            return Optional.empty();
+        }
+    }
+
+    /**
+     * Parses durations such as {@code 20ms}, {@code 1s} or {@code 6m0s} used by the OpenAI rate-limit headers.
+     */
+    private static Optional<Duration> parseGoDuration(String value) {
+        Matcher matcher = GO_DURATION.matcher(value.trim());
+        double millis = 0;
+        int end = 0;
+        while (matcher.find() && matcher.start() == end) {
+            double amount = Double.parseDouble(matcher.group(1));
+            switch (matcher.group(2)) {
+                case "h":
+                    millis += amount * 3_600_000;
+                    break;
+                case "m":
+                    millis += amount * 60_000;
+                    break;
+                case "s":
+                    millis += amount * 1_000;
+                    break;
+                default:
+                    millis += amount;
+            }
+            end = matcher.end();
+        }
+        if (end == 0 || end != value.trim().length()) {
+            return Optional.empty();
+        }
+        return Optional.of(Duration.ofMillis((long) Math.ceil(millis)));
+    }
+
+    private static Optional<Long> parseLong(String value) {
+        try {
+            return Optional.of(Long.parseLong(value.trim()));
+        } catch (NumberFormatException e) {
+            return Optional.empty();
+        }
+    }
+
+    private static Duration randomDuration(Duration bound) {
+        long millis = bound.toMillis();
+        return millis <= 0 ? Duration.ZERO : Duration.ofMillis(ThreadLocalRandom.current().nextLong(millis + 1));
+    }
+
+    private static Duration min(Duration a, Duration b) {
+        return a.compareTo(b) <= 0 ? a : b;
+    }
+}
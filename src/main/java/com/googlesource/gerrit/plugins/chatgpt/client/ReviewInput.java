@@ -0,0 +1,24 @@
+package com.googlesource.gerrit.plugins.chatgpt.client;
+
+import lombok.Builder;
+import lombok.Data;
+
+import java.util.List;
+import java.util.Map;
+
+/**
+ * The body of a Gerrit set-review request: the review message and the inline comments by file path.
+ */
+@Data
+@Builder
+public class ReviewInput {
+    private String message;
+    private Map<String, List<CommentInput>> comments;
+
+    @Data
+    @Builder
+    public static class CommentInput {
+        private int line;
+        private String message;
+    }
+}
@@ -0,0 +1,59 @@
+package com.googlesource.gerrit.plugins.chatgpt.client;
+
+import lombok.Getter;
+
+import java.time.Clock;
+import java.time.Duration;
+import java.time.Instant;
+
+/**
+ * A bucket refilled continuously up to {@code capacity} per minute. Reservations may drive the bucket into debt,
+ * the caller then waits until the debt has been refilled. This keeps the admitted rate at the limit without ever
+ * exceeding it, and serves callers in reservation order.
+ */
+class TokenBucket {
+    private static final double NANOS_PER_MINUTE = 60_000_000_000d;
+
+    @Getter
+    private final long capacity;
+    private final Clock clock;
+    private double available;
+    private Instant lastRefill;
+
+    TokenBucket(long capacity, Clock clock) {
+        this.capacity = capacity;
+        this.clock = clock;
+        this.available = capacity;
+        this.lastRefill = clock.instant();
+    }
+
+    /**
+     * Returns how long the caller has to wait before the reservation is covered.
+     */
+    Duration waitTime(long amount) {
+        refill();
+        double deficit = Math.min(amount, capacity) - available;
+        return deficit <= 0 ? Duration.ZERO : Duration.ofNanos((long) (deficit * NANOS_PER_MINUTE / capacity));
+    }
+
+    void reserve(long amount) {
+        refill();
+        available -= Math.min(amount, capacity);
+    }
+
+    /**
+     * Lowers the available amount to what the server reports as remaining.
+     */
+    void limitTo(long remaining) {
+        refill();
+        available = Math.min(available, remaining);
+    }
+
+    private void refill() {
+        Instant now = clock.instant();
+        // A clock set back refills nothing
+        long elapsedNanos = Math.max(0, Duration.between(lastRefill, now).toNanos());
+        available = Math.min(capacity, available + elapsedNanos * capacity / NANOS_PER_MINUTE);
+        lastRefill = now;
+    }
+}
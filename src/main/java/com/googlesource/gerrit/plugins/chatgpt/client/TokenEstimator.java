@@ -0,0 +1,36 @@
+package com.googlesource.gerrit.plugins.chatgpt.client;
+
+public class TokenEstimator {
+    // OpenAI tokenizers average about four characters of English text or code per token
+    private static final int CHARS_PER_TOKEN = 4;
+    // Role markers and separators added around every message
+    private static final int TOKENS_PER_MESSAGE = 4;
+    // What a review answer is assumed to take when the request does not limit it
+    private static final int DEFAULT_COMPLETION_TOKENS = 1024;
+
+    private TokenEstimator() {
+        throw new IllegalStateException("Utility class");
+    }
+
+    public static int estimate(String text) {
+        return text == null ? 0 : estimateChars(text.length());
+    }
+
+    /**
+     * Returns the tokens of a text of {@code chars} characters, so a text being built need not be copied to estimate.
+     */
+    public static int estimateChars(int chars) {
+        return (chars + CHARS_PER_TOKEN - 1) / CHARS_PER_TOKEN;
+    }
+
+    public static int estimatePrompt(String systemPrompt, String userMessage) {
+        return estimate(systemPrompt) + estimate(userMessage) + 2 * TOKENS_PER_MESSAGE;
+    }
+
+    /**
+     * Returns the tokens the answer may take: {@code maxTokens}, or a typical review answer without a limit.
+     */
+    public static int estimateCompletion(int maxTokens) {
+        return maxTokens > 0 ? maxTokens : DEFAULT_COMPLETION_TOKENS;
+    }
+}
@@ -1,21 +1,77 @@
 package com.googlesource.gerrit.plugins.chatgpt.client;
 
+import java.net.URLEncoder;
+import java.nio.charset.StandardCharsets;
+
 public class UriResourceLocator {
+    private static final String CURRENT_REVISION = "current";
 
     private UriResourceLocator() {
         throw new IllegalStateException("Utility class");
     }
 
     public static String gerritPatchSetUri(String fullChangeId) {
-        return "/changes/" + fullChangeId + "/revisions/current/patch";
+        return gerritPatchSetUri(fullChangeId, null);
+    }
+
+    /**
+     * The patch of patch set {@code patchSet}, or of the current patch set when it is null.
+     */
+    public static String gerritPatchSetUri(String fullChangeId, Integer patchSet) {
+        return revisionUri(fullChangeId, patchSet) + "/patch";
+    }
+
+    public static String gerritCurrentRevisionUri(String fullChangeId) {
+        return "/changes/" + fullChangeId + "?o=CURRENT_REVISION&o=CURRENT_COMMIT";
+    }
+
+    public static String gerritFilesUri(String fullChangeId) {
+        return gerritFilesUri(fullChangeId, null);
+    }
+
+    public static String gerritFilesUri(String fullChangeId, Integer patchSet) {
+        return revisionUri(fullChangeId, patchSet) + "/files";
+    }
+
+    /**
+     * The files that changed from patch set {@code basePatchSet} to patch set {@code patchSet}.
+     */
+    public static String gerritFilesUri(String fullChangeId, int patchSet, int basePatchSet) {
+        return revisionUri(fullChangeId, patchSet) + "/files?base=" + basePatchSet;
+    }
+
+    public static String gerritFileDiffUri(String fullChangeId, String filePath) {
+        return gerritFileDiffUri(fullChangeId, null, filePath);
+    }
+
+    public static String gerritFileDiffUri(String fullChangeId, Integer patchSet, String filePath) {
+        return fileDiffUri(fullChangeId, patchSet, filePath);
+    }
+
+    public static String gerritFileDiffUri(String fullChangeId, int patchSet, int basePatchSet, String filePath) {
+        return fileDiffUri(fullChangeId, patchSet, filePath) + "&base=" + basePatchSet;
     }
 
     public static String gerritCommentUri(String fullChangeId) {
-        return "/changes/" + fullChangeId + "/revisions/current/review";
+        return gerritCommentUri(fullChangeId, null);
+    }
+
+    public static String gerritCommentUri(String fullChangeId, Integer patchSet) {
+        return revisionUri(fullChangeId, patchSet) + "/review";
     }
 
     public static String chatCompletionsUri() {
         return "/v1/chat/completions";
     }
 
+    private static String revisionUri(String fullChangeId, Integer patchSet) {
+        return "/changes/" + fullChangeId + "/revisions/" + (patchSet == null ? CURRENT_REVISION : patchSet);
+    }
+
+    private static String fileDiffUri(String fullChangeId, Integer patchSet, String filePath) {
+        return revisionUri(fullChangeId, patchSet) + "/files/"
+                + URLEncoder.encode(filePath, StandardCharsets.UTF_8).replace("+", "%20")
+                + "/diff?context=" + PatchSetDiff.CONTEXT_LINES;
+    }
+
 }
@@ -0,0 +1,11 @@
+package com.googlesource.gerrit.plugins.chatgpt.config;
+
+/**
+ * How a completion picks one of several backends.
+ */
+public enum BackendSelection {
+    // The backend with the fewest requests in flight relative to its weight
+    LEAST_OUTSTANDING,
+    // The backends in turn, each as often as its weight
+    ROUND_ROBIN
+}
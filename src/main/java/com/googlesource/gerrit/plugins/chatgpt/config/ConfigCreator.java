@@ -9,6 +9,10 @@ import com.google.inject.Inject;
 import com.google.inject.Singleton;
 import lombok.extern.slf4j.Slf4j;
 
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+
 @Singleton
 @Slf4j
 public class ConfigCreator {
@@ -17,6 +21,11 @@ public class ConfigCreator {
 
     private final PluginConfigFactory configFactory;
 
+    // Resolved snapshots by project, dropped by ConfigInvalidator when a configuration changes
+    private final Map<Project.NameKey, Configuration> configs = new ConcurrentHashMap<>();
+    // Bumped on every invalidation, so a snapshot loaded concurrently with a change is not cached
+    private final AtomicLong generation = new AtomicLong();
+
     @Inject
     ConfigCreator(@PluginName String pluginName, PluginConfigFactory configFactory) {
         this.pluginName = pluginName;
@@ -25,11 +34,36 @@ public class ConfigCreator {
 
     public Configuration createConfig(Project.NameKey projectName)
             throws NoSuchProjectException {
+        Configuration config = configs.get(projectName);
+        if (config == null) {
+            long loadedGeneration = generation.get();
+            config = loadConfig(projectName);
+            if (generation.get() == loadedGeneration) {
+                configs.put(projectName, config);
+            }
+        }
+        return config;
+    }
+
+    public void invalidate(Project.NameKey projectName) {
+        generation.incrementAndGet();
+        if (configs.remove(projectName) != null) {
+            log.info("Configuration of {} changed, it will be reloaded", projectName);
+        }
+    }
+
+    public void invalidateAll() {
+        log.info("Global configuration changed, all project configurations will be reloaded");
+        generation.incrementAndGet();
+        configs.clear();
+    }
+
+    private Configuration loadConfig(Project.NameKey projectName) throws NoSuchProjectException {
         PluginConfig globalConfig = configFactory.getFromGerritConfig(pluginName);
         log.info("These configuration items have been set in the global configuration: {}", globalConfig.getNames());
         PluginConfig projectConfig = configFactory.getFromProjectConfig(projectName, pluginName);
         log.info("These configuration items have been set in the project configuration: {}", projectConfig.getNames());
-        return new Configuration(globalConfig, projectConfig);
+        return new Configuration(globalConfig, projectConfig, projectName.get());
     }
 
 }
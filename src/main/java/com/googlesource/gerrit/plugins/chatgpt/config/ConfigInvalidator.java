@@ -0,0 +1,38 @@
+package com.googlesource.gerrit.plugins.chatgpt.config;
+
+import com.google.common.collect.Multimap;
+import com.google.gerrit.entities.Project;
+import com.google.gerrit.entities.RefNames;
+import com.google.gerrit.extensions.events.GitReferenceUpdatedListener;
+import com.google.gerrit.server.config.ConfigUpdatedEvent;
+import com.google.gerrit.server.config.GerritConfigListener;
+import com.google.inject.Inject;
+import com.google.inject.Singleton;
+
+/**
+ * Drops the cached configuration of a project when its project.config is updated, and of all projects when the
+ * global configuration is reloaded.
+ */
+@Singleton
+public class ConfigInvalidator implements GitReferenceUpdatedListener, GerritConfigListener {
+    private final ConfigCreator configCreator;
+
+    @Inject
+    ConfigInvalidator(ConfigCreator configCreator) {
+        this.configCreator = configCreator;
+    }
+
+    @Override
+    public void onGitReferenceUpdated(GitReferenceUpdatedListener.Event event) {
+        if (RefNames.REFS_CONFIG.equals(event.getRefName())) {
+            configCreator.invalidate(Project.nameKey(event.getProjectName()));
+        }
+    }
+
+    @Override
+    public Multimap<ConfigUpdatedEvent.UpdateResult, ConfigUpdatedEvent.ConfigUpdateEntry> configUpdated(
+            ConfigUpdatedEvent event) {
+        configCreator.invalidateAll();
+        return ConfigUpdatedEvent.NO_UPDATES;
+    }
+}
@@ -1,12 +1,27 @@
 package com.googlesource.gerrit.plugins.chatgpt.config;
 
-import com.google.common.collect.Maps;
+import com.google.common.base.Splitter;
+import com.google.gerrit.extensions.client.ChangeKind;
 import com.google.gerrit.server.config.PluginConfig;
+import lombok.AccessLevel;
+import lombok.AllArgsConstructor;
+import lombok.With;
 import lombok.extern.slf4j.Slf4j;
 
-import java.util.Map;
+import java.util.ArrayList;
+import java.util.EnumSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.Set;
 
+/**
+ * An immutable snapshot of the plugin configuration of one project. All values are resolved once, first from the
+ * project configuration, then from the global configuration, then from the defaults, so snapshots can be cached and
+ * shared between worker threads. Copies with another model or prompt are made through the all-args constructor, so
+ * they carry every other value along.
+ */
 @Slf4j
+@AllArgsConstructor(access = AccessLevel.PRIVATE)
 public class Configuration {
 
     public static final String OPENAI_DOMAIN = "https://api.openai.com";
@@ -15,11 +30,55 @@ public class Configuration {
     public static final String NOT_CONFIGURED_ERROR_MSG = "%s is not configured";
     public static final String KEY_GPT_PROMPT = "gptPrompt";
     private static final String DEFAULT_GPT_TEMPERATURE = "1";
+    private static final int DEFAULT_GPT_MAX_TOKENS = 0;
     private static final boolean DEFAULT_GLOBAL_ENABLE = false;
     private static final String DEFAULT_ENABLED_PROJECTS = "";
     private static final boolean DEFAULT_PATCH_SET_REDUCTION = false;
     private static final boolean DEFAULT_PROJECT_ENABLE = false;
+    private static final boolean DEFAULT_GPT_STREAM_OUTPUT = true;
     private static final int DEFAULT_MAX_REVIEW_LINES = 1000;
+    private static final int DEFAULT_MAX_CONCURRENT_REVIEWS = 4;
+    private static final int DEFAULT_MAX_CONCURRENT_REVIEWS_PER_PROJECT = 2;
+    private static final int DEFAULT_MAX_QUEUED_REVIEWS_PER_PROJECT = 100;
+    private static final int DEFAULT_RATE_LIMIT = 0;
+    private static final boolean DEFAULT_REVIEW_CACHE_ENABLED = true;
+    private static final int DEFAULT_REVIEW_CACHE_SIZE = 1000;
+    private static final int DEFAULT_REVIEW_CACHE_TTL_MINUTES = 1440;
+    private static final boolean DEFAULT_REVIEW_CACHE_DISK_ENABLED = false;
+    private static final boolean DEFAULT_REVIEW_CHUNKING = false;
+    private static final int DEFAULT_MAX_CHUNK_TOKENS = 3000;
+    private static final int DEFAULT_MAX_REVIEW_CHUNKS = 20;
+    private static final int DEFAULT_MAX_PARALLEL_CHUNKS = 4;
+    private static final DiffSource DEFAULT_DIFF_SOURCE = DiffSource.PATCH;
+    private static final String DEFAULT_EXCLUDED_FILES = "";
+    private static final boolean DEFAULT_INLINE_COMMENTS = true;
+    private static final boolean DEFAULT_DURABLE_QUEUE = true;
+    private static final int DEFAULT_DURABLE_QUEUE_MAX_SIZE_MB = 64;
+    private static final String DEFAULT_COORDINATION_DIRECTORY = "";
+    private static final int DEFAULT_COORDINATION_LEASE_SECONDS = 60;
+    private static final BackendSelection DEFAULT_GPT_BACKEND_SELECTION = BackendSelection.LEAST_OUTSTANDING;
+    private static final int DEFAULT_REVIEW_TIMEOUT_SECONDS = 1200;
+    private static final int DEFAULT_PATCH_FETCH_TIMEOUT_SECONDS = 120;
+    private static final int DEFAULT_GPT_FIRST_TOKEN_TIMEOUT_SECONDS = 120;
+    private static final int DEFAULT_GPT_TIMEOUT_SECONDS = 600;
+    private static final int DEFAULT_COMMENT_POST_TIMEOUT_SECONDS = 60;
+    private static final boolean DEFAULT_INCREMENTAL_REVIEW = false;
+    private static final String DEFAULT_SKIP_CHANGE_KINDS =
+            "trivial_rebase,merge_first_parent_update,no_code_change,no_change";
+    private static final boolean DEFAULT_SKIP_WORK_IN_PROGRESS = true;
+    private static final boolean DEFAULT_SKIP_PRIVATE = true;
+    private static final String DEFAULT_SKIP_ACCOUNTS = "";
+    private static final String DEFAULT_SKIP_BRANCHES = "";
+    private static final String DEFAULT_SKIP_FILES = "";
+    private static final boolean DEFAULT_GERRIT_IN_PROCESS = true;
+    private static final boolean DEFAULT_GIT_DIFF_RENAME_DETECTION = true;
+    private static final int DEFAULT_GIT_DIFF_RENAME_SCORE = 60;
+    private static final int DEFAULT_GIT_DIFF_MAX_FILE_BYTES = 1024 * 1024;
+    private static final int DEFAULT_GIT_DIFF_MAX_FILE_DIFF_BYTES = 256 * 1024;
+    private static final int DEFAULT_MAX_CONCURRENT_FETCHES = 2;
+    private static final int DEFAULT_MAX_PREFETCHED_REVIEWS = 8;
+    private static final int DEFAULT_MAX_CONCURRENT_POSTS = 2;
+    private static final int DEFAULT_MAX_QUEUED_POSTS = 16;
     private static final String KEY_GPT_TOKEN = "gptToken";
     private static final String KEY_GERRIT_AUTH_BASE_URL = "gerritAuthBaseUrl";
     private static final String KEY_GERRIT_USERNAME = "gerritUserName";
@@ -27,91 +86,563 @@ public class Configuration {
     private static final String KEY_GPT_DOMAIN = "gptDomain";
     private static final String KEY_GPT_MODEL = "gptModel";
     private static final String KEY_GPT_TEMPERATURE = "gptTemperature";
+    private static final String KEY_GPT_MAX_TOKENS = "gptMaxTokens";
+    private static final String KEY_GPT_STREAM_OUTPUT = "gptStreamOutput";
     private static final String KEY_PROJECT_ENABLE = "isEnabled";
     private static final String KEY_GLOBAL_ENABLE = "globalEnable";
     private static final String KEY_ENABLED_PROJECTS = "enabledProjects";
     private static final String KEY_PATCH_SET_REDUCTION = "patchSetReduction";
     private static final String KEY_MAX_REVIEW_LINES = "maxReviewLines";
-    private final Map<String, Object> configsDynamically = Maps.newHashMap();
-    private final PluginConfig globalConfig;
-    private final PluginConfig projectConfig;
+    private static final String KEY_MAX_CONCURRENT_REVIEWS = "maxConcurrentReviews";
+    private static final String KEY_MAX_CONCURRENT_REVIEWS_PER_PROJECT = "maxConcurrentReviewsPerProject";
+    private static final String KEY_MAX_QUEUED_REVIEWS_PER_PROJECT = "maxQueuedReviewsPerProject";
+    private static final String KEY_GPT_REQUESTS_PER_MINUTE = "gptRequestsPerMinute";
+    private static final String KEY_GPT_TOKENS_PER_MINUTE = "gptTokensPerMinute";
+    private static final String KEY_GPT_PROJECT_REQUESTS_PER_MINUTE = "gptProjectRequestsPerMinute";
+    private static final String KEY_GPT_PROJECT_TOKENS_PER_MINUTE = "gptProjectTokensPerMinute";
+    private static final String KEY_REVIEW_CACHE_ENABLED = "reviewCacheEnabled";
+    private static final String KEY_REVIEW_CACHE_SIZE = "reviewCacheSize";
+    private static final String KEY_REVIEW_CACHE_TTL_MINUTES = "reviewCacheTtlMinutes";
+    private static final String KEY_REVIEW_CACHE_DISK_ENABLED = "reviewCacheDiskEnabled";
+    private static final String KEY_REVIEW_CHUNKING = "reviewChunking";
+    private static final String KEY_MAX_CHUNK_TOKENS = "maxChunkTokens";
+    private static final String KEY_MAX_REVIEW_CHUNKS = "maxReviewChunks";
+    private static final String KEY_MAX_PARALLEL_CHUNKS = "maxParallelChunks";
+    private static final String KEY_DIFF_SOURCE = "diffSource";
+    private static final String KEY_EXCLUDED_FILES = "excludedFiles";
+    private static final String KEY_INLINE_COMMENTS = "inlineComments";
+    private static final String KEY_DURABLE_QUEUE = "durableQueue";
+    private static final String KEY_DURABLE_QUEUE_MAX_SIZE_MB = "durableQueueMaxSizeMb";
+    private static final String KEY_COORDINATION_DIRECTORY = "coordinationDirectory";
+    private static final String KEY_COORDINATION_LEASE_SECONDS = "coordinationLeaseSeconds";
+    private static final String KEY_GPT_BACKEND = "gptBackend";
+    private static final String KEY_GPT_BACKEND_SELECTION = "gptBackendSelection";
+    private static final String KEY_GPT_MODEL_TIER = "gptModelTier";
+    private static final String KEY_REVIEW_TIMEOUT_SECONDS = "reviewTimeoutSeconds";
+    private static final String KEY_PATCH_FETCH_TIMEOUT_SECONDS = "patchFetchTimeoutSeconds";
+    private static final String KEY_GPT_FIRST_TOKEN_TIMEOUT_SECONDS = "gptFirstTokenTimeoutSeconds";
+    private static final String KEY_GPT_TIMEOUT_SECONDS = "gptTimeoutSeconds";
+    private static final String KEY_COMMENT_POST_TIMEOUT_SECONDS = "commentPostTimeoutSeconds";
+    private static final String KEY_INCREMENTAL_REVIEW = "incrementalReview";
+    private static final String KEY_SKIP_CHANGE_KINDS = "skipChangeKinds";
+    private static final String KEY_SKIP_WORK_IN_PROGRESS = "skipWorkInProgress";
+    private static final String KEY_SKIP_PRIVATE = "skipPrivate";
+    private static final String KEY_SKIP_AUTHORS = "skipAuthors";
+    private static final String KEY_SKIP_UPLOADERS = "skipUploaders";
+    private static final String KEY_SKIP_BRANCHES = "skipBranches";
+    private static final String KEY_SKIP_FILES = "skipFiles";
+    private static final String KEY_GERRIT_IN_PROCESS = "gerritInProcess";
+    private static final String KEY_GIT_DIFF_RENAME_DETECTION = "gitDiffRenameDetection";
+    private static final String KEY_GIT_DIFF_RENAME_SCORE = "gitDiffRenameScore";
+    private static final String KEY_GIT_DIFF_MAX_FILE_BYTES = "gitDiffMaxFileBytes";
+    private static final String KEY_GIT_DIFF_MAX_FILE_DIFF_BYTES = "gitDiffMaxFileDiffBytes";
+    private static final String KEY_MAX_CONCURRENT_FETCHES = "maxConcurrentFetches";
+    private static final String KEY_MAX_PREFETCHED_REVIEWS = "maxPrefetchedReviews";
+    private static final String KEY_MAX_CONCURRENT_POSTS = "maxConcurrentPosts";
+    private static final String KEY_MAX_QUEUED_POSTS = "maxQueuedPosts";
+    private final String projectName;
+    private final String gptToken;
+    private final String gerritAuthBaseUrl;
+    private final String gerritUserName;
+    private final String gerritPassword;
+    private final String gptDomain;
+    // E.g. the model of the tier a change fits into
+    @With
+    private final String gptModel;
+    // E.g. a question from a comment
+    @With
+    private final String gptPrompt;
+    private final double gptTemperature;
+    private final int gptMaxTokens;
+    private final boolean gptStreamOutput;
+    private final boolean projectEnable;
+    private final boolean globalEnable;
+    private final String enabledProjects;
+    private final boolean patchSetReduction;
+    private final int maxReviewLines;
+    private final int maxConcurrentReviews;
+    private final int maxConcurrentReviewsPerProject;
+    private final int maxQueuedReviewsPerProject;
+    private final int gptRequestsPerMinute;
+    private final int gptTokensPerMinute;
+    private final int gptProjectRequestsPerMinute;
+    private final int gptProjectTokensPerMinute;
+    private final boolean reviewCacheEnabled;
+    private final int reviewCacheSize;
+    private final int reviewCacheTtlMinutes;
+    private final boolean reviewCacheDiskEnabled;
+    private final boolean reviewChunking;
+    private final int maxChunkTokens;
+    private final int maxReviewChunks;
+    private final int maxParallelChunks;
+    private final DiffSource diffSource;
+    private final List<String> excludedFiles;
+    // E.g. turned off when the patch set reduction drops the line information
+    @With
+    private final boolean inlineComments;
+    private final boolean durableQueue;
+    private final int durableQueueMaxSizeMb;
+    private final String coordinationDirectory;
+    private final int coordinationLeaseSeconds;
+    private final List<GptBackend> gptBackends;
+    private final BackendSelection gptBackendSelection;
+    private final List<ModelTier> gptModelTiers;
+    private final int reviewTimeoutSeconds;
+    private final int patchFetchTimeoutSeconds;
+    private final int gptFirstTokenTimeoutSeconds;
+    private final int gptTimeoutSeconds;
+    private final int commentPostTimeoutSeconds;
+    private final boolean incrementalReview;
+    private final Set<ChangeKind> skipChangeKinds;
+    private final boolean skipWorkInProgress;
+    private final boolean skipPrivate;
+    private final List<String> skipAuthors;
+    private final List<String> skipUploaders;
+    private final List<String> skipBranches;
+    private final List<String> skipFiles;
+    private final boolean gerritInProcess;
+    private final boolean gitDiffRenameDetection;
+    private final int gitDiffRenameScore;
+    private final int gitDiffMaxFileBytes;
+    private final int gitDiffMaxFileDiffBytes;
+    private final int maxConcurrentFetches;
+    private final int maxPrefetchedReviews;
+    private final int maxConcurrentPosts;
+    private final int maxQueuedPosts;
 
-    public Configuration(PluginConfig globalConfig, PluginConfig projectConfig) {
-        this.globalConfig = globalConfig;
-        this.projectConfig = projectConfig;
+    public Configuration(PluginConfig globalConfig, PluginConfig projectConfig, String projectName) {
+        this.projectName = projectName;
+        this.gptToken = getValidatedOrNull(globalConfig, projectConfig, KEY_GPT_TOKEN);
+        this.gerritAuthBaseUrl = getValidatedOrNull(globalConfig, projectConfig, KEY_GERRIT_AUTH_BASE_URL);
+        this.gerritUserName = getValidatedOrNull(globalConfig, projectConfig, KEY_GERRIT_USERNAME);
+        this.gerritPassword = getValidatedOrNull(globalConfig, projectConfig, KEY_GERRIT_PASSWORD);
+        this.gptDomain = getString(globalConfig, projectConfig, KEY_GPT_DOMAIN, OPENAI_DOMAIN);
+        this.gptModel = getString(globalConfig, projectConfig, KEY_GPT_MODEL, DEFAULT_GPT_MODEL);
+        this.gptPrompt = getString(globalConfig, projectConfig, KEY_GPT_PROMPT, DEFAULT_GPT_PROMPT);
+        this.gptTemperature = Double.parseDouble(getString(globalConfig, projectConfig, KEY_GPT_TEMPERATURE,
+                DEFAULT_GPT_TEMPERATURE));
+        this.gptMaxTokens = getInt(globalConfig, projectConfig, KEY_GPT_MAX_TOKENS, DEFAULT_GPT_MAX_TOKENS);
+        this.gptStreamOutput = getBoolean(globalConfig, projectConfig, KEY_GPT_STREAM_OUTPUT,
+                DEFAULT_GPT_STREAM_OUTPUT);
+        this.projectEnable = projectConfig.getBoolean(KEY_PROJECT_ENABLE, DEFAULT_PROJECT_ENABLE);
+        this.globalEnable = globalConfig.getBoolean(KEY_GLOBAL_ENABLE, DEFAULT_GLOBAL_ENABLE);
+        this.enabledProjects = globalConfig.getString(KEY_ENABLED_PROJECTS, DEFAULT_ENABLED_PROJECTS);
+        this.patchSetReduction = getBoolean(globalConfig, projectConfig, KEY_PATCH_SET_REDUCTION,
+                DEFAULT_PATCH_SET_REDUCTION);
+        this.maxReviewLines = getInt(globalConfig, projectConfig, KEY_MAX_REVIEW_LINES, DEFAULT_MAX_REVIEW_LINES);
+        this.maxConcurrentReviews = globalConfig.getInt(KEY_MAX_CONCURRENT_REVIEWS, DEFAULT_MAX_CONCURRENT_REVIEWS);
+        this.maxConcurrentReviewsPerProject = globalConfig.getInt(KEY_MAX_CONCURRENT_REVIEWS_PER_PROJECT,
+                DEFAULT_MAX_CONCURRENT_REVIEWS_PER_PROJECT);
+        this.maxQueuedReviewsPerProject = globalConfig.getInt(KEY_MAX_QUEUED_REVIEWS_PER_PROJECT,
+                DEFAULT_MAX_QUEUED_REVIEWS_PER_PROJECT);
+        this.gptRequestsPerMinute = globalConfig.getInt(KEY_GPT_REQUESTS_PER_MINUTE, DEFAULT_RATE_LIMIT);
+        this.gptTokensPerMinute = globalConfig.getInt(KEY_GPT_TOKENS_PER_MINUTE, DEFAULT_RATE_LIMIT);
+        this.gptProjectRequestsPerMinute = getInt(globalConfig, projectConfig, KEY_GPT_PROJECT_REQUESTS_PER_MINUTE,
+                DEFAULT_RATE_LIMIT);
+        this.gptProjectTokensPerMinute = getInt(globalConfig, projectConfig, KEY_GPT_PROJECT_TOKENS_PER_MINUTE,
+                DEFAULT_RATE_LIMIT);
+        this.reviewCacheEnabled = getBoolean(globalConfig, projectConfig, KEY_REVIEW_CACHE_ENABLED,
+                DEFAULT_REVIEW_CACHE_ENABLED);
+        this.reviewCacheSize = globalConfig.getInt(KEY_REVIEW_CACHE_SIZE, DEFAULT_REVIEW_CACHE_SIZE);
+        this.reviewCacheTtlMinutes = globalConfig.getInt(KEY_REVIEW_CACHE_TTL_MINUTES,
+                DEFAULT_REVIEW_CACHE_TTL_MINUTES);
+        this.reviewCacheDiskEnabled = globalConfig.getBoolean(KEY_REVIEW_CACHE_DISK_ENABLED,
+                DEFAULT_REVIEW_CACHE_DISK_ENABLED);
+        this.reviewChunking = getBoolean(globalConfig, projectConfig, KEY_REVIEW_CHUNKING, DEFAULT_REVIEW_CHUNKING);
+        this.maxChunkTokens = getInt(globalConfig, projectConfig, KEY_MAX_CHUNK_TOKENS, DEFAULT_MAX_CHUNK_TOKENS);
+        this.maxReviewChunks = getInt(globalConfig, projectConfig, KEY_MAX_REVIEW_CHUNKS, DEFAULT_MAX_REVIEW_CHUNKS);
+        this.maxParallelChunks = globalConfig.getInt(KEY_MAX_PARALLEL_CHUNKS, DEFAULT_MAX_PARALLEL_CHUNKS);
+        this.diffSource = getDiffSource(globalConfig, projectConfig);
+        this.excludedFiles = Splitter.on(',').trimResults().omitEmptyStrings()
+                .splitToList(getString(globalConfig, projectConfig, KEY_EXCLUDED_FILES, DEFAULT_EXCLUDED_FILES));
+        this.inlineComments = getBoolean(globalConfig, projectConfig, KEY_INLINE_COMMENTS, DEFAULT_INLINE_COMMENTS);
+        this.durableQueue = globalConfig.getBoolean(KEY_DURABLE_QUEUE, DEFAULT_DURABLE_QUEUE);
+        this.durableQueueMaxSizeMb = globalConfig.getInt(KEY_DURABLE_QUEUE_MAX_SIZE_MB,
+                DEFAULT_DURABLE_QUEUE_MAX_SIZE_MB);
+        this.coordinationDirectory = globalConfig.getString(KEY_COORDINATION_DIRECTORY,
+                DEFAULT_COORDINATION_DIRECTORY);
+        this.coordinationLeaseSeconds = globalConfig.getInt(KEY_COORDINATION_LEASE_SECONDS,
+                DEFAULT_COORDINATION_LEASE_SECONDS);
+        this.gptBackends = getGptBackends(globalConfig);
+        this.gptBackendSelection = getGptBackendSelection(globalConfig);
+        this.gptModelTiers = getGptModelTiers(globalConfig, projectConfig);
+        this.reviewTimeoutSeconds = getInt(globalConfig, projectConfig, KEY_REVIEW_TIMEOUT_SECONDS,
+                DEFAULT_REVIEW_TIMEOUT_SECONDS);
+        this.patchFetchTimeoutSeconds = getInt(globalConfig, projectConfig, KEY_PATCH_FETCH_TIMEOUT_SECONDS,
+                DEFAULT_PATCH_FETCH_TIMEOUT_SECONDS);
+        this.gptFirstTokenTimeoutSeconds = getInt(globalConfig, projectConfig, KEY_GPT_FIRST_TOKEN_TIMEOUT_SECONDS,
+                DEFAULT_GPT_FIRST_TOKEN_TIMEOUT_SECONDS);
+        this.gptTimeoutSeconds = getInt(globalConfig, projectConfig, KEY_GPT_TIMEOUT_SECONDS,
+                DEFAULT_GPT_TIMEOUT_SECONDS);
+        this.commentPostTimeoutSeconds = getInt(globalConfig, projectConfig, KEY_COMMENT_POST_TIMEOUT_SECONDS,
+                DEFAULT_COMMENT_POST_TIMEOUT_SECONDS);
+        this.incrementalReview = getBoolean(globalConfig, projectConfig, KEY_INCREMENTAL_REVIEW,
+                DEFAULT_INCREMENTAL_REVIEW);
+        this.skipChangeKinds = getSkipChangeKinds(globalConfig, projectConfig);
+        this.skipWorkInProgress = getBoolean(globalConfig, projectConfig, KEY_SKIP_WORK_IN_PROGRESS,
+                DEFAULT_SKIP_WORK_IN_PROGRESS);
+        this.skipPrivate = getBoolean(globalConfig, projectConfig, KEY_SKIP_PRIVATE, DEFAULT_SKIP_PRIVATE);
+        this.skipAuthors = getList(globalConfig, projectConfig, KEY_SKIP_AUTHORS, DEFAULT_SKIP_ACCOUNTS);
+        this.skipUploaders = getList(globalConfig, projectConfig, KEY_SKIP_UPLOADERS, DEFAULT_SKIP_ACCOUNTS);
+        this.skipBranches = getList(globalConfig, projectConfig, KEY_SKIP_BRANCHES, DEFAULT_SKIP_BRANCHES);
+        this.skipFiles = getList(globalConfig, projectConfig, KEY_SKIP_FILES, DEFAULT_SKIP_FILES);
+        this.gerritInProcess = globalConfig.getBoolean(KEY_GERRIT_IN_PROCESS, DEFAULT_GERRIT_IN_PROCESS);
+        this.gitDiffRenameDetection = getBoolean(globalConfig, projectConfig, KEY_GIT_DIFF_RENAME_DETECTION,
+                DEFAULT_GIT_DIFF_RENAME_DETECTION);
+        this.gitDiffRenameScore = getInt(globalConfig, projectConfig, KEY_GIT_DIFF_RENAME_SCORE,
+                DEFAULT_GIT_DIFF_RENAME_SCORE);
+        this.gitDiffMaxFileBytes = getInt(globalConfig, projectConfig, KEY_GIT_DIFF_MAX_FILE_BYTES,
+                DEFAULT_GIT_DIFF_MAX_FILE_BYTES);
+        this.gitDiffMaxFileDiffBytes = getInt(globalConfig, projectConfig, KEY_GIT_DIFF_MAX_FILE_DIFF_BYTES,
+                DEFAULT_GIT_DIFF_MAX_FILE_DIFF_BYTES);
+        this.maxConcurrentFetches = globalConfig.getInt(KEY_MAX_CONCURRENT_FETCHES, DEFAULT_MAX_CONCURRENT_FETCHES);
+        this.maxPrefetchedReviews = globalConfig.getInt(KEY_MAX_PREFETCHED_REVIEWS, DEFAULT_MAX_PREFETCHED_REVIEWS);
+        this.maxConcurrentPosts = globalConfig.getInt(KEY_MAX_CONCURRENT_POSTS, DEFAULT_MAX_CONCURRENT_POSTS);
+        this.maxQueuedPosts = globalConfig.getInt(KEY_MAX_QUEUED_POSTS, DEFAULT_MAX_QUEUED_POSTS);
     }
 
-    public <T> void configureDynamically(String key, T value) {
-        configsDynamically.put(key, value);
+    public String getProjectName() {
+        return projectName;
     }
 
     public String getGptToken() {
-        return getValidatedOrThrow(KEY_GPT_TOKEN);
+        return validated(gptToken, KEY_GPT_TOKEN);
     }
 
     public String getGerritAuthBaseUrl() {
-        return getValidatedOrThrow(KEY_GERRIT_AUTH_BASE_URL);
+        return validated(gerritAuthBaseUrl, KEY_GERRIT_AUTH_BASE_URL);
     }
 
     public String getGerritUserName() {
-        return getValidatedOrThrow(KEY_GERRIT_USERNAME);
+        return validated(gerritUserName, KEY_GERRIT_USERNAME);
     }
 
     public String getGerritPassword() {
-        return getValidatedOrThrow(KEY_GERRIT_PASSWORD);
+        return validated(gerritPassword, KEY_GERRIT_PASSWORD);
     }
 
     public String getGptDomain() {
-        return getString(KEY_GPT_DOMAIN, OPENAI_DOMAIN);
+        return gptDomain;
     }
 
     public String getGptModel() {
-        return getString(KEY_GPT_MODEL, DEFAULT_GPT_MODEL);
+        return gptModel;
     }
 
     public String getGptPrompt() {
-        if (configsDynamically.get(KEY_GPT_PROMPT) != null) {
-            return configsDynamically.get(KEY_GPT_PROMPT).toString();
-        }
-        return getString(KEY_GPT_PROMPT, DEFAULT_GPT_PROMPT);
+        return gptPrompt;
     }
 
     public double getGptTemperature() {
-        return Double.parseDouble(getString(KEY_GPT_TEMPERATURE, DEFAULT_GPT_TEMPERATURE));
+        return gptTemperature;
+    }
+
+    public int getGptMaxTokens() {
+        return gptMaxTokens;
+    }
+
+    public boolean isGptStreamOutput() {
+        return gptStreamOutput;
     }
 
     public boolean isProjectEnable() {
-        return projectConfig.getBoolean(KEY_PROJECT_ENABLE, DEFAULT_PROJECT_ENABLE);
+        return projectEnable;
     }
 
     public boolean isGlobalEnable() {
-        return globalConfig.getBoolean(KEY_GLOBAL_ENABLE, DEFAULT_GLOBAL_ENABLE);
+        return globalEnable;
     }
 
     public String getEnabledProjects() {
-        return globalConfig.getString(KEY_ENABLED_PROJECTS, DEFAULT_ENABLED_PROJECTS);
+        return enabledProjects;
     }
 
     public boolean isPatchSetReduction() {
-        return getBoolean(KEY_PATCH_SET_REDUCTION, DEFAULT_PATCH_SET_REDUCTION);
+        return patchSetReduction;
     }
 
     public int getMaxReviewLines() {
-        return getInt(KEY_MAX_REVIEW_LINES, DEFAULT_MAX_REVIEW_LINES);
+        return maxReviewLines;
     }
 
-    private String getValidatedOrThrow(String key) {
-        String value = projectConfig.getString(key);
+    public int getMaxConcurrentReviews() {
+        return maxConcurrentReviews;
+    }
+
+    public int getMaxConcurrentReviewsPerProject() {
+        return maxConcurrentReviewsPerProject;
+    }
+
+    public int getMaxQueuedReviewsPerProject() {
+        return maxQueuedReviewsPerProject;
+    }
+
+    public int getGptRequestsPerMinute() {
+        return gptRequestsPerMinute;
+    }
+
+    public int getGptTokensPerMinute() {
+        return gptTokensPerMinute;
+    }
+
+    public int getGptProjectRequestsPerMinute() {
+        return gptProjectRequestsPerMinute;
+    }
+
+    public int getGptProjectTokensPerMinute() {
+        return gptProjectTokensPerMinute;
+    }
+
+    public boolean isReviewCacheEnabled() {
+        return reviewCacheEnabled;
+    }
+
+    public int getReviewCacheSize() {
+        return reviewCacheSize;
+    }
+
+    public int getReviewCacheTtlMinutes() {
+        return reviewCacheTtlMinutes;
+    }
+
+    public boolean isReviewCacheDiskEnabled() {
+        return reviewCacheDiskEnabled;
+    }
+
+    public boolean isReviewChunking() {
+        return reviewChunking;
+    }
+
+    public int getMaxChunkTokens() {
+        return maxChunkTokens;
+    }
+
+    public int getMaxReviewChunks() {
+        return maxReviewChunks;
+    }
+
+    public int getMaxParallelChunks() {
+        return maxParallelChunks;
+    }
+
+    public DiffSource getDiffSource() {
+        return diffSource;
+    }
+
+    public List<String> getExcludedFiles() {
+        return excludedFiles;
+    }
+
+    public boolean isInlineComments() {
+        return inlineComments;
+    }
+
+    public boolean isDurableQueue() {
+        return durableQueue;
+    }
+
+    public int getDurableQueueMaxSizeMb() {
+        return durableQueueMaxSizeMb;
+    }
+
+    public String getCoordinationDirectory() {
+        return coordinationDirectory;
+    }
+
+    public int getCoordinationLeaseSeconds() {
+        return coordinationLeaseSeconds;
+    }
+
+    /**
+     * Returns the configured backends, or an empty list when completions only go to {@code gptDomain}.
+     */
+    public List<GptBackend> getGptBackends() {
+        return gptBackends;
+    }
+
+    public BackendSelection getGptBackendSelection() {
+        return gptBackendSelection;
+    }
+
+    /**
+     * Returns the model tiers in the order they are tried, or an empty list when every change goes to
+     * {@code gptModel}.
+     */
+    public List<ModelTier> getGptModelTiers() {
+        return gptModelTiers;
+    }
+
+    public int getReviewTimeoutSeconds() {
+        return reviewTimeoutSeconds;
+    }
+
+    public int getPatchFetchTimeoutSeconds() {
+        return patchFetchTimeoutSeconds;
+    }
+
+    public int getGptFirstTokenTimeoutSeconds() {
+        return gptFirstTokenTimeoutSeconds;
+    }
+
+    public int getGptTimeoutSeconds() {
+        return gptTimeoutSeconds;
+    }
+
+    public int getCommentPostTimeoutSeconds() {
+        return commentPostTimeoutSeconds;
+    }
+
+    public boolean isIncrementalReview() {
+        return incrementalReview;
+    }
+
+    public Set<ChangeKind> getSkipChangeKinds() {
+        return skipChangeKinds;
+    }
+
+    public boolean isSkipWorkInProgress() {
+        return skipWorkInProgress;
+    }
+
+    public boolean isSkipPrivate() {
+        return skipPrivate;
+    }
+
+    /**
+     * Returns the emails and usernames of the commit authors whose patch sets are not reviewed.
+     */
+    public List<String> getSkipAuthors() {
+        return skipAuthors;
+    }
+
+    /**
+     * Returns the emails and usernames of the accounts, e.g. bots, whose uploads are not reviewed.
+     */
+    public List<String> getSkipUploaders() {
+        return skipUploaders;
+    }
+
+    public List<String> getSkipBranches() {
+        return skipBranches;
+    }
+
+    public List<String> getSkipFiles() {
+        return skipFiles;
+    }
+
+    public boolean isGerritInProcess() {
+        return gerritInProcess;
+    }
+
+    public boolean isGitDiffRenameDetection() {
+        return gitDiffRenameDetection;
+    }
+
+    public int getGitDiffRenameScore() {
+        return gitDiffRenameScore;
+    }
+
+    public int getGitDiffMaxFileBytes() {
+        return gitDiffMaxFileBytes;
+    }
+
+    public int getGitDiffMaxFileDiffBytes() {
+        return gitDiffMaxFileDiffBytes;
+    }
+
+    public int getMaxConcurrentFetches() {
+        return maxConcurrentFetches;
+    }
+
+    public int getMaxPrefetchedReviews() {
+        return maxPrefetchedReviews;
+    }
+
+    public int getMaxConcurrentPosts() {
+        return maxConcurrentPosts;
+    }
+
+    public int getMaxQueuedPosts() {
+        return maxQueuedPosts;
+    }
+
+    private static String validated(String value, String key) {
         if (value == null) {
-            value = globalConfig.getString(key);
+            throw new RuntimeException(String.format(NOT_CONFIGURED_ERROR_MSG, key));
+        }
+        return value;
+    }
+
+    private static DiffSource getDiffSource(PluginConfig globalConfig, PluginConfig projectConfig) {
+        String value = getString(globalConfig, projectConfig, KEY_DIFF_SOURCE, DEFAULT_DIFF_SOURCE.name());
+        try {
+            return DiffSource.valueOf(value.trim().toUpperCase(Locale.ROOT));
+        } catch (IllegalArgumentException e) {
+            log.warn("Unknown {}: {}, falling back to {}", KEY_DIFF_SOURCE, value, DEFAULT_DIFF_SOURCE);
+            return DEFAULT_DIFF_SOURCE;
+        }
+    }
+
+    private static Set<ChangeKind> getSkipChangeKinds(PluginConfig globalConfig, PluginConfig projectConfig) {
+        Set<ChangeKind> kinds = EnumSet.noneOf(ChangeKind.class);
+        for (String value : getList(globalConfig, projectConfig, KEY_SKIP_CHANGE_KINDS, DEFAULT_SKIP_CHANGE_KINDS)) {
+            try {
+                kinds.add(ChangeKind.valueOf(value.toUpperCase(Locale.ROOT)));
+            } catch (IllegalArgumentException e) {
+                log.warn("Unknown change kind in {}: {}", KEY_SKIP_CHANGE_KINDS, value);
+            }
+        }
+        return Set.copyOf(kinds);
+    }
+
+    private static List<String> getList(PluginConfig globalConfig, PluginConfig projectConfig, String key,
+                                        String defaultValue) {
+        return Splitter.on(',').trimResults().omitEmptyStrings()
+                .splitToList(getString(globalConfig, projectConfig, key, defaultValue));
+    }
+
+    private static List<GptBackend> getGptBackends(PluginConfig globalConfig) {
+        List<GptBackend> backends = new ArrayList<>();
+        for (String value : globalConfig.getStringList(KEY_GPT_BACKEND)) {
+            GptBackend.parse(value).ifPresent(backends::add);
+        }
+        return List.copyOf(backends);
+    }
+
+    private static List<ModelTier> getGptModelTiers(PluginConfig globalConfig, PluginConfig projectConfig) {
+        // The tiers of a project replace the global tiers as a whole
+        String[] values = projectConfig.getStringList(KEY_GPT_MODEL_TIER);
+        if (values.length == 0) {
+            values = globalConfig.getStringList(KEY_GPT_MODEL_TIER);
+        }
+        List<ModelTier> tiers = new ArrayList<>();
+        for (String value : values) {
+            ModelTier.parse(value).ifPresent(tiers::add);
+        }
+        return List.copyOf(tiers);
+    }
+
+    private static BackendSelection getGptBackendSelection(PluginConfig globalConfig) {
+        String value = globalConfig.getString(KEY_GPT_BACKEND_SELECTION, DEFAULT_GPT_BACKEND_SELECTION.name());
+        try {
+            return BackendSelection.valueOf(value.trim().toUpperCase(Locale.ROOT));
+        } catch (IllegalArgumentException e) {
+            log.warn("Unknown {}: {}, falling back to {}", KEY_GPT_BACKEND_SELECTION, value,
+                    DEFAULT_GPT_BACKEND_SELECTION);
+            return DEFAULT_GPT_BACKEND_SELECTION;
         }
+    }
+
+    private static String getValidatedOrNull(PluginConfig globalConfig, PluginConfig projectConfig, String key) {
+        String value = projectConfig.getString(key);
         if (value == null) {
-            throw new RuntimeException(String.format(NOT_CONFIGURED_ERROR_MSG, key));
+            value = globalConfig.getString(key);
         }
         return value;
     }
 
-    private String getString(String key, String defaultValue) {
+    private static String getString(PluginConfig globalConfig, PluginConfig projectConfig, String key,
+                                    String defaultValue) {
         String value = projectConfig.getString(key);
         if (value != null) {
             return value;
@@ -119,7 +650,7 @@ public class Configuration {
         return globalConfig.getString(key, defaultValue);
     }
 
-    private int getInt(String key, int defaultValue) {
+    private static int getInt(PluginConfig globalConfig, PluginConfig projectConfig, String key, int defaultValue) {
         int valueForProject = projectConfig.getInt(key, defaultValue);
         if (valueForProject != defaultValue) {
             return valueForProject;
@@ -127,14 +658,12 @@ public class Configuration {
         return globalConfig.getInt(key, defaultValue);
     }
 
-    private boolean getBoolean(String key, boolean defaultValue) {
+    private static boolean getBoolean(PluginConfig globalConfig, PluginConfig projectConfig, String key,
+                                      boolean defaultValue) {
         boolean valueForProject = projectConfig.getBoolean(key, defaultValue);
         if (projectConfig.getString(key) != null) {
             return valueForProject;
         }
         return globalConfig.getBoolean(key, defaultValue);
     }
-
-
 }
-
@@ -0,0 +1,13 @@
+package com.googlesource.gerrit.plugins.chatgpt.config;
+
+/**
+ * Where the diff of a patch set is fetched from.
+ */
+public enum DiffSource {
+    // The whole change as one formatted patch
+    PATCH,
+    // The file list and the diffs of the files that are not excluded, fetched in parallel
+    FILES,
+    // The commit of the patch set diffed against its parent in the project repository
+    GIT
+}
@@ -0,0 +1,77 @@
+package com.googlesource.gerrit.plugins.chatgpt.config;
+
+import lombok.Value;
+import lombok.extern.slf4j.Slf4j;
+
+import java.util.Map;
+import java.util.Optional;
+
+/**
+ * An OpenAI-compatible endpoint that completions can be sent to, configured as
+ * {@code <domain> [weight=<weight>] [model=<model>] [token=<token>]}. A backend with a model only serves completions
+ * of that model, a backend without one serves every model. Without a token, the backend uses {@code gptToken}.
+ */
+@Slf4j
+@Value
+public class GptBackend {
+    private static final int DEFAULT_WEIGHT = 1;
+
+    String domain;
+    String token;
+    String model;
+    int weight;
+
+    public static GptBackend of(String domain) {
+        return new GptBackend(domain, null, null, DEFAULT_WEIGHT);
+    }
+
+    static Optional<GptBackend> parse(String value) {
+        Optional<NamedSettings> parsed = NamedSettings.parse(value);
+        if (parsed.isEmpty()) {
+            return Optional.empty();
+        }
+        String domain = parsed.get().getName();
+        String token = null;
+        String model = null;
+        int weight = DEFAULT_WEIGHT;
+        for (Map.Entry<String, String> entry : parsed.get().getSettings().entrySet()) {
+            String setting = entry.getValue();
+            switch (entry.getKey()) {
+                case "token":
+                    token = setting;
+                    break;
+                case "model":
+                    model = setting;
+                    break;
+                case "weight":
+                    try {
+                        weight = Integer.parseInt(setting);
+                    } catch (NumberFormatException e) {
+                        log.warn("Invalid weight of backend {}: {}", domain, setting);
+                        return Optional.empty();
+                    }
+                    break;
+                default:
+                    log.warn("Unknown setting of backend {}: {}", domain, entry.getKey());
+            }
+        }
+        if (weight <= 0) {
+            log.warn("Ignoring backend {} with weight {}", domain, weight);
+            return Optional.empty();
+        }
+        return Optional.of(new GptBackend(domain, token, model, weight));
+    }
+
+    /**
+     * Whether completions of {@code model} may be sent to this backend.
+     */
+    public boolean serves(String model) {
+        return this.model == null || this.model.equals(model);
+    }
+
+    @Override
+    public String toString() {
+        // Keeps the token out of the logs
+        return model == null ? domain : domain + " (" + model + ")";
+    }
+}
@@ -0,0 +1,62 @@
+package com.googlesource.gerrit.plugins.chatgpt.config;
+
+import com.google.common.base.Splitter;
+import lombok.Value;
+import lombok.extern.slf4j.Slf4j;
+
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+
+/**
+ * A model that reviews the changes within its limits, configured as
+ * {@code <model> maxTokens=<tokens> [maxChangedLines=<lines>] [files=<glob>,<glob>]}. {@code maxTokens} is the
+ * context window left for the prompt. Without {@code maxChangedLines} or {@code files}, the tier takes changes of
+ * any number of lines and of any files.
+ */
+@Slf4j
+@Value
+public class ModelTier {
+    String model;
+    int maxTokens;
+    int maxChangedLines;
+    List<String> files;
+
+    static Optional<ModelTier> parse(String value) {
+        Optional<NamedSettings> parsed = NamedSettings.parse(value);
+        if (parsed.isEmpty()) {
+            return Optional.empty();
+        }
+        String model = parsed.get().getName();
+        int maxTokens = 0;
+        int maxChangedLines = 0;
+        List<String> files = List.of();
+        for (Map.Entry<String, String> entry : parsed.get().getSettings().entrySet()) {
+            String key = entry.getKey();
+            String setting = entry.getValue();
+            try {
+                switch (key) {
+                    case "maxTokens":
+                        maxTokens = Integer.parseInt(setting);
+                        break;
+                    case "maxChangedLines":
+                        maxChangedLines = Integer.parseInt(setting);
+                        break;
+                    case "files":
+                        files = Splitter.on(',').trimResults().omitEmptyStrings().splitToList(setting);
+                        break;
+                    default:
+                        log.warn("Unknown setting of model tier {}: {}", model, key);
+                }
+            } catch (NumberFormatException e) {
+                log.warn("Invalid {} of model tier {}: {}", key, model, setting);
+                return Optional.empty();
+            }
+        }
+        if (maxTokens <= 0) {
+            log.warn("Ignoring model tier {} without maxTokens", model);
+            return Optional.empty();
+        }
+        return Optional.of(new ModelTier(model, maxTokens, maxChangedLines, files));
+    }
+}
@@ -0,0 +1,34 @@
+package com.googlesource.gerrit.plugins.chatgpt.config;
+
+import com.google.common.base.Splitter;
+import lombok.Value;
+
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+
+/**
+ * A config value of the form {@code <name> [<key>=<setting>] ...}, e.g. of a backend or a model tier. A key without
+ * {@code =} has an empty setting. The settings keep the order they were configured in.
+ */
+@Value
+class NamedSettings {
+    String name;
+    Map<String, String> settings;
+
+    static Optional<NamedSettings> parse(String value) {
+        List<String> parts = Splitter.on(' ').trimResults().omitEmptyStrings().splitToList(value);
+        if (parts.isEmpty()) {
+            return Optional.empty();
+        }
+        Map<String, String> settings = new LinkedHashMap<>();
+        for (String part : parts.subList(1, parts.size())) {
+            int separator = part.indexOf('=');
+            String key = separator < 0 ? part : part.substring(0, separator);
+            settings.put(key, separator < 0 ? "" : part.substring(separator + 1));
+        }
+        return Optional.of(new NamedSettings(parts.get(0), Collections.unmodifiableMap(settings)));
+    }
+}
@@ -0,0 +1,40 @@
+package com.googlesource.gerrit.plugins.chatgpt.coordination;
+
+import com.googlesource.gerrit.plugins.chatgpt.config.Configuration;
+
+import java.util.Optional;
+
+/**
+ * Makes sure that only one Gerrit node reviews a patch set when every node of a cluster receives the same event.
+ * A node claims a review before running it and holds a lease on it while it runs. When the node dies, its lease
+ * expires and another node can claim the review.
+ */
+public interface ReviewCoordinator {
+
+    /**
+     * Claims the review with the given key for this node. Returns empty when another node holds a live lease on the
+     * review, when it is done already or when this node is shut down.
+     */
+    Optional<Lease> tryClaim(Configuration config, String key);
+
+    boolean isDone(Configuration config, String key);
+
+    /**
+     * Stops renewing the leases of this node, which then expire unless they are closed.
+     */
+    void shutdown();
+
+    interface Lease extends AutoCloseable {
+
+        /**
+         * Marks the review as done, so no other node claims it again.
+         */
+        void complete();
+
+        /**
+         * Gives up the lease. Unless the review was completed, another node can claim it right away.
+         */
+        @Override
+        void close();
+    }
+}
@@ -0,0 +1,302 @@
+package com.googlesource.gerrit.plugins.chatgpt.coordination;
+
+import com.google.common.base.Strings;
+import com.google.common.hash.Hashing;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+import com.google.inject.Inject;
+import com.google.inject.Singleton;
+import com.googlesource.gerrit.plugins.chatgpt.config.Configuration;
+import lombok.extern.slf4j.Slf4j;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.DirectoryStream;
+import java.nio.file.FileAlreadyExistsException;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.time.Clock;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.Optional;
+import java.util.UUID;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Coordinates the nodes of a cluster through lease files in a directory that all nodes share, e.g. on NFS.
+ * A lease file is created atomically and names its owner and its expiry. The owner renews the lease while the review
+ * runs and leaves a done marker when the review is complete. An expired lease is taken over by renaming it first,
+ * so only one of the nodes that find it expired can take it over. While a node checks a lease that way, the lease
+ * is missing for its owner, whose renewal then tries again later. Without a configured directory every claim
+ * succeeds, which is right for a single node.
+ */
+@Slf4j
+@Singleton
+public class SharedDirectoryReviewCoordinator implements ReviewCoordinator {
+    private static final String LEASE_SUFFIX = ".lease";
+    private static final String DONE_SUFFIX = ".done";
+    private static final Duration DONE_RETENTION = Duration.ofDays(7);
+    private static final int DONE_PRUNE_INTERVAL = 64;
+    private static final Lease LOCAL_LEASE = new Lease() {
+        @Override
+        public void complete() {
+        }
+
+        @Override
+        public void close() {
+        }
+    };
+
+    private final String nodeId;
+    private final Clock clock;
+    private final ScheduledExecutorService renewals = Executors.newSingleThreadScheduledExecutor(
+            new ThreadFactoryBuilder()
+                    .setNameFormat("ReviewLeaseRenewal-%d")
+                    .setDaemon(true)
+                    .build());
+    private final AtomicInteger completions = new AtomicInteger();
+
+    @Inject
+    public SharedDirectoryReviewCoordinator() {
+        this(UUID.randomUUID().toString(), Clock.systemUTC());
+    }
+
+    public SharedDirectoryReviewCoordinator(String nodeId, Clock clock) {
+        this.nodeId = nodeId;
+        this.clock = clock;
+    }
+
+    @Override
+    public Optional<Lease> tryClaim(Configuration config, String key) {
+        if (Strings.isNullOrEmpty(config.getCoordinationDirectory())) {
+            return Optional.of(LOCAL_LEASE);
+        }
+        if (renewals.isShutdown()) {
+            return Optional.empty();
+        }
+        Path directory = Paths.get(config.getCoordinationDirectory());
+        String name = fileName(key);
+        Path leaseFile = directory.resolve(name + LEASE_SUFFIX);
+        Path doneFile = directory.resolve(name + DONE_SUFFIX);
+        Duration leaseDuration = Duration.ofSeconds(Math.max(1, config.getCoordinationLeaseSeconds()));
+        try {
+            Files.createDirectories(directory);
+            if (Files.exists(doneFile)) {
+                return Optional.empty();
+            }
+            if (!create(leaseFile, leaseDuration) && !takeOver(directory, name, leaseFile, leaseDuration)) {
+                return Optional.empty();
+            }
+            FileLease lease = new FileLease(directory, leaseFile, doneFile, leaseDuration);
+            // The previous owner may have completed the review just before its lease expired
+            if (Files.exists(doneFile)) {
+                lease.close();
+                return Optional.empty();
+            }
+            log.debug("Claimed review {}", key);
+            return Optional.of(lease);
+        } catch (IOException e) {
+            // Reviewing twice is better than not reviewing at all
+            log.error("Failed to claim review {} in {}, reviewing without a lease", key, directory, e);
+            return Optional.of(LOCAL_LEASE);
+        }
+    }
+
+    @Override
+    public void shutdown() {
+        renewals.shutdown();
+    }
+
+    @Override
+    public boolean isDone(Configuration config, String key) {
+        if (Strings.isNullOrEmpty(config.getCoordinationDirectory())) {
+            return false;
+        }
+        return Files.exists(Paths.get(config.getCoordinationDirectory()).resolve(fileName(key) + DONE_SUFFIX));
+    }
+
+    private boolean create(Path leaseFile, Duration leaseDuration) throws IOException {
+        try {
+            Files.write(leaseFile, leaseContent(leaseDuration), StandardOpenOption.CREATE_NEW,
+                    StandardOpenOption.WRITE);
+            return true;
+        } catch (FileAlreadyExistsException e) {
+            return false;
+        }
+    }
+
+    private boolean takeOver(Path directory, String name, Path leaseFile, Duration leaseDuration)
+            throws IOException {
+        if (!isExpired(leaseFile, leaseDuration)) {
+            return false;
+        }
+        // Only one node can rename the expired lease away
+        Path expiredFile = directory.resolve(name + "." + nodeId + ".expired");
+        try {
+            Files.move(leaseFile, expiredFile, StandardCopyOption.ATOMIC_MOVE);
+        } catch (NoSuchFileException e) {
+            return false;
+        }
+        if (!isExpired(expiredFile, leaseDuration)) {
+            // Another node took the lease over in the meantime, give it back
+            try {
+                Files.move(expiredFile, leaseFile, StandardCopyOption.ATOMIC_MOVE);
+            } catch (FileAlreadyExistsException e) {
+                Files.deleteIfExists(expiredFile);
+            }
+            return false;
+        }
+        log.info("Taking over expired lease {} of {}", leaseFile, owner(expiredFile).orElse("an unknown node"));
+        Files.deleteIfExists(expiredFile);
+        return create(leaseFile, leaseDuration);
+    }
+
+    private boolean isExpired(Path leaseFile, Duration leaseDuration) throws IOException {
+        try {
+            String[] content = read(leaseFile);
+            Instant expiresAt;
+            if (content.length == 2) {
+                expiresAt = Instant.ofEpochMilli(Long.parseLong(content[1]));
+            } else {
+                // Created but not written yet, or torn by a crash
+                expiresAt = Files.getLastModifiedTime(leaseFile).toInstant().plus(leaseDuration);
+            }
+            return clock.instant().isAfter(expiresAt);
+        } catch (NoSuchFileException e) {
+            return false;
+        } catch (NumberFormatException e) {
+            return clock.instant().isAfter(Files.getLastModifiedTime(leaseFile).toInstant().plus(leaseDuration));
+        }
+    }
+
+    private Optional<String> owner(Path leaseFile) {
+        try {
+            String[] content = read(leaseFile);
+            return content.length == 2 ? Optional.of(content[0]) : Optional.empty();
+        } catch (IOException e) {
+            return Optional.empty();
+        }
+    }
+
+    private static String[] read(Path leaseFile) throws IOException {
+        String content = Files.readString(leaseFile, StandardCharsets.UTF_8).trim();
+        return content.isEmpty() ? new String[0] : content.split(" ");
+    }
+
+    private byte[] leaseContent(Duration leaseDuration) {
+        long expiresAt = clock.instant().plus(leaseDuration).toEpochMilli();
+        return (nodeId + " " + expiresAt + "\n").getBytes(StandardCharsets.UTF_8);
+    }
+
+    private static String fileName(String key) {
+        return Hashing.sha256().hashString(key, StandardCharsets.UTF_8).toString();
+    }
+
+    private void pruneDoneFiles(Path directory) {
+        Instant cutoff = clock.instant().minus(DONE_RETENTION);
+        try (DirectoryStream<Path> doneFiles = Files.newDirectoryStream(directory, "*" + DONE_SUFFIX)) {
+            for (Path doneFile : doneFiles) {
+                if (Files.getLastModifiedTime(doneFile).toInstant().isBefore(cutoff)) {
+                    Files.deleteIfExists(doneFile);
+                }
+            }
+        } catch (IOException e) {
+            log.warn("Failed to prune done markers in {}", directory, e);
+        }
+    }
+
+    private class FileLease implements Lease {
+        private final Path directory;
+        private final Path leaseFile;
+        private final Path doneFile;
+        private final Duration leaseDuration;
+        private final ScheduledFuture<?> renewal;
+        private boolean closed;
+
+        private FileLease(Path directory, Path leaseFile, Path doneFile, Duration leaseDuration) {
+            this.directory = directory;
+            this.leaseFile = leaseFile;
+            this.doneFile = doneFile;
+            this.leaseDuration = leaseDuration;
+            long renewalMillis = Math.max(1, leaseDuration.toMillis() / 3);
+            this.renewal = renewals.scheduleAtFixedRate(this::renew, renewalMillis, renewalMillis,
+                    TimeUnit.MILLISECONDS);
+        }
+
+        @Override
+        public void complete() {
+            try {
+                Files.write(doneFile, nodeId.getBytes(StandardCharsets.UTF_8));
+            } catch (IOException e) {
+                log.error("Failed to mark {} as done", doneFile, e);
+            }
+            if (completions.incrementAndGet() % DONE_PRUNE_INTERVAL == 0) {
+                pruneDoneFiles(directory);
+            }
+        }
+
+        @Override
+        public synchronized void close() {
+            if (closed) {
+                return;
+            }
+            closed = true;
+            renewal.cancel(false);
+            if (isOwned()) {
+                try {
+                    Files.deleteIfExists(leaseFile);
+                } catch (IOException e) {
+                    log.warn("Failed to release lease {}", leaseFile, e);
+                }
+            }
+        }
+
+        private synchronized void renew() {
+            if (closed) {
+                return;
+            }
+            Optional<String> owner = owner(leaseFile);
+            if (owner.isEmpty()) {
+                // E.g. renamed away by a node checking whether it expired, which gives it back unless it did
+                log.debug("Lease {} is missing, renewing it next time", leaseFile);
+                return;
+            }
+            if (!owner.get().equals(nodeId)) {
+                log.warn("Lost lease {} to another node", leaseFile);
+                renewal.cancel(false);
+                return;
+            }
+            Path renewed = null;
+            try {
+                renewed = Files.createTempFile(directory, leaseFile.getFileName().toString(), ".tmp");
+                Files.write(renewed, leaseContent(leaseDuration));
+                Files.move(renewed, leaseFile, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+            } catch (IOException e) {
+                log.warn("Failed to renew lease {}", leaseFile, e);
+                deleteQuietly(renewed);
+            }
+        }
+
+        private void deleteQuietly(Path file) {
+            if (file == null) {
+                return;
+            }
+            try {
+                Files.deleteIfExists(file);
+            } catch (IOException e) {
+                log.debug("Failed to delete {}", file, e);
+            }
+        }
+
+        private boolean isOwned() {
+            return owner(leaseFile).map(nodeId::equals).orElse(false);
+        }
+    }
+}
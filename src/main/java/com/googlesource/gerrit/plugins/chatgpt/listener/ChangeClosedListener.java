@@ -0,0 +1,40 @@
+package com.googlesource.gerrit.plugins.chatgpt.listener;
+
+import com.google.gerrit.server.events.ChangeAbandonedEvent;
+import com.google.gerrit.server.events.ChangeEvent;
+import com.google.gerrit.server.events.ChangeMergedEvent;
+import com.google.gerrit.server.events.Event;
+import com.google.gerrit.server.events.EventListener;
+import com.google.inject.Inject;
+import com.googlesource.gerrit.plugins.chatgpt.ReviewHistory;
+import lombok.extern.slf4j.Slf4j;
+
+/**
+ * Cancels the review of a change once it is abandoned or merged, since nobody reads a review of a closed change, and
+ * forgets its review history.
+ */
+@Slf4j
+public class ChangeClosedListener implements EventListener {
+    private final EventListenerHandler eventListenerHandler;
+    private final ReviewHistory reviewHistory;
+
+    @Inject
+    public ChangeClosedListener(EventListenerHandler eventListenerHandler, ReviewHistory reviewHistory) {
+        this.eventListenerHandler = eventListenerHandler;
+        this.reviewHistory = reviewHistory;
+    }
+
+    @Override
+    public void onEvent(Event event) {
+        if (!(event instanceof ChangeAbandonedEvent) && !(event instanceof ChangeMergedEvent)) {
+            return;
+        }
+
+        ChangeEvent changeEvent = (ChangeEvent) event;
+        log.debug("Processing event: {}", event);
+        String fullChangeId = EventListenerHandler.buildFullChangeId(changeEvent.getProjectNameKey(),
+                changeEvent.getBranchNameKey(), changeEvent.getChangeKey());
+        eventListenerHandler.cancel(fullChangeId);
+        reviewHistory.remove(fullChangeId);
+    }
+}
@@ -0,0 +1,65 @@
+package com.googlesource.gerrit.plugins.chatgpt.listener;
+
+import com.google.gerrit.entities.Project;
+import com.google.gerrit.server.data.ChangeAttribute;
+import com.google.gerrit.server.events.Event;
+import com.google.gerrit.server.events.EventListener;
+import com.google.gerrit.server.events.PatchSetEvent;
+import com.google.gerrit.server.events.PrivateStateChangedEvent;
+import com.google.gerrit.server.events.WorkInProgressStateChangedEvent;
+import com.google.gerrit.server.project.NoSuchProjectException;
+import com.google.inject.Inject;
+import com.googlesource.gerrit.plugins.chatgpt.ReviewFilter;
+import com.googlesource.gerrit.plugins.chatgpt.config.ConfigCreator;
+import com.googlesource.gerrit.plugins.chatgpt.config.Configuration;
+import lombok.extern.slf4j.Slf4j;
+
+/**
+ * Reviews the current patch set of a change that was skipped as work in progress or private, once it is marked
+ * ready for review or made public.
+ */
+@Slf4j
+public class ChangeReadyListener implements EventListener {
+    private final ConfigCreator configCreator;
+
+    private final EventListenerHandler eventListenerHandler;
+
+    private final ReviewFilter reviewFilter;
+
+    @Inject
+    public ChangeReadyListener(ConfigCreator configCreator, EventListenerHandler eventListenerHandler,
+                               ReviewFilter reviewFilter) {
+        this.configCreator = configCreator;
+        this.eventListenerHandler = eventListenerHandler;
+        this.reviewFilter = reviewFilter;
+    }
+
+    @Override
+    public void onEvent(Event event) {
+        if (!(event instanceof WorkInProgressStateChangedEvent) && !(event instanceof PrivateStateChangedEvent)) {
+            return;
+        }
+
+        PatchSetEvent patchSetEvent = (PatchSetEvent) event;
+        ChangeAttribute change = patchSetEvent.change == null ? null : patchSetEvent.change.get();
+        if (change == null) {
+            return;
+        }
+        Project.NameKey projectNameKey = patchSetEvent.getProjectNameKey();
+        try {
+            Configuration config = configCreator.createConfig(projectNameKey);
+            boolean becameReady = event instanceof WorkInProgressStateChangedEvent
+                    ? config.isSkipWorkInProgress() && Boolean.FALSE.equals(change.wip)
+                    : config.isSkipPrivate() && Boolean.FALSE.equals(change.isPrivate);
+            if (!becameReady) {
+                return;
+            }
+            log.info("Processing event: {}", event);
+            if (reviewFilter.accept(config, patchSetEvent)) {
+                eventListenerHandler.handleEvent(config, patchSetEvent);
+            }
+        } catch (NoSuchProjectException e) {
+            log.error("Project not found: {}", projectNameKey, e);
+        }
+    }
+}
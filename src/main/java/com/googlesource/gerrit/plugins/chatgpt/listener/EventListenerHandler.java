@@ -1,37 +1,69 @@
 package com.googlesource.gerrit.plugins.chatgpt.listener;
 
 import com.google.common.base.Splitter;
-import com.google.common.util.concurrent.ThreadFactoryBuilder;
+import com.google.common.base.Strings;
+import com.google.common.base.Supplier;
 import com.google.gerrit.entities.BranchNameKey;
 import com.google.gerrit.entities.Change;
 import com.google.gerrit.entities.Project;
+import com.google.gerrit.server.data.PatchSetAttribute;
 import com.google.gerrit.server.events.ChangeEvent;
+import com.google.gerrit.server.events.PatchSetEvent;
 import com.google.inject.Inject;
+import com.google.inject.Singleton;
 import com.googlesource.gerrit.plugins.chatgpt.PatchSetReviewer;
+import com.googlesource.gerrit.plugins.chatgpt.client.Deadline;
+import com.googlesource.gerrit.plugins.chatgpt.client.ReviewInput;
 import com.googlesource.gerrit.plugins.chatgpt.config.Configuration;
+import com.googlesource.gerrit.plugins.chatgpt.coordination.ReviewCoordinator;
+import com.googlesource.gerrit.plugins.chatgpt.metrics.ReviewMetrics;
+import lombok.Value;
 import lombok.extern.slf4j.Slf4j;
 
 import java.util.List;
-import java.util.concurrent.*;
+import java.util.Map;
+import java.util.Optional;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
 
+/**
+ * Runs reviews as a pipeline of three stages, so the model, the bottleneck, never waits on Gerrit. The patch set of
+ * a queued review is fetched and reduced on the fetch stage while the review waits for a worker of the
+ * {@link ReviewScheduler}. The worker then only asks the model and hands the review over to the post stage, taking
+ * the next review while the comments are posted.
+ */
 @Slf4j
+@Singleton
 public class EventListenerHandler {
+    private static final long BYTES_PER_MB = 1024 * 1024;
 
     private final PatchSetReviewer reviewer;
-    private final BlockingQueue<Runnable> queue = new ArrayBlockingQueue<>(100);
-    private final RejectedExecutionHandler handler = new ThreadPoolExecutor.CallerRunsPolicy();
-    private final ThreadFactory threadFactory = new ThreadFactoryBuilder()
-            .setNameFormat("EventListenerHandler-%d")
-            .build();
-    private final ExecutorService executorService = new ThreadPoolExecutor(
-            1, 1, 0L, TimeUnit.MILLISECONDS, queue, threadFactory, handler);
+    private final ReviewScheduler reviewScheduler;
+    private final ReviewJournal reviewJournal;
+    private final ReviewCoordinator reviewCoordinator;
+    private final ReviewMetrics metrics;
+    private final ReviewStage fetchStage = new ReviewStage("EventListenerHandler-fetch");
+    private final ReviewStage postStage = new ReviewStage("EventListenerHandler-post");
+    // The claim key of the newest patch set per change
+    private final Map<String, String> latestClaimKeys = new ConcurrentHashMap<>();
+    // Patch sets fetched ahead of their review, by claim key
+    private final Map<String, Prefetch> prefetches = new ConcurrentHashMap<>();
     private CompletableFuture<Void> latestFuture;
 
     @Inject
-    public EventListenerHandler(PatchSetReviewer reviewer) {
+    public EventListenerHandler(PatchSetReviewer reviewer, ReviewScheduler reviewScheduler,
+                                ReviewJournal reviewJournal, ReviewCoordinator reviewCoordinator,
+                                ReviewMetrics metrics) {
         this.reviewer = reviewer;
-
-        addShutdownHoot();
+        this.reviewScheduler = reviewScheduler;
+        this.reviewJournal = reviewJournal;
+        this.reviewCoordinator = reviewCoordinator;
+        this.metrics = metrics;
     }
 
     public static String buildFullChangeId(Project.NameKey projectName, BranchNameKey branchName, Change.Key changeKey) {
@@ -41,21 +73,14 @@ public class EventListenerHandler {
         return String.join("~", projectNameEscaped, branchName.shortName(), changeKey.get());
     }
 
-    private void addShutdownHoot() {
-        Runtime.getRuntime().addShutdownHook(new Thread(() -> {
-            executorService.shutdown();
-            try {
-                if (!executorService.awaitTermination(60, TimeUnit.SECONDS)) {
-                    executorService.shutdownNow();
-                }
-            } catch (InterruptedException ex) {
-                executorService.shutdownNow();
-                Thread.currentThread().interrupt();
-            }
-        }));
+    public void handleEvent(Configuration config, ChangeEvent changeEvent) {
+        handleEvent(config, changeEvent, null);
     }
 
-    public void handleEvent(Configuration config, ChangeEvent changeEvent) {
+    /**
+     * Schedules a review of the change, or an answer to {@code question} when it is not null.
+     */
+    public void handleEvent(Configuration config, ChangeEvent changeEvent, String question) {
         Project.NameKey projectNameKey = changeEvent.getProjectNameKey();
         BranchNameKey branchNameKey = changeEvent.getBranchNameKey();
         Change.Key changeKey = changeEvent.getChangeKey();
@@ -71,23 +96,315 @@ public class EventListenerHandler {
             return;
         }
 
+        // A new patch set makes the review of any older patch set of the same change obsolete
+        String coalescingKey = question == null && changeEvent instanceof PatchSetEvent ? fullChangeId : null;
+        ReviewRequest request = new ReviewRequest(projectNameKey.get(), fullChangeId, coalescingKey, question,
+                claimKey(changeEvent, fullChangeId, question));
+
+        Optional<ReviewJournal.Entry> journalEntry = config.isDurableQueue()
+                ? reviewJournal.accept(request, config.getDurableQueueMaxSizeMb() * BYTES_PER_MB)
+                : Optional.empty();
+        schedule(config, request, journalEntry.orElse(null));
+    }
+
+    /**
+     * Stops reviewing a change that was abandoned or merged. A pending review is skipped when its turn comes and a
+     * running review is interrupted.
+     */
+    public void cancel(String fullChangeId) {
+        String claimKey = latestClaimKeys.remove(fullChangeId);
+        if (claimKey != null) {
+            log.info("Cancelling the review of closed change {}", fullChangeId);
+            discardPrefetch(claimKey);
+            reviewScheduler.cancel(fullChangeId);
+        }
+    }
+
+    /**
+     * Schedules a review that was accepted before Gerrit restarted.
+     */
+    public void replay(Configuration config, ReviewJournal.Entry journalEntry) {
+        schedule(config, journalEntry.getRequest(), journalEntry);
+    }
+
+    private static String claimKey(ChangeEvent changeEvent, String fullChangeId, String question) {
+        if (question == null && changeEvent instanceof PatchSetEvent) {
+            Supplier<PatchSetAttribute> patchSet = ((PatchSetEvent) changeEvent).patchSet;
+            if (patchSet != null && patchSet.get() != null) {
+                return fullChangeId + "/" + patchSet.get().number;
+            }
+        }
+        // Every node receives the same event, created at the same time
+        return String.join("/", fullChangeId, Long.toString(changeEvent.eventCreatedOn),
+                Strings.nullToEmpty(question));
+    }
+
+    private void schedule(Configuration config, ReviewRequest request, ReviewJournal.Entry journalEntry) {
+        if (request.getCoalescingKey() != null) {
+            String previousClaimKey = latestClaimKeys.put(request.getCoalescingKey(), request.getClaimKey());
+            if (previousClaimKey != null && !previousClaimKey.equals(request.getClaimKey())) {
+                discardPrefetch(previousClaimKey);
+            }
+        }
+        prefetch(config, request);
+        long receivedAt = System.nanoTime();
+        CompletableFuture<Void> reviewed = new CompletableFuture<>();
         // Execute the potentially time-consuming operation asynchronously
-        latestFuture = CompletableFuture.runAsync(() -> {
+        reviewScheduler.submit(config, request.getProjectName(), request.getCoalescingKey(), journalEntry != null,
+                        () -> run(config, request, journalEntry, receivedAt, reviewed))
+                .whenComplete((result, error) -> {
+                    // Shed or replaced by a newer request before it started
+                    if (error != null) {
+                        discardPrefetch(request.getClaimKey());
+                        // Left alone when a newer request replaced this one
+                        if (request.getCoalescingKey() != null) {
+                            latestClaimKeys.remove(request.getCoalescingKey(), request.getClaimKey());
+                        }
+                        reviewed.completeExceptionally(error);
+                    }
+                });
+        latestFuture = reviewed;
+    }
+
+    /**
+     * Fetches and reduces the patch set on the fetch stage while the review waits for a worker. At most
+     * {@code maxPrefetchedReviews} patch sets are held ahead of their review. The review is claimed first, so only
+     * the node that reviews the patch set fetches it, and the lease is held until the review runs. A review whose
+     * patch set was not prefetched claims and fetches it itself.
+     */
+    private void prefetch(Configuration config, ReviewRequest request) {
+        int maxPrefetchedReviews = config.getMaxPrefetchedReviews();
+        if (maxPrefetchedReviews <= 0 || prefetches.size() >= maxPrefetchedReviews
+                || prefetches.containsKey(request.getClaimKey())) {
+            return;
+        }
+        Optional<ReviewCoordinator.Lease> lease = reviewCoordinator.tryClaim(config, request.getClaimKey());
+        if (lease.isEmpty()) {
+            return;
+        }
+        Configuration reviewConfig = reviewConfig(config, request);
+        Optional<Future<Optional<PatchSetReviewer.PreparedReview>>> prepared = fetchStage.trySubmit(
+                config.getMaxConcurrentFetches(), maxPrefetchedReviews,
+                () -> reviewer.prepare(reviewConfig, request.getFullChangeId(), request.getQuestion() == null,
+                        Deadline.afterSeconds(config.getReviewTimeoutSeconds())));
+        if (prepared.isEmpty()) {
+            lease.get().close();
+            return;
+        }
+        prefetches.put(request.getClaimKey(), new Prefetch(lease.get(), prepared.get()));
+    }
+
+    private void discardPrefetch(String claimKey) {
+        Prefetch prefetch = prefetches.remove(claimKey);
+        if (prefetch != null) {
+            prefetch.discard();
+        }
+    }
+
+    private void run(Configuration config, ReviewRequest request, ReviewJournal.Entry journalEntry,
+                     long receivedAt, CompletableFuture<Void> reviewed) {
+        String fullChangeId = request.getFullChangeId();
+        Prefetch prefetch = prefetches.remove(request.getClaimKey());
+        boolean handedOver = false;
+        try {
+            if (isSuperseded(request)) {
+                log.info("Skipping review {} superseded by a newer patch set or a closed change",
+                        request.getClaimKey());
+                if (prefetch != null) {
+                    prefetch.discard();
+                }
+                complete(request, journalEntry);
+                return;
+            }
+            Optional<ReviewCoordinator.Lease> lease = prefetch != null
+                    ? Optional.of(prefetch.getLease())
+                    : reviewCoordinator.tryClaim(config, request.getClaimKey());
+            if (lease.isEmpty()) {
+                if (reviewCoordinator.isDone(config, request.getClaimKey())) {
+                    log.info("Review {} was done by another node", request.getClaimKey());
+                    complete(request, journalEntry);
+                } else {
+                    log.info("Review {} is claimed by another node, checking again in {} seconds",
+                            request.getClaimKey(), config.getCoordinationLeaseSeconds());
+                    retryLater(config, request, journalEntry);
+                }
+                return;
+            }
+
+            ReviewCoordinator.Lease claimed = lease.get();
+            try {
+                try {
+                    handedOver = review(config, request, journalEntry, claimed,
+                            prefetch != null ? prefetch.getPrepared() : null, receivedAt, reviewed);
+                    if (handedOver) {
+                        return;
+                    }
+                } catch (InterruptedException e) {
+                    if (isSuperseded(request)) {
+                        log.info("Stopped review {} superseded by a newer patch set or a closed change",
+                                request.getClaimKey());
+                        complete(request, journalEntry);
+                        return;
+                    }
+                    // Left in the journal and unclaimed, so a review stopped by a shutdown is replayed on the next
+                    // start or taken over by another node
+                    log.error("Error while processing change: {}", fullChangeId, e);
+                    Thread.currentThread().interrupt();
+                    return;
+                } catch (Exception e) {
+                    log.error("Error while processing change: {}", fullChangeId, e);
+                }
+                claimed.complete();
+                complete(request, journalEntry);
+            } finally {
+                if (!handedOver) {
+                    claimed.close();
+                }
+            }
+        } finally {
+            discardPrefetch(request.getClaimKey());
+            if (!handedOver) {
+                reviewed.complete(null);
+            }
+        }
+    }
+
+    /**
+     * Asks the model on the worker of the scheduler and hands the review over to the post stage, together with the
+     * lease. When {@code maxQueuedPosts} reviews wait to be posted already, the worker posts itself, which holds
+     * back new reviews until the posts catch up. Returns false when there is nothing to review.
+     */
+    private boolean review(Configuration config, ReviewRequest request, ReviewJournal.Entry journalEntry,
+                           ReviewCoordinator.Lease claimed,
+                           Future<Optional<PatchSetReviewer.PreparedReview>> prefetched, long receivedAt,
+                           CompletableFuture<Void> reviewed) throws Exception {
+        log.info("Processing change: {}", request.getFullChangeId());
+        Deadline deadline = Deadline.afterSeconds(config.getReviewTimeoutSeconds());
+        Optional<PatchSetReviewer.PreparedReview> prepared = takePrepared(config, request, prefetched, deadline);
+        if (prepared.isEmpty()) {
+            log.info("Finished processing change: {}", request.getFullChangeId());
+            return false;
+        }
+        ReviewInput reviewInput = reviewer.complete(prepared.get(), deadline);
+
+        Callable<Void> post = () -> {
+            post(config, request, journalEntry, claimed, prepared.get(), reviewInput, deadline, receivedAt,
+                    reviewed);
+            return null;
+        };
+        if (postStage.trySubmit(config.getMaxConcurrentPosts(), config.getMaxQueuedPosts(), post).isEmpty()) {
+            post.call();
+        }
+        return true;
+    }
+
+    /**
+     * Returns the prefetched patch set of the review, waiting for its fetch if it is still running, or fetches it
+     * when it was not prefetched or its prefetch failed.
+     */
+    private Optional<PatchSetReviewer.PreparedReview> takePrepared(
+            Configuration config, ReviewRequest request, Future<Optional<PatchSetReviewer.PreparedReview>> prefetched,
+            Deadline deadline) throws Exception {
+        if (prefetched != null) {
+            try {
+                return prefetched.get();
+            } catch (InterruptedException e) {
+                prefetched.cancel(true);
+                throw e;
+            } catch (ExecutionException | CancellationException e) {
+                log.warn("Prefetching the patch set of {} failed, fetching it again", request.getFullChangeId(),
+                        e);
+            }
+        }
+        return reviewer.prepare(reviewConfig(config, request), request.getFullChangeId(),
+                request.getQuestion() == null, deadline);
+    }
+
+    private void post(Configuration config, ReviewRequest request, ReviewJournal.Entry journalEntry,
+                      ReviewCoordinator.Lease claimed, PatchSetReviewer.PreparedReview prepared,
+                      ReviewInput reviewInput, Deadline deadline, long receivedAt,
+                      CompletableFuture<Void> reviewed) {
+        String fullChangeId = request.getFullChangeId();
+        try (claimed) {
+            if (isSuperseded(request)) {
+                log.info("Dropping review {} superseded by a newer patch set or a closed change",
+                        request.getClaimKey());
+                complete(request, journalEntry);
+                return;
+            }
             try {
-                log.info("Processing change: {}", fullChangeId);
-                reviewer.review(config, fullChangeId);
+                reviewer.post(prepared, reviewInput, deadline);
+                metrics.recordEndToEnd(config, System.nanoTime() - receivedAt);
                 log.info("Finished processing change: {}", fullChangeId);
+            } catch (InterruptedException e) {
+                // Left in the journal and unclaimed, like a review stopped by a shutdown
+                log.error("Error while posting the review of change: {}", fullChangeId, e);
+                Thread.currentThread().interrupt();
+                return;
             } catch (Exception e) {
                 log.error("Error while processing change: {}", fullChangeId, e);
-                if (e instanceof InterruptedException) {
-                    Thread.currentThread().interrupt();
-                }
             }
-        }, executorService);
+            claimed.complete();
+            complete(request, journalEntry);
+        } finally {
+            reviewed.complete(null);
+        }
+    }
+
+    private static Configuration reviewConfig(Configuration config, ReviewRequest request) {
+        return request.getQuestion() == null ? config : config.withGptPrompt(request.getQuestion());
+    }
+
+    private boolean isSuperseded(ReviewRequest request) {
+        return request.getCoalescingKey() != null
+                && !request.getClaimKey().equals(latestClaimKeys.get(request.getCoalescingKey()));
+    }
+
+    private void retryLater(Configuration config, ReviewRequest request, ReviewJournal.Entry journalEntry) {
+        long delaySeconds = Math.max(1, config.getCoordinationLeaseSeconds());
+        CompletableFuture.delayedExecutor(delaySeconds, TimeUnit.SECONDS).execute(() -> {
+            if (isSuperseded(request)) {
+                complete(request, journalEntry);
+            } else {
+                schedule(config, request, journalEntry);
+            }
+        });
+    }
+
+    private void complete(ReviewRequest request, ReviewJournal.Entry journalEntry) {
+        if (request.getCoalescingKey() != null) {
+            latestClaimKeys.remove(request.getCoalescingKey(), request.getClaimKey());
+        }
+        if (journalEntry != null) {
+            reviewJournal.complete(journalEntry);
+        }
     }
 
     public CompletableFuture<Void> getLatestFuture() {
         return latestFuture;
     }
 
+    /**
+     * Stops the fetch and post stages. The {@link ReviewScheduler} is stopped first, so its running reviews can still
+     * hand their posts over.
+     */
+    public void shutdown() {
+        fetchStage.shutdown();
+        postStage.shutdown();
+    }
+
+    /**
+     * A patch set fetched ahead of its review, together with the lease claimed for the review.
+     */
+    @Value
+    private static class Prefetch {
+        ReviewCoordinator.Lease lease;
+        Future<Optional<PatchSetReviewer.PreparedReview>> prepared;
+
+        private void discard() {
+            prepared.cancel(true);
+            lease.close();
+        }
+    }
+
 }
@@ -47,9 +47,7 @@ public class GptMentionedCommentListener implements EventListener {
 
             String questionToGpt = comment.substring(comment.indexOf("@" + config.getGerritUserName())
                     + config.getGerritUserName().length() + 1);
-            config.configureDynamically(Configuration.KEY_GPT_PROMPT, questionToGpt);
-
-            eventListenerHandler.handleEvent(config, changeEvent);
+            eventListenerHandler.handleEvent(config, changeEvent, questionToGpt);
         } catch (NoSuchProjectException e) {
             log.error("Project not found: {}", projectNameKey, e);
         }
@@ -1,12 +1,12 @@
 package com.googlesource.gerrit.plugins.chatgpt.listener;
 
 import com.google.gerrit.entities.Project;
-import com.google.gerrit.server.events.ChangeEvent;
 import com.google.gerrit.server.events.Event;
 import com.google.gerrit.server.events.EventListener;
 import com.google.gerrit.server.events.PatchSetCreatedEvent;
 import com.google.gerrit.server.project.NoSuchProjectException;
 import com.google.inject.Inject;
+import com.googlesource.gerrit.plugins.chatgpt.ReviewFilter;
 import com.googlesource.gerrit.plugins.chatgpt.config.ConfigCreator;
 import com.googlesource.gerrit.plugins.chatgpt.config.Configuration;
 import lombok.extern.slf4j.Slf4j;
@@ -17,10 +17,14 @@ public class PatchSetCreatedListener implements EventListener {
 
     private final EventListenerHandler eventListenerHandler;
 
+    private final ReviewFilter reviewFilter;
+
     @Inject
-    public PatchSetCreatedListener(ConfigCreator configCreator, EventListenerHandler eventListenerHandler) {
+    public PatchSetCreatedListener(ConfigCreator configCreator, EventListenerHandler eventListenerHandler,
+                                   ReviewFilter reviewFilter) {
         this.configCreator = configCreator;
         this.eventListenerHandler = eventListenerHandler;
+        this.reviewFilter = reviewFilter;
     }
 
     @Override
@@ -31,12 +35,14 @@ public class PatchSetCreatedListener implements EventListener {
         }
 
         log.info("Processing event: {}", event);
-        ChangeEvent changeEvent = (ChangeEvent) event;
-        Project.NameKey projectNameKey = changeEvent.getProjectNameKey();
+        PatchSetCreatedEvent patchSetCreatedEvent = (PatchSetCreatedEvent) event;
+        Project.NameKey projectNameKey = patchSetCreatedEvent.getProjectNameKey();
 
         try {
             Configuration config = configCreator.createConfig(projectNameKey);
-            eventListenerHandler.handleEvent(config, changeEvent);
+            if (reviewFilter.accept(config, patchSetCreatedEvent)) {
+                eventListenerHandler.handleEvent(config, patchSetCreatedEvent);
+            }
         } catch (NoSuchProjectException e) {
             log.error("Project not found: {}", projectNameKey, e);
         }
@@ -0,0 +1,204 @@
+package com.googlesource.gerrit.plugins.chatgpt.listener;
+
+import com.google.gerrit.extensions.annotations.PluginData;
+import com.google.gson.Gson;
+import com.google.gson.JsonParseException;
+import com.google.inject.Inject;
+import com.google.inject.Singleton;
+import lombok.Data;
+import lombok.Value;
+import lombok.extern.slf4j.Slf4j;
+
+import java.io.BufferedOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+
+/**
+ * An append-only log of the accepted reviews under the plugin data directory, so reviews that are pending or running
+ * when Gerrit stops are replayed when it starts again. Every accepted review is appended before it is scheduled and
+ * a completion record is appended once it has run. A review with a coalescing key replaces the outstanding reviews
+ * with the same key, so a change is only reviewed once for its newest patch set. The log is compacted down to the
+ * outstanding reviews when it is loaded and every {@link #COMPACTION_INTERVAL} completions.
+ */
+@Slf4j
+@Singleton
+public class ReviewJournal {
+    private static final String JOURNAL_DIRECTORY = "review-queue";
+    private static final String JOURNAL_FILE = "journal.log";
+    private static final int COMPACTION_INTERVAL = 256;
+
+    private final Gson gson = new Gson();
+    private final Path journalDirectory;
+    private final Path journal;
+    // Ordered by id, so reviews are replayed in the order they were accepted
+    private final Map<Long, Entry> outstanding = new LinkedHashMap<>();
+    private boolean loaded;
+    private long nextId = 1;
+    private long journalSize;
+    private int completionsSinceCompaction;
+
+    @Inject
+    public ReviewJournal(@PluginData Path pluginDataDir) {
+        this.journalDirectory = pluginDataDir.resolve(JOURNAL_DIRECTORY);
+        this.journal = journalDirectory.resolve(JOURNAL_FILE);
+    }
+
+    @Value
+    public static class Entry {
+        long id;
+        ReviewRequest request;
+    }
+
+    private enum RecordType {
+        ACCEPTED,
+        COMPLETED
+    }
+
+    @Data
+    private static class Record {
+        private RecordType type;
+        private long id;
+        private Entry entry;
+    }
+
+    /**
+     * Records an accepted review. Returns empty when the review could not be recorded, e.g. because the log would
+     * outgrow {@code maxBytes} even after compaction.
+     */
+    public synchronized Optional<Entry> accept(ReviewRequest request, long maxBytes) {
+        try {
+            load();
+            Entry entry = new Entry(nextId, request);
+            byte[] record = toRecord(RecordType.ACCEPTED, entry.getId(), entry);
+            if (journalSize + record.length > maxBytes) {
+                compact();
+                if (journalSize + record.length > maxBytes) {
+                    log.warn("Review journal is full ({} bytes), not recording review of {}", journalSize,
+                            request.getFullChangeId());
+                    return Optional.empty();
+                }
+            }
+            append(record);
+            nextId++;
+            replaceOutstanding(entry);
+            return Optional.of(entry);
+        } catch (IOException e) {
+            log.error("Failed to record review of {} in the journal", request.getFullChangeId(), e);
+            return Optional.empty();
+        }
+    }
+
+    public synchronized void complete(Entry entry) {
+        try {
+            load();
+            if (outstanding.remove(entry.getId()) == null) {
+                // Already replaced by a newer review with the same coalescing key
+                return;
+            }
+            append(toRecord(RecordType.COMPLETED, entry.getId(), null));
+            if (++completionsSinceCompaction >= COMPACTION_INTERVAL) {
+                compact();
+            }
+        } catch (IOException e) {
+            log.error("Failed to record completion of review {} in the journal",
+                    entry.getRequest().getFullChangeId(), e);
+        }
+    }
+
+    public synchronized List<Entry> getOutstanding() {
+        try {
+            load();
+        } catch (IOException e) {
+            log.error("Failed to load the review journal {}", journal, e);
+        }
+        return new ArrayList<>(outstanding.values());
+    }
+
+    private void load() throws IOException {
+        if (loaded) {
+            return;
+        }
+        Files.createDirectories(journalDirectory);
+        if (Files.exists(journal)) {
+            for (String line : Files.readAllLines(journal, StandardCharsets.UTF_8)) {
+                apply(line);
+            }
+        }
+        loaded = true;
+        // Drops completed and replaced reviews, as well as a record torn by a crash
+        compact();
+        if (!outstanding.isEmpty()) {
+            log.info("Review journal holds {} outstanding reviews", outstanding.size());
+        }
+    }
+
+    private void apply(String line) {
+        Record record;
+        try {
+            record = gson.fromJson(line, Record.class);
+        } catch (JsonParseException e) {
+            log.warn("Skipping unreadable record in the review journal: {}", line);
+            return;
+        }
+        if (record == null || record.getType() == null) {
+            return;
+        }
+        nextId = Math.max(nextId, record.getId() + 1);
+        if (record.getType() == RecordType.COMPLETED) {
+            outstanding.remove(record.getId());
+        } else if (record.getEntry() != null && record.getEntry().getRequest() != null) {
+            replaceOutstanding(record.getEntry());
+        }
+    }
+
+    private void replaceOutstanding(Entry entry) {
+        String coalescingKey = entry.getRequest().getCoalescingKey();
+        if (coalescingKey != null) {
+            outstanding.values().removeIf(other -> coalescingKey.equals(other.getRequest().getCoalescingKey()));
+        }
+        outstanding.put(entry.getId(), entry);
+    }
+
+    private void compact() throws IOException {
+        Path compacted = Files.createTempFile(journalDirectory, JOURNAL_FILE, ".tmp");
+        long size = 0;
+        try (OutputStream out = new BufferedOutputStream(Files.newOutputStream(compacted))) {
+            for (Entry entry : outstanding.values()) {
+                byte[] record = toRecord(RecordType.ACCEPTED, entry.getId(), entry);
+                out.write(record);
+                size += record.length;
+            }
+        } catch (IOException | RuntimeException e) {
+            Files.deleteIfExists(compacted);
+            throw e;
+        }
+        Files.move(compacted, journal, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        journalSize = size;
+        completionsSinceCompaction = 0;
+    }
+
+    private void append(byte[] record) throws IOException {
+        // Synced, so an accepted review is on disk before it is scheduled
+        Files.write(journal, record, StandardOpenOption.CREATE, StandardOpenOption.APPEND,
+                StandardOpenOption.DSYNC);
+        journalSize += record.length;
+    }
+
+    private byte[] toRecord(RecordType type, long id, Entry entry) {
+        Record record = new Record();
+        record.setType(type);
+        record.setId(id);
+        record.setEntry(entry);
+        return (gson.toJson(record) + "\n").getBytes(StandardCharsets.UTF_8);
+    }
+}
@@ -0,0 +1,53 @@
+package com.googlesource.gerrit.plugins.chatgpt.listener;
+
+import com.google.gerrit.entities.Project;
+import com.google.gerrit.extensions.events.LifecycleListener;
+import com.google.gerrit.server.project.NoSuchProjectException;
+import com.google.inject.Inject;
+import com.google.inject.Singleton;
+import com.googlesource.gerrit.plugins.chatgpt.config.ConfigCreator;
+import lombok.extern.slf4j.Slf4j;
+
+import java.util.List;
+
+/**
+ * Schedules the reviews left outstanding in the {@link ReviewJournal} when the plugin starts.
+ */
+@Slf4j
+@Singleton
+public class ReviewJournalReplayer implements LifecycleListener {
+    private final ReviewJournal reviewJournal;
+    private final ConfigCreator configCreator;
+    private final EventListenerHandler eventListenerHandler;
+
+    @Inject
+    public ReviewJournalReplayer(ReviewJournal reviewJournal, ConfigCreator configCreator,
+                                 EventListenerHandler eventListenerHandler) {
+        this.reviewJournal = reviewJournal;
+        this.configCreator = configCreator;
+        this.eventListenerHandler = eventListenerHandler;
+    }
+
+    @Override
+    public void start() {
+        List<ReviewJournal.Entry> outstanding = reviewJournal.getOutstanding();
+        if (outstanding.isEmpty()) {
+            return;
+        }
+        log.info("Replaying {} reviews accepted before the restart", outstanding.size());
+        for (ReviewJournal.Entry entry : outstanding) {
+            ReviewRequest request = entry.getRequest();
+            try {
+                eventListenerHandler.replay(configCreator.createConfig(Project.nameKey(request.getProjectName())),
+                        entry);
+            } catch (NoSuchProjectException e) {
+                log.warn("Dropping review of {}, project not found", request.getFullChangeId(), e);
+                reviewJournal.complete(entry);
+            }
+        }
+    }
+
+    @Override
+    public void stop() {
+    }
+}
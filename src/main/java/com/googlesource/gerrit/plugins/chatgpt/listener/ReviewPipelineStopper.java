@@ -0,0 +1,40 @@
+package com.googlesource.gerrit.plugins.chatgpt.listener;
+
+import com.google.gerrit.extensions.events.LifecycleListener;
+import com.google.inject.Inject;
+import com.google.inject.Singleton;
+import com.googlesource.gerrit.plugins.chatgpt.coordination.ReviewCoordinator;
+import lombok.extern.slf4j.Slf4j;
+
+/**
+ * Stops the threads of the review pipeline when the plugin is stopped or reloaded. The scheduler goes first, so the
+ * reviews it still runs can hand their posts over to the post stage before the stages are stopped. The leases of
+ * the reviews are renewed until then.
+ */
+@Slf4j
+@Singleton
+public class ReviewPipelineStopper implements LifecycleListener {
+    private final ReviewScheduler reviewScheduler;
+    private final EventListenerHandler eventListenerHandler;
+    private final ReviewCoordinator reviewCoordinator;
+
+    @Inject
+    public ReviewPipelineStopper(ReviewScheduler reviewScheduler, EventListenerHandler eventListenerHandler,
+                                 ReviewCoordinator reviewCoordinator) {
+        this.reviewScheduler = reviewScheduler;
+        this.eventListenerHandler = eventListenerHandler;
+        this.reviewCoordinator = reviewCoordinator;
+    }
+
+    @Override
+    public void start() {
+    }
+
+    @Override
+    public void stop() {
+        log.info("Stopping the review pipeline");
+        reviewScheduler.shutdown();
+        eventListenerHandler.shutdown();
+        reviewCoordinator.shutdown();
+    }
+}
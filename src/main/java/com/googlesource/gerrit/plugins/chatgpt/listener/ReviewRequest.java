@@ -0,0 +1,18 @@
+package com.googlesource.gerrit.plugins.chatgpt.listener;
+
+import lombok.Value;
+
+/**
+ * A review accepted from an event, with everything needed to run it again after a restart or on another node.
+ */
+@Value
+public class ReviewRequest {
+    String projectName;
+    String fullChangeId;
+    // Null when the review does not replace earlier ones
+    String coalescingKey;
+    // Null for reviews of a patch set, the question for answers to a comment
+    String question;
+    // Identifies the review across the nodes of a cluster
+    String claimKey;
+}
@@ -0,0 +1,321 @@
+package com.googlesource.gerrit.plugins.chatgpt.listener;
+
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+import com.google.inject.Inject;
+import com.google.inject.Singleton;
+import com.googlesource.gerrit.plugins.chatgpt.config.Configuration;
+import com.googlesource.gerrit.plugins.chatgpt.metrics.ReviewMetrics;
+import lombok.Value;
+import lombok.extern.slf4j.Slf4j;
+
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Runs reviews with a global concurrency limit and a per-project share of it.
+ * Projects with pending reviews are served round-robin, so a busy project cannot starve the others.
+ * When a project's queue is full, new reviews are shed instead of running on the caller's thread, unless they are
+ * durable: those are recorded in the {@link ReviewJournal}, whose size bounds them instead.
+ * Reviews submitted with a coalescing key supersede the pending or running review with the same key.
+ * A project's queue is dropped once it has neither pending nor active reviews, while the statistics of the project
+ * are kept for as long as the plugin runs. The queue depth and active workers are reported as gauges of
+ * {@link ReviewMetrics}.
+ */
+@Slf4j
+@Singleton
+public class ReviewScheduler {
+
+    private final ThreadFactory threadFactory = new ThreadFactoryBuilder()
+            .setNameFormat("EventListenerHandler-%d")
+            .build();
+    // Concurrency is bounded by the scheduler itself, the pool only recycles threads.
+    private final ExecutorService executorService = Executors.newCachedThreadPool(threadFactory);
+    private final Map<String, ProjectQueue> projectQueues = new HashMap<>();
+    private final Map<String, ProjectCounts> projectCounts = new HashMap<>();
+    private final Deque<ProjectQueue> waitingProjects = new ArrayDeque<>();
+    private final Map<String, ScheduledReview> pendingByKey = new HashMap<>();
+    private final Map<String, ScheduledReview> runningByKey = new HashMap<>();
+    private final ReviewMetrics metrics;
+    private int activeWorkers;
+    private int maxConcurrentReviews = 1;
+    private int maxConcurrentReviewsPerProject = 1;
+
+    @Inject
+    public ReviewScheduler(ReviewMetrics metrics) {
+        this.metrics = metrics;
+        metrics.registerQueueGauges(this::sampleQueues);
+    }
+
+    public CompletableFuture<Void> submit(Configuration config, String projectName, Runnable task) {
+        return submit(config, projectName, null, task);
+    }
+
+    public CompletableFuture<Void> submit(Configuration config, String projectName, String coalescingKey,
+                                          Runnable task) {
+        return submit(config, projectName, coalescingKey, false, task);
+    }
+
+    /**
+     * Submits a review. When {@code coalescingKey} is not null, a pending review with the same key is replaced by
+     * this one and a running review with the same key is interrupted, so only the newest request gets reviewed.
+     * Durable reviews are never shed.
+     */
+    public synchronized CompletableFuture<Void> submit(Configuration config, String projectName,
+                                                       String coalescingKey, boolean durable, Runnable task) {
+        maxConcurrentReviews = Math.max(1, config.getMaxConcurrentReviews());
+        maxConcurrentReviewsPerProject = Math.max(1, config.getMaxConcurrentReviewsPerProject());
+
+        ProjectQueue projectQueue = projectQueues.computeIfAbsent(projectName,
+                name -> new ProjectQueue(name, projectCounts.computeIfAbsent(name, ProjectCounts::new)));
+        CompletableFuture<Void> future = new CompletableFuture<>();
+        if (executorService.isShutdown()) {
+            removeIfIdle(projectQueue);
+            future.cancel(false);
+            return future;
+        }
+
+        if (coalescingKey != null) {
+            cancel(coalescingKey);
+            ScheduledReview pending = pendingByKey.get(coalescingKey);
+            if (pending != null) {
+                log.info("Replacing pending review {} with a newer request", coalescingKey);
+                pending.future.cancel(false);
+                pending.config = config;
+                pending.task = task;
+                pending.future = future;
+                return future;
+            }
+        }
+
+        if (!durable && projectQueue.pending.size() >= Math.max(0, config.getMaxQueuedReviewsPerProject())
+                && !hasFreeSlot(projectQueue)) {
+            projectQueue.counts.rejected++;
+            metrics.countRejection(config);
+            log.warn("Review queue of project {} is full ({} pending, {} active). Dropping review.",
+                    projectName, projectQueue.pending.size(), projectQueue.active);
+            removeIfIdle(projectQueue);
+            future.cancel(false);
+            return future;
+        }
+
+        ScheduledReview review = new ScheduledReview(projectQueue, coalescingKey, config, task, future);
+        projectQueue.pending.add(review);
+        if (coalescingKey != null) {
+            pendingByKey.put(coalescingKey, review);
+        }
+        if (projectQueue.pending.size() == 1) {
+            waitingProjects.add(projectQueue);
+        }
+        dispatch();
+        if (!projectQueue.pending.isEmpty()) {
+            log.info("Review of project {} deferred. Queue depth: {}, active workers: {}",
+                    projectName, projectQueue.pending.size(), projectQueue.active);
+        }
+        return future;
+    }
+
+    /**
+     * Interrupts the running review with the given coalescing key. The task itself decides whether it still has to
+     * run once it is started, so pending reviews are left in the queue.
+     */
+    public synchronized void cancel(String coalescingKey) {
+        ScheduledReview running = runningByKey.get(coalescingKey);
+        if (running == null) {
+            return;
+        }
+        log.info("Interrupting running review {}", coalescingKey);
+        running.superseded = true;
+        if (running.worker != null) {
+            running.worker.interrupt();
+        }
+    }
+
+    /**
+     * Returns the statistics of every project that submitted a review since the plugin started.
+     */
+    public synchronized Map<String, ProjectStats> getProjectStats() {
+        Map<String, ProjectStats> stats = new HashMap<>();
+        for (ProjectCounts counts : projectCounts.values()) {
+            ProjectQueue projectQueue = projectQueues.get(counts.name);
+            stats.put(counts.name, counts.toStats(queueDepth(projectQueue), activeWorkers(projectQueue)));
+        }
+        return stats;
+    }
+
+    private synchronized void sampleQueues(ReviewMetrics.QueueGauges gauges) {
+        // Idle projects report empty queues rather than disappearing from the gauges
+        for (String projectName : projectCounts.keySet()) {
+            ProjectQueue projectQueue = projectQueues.get(projectName);
+            gauges.set(projectName, queueDepth(projectQueue), activeWorkers(projectQueue));
+        }
+    }
+
+    /**
+     * Cancels the pending reviews and waits up to a minute for the running ones.
+     */
+    public void shutdown() {
+        synchronized (this) {
+            executorService.shutdown();
+            for (ProjectQueue projectQueue : waitingProjects) {
+                projectQueue.pending.forEach(review -> review.future.cancel(false));
+                projectQueue.pending.clear();
+            }
+            waitingProjects.clear();
+            pendingByKey.clear();
+        }
+        try {
+            if (!executorService.awaitTermination(60, TimeUnit.SECONDS)) {
+                executorService.shutdownNow();
+            }
+        } catch (InterruptedException ex) {
+            executorService.shutdownNow();
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    private boolean hasFreeSlot(ProjectQueue projectQueue) {
+        return activeWorkers < maxConcurrentReviews && projectQueue.active < maxConcurrentReviewsPerProject;
+    }
+
+    private void dispatch() {
+        int candidates = waitingProjects.size();
+        for (int i = 0; i < candidates && activeWorkers < maxConcurrentReviews; i++) {
+            ProjectQueue projectQueue = waitingProjects.poll();
+            if (projectQueue.active < maxConcurrentReviewsPerProject) {
+                start(projectQueue.pending.poll());
+            }
+            if (!projectQueue.pending.isEmpty()) {
+                waitingProjects.add(projectQueue);
+            }
+        }
+    }
+
+    private void start(ScheduledReview review) {
+        ProjectQueue projectQueue = review.projectQueue;
+        activeWorkers++;
+        projectQueue.active++;
+        projectQueue.counts.started++;
+        long waitNanos = System.nanoTime() - review.enqueuedAt;
+        projectQueue.counts.totalWaitNanos += waitNanos;
+        metrics.recordQueueWait(review.config, waitNanos);
+        if (review.coalescingKey != null) {
+            pendingByKey.remove(review.coalescingKey);
+            runningByKey.put(review.coalescingKey, review);
+        }
+
+        Runnable task = review.task;
+        CompletableFuture<Void> future = review.future;
+        executorService.execute(() -> {
+            try {
+                markWorker(review);
+                task.run();
+                future.complete(null);
+            } catch (Throwable e) {
+                future.completeExceptionally(e);
+            } finally {
+                finish(review);
+            }
+        });
+    }
+
+    private synchronized void markWorker(ScheduledReview review) {
+        review.worker = Thread.currentThread();
+        if (review.superseded) {
+            review.worker.interrupt();
+        }
+    }
+
+    private synchronized void finish(ScheduledReview review) {
+        ProjectQueue projectQueue = review.projectQueue;
+        activeWorkers--;
+        projectQueue.active--;
+        if (review.coalescingKey != null) {
+            runningByKey.remove(review.coalescingKey, review);
+        }
+        // A superseding request may have interrupted this worker after the task returned
+        Thread.interrupted();
+        if (!executorService.isShutdown()) {
+            dispatch();
+        }
+        removeIfIdle(projectQueue);
+    }
+
+    private void removeIfIdle(ProjectQueue projectQueue) {
+        if (projectQueue.pending.isEmpty() && projectQueue.active == 0) {
+            projectQueues.remove(projectQueue.name, projectQueue);
+        }
+    }
+
+    private static int queueDepth(ProjectQueue projectQueue) {
+        return projectQueue == null ? 0 : projectQueue.pending.size();
+    }
+
+    private static int activeWorkers(ProjectQueue projectQueue) {
+        return projectQueue == null ? 0 : projectQueue.active;
+    }
+
+    @Value
+    public static class ProjectStats {
+        int queueDepth;
+        int activeWorkers;
+        long startedReviews;
+        long rejectedReviews;
+        long averageWaitMillis;
+    }
+
+    private static class ProjectQueue {
+        private final String name;
+        private final ProjectCounts counts;
+        private final Deque<ScheduledReview> pending = new ArrayDeque<>();
+        private int active;
+
+        private ProjectQueue(String name, ProjectCounts counts) {
+            this.name = name;
+            this.counts = counts;
+        }
+    }
+
+    private static class ProjectCounts {
+        private final String name;
+        private long started;
+        private long rejected;
+        private long totalWaitNanos;
+
+        private ProjectCounts(String name) {
+            this.name = name;
+        }
+
+        private ProjectStats toStats(int queueDepth, int activeWorkers) {
+            long averageWaitNanos = started == 0 ? 0 : totalWaitNanos / started;
+            return new ProjectStats(queueDepth, activeWorkers, started, rejected,
+                    TimeUnit.NANOSECONDS.toMillis(averageWaitNanos));
+        }
+    }
+
+    private static class ScheduledReview {
+        private final ProjectQueue projectQueue;
+        private final String coalescingKey;
+        private final long enqueuedAt = System.nanoTime();
+        private Configuration config;
+        private Runnable task;
+        private CompletableFuture<Void> future;
+        private Thread worker;
+        private boolean superseded;
+
+        private ScheduledReview(ProjectQueue projectQueue, String coalescingKey, Configuration config, Runnable task,
+                                CompletableFuture<Void> future) {
+            this.projectQueue = projectQueue;
+            this.coalescingKey = coalescingKey;
+            this.config = config;
+            this.task = task;
+            this.future = future;
+        }
+    }
+}
@@ -0,0 +1,69 @@
+package com.googlesource.gerrit.plugins.chatgpt.listener;
+
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+import lombok.extern.slf4j.Slf4j;
+
+import java.util.Optional;
+import java.util.concurrent.Callable;
+import java.util.concurrent.Future;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * One stage of the review pipeline, with its own threads and its own queue. The concurrency and the queue bound are
+ * taken from the configuration on every submission, like the limits of the {@link ReviewScheduler}. A task that
+ * does not fit into the queue is refused, and the caller decides what to do with it.
+ */
+@Slf4j
+class ReviewStage {
+    private static final long KEEP_ALIVE_SECONDS = 60;
+
+    private final String name;
+    private final ThreadPoolExecutor executor;
+
+    ReviewStage(String name) {
+        this.name = name;
+        executor = new ThreadPoolExecutor(1, 1, KEEP_ALIVE_SECONDS, TimeUnit.SECONDS, new LinkedBlockingQueue<>(),
+                new ThreadFactoryBuilder().setNameFormat(name + "-%d").build());
+        // Idle stages give their threads back
+        executor.allowCoreThreadTimeOut(true);
+    }
+
+    /**
+     * Runs {@code task} with at most {@code concurrency} tasks of this stage at a time. Returns empty when
+     * {@code maxQueued} tasks are waiting already or the stage is shut down.
+     */
+    synchronized <T> Optional<Future<T>> trySubmit(int concurrency, int maxQueued, Callable<T> task) {
+        resize(Math.max(1, concurrency));
+        if (executor.isShutdown() || executor.getQueue().size() >= Math.max(0, maxQueued)
+                && executor.getActiveCount() >= executor.getMaximumPoolSize()) {
+            log.debug("Stage {} is full ({} queued, {} active)", name, executor.getQueue().size(),
+                    executor.getActiveCount());
+            return Optional.empty();
+        }
+        return Optional.of(executor.submit(task));
+    }
+
+    void shutdown() {
+        executor.shutdown();
+        try {
+            if (!executor.awaitTermination(60, TimeUnit.SECONDS)) {
+                executor.shutdownNow();
+            }
+        } catch (InterruptedException e) {
+            executor.shutdownNow();
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    private void resize(int concurrency) {
+        if (concurrency > executor.getMaximumPoolSize()) {
+            executor.setMaximumPoolSize(concurrency);
+            executor.setCorePoolSize(concurrency);
+        } else if (concurrency < executor.getMaximumPoolSize()) {
+            executor.setCorePoolSize(concurrency);
+            executor.setMaximumPoolSize(concurrency);
+        }
+    }
+}
@@ -0,0 +1,209 @@
+package com.googlesource.gerrit.plugins.chatgpt.metrics;
+
+import com.google.common.base.Strings;
+import com.google.gerrit.extensions.registration.RegistrationHandle;
+import com.google.gerrit.metrics.CallbackMetric1;
+import com.google.gerrit.metrics.Counter2;
+import com.google.gerrit.metrics.Counter3;
+import com.google.gerrit.metrics.Description;
+import com.google.gerrit.metrics.Field;
+import com.google.gerrit.metrics.MetricMaker;
+import com.google.gerrit.metrics.Timer2;
+import com.google.gerrit.metrics.Timer3;
+import com.google.inject.Inject;
+import com.google.inject.Singleton;
+import com.googlesource.gerrit.plugins.chatgpt.config.Configuration;
+
+import java.util.concurrent.TimeUnit;
+import java.util.function.Consumer;
+
+/**
+ * The metrics of the review pipeline, registered with the metrics backends of Gerrit. Every metric is tagged with
+ * the project and the model of the review, so latency and cost can be told apart per project and per model.
+ */
+@Singleton
+public class ReviewMetrics {
+    public static final String SERVICE_GERRIT = "gerrit";
+    public static final String SERVICE_LLM = "llm";
+    public static final String OUTCOME_SUCCESS = "success";
+    public static final String OUTCOME_FAILURE = "failure";
+
+    private final Timer2<String, String> queueWait;
+    private final Timer2<String, String> patchFetch;
+    private final Timer2<String, String> reduction;
+    private final Timer2<String, String> llmTimeToFirstToken;
+    private final Timer3<String, String, String> llmLatency;
+    private final Timer2<String, String> commentPost;
+    private final Timer2<String, String> endToEnd;
+    private final Counter3<String, String, String> retries;
+    private final Counter2<String, String> rejections;
+    private final Counter2<String, String> skips;
+    private final Counter2<String, String> cacheHits;
+    private final Counter2<String, String> cacheMisses;
+    private final Counter2<String, String> promptTokens;
+    private final Counter2<String, String> completionTokens;
+    private final Counter2<String, String> patchBytes;
+    private final CallbackMetric1<String, Integer> queueDepth;
+    private final CallbackMetric1<String, Integer> activeWorkers;
+    private final MetricMaker metricMaker;
+
+    @Inject
+    public ReviewMetrics(MetricMaker metricMaker) {
+        this.metricMaker = metricMaker;
+        Field<String> project = Field.ofString("project", (metadataBuilder, name) -> metadataBuilder.projectName(name))
+                .description("Project of the reviewed change")
+                .build();
+        Field<String> model = Field.ofString("model", Field.ignoreMetadata())
+                .description("Model that reviews the change")
+                .build();
+        Field<String> service = Field.ofString("service", Field.ignoreMetadata())
+                .description("Service the request was sent to: " + SERVICE_GERRIT + " or " + SERVICE_LLM)
+                .build();
+        Field<String> outcome = Field.ofString("outcome", Field.ignoreMetadata())
+                .description("Outcome of the request: " + OUTCOME_SUCCESS + " or " + OUTCOME_FAILURE)
+                .build();
+        Field<String> rule = Field.ofString("rule", Field.ignoreMetadata())
+                .description("Rule that skipped the review")
+                .build();
+
+        queueWait = metricMaker.newTimer("review/queue_wait",
+                timer("Time a review waited in the queue of its project"), project, model);
+        patchFetch = metricMaker.newTimer("review/patch_fetch",
+                timer("Time to fetch the patch set from Gerrit"), project, model);
+        reduction = metricMaker.newTimer("review/reduction",
+                timer("Time to reduce the patch set"), project, model);
+        llmTimeToFirstToken = metricMaker.newTimer("review/llm_time_to_first_token",
+                timer("Time from asking the model until the first content arrives, including rate limiting and"
+                        + " retries. Without streaming output this is the whole completion"), project, model);
+        llmLatency = metricMaker.newTimer("review/llm_latency",
+                timer("Time from asking the model until the completion is done or has failed, including rate"
+                        + " limiting and retries"), project, model, outcome);
+        commentPost = metricMaker.newTimer("review/comment_post",
+                timer("Time to post the review to Gerrit"), project, model);
+        endToEnd = metricMaker.newTimer("review/end_to_end",
+                timer("Time from receiving the event until the review is posted"), project, model);
+
+        retries = metricMaker.newCounter("review/retries",
+                counter("Retried requests", "requests"), service, project, model);
+        rejections = metricMaker.newCounter("review/rejections",
+                counter("Reviews dropped because the queue of their project was full", "reviews"), project, model);
+        skips = metricMaker.newCounter("review/skipped",
+                counter("Patch sets not reviewed because a skip rule matched", "reviews"), project, rule);
+        cacheHits = metricMaker.newCounter("review/cache_hits",
+                counter("Reviews served from the review cache", "reviews"), project, model);
+        cacheMisses = metricMaker.newCounter("review/cache_misses",
+                counter("Reviews not found in the review cache", "reviews"), project, model);
+        promptTokens = metricMaker.newCounter("review/prompt_tokens",
+                counter("Prompt tokens sent to the model, estimated when the model does not report them",
+                        "tokens"), project, model);
+        completionTokens = metricMaker.newCounter("review/completion_tokens",
+                counter("Completion tokens received from the model, estimated when the model does not report them",
+                        "tokens"), project, model);
+        patchBytes = metricMaker.newCounter("review/patch_bytes",
+                counter("Bytes of the fetched patch sets", Description.Units.BYTES), project, model);
+
+        queueDepth = metricMaker.newCallbackMetric("review/queue_depth", Integer.class,
+                gauge("Reviews waiting in the queue of their project"), project);
+        activeWorkers = metricMaker.newCallbackMetric("review/active_workers", Integer.class,
+                gauge("Reviews of the project that are running"), project);
+    }
+
+    /**
+     * Reports the queue of every project through the gauges, which {@code sampler} sets whenever the metrics are
+     * read. Projects it does not set are dropped from the gauges.
+     */
+    public RegistrationHandle registerQueueGauges(Consumer<QueueGauges> sampler) {
+        return metricMaker.newTrigger(queueDepth, activeWorkers, () -> {
+            sampler.accept((name, depth, active) -> {
+                queueDepth.set(name, depth);
+                activeWorkers.set(name, active);
+            });
+            queueDepth.prune();
+            activeWorkers.prune();
+        });
+    }
+
+    private static Description timer(String description) {
+        return new Description(description).setCumulative().setUnit(Description.Units.MILLISECONDS);
+    }
+
+    private static Description counter(String description, String unit) {
+        return new Description(description).setCumulative().setRate().setUnit(unit);
+    }
+
+    private static Description gauge(String description) {
+        return new Description(description).setGauge().setUnit("reviews");
+    }
+
+    public void recordQueueWait(Configuration config, long nanos) {
+        queueWait.record(project(config), model(config), nanos, TimeUnit.NANOSECONDS);
+    }
+
+    public Timer2.Context<String, String> startPatchFetch(Configuration config) {
+        return patchFetch.start(project(config), model(config));
+    }
+
+    public Timer2.Context<String, String> startReduction(Configuration config) {
+        return reduction.start(project(config), model(config));
+    }
+
+    public void recordLlmTimeToFirstToken(Configuration config, long nanos) {
+        llmTimeToFirstToken.record(project(config), model(config), nanos, TimeUnit.NANOSECONDS);
+    }
+
+    public void recordLlmLatency(Configuration config, boolean success, long nanos) {
+        llmLatency.record(project(config), model(config), success ? OUTCOME_SUCCESS : OUTCOME_FAILURE, nanos,
+                TimeUnit.NANOSECONDS);
+    }
+
+    public Timer2.Context<String, String> startCommentPost(Configuration config) {
+        return commentPost.start(project(config), model(config));
+    }
+
+    public void recordEndToEnd(Configuration config, long nanos) {
+        endToEnd.record(project(config), model(config), nanos, TimeUnit.NANOSECONDS);
+    }
+
+    public void countRetry(String service, Configuration config) {
+        retries.increment(service, project(config), model(config));
+    }
+
+    public void countRejection(Configuration config) {
+        rejections.increment(project(config), model(config));
+    }
+
+    public void countSkip(Configuration config, String rule) {
+        skips.increment(project(config), rule);
+    }
+
+    public void countCacheHit(Configuration config) {
+        cacheHits.increment(project(config), model(config));
+    }
+
+    public void countCacheMiss(Configuration config) {
+        cacheMisses.increment(project(config), model(config));
+    }
+
+    public void countTokens(Configuration config, long prompt, long completion) {
+        promptTokens.incrementBy(project(config), model(config), prompt);
+        completionTokens.incrementBy(project(config), model(config), completion);
+    }
+
+    public void countPatchBytes(Configuration config, long bytes) {
+        patchBytes.incrementBy(project(config), model(config), bytes);
+    }
+
+    @FunctionalInterface
+    public interface QueueGauges {
+        void set(String project, int queueDepth, int activeWorkers);
+    }
+
+    // Metric backends reject null field values
+    private static String project(Configuration config) {
+        return Strings.nullToEmpty(config.getProjectName());
+    }
+
+    private static String model(Configuration config) {
+        return Strings.nullToEmpty(config.getGptModel());
+    }
+}
@@ -5,40 +5,62 @@ import com.github.tomakehurst.wiremock.junit.WireMockRule;
 import com.github.tomakehurst.wiremock.matching.RequestPatternBuilder;
 import com.github.tomakehurst.wiremock.verification.LoggedRequest;
 import com.google.common.net.HttpHeaders;
+import com.google.common.util.concurrent.Uninterruptibles;
 import com.google.gerrit.entities.BranchNameKey;
 import com.google.gerrit.entities.Change;
 import com.google.gerrit.entities.Project;
+import com.google.gerrit.metrics.DisabledMetricMaker;
+import com.google.gerrit.server.events.ChangeAbandonedEvent;
 import com.google.gerrit.server.events.CommentAddedEvent;
 import com.google.gerrit.server.events.PatchSetCreatedEvent;
+import com.google.gerrit.server.git.GitRepositoryManager;
 import com.google.gerrit.server.project.NoSuchProjectException;
+import com.googlesource.gerrit.plugins.chatgpt.client.Deadline;
 import com.googlesource.gerrit.plugins.chatgpt.client.GerritClient;
+import com.googlesource.gerrit.plugins.chatgpt.client.GitDiffClient;
 import com.googlesource.gerrit.plugins.chatgpt.client.OpenAiClient;
 import com.googlesource.gerrit.plugins.chatgpt.client.UriResourceLocator;
 import com.googlesource.gerrit.plugins.chatgpt.config.ConfigCreator;
 import com.googlesource.gerrit.plugins.chatgpt.config.Configuration;
+import com.googlesource.gerrit.plugins.chatgpt.config.GptBackend;
+import com.googlesource.gerrit.plugins.chatgpt.coordination.ReviewCoordinator;
+import com.googlesource.gerrit.plugins.chatgpt.coordination.SharedDirectoryReviewCoordinator;
+import com.googlesource.gerrit.plugins.chatgpt.listener.ChangeClosedListener;
 import com.googlesource.gerrit.plugins.chatgpt.listener.EventListenerHandler;
 import com.googlesource.gerrit.plugins.chatgpt.listener.GptMentionedCommentListener;
 import com.googlesource.gerrit.plugins.chatgpt.listener.PatchSetCreatedListener;
+import com.googlesource.gerrit.plugins.chatgpt.listener.ReviewJournal;
+import com.googlesource.gerrit.plugins.chatgpt.listener.ReviewPipelineStopper;
+import com.googlesource.gerrit.plugins.chatgpt.listener.ReviewScheduler;
+import com.googlesource.gerrit.plugins.chatgpt.metrics.ReviewMetrics;
 import lombok.extern.slf4j.Slf4j;
 import org.apache.http.entity.ContentType;
 import org.junit.Assert;
 import org.junit.Before;
 import org.junit.Rule;
 import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
 import org.junit.runner.RunWith;
 import org.mockito.ArgumentMatchers;
 import org.mockito.junit.MockitoJUnitRunner;
 
+import java.io.IOException;
 import java.net.URI;
+import java.nio.file.Path;
+import java.time.Clock;
 import java.util.Base64;
 import java.util.List;
 import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CountDownLatch;
 import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
 
 import static com.googlesource.gerrit.plugins.chatgpt.client.UriResourceLocator.gerritCommentUri;
+import static com.googlesource.gerrit.plugins.chatgpt.client.UriResourceLocator.gerritCurrentRevisionUri;
 import static com.googlesource.gerrit.plugins.chatgpt.client.UriResourceLocator.gerritPatchSetUri;
 import static com.googlesource.gerrit.plugins.chatgpt.listener.EventListenerHandler.buildFullChangeId;
 import static java.net.HttpURLConnection.HTTP_OK;
+import static java.net.HttpURLConnection.HTTP_UNAVAILABLE;
 import static org.mockito.Mockito.mock;
 import static org.mockito.Mockito.when;
 
@@ -48,11 +70,19 @@ public class ChatGptReviewTest {
     private static final Project.NameKey PROJECT_NAME = Project.NameKey.parse("myProject");
     private static final Change.Key CHANGE_ID = Change.Key.parse("myChangeId");
     private static final BranchNameKey BRANCH_NAME = BranchNameKey.create(PROJECT_NAME, "myBranchName");
+    private static final int PATCH_SET = 1;
 
     @Rule
     public WireMockRule wireMockRule = new WireMockRule(9527);
 
+    @Rule
+    public TemporaryFolder temporaryFolder = new TemporaryFolder();
+
+    private final ReviewMetrics metrics = new ReviewMetrics(new DisabledMetricMaker());
+    private final GitDiffClient gitDiffClient = new GitDiffClient(mock(GitRepositoryManager.class));
     private Configuration config;
+    // The chunks of the streamed answer, without the event that ends the stream
+    private String streamedChunks;
 
     @Before
     public void before() {
@@ -68,11 +98,14 @@ public class ChatGptReviewTest {
         when(config.getMaxReviewLines()).thenReturn(500);
         when(config.getEnabledProjects()).thenReturn("");
         when(config.isProjectEnable()).thenReturn(true);
+        when(config.isGptStreamOutput()).thenReturn(true);
     }
 
     private void setupMockRequests() {
+        stubCurrentRevision(PATCH_SET);
+
         // Mocks the behavior of the getPatchSet request
-        WireMock.stubFor(WireMock.get(gerritPatchSetUri(buildFullChangeId(PROJECT_NAME, BRANCH_NAME, CHANGE_ID)))
+        WireMock.stubFor(WireMock.get(gerritPatchSetUri(buildFullChangeId(PROJECT_NAME, BRANCH_NAME, CHANGE_ID), PATCH_SET))
                 .willReturn(WireMock.aResponse()
                         .withStatus(HTTP_OK)
                         .withHeader(HttpHeaders.CONTENT_TYPE, ContentType.APPLICATION_JSON.toString())
@@ -89,24 +122,22 @@ public class ChatGptReviewTest {
                 "2JqZWN0IjoiY2hhdC5jb21wbGV0aW9uLmNodW5rIiwiY3JlYXRlZCI6MTY4NjgxOTQ1NywibW9kZWwiOiJncHQtMy41LXR1cm" +
                 "JvLTAzMDEiLCJjaG9pY2VzIjpbeyJkZWx0YSI6eyJjb250ZW50IjoiISJ9LCJpbmRleCI6MCwiZmluaXNoX3JlYXNvbiI" +
                 "6bnVsbH1dfQ==");
-        WireMock.stubFor(WireMock.post(WireMock.urlEqualTo(URI.create(config.getGptDomain()
-                        + UriResourceLocator.chatCompletionsUri()).getPath()))
-                .willReturn(WireMock.aResponse()
-                        .withStatus(HTTP_OK)
-                        .withHeader(HttpHeaders.CONTENT_TYPE, ContentType.APPLICATION_JSON.toString())
-                        .withBody(new String(gptAnswer))));
+        streamedChunks = new String(gptAnswer);
+        stubStreamedCompletion(streamedChunks + "\n\ndata: [DONE]\n\n");
 
         // Mocks the behavior of the postReview request
-        WireMock.stubFor(WireMock.post(gerritCommentUri(buildFullChangeId(PROJECT_NAME, BRANCH_NAME, CHANGE_ID)))
+        WireMock.stubFor(WireMock.post(gerritCommentUri(buildFullChangeId(PROJECT_NAME, BRANCH_NAME, CHANGE_ID), PATCH_SET))
                 .willReturn(WireMock.aResponse()
                         .withStatus(HTTP_OK)));
     }
 
     @Test
     public void patchSetCreatedOrUpdated() throws InterruptedException, NoSuchProjectException, ExecutionException {
-        GerritClient gerritClient = new GerritClient();
-        OpenAiClient openAiClient = new OpenAiClient();
-        PatchSetReviewer patchSetReviewer = new PatchSetReviewer(gerritClient, openAiClient);
+        GerritClient gerritClient = new GerritClient(metrics);
+        OpenAiClient openAiClient = new OpenAiClient(metrics);
+        PatchSetReviewer patchSetReviewer = new PatchSetReviewer(gerritClient, gitDiffClient, openAiClient,
+                new ReviewCache(temporaryFolder.getRoot().toPath()),
+                new ReviewHistory(temporaryFolder.getRoot().toPath()), new ReviewFilter(metrics), metrics);
         ConfigCreator mockConfigCreator = mock(ConfigCreator.class);
         when(mockConfigCreator.createConfig(ArgumentMatchers.any())).thenReturn(config);
 
@@ -114,36 +145,44 @@ public class ChatGptReviewTest {
         when(event.getProjectNameKey()).thenReturn(PROJECT_NAME);
         when(event.getBranchNameKey()).thenReturn(BRANCH_NAME);
         when(event.getChangeKey()).thenReturn(CHANGE_ID);
-        EventListenerHandler eventListenerHandler = new EventListenerHandler(patchSetReviewer);
+        EventListenerHandler eventListenerHandler = new EventListenerHandler(patchSetReviewer,
+                new ReviewScheduler(metrics), new ReviewJournal(temporaryFolder.getRoot().toPath()),
+                new SharedDirectoryReviewCoordinator(), metrics);
 
-        PatchSetCreatedListener patchSetCreatedListener = new PatchSetCreatedListener(mockConfigCreator, eventListenerHandler);
+        PatchSetCreatedListener patchSetCreatedListener = new PatchSetCreatedListener(mockConfigCreator, eventListenerHandler,
+                new ReviewFilter(metrics));
         patchSetCreatedListener.onEvent(event);
         CompletableFuture<Void> future = eventListenerHandler.getLatestFuture();
         future.get();
 
         RequestPatternBuilder requestPatternBuilder = WireMock.postRequestedFor(
-                WireMock.urlEqualTo(gerritCommentUri(buildFullChangeId(PROJECT_NAME, BRANCH_NAME, CHANGE_ID))));
+                WireMock.urlEqualTo(gerritCommentUri(buildFullChangeId(PROJECT_NAME, BRANCH_NAME, CHANGE_ID), PATCH_SET)));
         List<LoggedRequest> loggedRequests = WireMock.findAll(requestPatternBuilder);
         Assert.assertEquals(1, loggedRequests.size());
         String requestBody = loggedRequests.get(0).getBodyAsString();
-        Assert.assertEquals("{\"message\":\"Hello!\\n\"}", requestBody);
+        Assert.assertEquals("{\"message\":\"Hello!\"}", requestBody);
 
     }
 
     @Test
     public void gptMentionedInComment() throws InterruptedException, NoSuchProjectException, ExecutionException {
-        GerritClient gerritClient = new GerritClient();
-        OpenAiClient openAiClient = new OpenAiClient();
-        PatchSetReviewer patchSetReviewer = new PatchSetReviewer(gerritClient, openAiClient);
+        GerritClient gerritClient = new GerritClient(metrics);
+        OpenAiClient openAiClient = new OpenAiClient(metrics);
+        PatchSetReviewer patchSetReviewer = new PatchSetReviewer(gerritClient, gitDiffClient, openAiClient,
+                new ReviewCache(temporaryFolder.getRoot().toPath()),
+                new ReviewHistory(temporaryFolder.getRoot().toPath()), new ReviewFilter(metrics), metrics);
         ConfigCreator mockConfigCreator = mock(ConfigCreator.class);
         when(config.getGerritUserName()).thenReturn("gpt");
+        when(config.withGptPrompt(ArgumentMatchers.any())).thenReturn(config);
         when(mockConfigCreator.createConfig(ArgumentMatchers.any())).thenReturn(config);
 
         CommentAddedEvent event = mock(CommentAddedEvent.class);
         when(event.getProjectNameKey()).thenReturn(PROJECT_NAME);
         when(event.getBranchNameKey()).thenReturn(BRANCH_NAME);
         when(event.getChangeKey()).thenReturn(CHANGE_ID);
-        EventListenerHandler eventListenerHandler = new EventListenerHandler(patchSetReviewer);
+        EventListenerHandler eventListenerHandler = new EventListenerHandler(patchSetReviewer,
+                new ReviewScheduler(metrics), new ReviewJournal(temporaryFolder.getRoot().toPath()),
+                new SharedDirectoryReviewCoordinator(), metrics);
 
         GptMentionedCommentListener gptMentionedCommentListener = new GptMentionedCommentListener(mockConfigCreator, eventListenerHandler);
         event.comment = "@gpt Hello!";
@@ -152,12 +191,327 @@ public class ChatGptReviewTest {
         future.get();
 
         RequestPatternBuilder requestPatternBuilder = WireMock.postRequestedFor(
-                WireMock.urlEqualTo(gerritCommentUri(buildFullChangeId(PROJECT_NAME, BRANCH_NAME, CHANGE_ID))));
+                WireMock.urlEqualTo(gerritCommentUri(buildFullChangeId(PROJECT_NAME, BRANCH_NAME, CHANGE_ID), PATCH_SET)));
         List<LoggedRequest> loggedRequests = WireMock.findAll(requestPatternBuilder);
         Assert.assertEquals(1, loggedRequests.size());
         String requestBody = loggedRequests.get(0).getBodyAsString();
-        Assert.assertEquals("{\"message\":\"Hello!\\n\"}", requestBody);
+        Assert.assertEquals("{\"message\":\"Hello!\"}", requestBody);
+
+    }
+
+    @Test
+    public void patchSetReviewedWithoutStreaming() throws InterruptedException, NoSuchProjectException, ExecutionException {
+        when(config.isGptStreamOutput()).thenReturn(false);
+        WireMock.stubFor(WireMock.post(WireMock.urlEqualTo(URI.create(config.getGptDomain()
+                        + UriResourceLocator.chatCompletionsUri()).getPath()))
+                .withRequestBody(WireMock.containing("\"stream\":false"))
+                .willReturn(WireMock.aResponse()
+                        .withStatus(HTTP_OK)
+                        .withHeader(HttpHeaders.CONTENT_TYPE, ContentType.APPLICATION_JSON.toString())
+                        .withBody("{\"id\":\"chatcmpl-1\",\"object\":\"chat.completion\",\"choices\":[{\"index\":0," +
+                                "\"message\":{\"role\":\"assistant\",\"content\":\"Hello!\"},\"finish_reason\":\"stop\"}]," +
+                                "\"usage\":{\"prompt_tokens\":10,\"completion_tokens\":2,\"total_tokens\":12}}")));
+
+        GerritClient gerritClient = new GerritClient(metrics);
+        OpenAiClient openAiClient = new OpenAiClient(metrics);
+        PatchSetReviewer patchSetReviewer = new PatchSetReviewer(gerritClient, gitDiffClient, openAiClient,
+                new ReviewCache(temporaryFolder.getRoot().toPath()),
+                new ReviewHistory(temporaryFolder.getRoot().toPath()), new ReviewFilter(metrics), metrics);
+        ConfigCreator mockConfigCreator = mock(ConfigCreator.class);
+        when(mockConfigCreator.createConfig(ArgumentMatchers.any())).thenReturn(config);
+
+        PatchSetCreatedEvent event = mock(PatchSetCreatedEvent.class);
+        when(event.getProjectNameKey()).thenReturn(PROJECT_NAME);
+        when(event.getBranchNameKey()).thenReturn(BRANCH_NAME);
+        when(event.getChangeKey()).thenReturn(CHANGE_ID);
+        EventListenerHandler eventListenerHandler = new EventListenerHandler(patchSetReviewer,
+                new ReviewScheduler(metrics), new ReviewJournal(temporaryFolder.getRoot().toPath()),
+                new SharedDirectoryReviewCoordinator(), metrics);
+
+        PatchSetCreatedListener patchSetCreatedListener = new PatchSetCreatedListener(mockConfigCreator, eventListenerHandler,
+                new ReviewFilter(metrics));
+        patchSetCreatedListener.onEvent(event);
+        CompletableFuture<Void> future = eventListenerHandler.getLatestFuture();
+        future.get();
+
+        RequestPatternBuilder requestPatternBuilder = WireMock.postRequestedFor(
+                WireMock.urlEqualTo(gerritCommentUri(buildFullChangeId(PROJECT_NAME, BRANCH_NAME, CHANGE_ID), PATCH_SET)));
+        List<LoggedRequest> loggedRequests = WireMock.findAll(requestPatternBuilder);
+        Assert.assertEquals(1, loggedRequests.size());
+        String requestBody = loggedRequests.get(0).getBodyAsString();
+        Assert.assertEquals("{\"message\":\"Hello!\"}", requestBody);
+    }
+
+    @Test
+    public void patchSetReviewedByOneOfTwoNodes() throws Exception {
+        when(config.getCoordinationDirectory()).thenReturn(temporaryFolder.newFolder("coordination").getPath());
+        when(config.getCoordinationLeaseSeconds()).thenReturn(60);
+        ConfigCreator mockConfigCreator = mock(ConfigCreator.class);
+        when(mockConfigCreator.createConfig(ArgumentMatchers.any())).thenReturn(config);
+
+        PatchSetCreatedEvent event = mock(PatchSetCreatedEvent.class);
+        when(event.getProjectNameKey()).thenReturn(PROJECT_NAME);
+        when(event.getBranchNameKey()).thenReturn(BRANCH_NAME);
+        when(event.getChangeKey()).thenReturn(CHANGE_ID);
+
+        // Every node of the cluster receives the same event
+        List<EventListenerHandler> nodes = List.of(createNode("first"), createNode("second"));
+        for (EventListenerHandler node : nodes) {
+            new PatchSetCreatedListener(mockConfigCreator, node, new ReviewFilter(metrics)).onEvent(event);
+        }
+        for (EventListenerHandler node : nodes) {
+            node.getLatestFuture().get();
+        }
 
+        RequestPatternBuilder requestPatternBuilder = WireMock.postRequestedFor(
+                WireMock.urlEqualTo(gerritCommentUri(buildFullChangeId(PROJECT_NAME, BRANCH_NAME, CHANGE_ID), PATCH_SET)));
+        Assert.assertEquals(1, WireMock.findAll(requestPatternBuilder).size());
     }
 
+    @Test
+    public void patchSetIsPrefetchedOnlyByTheNodeThatClaimedIt() throws Exception {
+        when(config.getCoordinationDirectory()).thenReturn(temporaryFolder.newFolder("coordination").getPath());
+        when(config.getCoordinationLeaseSeconds()).thenReturn(60);
+        when(config.getMaxPrefetchedReviews()).thenReturn(4);
+        when(config.getMaxQueuedReviewsPerProject()).thenReturn(4);
+        ConfigCreator mockConfigCreator = mock(ConfigCreator.class);
+        when(mockConfigCreator.createConfig(ArgumentMatchers.any())).thenReturn(config);
+
+        PatchSetCreatedEvent event = mock(PatchSetCreatedEvent.class);
+        when(event.getProjectNameKey()).thenReturn(PROJECT_NAME);
+        when(event.getBranchNameKey()).thenReturn(BRANCH_NAME);
+        when(event.getChangeKey()).thenReturn(CHANGE_ID);
+
+        // The second node is busy, so its review waits long enough for a prefetch to reach Gerrit
+        ReviewScheduler busyScheduler = new ReviewScheduler(metrics);
+        CountDownLatch release = new CountDownLatch(1);
+        CompletableFuture<Void> busy = busyScheduler.submit(config, "otherProject",
+                () -> Uninterruptibles.awaitUninterruptibly(release, 5, TimeUnit.SECONDS));
+        List<EventListenerHandler> nodes = List.of(createNode("first"), createNode("second", busyScheduler));
+        for (EventListenerHandler node : nodes) {
+            new PatchSetCreatedListener(mockConfigCreator, node, new ReviewFilter(metrics)).onEvent(event);
+        }
+        nodes.get(0).getLatestFuture().get(5, TimeUnit.SECONDS);
+        Thread.sleep(500);
+        release.countDown();
+        busy.get(5, TimeUnit.SECONDS);
+        nodes.get(1).getLatestFuture().get(5, TimeUnit.SECONDS);
+
+        String fullChangeId = buildFullChangeId(PROJECT_NAME, BRANCH_NAME, CHANGE_ID);
+        Assert.assertEquals(1, WireMock.findAll(WireMock.getRequestedFor(
+                WireMock.urlEqualTo(gerritPatchSetUri(fullChangeId, PATCH_SET)))).size());
+        Assert.assertEquals(1, WireMock.findAll(WireMock.postRequestedFor(
+                WireMock.urlEqualTo(gerritCommentUri(fullChangeId, PATCH_SET)))).size());
+    }
+
+    @Test
+    public void stoppedPipelineRefusesReviews() throws Exception {
+        when(config.getCoordinationDirectory()).thenReturn(temporaryFolder.newFolder("coordination").getPath());
+        ReviewScheduler reviewScheduler = new ReviewScheduler(metrics);
+        EventListenerHandler eventListenerHandler = createNode("node", reviewScheduler);
+        ReviewCoordinator reviewCoordinator = new SharedDirectoryReviewCoordinator("node", Clock.systemUTC());
+
+        new ReviewPipelineStopper(reviewScheduler, eventListenerHandler, reviewCoordinator).stop();
+
+        Assert.assertTrue(reviewScheduler.submit(config, PROJECT_NAME.get(), () -> {}).isCancelled());
+        Assert.assertTrue(reviewCoordinator.tryClaim(config, "myChangeId/1").isEmpty());
+    }
+
+    @Test
+    public void patchSetReviewFailsOverToAnotherBackend() throws Exception {
+        // Weighted higher, so the unavailable backend is tried first
+        String gptDomain = config.getGptDomain();
+        GptBackend unavailableBackend = new GptBackend(gptDomain + "/unavailable", null, null, 2);
+        when(config.getGptBackends()).thenReturn(List.of(unavailableBackend, GptBackend.of(gptDomain)));
+        WireMock.stubFor(WireMock.post(WireMock.urlEqualTo(URI.create(unavailableBackend.getDomain()
+                        + UriResourceLocator.chatCompletionsUri()).getPath()))
+                .willReturn(WireMock.aResponse()
+                        .withStatus(HTTP_UNAVAILABLE)));
+        ConfigCreator mockConfigCreator = mock(ConfigCreator.class);
+        when(mockConfigCreator.createConfig(ArgumentMatchers.any())).thenReturn(config);
+
+        PatchSetCreatedEvent event = mock(PatchSetCreatedEvent.class);
+        when(event.getProjectNameKey()).thenReturn(PROJECT_NAME);
+        when(event.getBranchNameKey()).thenReturn(BRANCH_NAME);
+        when(event.getChangeKey()).thenReturn(CHANGE_ID);
+        EventListenerHandler eventListenerHandler = createNode("node");
+
+        new PatchSetCreatedListener(mockConfigCreator, eventListenerHandler,
+                new ReviewFilter(metrics)).onEvent(event);
+        eventListenerHandler.getLatestFuture().get();
+
+        Assert.assertFalse(WireMock.findAll(WireMock.postRequestedFor(WireMock.urlEqualTo(
+                URI.create(unavailableBackend.getDomain() + UriResourceLocator.chatCompletionsUri()).getPath())))
+                .isEmpty());
+        List<LoggedRequest> loggedRequests = WireMock.findAll(WireMock.postRequestedFor(
+                WireMock.urlEqualTo(gerritCommentUri(buildFullChangeId(PROJECT_NAME, BRANCH_NAME, CHANGE_ID), PATCH_SET))));
+        Assert.assertEquals(1, loggedRequests.size());
+        Assert.assertEquals("{\"message\":\"Hello!\"}", loggedRequests.get(0).getBodyAsString());
+    }
+
+    @Test
+    public void patchSetIsPrefetchedAndPostedOnSeparateStages() throws Exception {
+        when(config.getMaxPrefetchedReviews()).thenReturn(4);
+        when(config.getMaxConcurrentFetches()).thenReturn(1);
+        when(config.getMaxConcurrentPosts()).thenReturn(1);
+        when(config.getMaxQueuedPosts()).thenReturn(4);
+        ConfigCreator mockConfigCreator = mock(ConfigCreator.class);
+        when(mockConfigCreator.createConfig(ArgumentMatchers.any())).thenReturn(config);
+
+        PatchSetCreatedEvent event = mock(PatchSetCreatedEvent.class);
+        when(event.getProjectNameKey()).thenReturn(PROJECT_NAME);
+        when(event.getBranchNameKey()).thenReturn(BRANCH_NAME);
+        when(event.getChangeKey()).thenReturn(CHANGE_ID);
+        EventListenerHandler eventListenerHandler = createNode("node");
+
+        new PatchSetCreatedListener(mockConfigCreator, eventListenerHandler,
+                new ReviewFilter(metrics)).onEvent(event);
+        eventListenerHandler.getLatestFuture().get(5, TimeUnit.SECONDS);
+
+        String fullChangeId = buildFullChangeId(PROJECT_NAME, BRANCH_NAME, CHANGE_ID);
+        Assert.assertEquals(1, WireMock.findAll(WireMock.getRequestedFor(
+                WireMock.urlEqualTo(gerritPatchSetUri(fullChangeId, PATCH_SET)))).size());
+        List<LoggedRequest> loggedRequests = WireMock.findAll(WireMock.postRequestedFor(
+                WireMock.urlEqualTo(gerritCommentUri(fullChangeId, PATCH_SET))));
+        Assert.assertEquals(1, loggedRequests.size());
+        Assert.assertEquals("{\"message\":\"Hello!\"}", loggedRequests.get(0).getBodyAsString());
+    }
+
+    @Test
+    public void hungCompletionTimesOut() throws Exception {
+        when(config.getGptTimeoutSeconds()).thenReturn(1);
+        stubHungCompletion();
+        ConfigCreator mockConfigCreator = mock(ConfigCreator.class);
+        when(mockConfigCreator.createConfig(ArgumentMatchers.any())).thenReturn(config);
+
+        PatchSetCreatedEvent event = mock(PatchSetCreatedEvent.class);
+        when(event.getProjectNameKey()).thenReturn(PROJECT_NAME);
+        when(event.getBranchNameKey()).thenReturn(BRANCH_NAME);
+        when(event.getChangeKey()).thenReturn(CHANGE_ID);
+        EventListenerHandler eventListenerHandler = createNode("node");
+
+        new PatchSetCreatedListener(mockConfigCreator, eventListenerHandler,
+                new ReviewFilter(metrics)).onEvent(event);
+        eventListenerHandler.getLatestFuture().get(5, TimeUnit.SECONDS);
+
+        Assert.assertEquals(0, WireMock.findAll(WireMock.postRequestedFor(WireMock.urlEqualTo(
+                gerritCommentUri(buildFullChangeId(PROJECT_NAME, BRANCH_NAME, CHANGE_ID), PATCH_SET)))).size());
+    }
+
+    @Test
+    public void abandoningChangeCancelsRunningReview() throws Exception {
+        stubHungCompletion();
+        ConfigCreator mockConfigCreator = mock(ConfigCreator.class);
+        when(mockConfigCreator.createConfig(ArgumentMatchers.any())).thenReturn(config);
+
+        PatchSetCreatedEvent event = mock(PatchSetCreatedEvent.class);
+        when(event.getProjectNameKey()).thenReturn(PROJECT_NAME);
+        when(event.getBranchNameKey()).thenReturn(BRANCH_NAME);
+        when(event.getChangeKey()).thenReturn(CHANGE_ID);
+        ChangeAbandonedEvent abandonedEvent = mock(ChangeAbandonedEvent.class);
+        when(abandonedEvent.getProjectNameKey()).thenReturn(PROJECT_NAME);
+        when(abandonedEvent.getBranchNameKey()).thenReturn(BRANCH_NAME);
+        when(abandonedEvent.getChangeKey()).thenReturn(CHANGE_ID);
+        EventListenerHandler eventListenerHandler = createNode("node");
+
+        new PatchSetCreatedListener(mockConfigCreator, eventListenerHandler,
+                new ReviewFilter(metrics)).onEvent(event);
+        RequestPatternBuilder completionRequest = WireMock.postRequestedFor(WireMock.urlEqualTo(
+                URI.create(config.getGptDomain() + UriResourceLocator.chatCompletionsUri()).getPath()));
+        for (int i = 0; i < 100 && WireMock.findAll(completionRequest).isEmpty(); i++) {
+            Thread.sleep(50);
+        }
+        new ChangeClosedListener(eventListenerHandler, new ReviewHistory(temporaryFolder.getRoot().toPath()))
+                .onEvent(abandonedEvent);
+        eventListenerHandler.getLatestFuture().get(5, TimeUnit.SECONDS);
+
+        Assert.assertEquals(0, WireMock.findAll(WireMock.postRequestedFor(WireMock.urlEqualTo(
+                gerritCommentUri(buildFullChangeId(PROJECT_NAME, BRANCH_NAME, CHANGE_ID), PATCH_SET)))).size());
+    }
+
+    @Test
+    public void truncatedCompletionIsNeitherPostedNorCached() throws Exception {
+        when(config.isReviewCacheEnabled()).thenReturn(true);
+        when(config.getReviewCacheTtlMinutes()).thenReturn(60);
+        when(config.getGptModel()).thenReturn(Configuration.DEFAULT_GPT_MODEL);
+        when(config.getGptPrompt()).thenReturn(Configuration.DEFAULT_GPT_PROMPT);
+        PatchSetReviewer patchSetReviewer = new PatchSetReviewer(new GerritClient(metrics), gitDiffClient,
+                new OpenAiClient(metrics), new ReviewCache(temporaryFolder.getRoot().toPath()),
+                new ReviewHistory(temporaryFolder.getRoot().toPath()), new ReviewFilter(metrics), metrics);
+        String fullChangeId = buildFullChangeId(PROJECT_NAME, BRANCH_NAME, CHANGE_ID);
+        RequestPatternBuilder completionRequests = WireMock.postRequestedFor(WireMock.urlEqualTo(
+                URI.create(config.getGptDomain() + UriResourceLocator.chatCompletionsUri()).getPath()));
+        RequestPatternBuilder reviewPosts = WireMock.postRequestedFor(WireMock.urlEqualTo(
+                gerritCommentUri(fullChangeId, PATCH_SET)));
+
+        // The stream breaks off after its content, before the event that ends it
+        stubStreamedCompletion(streamedChunks);
+        Assert.assertThrows(IOException.class, () -> patchSetReviewer.review(config, fullChangeId, true));
+        WireMock.verify(0, reviewPosts);
+
+        stubStreamedCompletion(streamedChunks + "\n\ndata: [DONE]\n\n");
+        patchSetReviewer.review(config, fullChangeId, true);
+        WireMock.verify(2, completionRequests);
+        WireMock.verify(1, reviewPosts.withRequestBody(WireMock.containing("Hello!")));
+    }
+
+    private void stubStreamedCompletion(String body) {
+        WireMock.stubFor(WireMock.post(WireMock.urlEqualTo(URI.create(config.getGptDomain()
+                        + UriResourceLocator.chatCompletionsUri()).getPath()))
+                .willReturn(WireMock.aResponse()
+                        .withStatus(HTTP_OK)
+                        .withHeader(HttpHeaders.CONTENT_TYPE, ContentType.APPLICATION_JSON.toString())
+                        .withBody(body)));
+    }
+
+    private void stubHungCompletion() {
+        WireMock.stubFor(WireMock.post(WireMock.urlEqualTo(URI.create(config.getGptDomain()
+                        + UriResourceLocator.chatCompletionsUri()).getPath()))
+                .willReturn(WireMock.aResponse()
+                        .withStatus(HTTP_OK)
+                        .withFixedDelay(30000)));
+    }
+
+    private EventListenerHandler createNode(String nodeId) throws Exception {
+        return createNode(nodeId, new ReviewScheduler(metrics));
+    }
+
+    private EventListenerHandler createNode(String nodeId, ReviewScheduler reviewScheduler) throws Exception {
+        Path nodeDataDir = temporaryFolder.newFolder(nodeId).toPath();
+        PatchSetReviewer patchSetReviewer = new PatchSetReviewer(new GerritClient(metrics), gitDiffClient,
+                new OpenAiClient(metrics), new ReviewCache(nodeDataDir), new ReviewHistory(nodeDataDir),
+                new ReviewFilter(metrics), metrics);
+        return new EventListenerHandler(patchSetReviewer, reviewScheduler, new ReviewJournal(nodeDataDir),
+                new SharedDirectoryReviewCoordinator(nodeId, Clock.systemUTC()), metrics);
+    }
+
+
+    @Test
+    public void reviewIsPostedOnThePatchSetItWasFetchedFrom() throws Exception {
+        PatchSetReviewer patchSetReviewer = new PatchSetReviewer(new GerritClient(metrics), gitDiffClient,
+                new OpenAiClient(metrics), new ReviewCache(temporaryFolder.getRoot().toPath()),
+                new ReviewHistory(temporaryFolder.getRoot().toPath()), new ReviewFilter(metrics), metrics);
+        String fullChangeId = buildFullChangeId(PROJECT_NAME, BRANCH_NAME, CHANGE_ID);
+        Deadline deadline = Deadline.afterSeconds(10);
+
+        PatchSetReviewer.PreparedReview prepared = patchSetReviewer.prepare(config, fullChangeId, true, deadline)
+                .orElseThrow();
+        // A newer patch set is uploaded while the model reviews the fetched one
+        stubCurrentRevision(PATCH_SET + 1);
+        patchSetReviewer.post(prepared, patchSetReviewer.complete(prepared, deadline), deadline);
+
+        WireMock.verify(1, WireMock.postRequestedFor(WireMock.urlEqualTo(gerritCommentUri(fullChangeId, PATCH_SET))));
+        WireMock.verify(0, WireMock.postRequestedFor(WireMock.urlEqualTo(gerritCommentUri(fullChangeId))));
+        WireMock.verify(0, WireMock.postRequestedFor(
+                WireMock.urlEqualTo(gerritCommentUri(fullChangeId, PATCH_SET + 1))));
+    }
+
+    private void stubCurrentRevision(int patchSet) {
+        WireMock.stubFor(WireMock.get(gerritCurrentRevisionUri(buildFullChangeId(PROJECT_NAME, BRANCH_NAME, CHANGE_ID)))
+                .willReturn(WireMock.aResponse()
+                        .withStatus(HTTP_OK)
+                        .withHeader(HttpHeaders.CONTENT_TYPE, ContentType.APPLICATION_JSON.toString())
+                        .withBody(")]}'\n{\"current_revision\":\"rev" + patchSet + "\",\"revisions\":{\"rev"
+                                + patchSet + "\":{\"_number\":" + patchSet + "}}}")));
+    }
 }
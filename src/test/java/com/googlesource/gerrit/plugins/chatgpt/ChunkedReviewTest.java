@@ -0,0 +1,123 @@
+package com.googlesource.gerrit.plugins.chatgpt;
+
+import com.github.tomakehurst.wiremock.client.WireMock;
+import com.github.tomakehurst.wiremock.junit.WireMockRule;
+import com.github.tomakehurst.wiremock.verification.LoggedRequest;
+import com.google.common.net.HttpHeaders;
+import com.google.gerrit.metrics.DisabledMetricMaker;
+import com.google.gerrit.server.config.PluginConfig;
+import com.google.gerrit.server.git.GitRepositoryManager;
+import com.googlesource.gerrit.plugins.chatgpt.client.GerritClient;
+import com.googlesource.gerrit.plugins.chatgpt.client.GitDiffClient;
+import com.googlesource.gerrit.plugins.chatgpt.client.OpenAiClient;
+import com.googlesource.gerrit.plugins.chatgpt.config.Configuration;
+import com.googlesource.gerrit.plugins.chatgpt.metrics.ReviewMetrics;
+import org.apache.http.entity.ContentType;
+import org.eclipse.jgit.lib.Config;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.util.Base64;
+import java.util.List;
+
+import static com.github.tomakehurst.wiremock.core.WireMockConfiguration.options;
+import static com.googlesource.gerrit.plugins.chatgpt.client.UriResourceLocator.chatCompletionsUri;
+import static com.googlesource.gerrit.plugins.chatgpt.client.UriResourceLocator.gerritCommentUri;
+import static com.googlesource.gerrit.plugins.chatgpt.client.UriResourceLocator.gerritCurrentRevisionUri;
+import static com.googlesource.gerrit.plugins.chatgpt.client.UriResourceLocator.gerritPatchSetUri;
+import static java.net.HttpURLConnection.HTTP_OK;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.mockito.Mockito.mock;
+
+public class ChunkedReviewTest {
+    private static final String PLUGIN_NAME = "chatgpt-code-review-gerrit-plugin";
+    private static final String FULL_CHANGE_ID = "myProject~myBranchName~myChangeId";
+    private static final int PATCH_SET = 1;
+
+    @Rule
+    public WireMockRule wireMockRule = new WireMockRule(options().dynamicPort());
+
+    @Rule
+    public TemporaryFolder temporaryFolder = new TemporaryFolder();
+
+    private Configuration config;
+    private PatchSetReviewer patchSetReviewer;
+
+    @Before
+    public void before() {
+        Config globalConfig = new Config();
+        globalConfig.setString("plugin", PLUGIN_NAME, "gerritAuthBaseUrl", wireMockRule.baseUrl());
+        globalConfig.setString("plugin", PLUGIN_NAME, "gerritUserName", "gpt");
+        globalConfig.setString("plugin", PLUGIN_NAME, "gerritPassword", "secret");
+        globalConfig.setString("plugin", PLUGIN_NAME, "gptToken", "token");
+        globalConfig.setString("plugin", PLUGIN_NAME, "gptDomain", wireMockRule.baseUrl());
+        globalConfig.setBoolean("plugin", PLUGIN_NAME, "gptStreamOutput", false);
+        globalConfig.setBoolean("plugin", PLUGIN_NAME, "inlineComments", false);
+        globalConfig.setBoolean("plugin", PLUGIN_NAME, "reviewChunking", true);
+        globalConfig.setInt("plugin", PLUGIN_NAME, "maxChunkTokens", 20);
+        globalConfig.setInt("plugin", PLUGIN_NAME, "maxParallelChunks", 2);
+        config = new Configuration(PluginConfig.createFromGerritConfig(PLUGIN_NAME, globalConfig),
+                PluginConfig.createFromGerritConfig(PLUGIN_NAME, new Config()), "myProject");
+
+        ReviewMetrics metrics = new ReviewMetrics(new DisabledMetricMaker());
+        patchSetReviewer = new PatchSetReviewer(new GerritClient(metrics),
+                new GitDiffClient(mock(GitRepositoryManager.class)), new OpenAiClient(metrics),
+                new ReviewCache(temporaryFolder.getRoot().toPath()),
+                new ReviewHistory(temporaryFolder.getRoot().toPath()), new ReviewFilter(metrics), metrics);
+
+        WireMock.stubFor(WireMock.post(chatCompletionsUri())
+                .willReturn(WireMock.aResponse()
+                        .withStatus(HTTP_OK)
+                        .withHeader(HttpHeaders.CONTENT_TYPE, ContentType.APPLICATION_JSON.toString())
+                        .withFixedDelay(100)
+                        .withBody("{\"id\":\"chatcmpl-1\",\"object\":\"chat.completion\",\"choices\":[{\"index\":0," +
+                                "\"message\":{\"role\":\"assistant\",\"content\":\"Looks good.\"}," +
+                                "\"finish_reason\":\"stop\"}]}")));
+        WireMock.stubFor(WireMock.get(gerritCurrentRevisionUri(FULL_CHANGE_ID))
+                .willReturn(WireMock.aResponse()
+                        .withStatus(HTTP_OK)
+                        .withHeader(HttpHeaders.CONTENT_TYPE, ContentType.APPLICATION_JSON.toString())
+                        .withBody(")]}'\n{\"current_revision\":\"rev1\",\"revisions\":{\"rev1\":{\"_number\":" + PATCH_SET
+                                + "}}}")));
+        WireMock.stubFor(WireMock.post(gerritCommentUri(FULL_CHANGE_ID, PATCH_SET))
+                .willReturn(WireMock.aResponse().withStatus(HTTP_OK)));
+    }
+
+    @Test
+    public void chunksAreReviewedAndMergedInDiffOrder() throws Exception {
+        stubPatchSet("diff --git a/A.java b/A.java\n+int first = 1;\n" +
+                "diff --git a/B.java b/B.java\n+int second = 2;\n" +
+                "diff --git a/C.java b/C.java\n+int third = 3;\n");
+
+        patchSetReviewer.review(config, FULL_CHANGE_ID, true);
+
+        WireMock.verify(3, WireMock.postRequestedFor(WireMock.urlEqualTo(chatCompletionsUri())));
+        List<LoggedRequest> posts = WireMock.findAll(WireMock.postRequestedFor(
+                WireMock.urlEqualTo(gerritCommentUri(FULL_CHANGE_ID, PATCH_SET))));
+        assertEquals(1, posts.size());
+        String message = posts.get(0).getBodyAsString();
+        assertTrue(message.indexOf("Review of A.java") < message.indexOf("Review of B.java"));
+        assertTrue(message.indexOf("Review of B.java") < message.indexOf("Review of C.java"));
+    }
+
+    @Test
+    public void emptyPatchSetIsNotSentToTheModel() throws Exception {
+        stubPatchSet("");
+
+        patchSetReviewer.review(config, FULL_CHANGE_ID, true);
+
+        WireMock.verify(0, WireMock.postRequestedFor(WireMock.urlEqualTo(chatCompletionsUri())));
+        WireMock.verify(0, WireMock.postRequestedFor(WireMock.urlEqualTo(gerritCommentUri(FULL_CHANGE_ID, PATCH_SET))));
+    }
+
+    private void stubPatchSet(String patchSet) {
+        WireMock.stubFor(WireMock.get(gerritPatchSetUri(FULL_CHANGE_ID, PATCH_SET))
+                .willReturn(WireMock.aResponse()
+                        .withStatus(HTTP_OK)
+                        .withHeader(HttpHeaders.CONTENT_TYPE, ContentType.TEXT_PLAIN.toString())
+                        .withBody(Base64.getEncoder().encodeToString(patchSet.getBytes()))));
+    }
+}
@@ -1,13 +1,24 @@
 package com.googlesource.gerrit.plugins.chatgpt;
 
+import com.google.common.base.Strings;
 import com.google.common.io.Files;
+import com.googlesource.gerrit.plugins.chatgpt.client.ChatCompletionStreamParser;
+import com.googlesource.gerrit.plugins.chatgpt.client.PatchSetContent;
 import org.junit.Test;
 
+import java.io.ByteArrayInputStream;
 import java.io.File;
 import java.io.IOException;
+import java.io.Reader;
+import java.io.StringReader;
 import java.nio.charset.Charset;
+import java.nio.charset.StandardCharsets;
+import java.util.Base64;
+import java.util.Optional;
 
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
 
 public class CommonUtilsTest {
 
@@ -19,6 +30,48 @@ public class CommonUtilsTest {
         assertEquals(expectedReducedDiff, actualReducedDiff);
     }
 
+    @Test
+    public void reducePatchSetFromReader() throws IOException {
+        String diffContent = readFile("reducePatchSet/patchSetInput.diff");
+        assertEquals(readFile("reducePatchSet/patchSetOutput.diff"),
+                PatchSetReducer.reduce(new StringReader(diffContent)));
+
+        // Lines crossing the boundaries of the read buffer
+        String largeDiffContent = Strings.repeat(diffContent + "\r\n \t\n", 100);
+        assertEquals(PatchSetReducer.reduce(largeDiffContent), PatchSetReducer.reduce(new StringReader(largeDiffContent)));
+    }
+
+    @Test
+    public void decodePatchSetWhileStreaming() throws IOException {
+        String diffContent = readFile("reducePatchSet/patchSetInput.diff");
+        byte[] encoded = Base64.getEncoder().encode(diffContent.getBytes(StandardCharsets.UTF_8));
+
+        try (PatchSetContent inMemory = PatchSetContent.read(
+                Base64.getDecoder().wrap(new ByteArrayInputStream(encoded)), 1024 * 1024)) {
+            assertFalse(inMemory.isSpilled());
+            assertEquals(diffContent, inMemory.asString());
+        }
+        try (PatchSetContent spilled = PatchSetContent.read(
+                Base64.getDecoder().wrap(new ByteArrayInputStream(encoded)), 64)) {
+            assertTrue(spilled.isSpilled());
+            assertEquals(diffContent, spilled.asString());
+            try (Reader reader = spilled.openReader()) {
+                assertEquals(readFile("reducePatchSet/patchSetOutput.diff"), PatchSetReducer.reduce(reader));
+            }
+        }
+    }
+
+    @Test
+    public void parseStreamedDeltaContent() throws IOException {
+        ChatCompletionStreamParser parser = new ChatCompletionStreamParser();
+        assertEquals(Optional.of("Hel\"lo\n"), parser.parseDeltaContent("data: {\"id\":\"chatcmpl-1\"," +
+                "\"choices\":[{\"index\":0,\"delta\":{\"role\":\"assistant\",\"content\":\"Hel\\\"lo\\n\"}}]}"));
+        assertEquals(Optional.empty(), parser.parseDeltaContent("data: {\"id\":\"chatcmpl-1\"," +
+                "\"choices\":[{\"index\":0,\"delta\":{},\"finish_reason\":\"stop\"}]}"));
+        assertEquals(Optional.empty(), parser.parseDeltaContent(""));
+        assertTrue(parser.isDone("data: [DONE]"));
+    }
+
     private String readFile(String filePath) throws IOException {
         File file = new File(getClass().getClassLoader().getResource(filePath).getFile());
         return Files.asCharSource(file, Charset.defaultCharset()).read();
@@ -0,0 +1,42 @@
+package com.googlesource.gerrit.plugins.chatgpt;
+
+import com.googlesource.gerrit.plugins.chatgpt.client.Deadline;
+import org.junit.Test;
+
+import java.lang.ref.WeakReference;
+import java.net.http.HttpTimeoutException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertThrows;
+import static org.junit.Assert.assertTrue;
+
+public class DeadlineTest {
+
+    @Test
+    public void futureNotDoneInTimeFails() {
+        CompletableFuture<String> future = Deadline.afterSeconds(1).applyTo(new CompletableFuture<>(), "Completion");
+
+        ExecutionException e = assertThrows(ExecutionException.class, () -> future.get(5, TimeUnit.SECONDS));
+        assertTrue(e.getCause() instanceof HttpTimeoutException);
+    }
+
+    @Test
+    public void futureDoneInTimeLeavesNoTimeoutBehind() throws InterruptedException {
+        CompletableFuture<String> future = Deadline.afterSeconds(3600).applyTo(new CompletableFuture<>(),
+                "Completion");
+        future.complete("done");
+        WeakReference<CompletableFuture<String>> reference = new WeakReference<>(future);
+        future = null;
+
+        // A timeout still scheduled would keep the future reachable for an hour
+        long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(5);
+        while (reference.get() != null && System.nanoTime() < deadline) {
+            System.gc();
+            Thread.sleep(10);
+        }
+        assertNull(reference.get());
+    }
+}
@@ -0,0 +1,117 @@
+package com.googlesource.gerrit.plugins.chatgpt;
+
+import com.github.tomakehurst.wiremock.client.WireMock;
+import com.github.tomakehurst.wiremock.junit.WireMockRule;
+import com.google.common.net.HttpHeaders;
+import com.google.gerrit.metrics.DisabledMetricMaker;
+import com.googlesource.gerrit.plugins.chatgpt.client.GerritClient;
+import com.googlesource.gerrit.plugins.chatgpt.client.PatchSetDiff;
+import com.googlesource.gerrit.plugins.chatgpt.config.Configuration;
+import com.googlesource.gerrit.plugins.chatgpt.metrics.ReviewMetrics;
+import org.apache.http.entity.ContentType;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+
+import java.net.http.HttpTimeoutException;
+import java.nio.charset.StandardCharsets;
+import java.util.Base64;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import static com.github.tomakehurst.wiremock.core.WireMockConfiguration.options;
+import static com.googlesource.gerrit.plugins.chatgpt.client.UriResourceLocator.gerritFileDiffUri;
+import static com.googlesource.gerrit.plugins.chatgpt.client.UriResourceLocator.gerritFilesUri;
+import static com.googlesource.gerrit.plugins.chatgpt.client.UriResourceLocator.gerritPatchSetUri;
+import static java.net.HttpURLConnection.HTTP_OK;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertThrows;
+import static org.junit.Assert.assertTrue;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+public class GerritDiffFetchTest {
+    private static final String FULL_CHANGE_ID = "myProject~myBranchName~myChangeId";
+
+    @Rule
+    public WireMockRule wireMockRule = new WireMockRule(options().dynamicPort());
+
+    private Configuration config;
+
+    @Before
+    public void before() {
+        config = mock(Configuration.class);
+        when(config.getGerritAuthBaseUrl()).thenReturn(wireMockRule.baseUrl());
+        when(config.getGerritUserName()).thenReturn("gpt");
+        when(config.getGerritPassword()).thenReturn("secret");
+        when(config.getExcludedFiles()).thenReturn(List.of("vendor/**"));
+
+        stubJson(gerritFilesUri(FULL_CHANGE_ID), "{" +
+                "\"/COMMIT_MSG\":{\"status\":\"A\",\"lines_inserted\":3,\"size_delta\":60,\"size\":60}," +
+                "\"src/Foo.java\":{\"lines_inserted\":2,\"lines_deleted\":1,\"size_delta\":10,\"size\":500}," +
+                "\"vendor/lib.js\":{\"status\":\"A\",\"lines_inserted\":900,\"size_delta\":30000,\"size\":30000}," +
+                "\"logo.png\":{\"status\":\"A\",\"binary\":true,\"size_delta\":2000,\"size\":2000}}");
+        stubJson(gerritFileDiffUri(FULL_CHANGE_ID, "/COMMIT_MSG"), "{" +
+                "\"meta_b\":{\"name\":\"/COMMIT_MSG\",\"content_type\":\"text/x-gerrit-commit-message\",\"lines\":3}," +
+                "\"change_type\":\"ADDED\"," +
+                "\"content\":[{\"b\":[\"Fix the counter\",\"\",\"Change-Id: I1234\"]}]}");
+        stubJson(gerritFileDiffUri(FULL_CHANGE_ID, "src/Foo.java"), "{" +
+                "\"meta_a\":{\"name\":\"src/Foo.java\",\"content_type\":\"text/x-java\",\"lines\":15}," +
+                "\"meta_b\":{\"name\":\"src/Foo.java\",\"content_type\":\"text/x-java\",\"lines\":16}," +
+                "\"change_type\":\"MODIFIED\"," +
+                "\"content\":[{\"skip\":10},{\"ab\":[\"l11\",\"l12\",\"l13\"]}," +
+                "{\"a\":[\"int count = 0;\"],\"b\":[\"int count = 1;\",\"int limit = 2;\"]}," +
+                "{\"ab\":[\"l15\",\"l16\"]}]}");
+    }
+
+    @Test
+    public void fetchesIncludedFilesOnly() throws Exception {
+        GerritClient gerritClient = new GerritClient(new ReviewMetrics(new DisabledMetricMaker()));
+        PatchSetDiff patchSetDiff = gerritClient.getPatchSetDiff(config, FULL_CHANGE_ID);
+
+        assertEquals("Fix the counter\n" +
+                "\n" +
+                "Change-Id: I1234\n" +
+                "\n" +
+                "diff --git a/src/Foo.java b/src/Foo.java\n" +
+                "--- a/src/Foo.java\n" +
+                "+++ b/src/Foo.java\n" +
+                "@@ -11,6 +11,7 @@\n" +
+                " l11\n" +
+                " l12\n" +
+                " l13\n" +
+                "-int count = 0;\n" +
+                "+int count = 1;\n" +
+                "+int limit = 2;\n" +
+                " l15\n" +
+                " l16\n", patchSetDiff.toUnifiedDiff());
+        WireMock.verify(0, WireMock.getRequestedFor(WireMock.urlPathMatching(".*/files/vendor.*")));
+        WireMock.verify(0, WireMock.getRequestedFor(WireMock.urlPathMatching(".*/files/logo.*")));
+    }
+
+    @Test
+    public void patchThatStallsMidBodyFailsWithinTheFetchTimeout() {
+        when(config.getPatchFetchTimeoutSeconds()).thenReturn(2);
+        // The response starts right away, but its body trickles in over almost a minute
+        WireMock.stubFor(WireMock.get(gerritPatchSetUri(FULL_CHANGE_ID))
+                .willReturn(WireMock.aResponse()
+                        .withStatus(HTTP_OK)
+                        .withHeader(HttpHeaders.CONTENT_TYPE, ContentType.TEXT_PLAIN.toString())
+                        .withBody(Base64.getEncoder().encodeToString("diff --git a/x b/x\n".repeat(1000)
+                                .getBytes(StandardCharsets.UTF_8)))
+                        .withChunkedDribbleDelay(100, 50000)));
+        GerritClient gerritClient = new GerritClient(new ReviewMetrics(new DisabledMetricMaker()));
+
+        long start = System.nanoTime();
+        assertThrows(HttpTimeoutException.class, () -> gerritClient.getPatchSet(config, FULL_CHANGE_ID));
+        assertTrue(TimeUnit.NANOSECONDS.toSeconds(System.nanoTime() - start) < 5);
+    }
+
+    private void stubJson(String uri, String json) {
+        WireMock.stubFor(WireMock.get(uri)
+                .willReturn(WireMock.aResponse()
+                        .withStatus(HTTP_OK)
+                        .withHeader(HttpHeaders.CONTENT_TYPE, ContentType.APPLICATION_JSON.toString())
+                        .withBody(")]}'\n" + json)));
+    }
+}
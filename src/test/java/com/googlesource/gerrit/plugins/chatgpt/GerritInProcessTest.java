@@ -0,0 +1,92 @@
+package com.googlesource.gerrit.plugins.chatgpt;
+
+import com.github.tomakehurst.wiremock.client.WireMock;
+import com.github.tomakehurst.wiremock.junit.WireMockRule;
+import com.google.common.net.HttpHeaders;
+import com.google.gerrit.entities.Account;
+import com.google.gerrit.metrics.DisabledMetricMaker;
+import com.google.gerrit.server.config.PluginConfig;
+import com.googlesource.gerrit.plugins.chatgpt.client.GerritApiClient;
+import com.googlesource.gerrit.plugins.chatgpt.client.GerritClient;
+import com.googlesource.gerrit.plugins.chatgpt.client.PatchSetContent;
+import com.googlesource.gerrit.plugins.chatgpt.client.ReviewInput;
+import com.googlesource.gerrit.plugins.chatgpt.config.Configuration;
+import com.googlesource.gerrit.plugins.chatgpt.metrics.ReviewMetrics;
+import org.apache.http.entity.ContentType;
+import org.eclipse.jgit.lib.Config;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+
+import java.util.Base64;
+import java.util.Optional;
+
+import static com.github.tomakehurst.wiremock.core.WireMockConfiguration.options;
+import static com.googlesource.gerrit.plugins.chatgpt.client.UriResourceLocator.gerritCommentUri;
+import static com.googlesource.gerrit.plugins.chatgpt.client.UriResourceLocator.gerritPatchSetUri;
+import static java.net.HttpURLConnection.HTTP_OK;
+import static org.junit.Assert.assertEquals;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyLong;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.ArgumentMatchers.isNull;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+public class GerritInProcessTest {
+    private static final String PLUGIN_NAME = "chatgpt-code-review-gerrit-plugin";
+    private static final String FULL_CHANGE_ID = "myProject~myBranchName~myChangeId";
+    private static final String PATCH = "diff --git a/Foo.java b/Foo.java\n+int count = 0;\n";
+
+    @Rule
+    public WireMockRule wireMockRule = new WireMockRule(options().dynamicPort());
+
+    private Configuration config;
+    private GerritApiClient apiClient;
+    private GerritClient gerritClient;
+
+    @Before
+    public void before() {
+        Config globalConfig = new Config();
+        globalConfig.setString("plugin", PLUGIN_NAME, "gerritAuthBaseUrl", wireMockRule.baseUrl());
+        globalConfig.setString("plugin", PLUGIN_NAME, "gerritUserName", "gpt");
+        globalConfig.setString("plugin", PLUGIN_NAME, "gerritPassword", "secret");
+        config = new Configuration(PluginConfig.createFromGerritConfig(PLUGIN_NAME, globalConfig),
+                PluginConfig.createFromGerritConfig(PLUGIN_NAME, new Config()), "myProject");
+
+        apiClient = mock(GerritApiClient.class);
+        gerritClient = new GerritClient(new ReviewMetrics(new DisabledMetricMaker()), apiClient);
+    }
+
+    @Test
+    public void knownAccountCallsGerritInProcess() throws Exception {
+        Account.Id account = Account.id(1000);
+        when(apiClient.getAccount(config)).thenReturn(Optional.of(account));
+        when(apiClient.getPatchSetContent(eq(account), eq(FULL_CHANGE_ID), isNull(), anyLong()))
+                .thenReturn(PatchSetContent.of(PATCH));
+
+        assertEquals(PATCH, gerritClient.getPatchSet(config, FULL_CHANGE_ID));
+        gerritClient.postComment(config, FULL_CHANGE_ID, "Looks good.");
+
+        verify(apiClient).postReview(eq(account), eq(FULL_CHANGE_ID), isNull(), any(ReviewInput.class));
+        WireMock.verify(0, WireMock.anyRequestedFor(WireMock.anyUrl()));
+    }
+
+    @Test
+    public void unknownAccountFallsBackToRest() throws Exception {
+        when(apiClient.getAccount(config)).thenReturn(Optional.empty());
+        WireMock.stubFor(WireMock.get(gerritPatchSetUri(FULL_CHANGE_ID))
+                .willReturn(WireMock.aResponse()
+                        .withStatus(HTTP_OK)
+                        .withHeader(HttpHeaders.CONTENT_TYPE, ContentType.TEXT_PLAIN.toString())
+                        .withBody(Base64.getEncoder().encodeToString(PATCH.getBytes()))));
+        WireMock.stubFor(WireMock.post(gerritCommentUri(FULL_CHANGE_ID))
+                .willReturn(WireMock.aResponse().withStatus(HTTP_OK)));
+
+        assertEquals(PATCH, gerritClient.getPatchSet(config, FULL_CHANGE_ID));
+        gerritClient.postComment(config, FULL_CHANGE_ID, "Looks good.");
+
+        WireMock.verify(WireMock.postRequestedFor(WireMock.urlEqualTo(gerritCommentUri(FULL_CHANGE_ID))));
+    }
+}
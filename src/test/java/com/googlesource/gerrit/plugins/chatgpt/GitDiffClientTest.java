@@ -0,0 +1,133 @@
+package com.googlesource.gerrit.plugins.chatgpt;
+
+import com.google.gerrit.server.config.PluginConfig;
+import com.google.gerrit.server.git.GitRepositoryManager;
+import com.googlesource.gerrit.plugins.chatgpt.client.GitDiffClient;
+import com.googlesource.gerrit.plugins.chatgpt.client.PatchSetContent;
+import com.googlesource.gerrit.plugins.chatgpt.client.PatchSetRevision;
+import com.googlesource.gerrit.plugins.chatgpt.config.Configuration;
+import org.eclipse.jgit.dircache.DirCache;
+import org.eclipse.jgit.dircache.DirCacheBuilder;
+import org.eclipse.jgit.dircache.DirCacheEntry;
+import org.eclipse.jgit.internal.storage.dfs.DfsRepositoryDescription;
+import org.eclipse.jgit.internal.storage.dfs.InMemoryRepository;
+import org.eclipse.jgit.lib.CommitBuilder;
+import org.eclipse.jgit.lib.Config;
+import org.eclipse.jgit.lib.Constants;
+import org.eclipse.jgit.lib.FileMode;
+import org.eclipse.jgit.lib.ObjectId;
+import org.eclipse.jgit.lib.ObjectInserter;
+import org.eclipse.jgit.lib.PersonIdent;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Map;
+import java.util.TreeMap;
+
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+public class GitDiffClientTest {
+    private static final String PLUGIN_NAME = "chatgpt-code-review-gerrit-plugin";
+    private static final String FULL_CHANGE_ID = "myProject~myBranchName~myChangeId";
+
+    private InMemoryRepository repo;
+    private GitDiffClient gitDiffClient;
+
+    @Before
+    public void before() throws Exception {
+        repo = new InMemoryRepository(new DfsRepositoryDescription("myProject"));
+        GitRepositoryManager repoManager = mock(GitRepositoryManager.class);
+        when(repoManager.openRepository(any())).thenAnswer(invocation -> {
+            repo.incrementOpen();
+            return repo;
+        });
+        gitDiffClient = new GitDiffClient(repoManager);
+    }
+
+    @Test
+    public void renamedFileIsDiffedAsRename() throws Exception {
+        StringBuilder source = new StringBuilder();
+        for (int i = 0; i < 20; i++) {
+            source.append("int count").append(i).append(" = ").append(i).append(";\n");
+        }
+        ObjectId parent = commit(null, "Add Foo", Map.of("Foo.java", source.toString()));
+        ObjectId patchSet = commit(parent, "Rename Foo to Bar",
+                Map.of("Bar.java", source.toString().replace("= 0;", "= 1;")));
+
+        String renamed = diff(config(true), patchSet, parent);
+        assertTrue(renamed.startsWith("Rename Foo to Bar\n\n"));
+        assertTrue(renamed.contains("rename from Foo.java\nrename to Bar.java\n"));
+        assertTrue(renamed.contains("+int count0 = 1;"));
+
+        String deletedAndAdded = diff(config(false), patchSet, parent);
+        assertTrue(deletedAndAdded.contains("deleted file mode"));
+        assertTrue(deletedAndAdded.contains("new file mode"));
+    }
+
+    @Test
+    public void largeBinaryAndOversizedDiffsAreLeftOut() throws Exception {
+        ObjectId parent = commit(null, "Add README", Map.of("README", "Hello\n"));
+        Map<String, String> files = new TreeMap<>();
+        files.put("README", "Hello\n");
+        files.put("Small.java", "int count = 0;\n");
+        files.put("image.png", "PNG\0\0\0");
+        files.put("large.txt", "x".repeat(2048));
+        files.put("generated.txt", "y\n".repeat(400));
+        ObjectId patchSet = commit(parent, "Add sources and assets", files);
+
+        String diff = diff(config(true), patchSet, parent);
+        assertTrue(diff.contains("diff --git a/Small.java b/Small.java"));
+        assertFalse(diff.contains("image.png"));
+        assertFalse(diff.contains("large.txt"));
+        assertFalse(diff.contains("generated.txt"));
+    }
+
+    private String diff(Configuration config, ObjectId patchSet, ObjectId parent) throws Exception {
+        try (PatchSetContent content = gitDiffClient.getPatchSetContent(config, FULL_CHANGE_ID,
+                new PatchSetRevision(2, patchSet.name(), parent.name()))) {
+            return content.asString();
+        }
+    }
+
+    private static Configuration config(boolean renameDetection) {
+        Config globalConfig = new Config();
+        globalConfig.setBoolean("plugin", PLUGIN_NAME, "gitDiffRenameDetection", renameDetection);
+        globalConfig.setInt("plugin", PLUGIN_NAME, "gitDiffMaxFileBytes", 1024);
+        globalConfig.setInt("plugin", PLUGIN_NAME, "gitDiffMaxFileDiffBytes", 512);
+        return new Configuration(PluginConfig.createFromGerritConfig(PLUGIN_NAME, globalConfig),
+                PluginConfig.createFromGerritConfig(PLUGIN_NAME, new Config()), "myProject");
+    }
+
+    private ObjectId commit(ObjectId parent, String message, Map<String, String> files) throws Exception {
+        try (ObjectInserter inserter = repo.newObjectInserter()) {
+            DirCache index = DirCache.newInCore();
+            DirCacheBuilder builder = index.builder();
+            for (Map.Entry<String, String> file : new TreeMap<>(files).entrySet()) {
+                DirCacheEntry entry = new DirCacheEntry(file.getKey());
+                entry.setFileMode(FileMode.REGULAR_FILE);
+                entry.setObjectId(inserter.insert(Constants.OBJ_BLOB,
+                        file.getValue().getBytes(StandardCharsets.UTF_8)));
+                builder.add(entry);
+            }
+            builder.finish();
+
+            PersonIdent author = new PersonIdent("Jane", "jane@example.com");
+            CommitBuilder commit = new CommitBuilder();
+            commit.setTreeId(index.writeTree(inserter));
+            if (parent != null) {
+                commit.setParentId(parent);
+            }
+            commit.setAuthor(author);
+            commit.setCommitter(author);
+            commit.setMessage(message + "\n");
+            ObjectId id = inserter.insert(commit);
+            inserter.flush();
+            return id;
+        }
+    }
+}
@@ -0,0 +1,128 @@
+package com.googlesource.gerrit.plugins.chatgpt;
+
+import com.github.tomakehurst.wiremock.client.WireMock;
+import com.github.tomakehurst.wiremock.junit.WireMockRule;
+import com.google.common.net.HttpHeaders;
+import com.google.gerrit.metrics.DisabledMetricMaker;
+import com.google.gerrit.server.config.PluginConfig;
+import com.google.gerrit.server.git.GitRepositoryManager;
+import com.googlesource.gerrit.plugins.chatgpt.client.GerritClient;
+import com.googlesource.gerrit.plugins.chatgpt.client.GitDiffClient;
+import com.googlesource.gerrit.plugins.chatgpt.client.OpenAiClient;
+import com.googlesource.gerrit.plugins.chatgpt.config.Configuration;
+import com.googlesource.gerrit.plugins.chatgpt.metrics.ReviewMetrics;
+import org.apache.http.entity.ContentType;
+import org.eclipse.jgit.lib.Config;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.util.Base64;
+
+import static com.github.tomakehurst.wiremock.core.WireMockConfiguration.options;
+import static com.googlesource.gerrit.plugins.chatgpt.client.UriResourceLocator.chatCompletionsUri;
+import static com.googlesource.gerrit.plugins.chatgpt.client.UriResourceLocator.gerritCommentUri;
+import static com.googlesource.gerrit.plugins.chatgpt.client.UriResourceLocator.gerritCurrentRevisionUri;
+import static com.googlesource.gerrit.plugins.chatgpt.client.UriResourceLocator.gerritFileDiffUri;
+import static com.googlesource.gerrit.plugins.chatgpt.client.UriResourceLocator.gerritFilesUri;
+import static com.googlesource.gerrit.plugins.chatgpt.client.UriResourceLocator.gerritPatchSetUri;
+import static java.net.HttpURLConnection.HTTP_OK;
+import static org.mockito.Mockito.mock;
+
+public class IncrementalReviewTest {
+    private static final String PLUGIN_NAME = "chatgpt-code-review-gerrit-plugin";
+    private static final String FULL_CHANGE_ID = "myProject~myBranchName~myChangeId";
+
+    @Rule
+    public WireMockRule wireMockRule = new WireMockRule(options().dynamicPort());
+
+    @Rule
+    public TemporaryFolder temporaryFolder = new TemporaryFolder();
+
+    private Configuration config;
+    private PatchSetReviewer patchSetReviewer;
+
+    @Before
+    public void before() {
+        Config globalConfig = new Config();
+        globalConfig.setString("plugin", PLUGIN_NAME, "gerritAuthBaseUrl", wireMockRule.baseUrl());
+        globalConfig.setString("plugin", PLUGIN_NAME, "gerritUserName", "gpt");
+        globalConfig.setString("plugin", PLUGIN_NAME, "gerritPassword", "secret");
+        globalConfig.setString("plugin", PLUGIN_NAME, "gptToken", "token");
+        globalConfig.setString("plugin", PLUGIN_NAME, "gptDomain", wireMockRule.baseUrl());
+        globalConfig.setBoolean("plugin", PLUGIN_NAME, "gptStreamOutput", false);
+        globalConfig.setBoolean("plugin", PLUGIN_NAME, "inlineComments", false);
+        globalConfig.setBoolean("plugin", PLUGIN_NAME, "incrementalReview", true);
+        config = new Configuration(PluginConfig.createFromGerritConfig(PLUGIN_NAME, globalConfig),
+                PluginConfig.createFromGerritConfig(PLUGIN_NAME, new Config()), "myProject");
+
+        ReviewMetrics metrics = new ReviewMetrics(new DisabledMetricMaker());
+        patchSetReviewer = new PatchSetReviewer(new GerritClient(metrics),
+                new GitDiffClient(mock(GitRepositoryManager.class)), new OpenAiClient(metrics),
+                new ReviewCache(temporaryFolder.getRoot().toPath()),
+                new ReviewHistory(temporaryFolder.getRoot().toPath()), new ReviewFilter(metrics), metrics);
+
+        for (int patchSet = 1; patchSet <= 2; patchSet++) {
+            stubJson(gerritPatchSetUri(FULL_CHANGE_ID, patchSet), Base64.getEncoder()
+                    .encodeToString("diff --git a/Foo.java b/Foo.java\n+int count = 0;\n".getBytes()));
+            WireMock.stubFor(WireMock.post(gerritCommentUri(FULL_CHANGE_ID, patchSet))
+                    .willReturn(WireMock.aResponse().withStatus(HTTP_OK)));
+        }
+        WireMock.stubFor(WireMock.post(chatCompletionsUri())
+                .willReturn(WireMock.aResponse()
+                        .withStatus(HTTP_OK)
+                        .withHeader(HttpHeaders.CONTENT_TYPE, ContentType.APPLICATION_JSON.toString())
+                        .withBody("{\"id\":\"chatcmpl-1\",\"object\":\"chat.completion\",\"choices\":[{\"index\":0," +
+                                "\"message\":{\"role\":\"assistant\",\"content\":\"Start counting at 1.\"}," +
+                                "\"finish_reason\":\"stop\"}]}")));
+    }
+
+    @Test
+    public void laterPatchSetIsReviewedFromTheLastReviewedOne() throws Exception {
+        stubCurrentRevision(1, "parent1");
+        patchSetReviewer.review(config, FULL_CHANGE_ID, true);
+
+        stubCurrentRevision(2, "parent1");
+        stubJson(gerritFilesUri(FULL_CHANGE_ID, 2, 1), "{\"Foo.java\":{\"lines_inserted\":1,\"lines_deleted\":1}}");
+        stubJson(gerritFileDiffUri(FULL_CHANGE_ID, 2, 1, "Foo.java"), "{" +
+                "\"meta_a\":{\"name\":\"Foo.java\",\"lines\":1},\"meta_b\":{\"name\":\"Foo.java\",\"lines\":1}," +
+                "\"change_type\":\"MODIFIED\",\"content\":[{\"a\":[\"int count = 0;\"],\"b\":[\"int count = 1;\"]}]}");
+        patchSetReviewer.review(config, FULL_CHANGE_ID, true);
+
+        WireMock.verify(1, WireMock.getRequestedFor(WireMock.urlEqualTo(gerritPatchSetUri(FULL_CHANGE_ID, 1))));
+        WireMock.verify(0, WireMock.getRequestedFor(WireMock.urlEqualTo(gerritPatchSetUri(FULL_CHANGE_ID, 2))));
+        WireMock.verify(WireMock.postRequestedFor(WireMock.urlEqualTo(gerritCommentUri(FULL_CHANGE_ID, 2))));
+        WireMock.verify(WireMock.postRequestedFor(WireMock.urlEqualTo(chatCompletionsUri()))
+                .withRequestBody(WireMock.containing("You already reviewed patch set 1"))
+                .withRequestBody(WireMock.containing("Start counting at 1."))
+                .withRequestBody(WireMock.containing("@@ -1,1 +1,1 @@")));
+    }
+
+    @Test
+    public void rebasedPatchSetIsReviewedInFull() throws Exception {
+        stubCurrentRevision(1, "parent1");
+        patchSetReviewer.review(config, FULL_CHANGE_ID, true);
+
+        stubCurrentRevision(2, "parent2");
+        patchSetReviewer.review(config, FULL_CHANGE_ID, true);
+
+        WireMock.verify(1, WireMock.getRequestedFor(WireMock.urlEqualTo(gerritPatchSetUri(FULL_CHANGE_ID, 1))));
+        WireMock.verify(1, WireMock.getRequestedFor(WireMock.urlEqualTo(gerritPatchSetUri(FULL_CHANGE_ID, 2))));
+        WireMock.verify(0, WireMock.getRequestedFor(WireMock.urlPathMatching(".*/files.*")));
+    }
+
+    private void stubCurrentRevision(int patchSet, String parent) {
+        stubJson(gerritCurrentRevisionUri(FULL_CHANGE_ID), "{\"current_revision\":\"rev" + patchSet + "\"," +
+                "\"revisions\":{\"rev" + patchSet + "\":{\"_number\":" + patchSet + "," +
+                "\"commit\":{\"parents\":[{\"commit\":\"" + parent + "\"}]}}}}");
+    }
+
+    private void stubJson(String uri, String body) {
+        WireMock.stubFor(WireMock.get(uri)
+                .willReturn(WireMock.aResponse()
+                        .withStatus(HTTP_OK)
+                        .withHeader(HttpHeaders.CONTENT_TYPE, ContentType.APPLICATION_JSON.toString())
+                        .withBody(body.startsWith("{") ? ")]}'\n" + body : body)));
+    }
+}
@@ -0,0 +1,102 @@
+package com.googlesource.gerrit.plugins.chatgpt;
+
+import com.googlesource.gerrit.plugins.chatgpt.client.LlmBackendPool;
+import com.googlesource.gerrit.plugins.chatgpt.config.BackendSelection;
+import com.googlesource.gerrit.plugins.chatgpt.config.Configuration;
+import com.googlesource.gerrit.plugins.chatgpt.config.GptBackend;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.time.Clock;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Optional;
+import java.util.Set;
+
+import static org.junit.Assert.assertEquals;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+public class LlmBackendPoolTest {
+    private static final Instant NOW = Instant.parse("2024-01-01T00:00:00Z");
+    private static final GptBackend LARGE = new GptBackend("http://large:8000", null, "llama-70b", 3);
+    private static final GptBackend SMALL = new GptBackend("http://small:8000", null, null, 1);
+
+    private Configuration config;
+    private Clock clock;
+    private LlmBackendPool backendPool;
+
+    @Before
+    public void before() {
+        config = mock(Configuration.class);
+        when(config.getGptBackends()).thenReturn(List.of(LARGE, SMALL));
+        when(config.getGptModel()).thenReturn("llama-70b");
+        when(config.getGptBackendSelection()).thenReturn(BackendSelection.LEAST_OUTSTANDING);
+        clock = mock(Clock.class);
+        when(clock.instant()).thenReturn(NOW);
+        backendPool = new LlmBackendPool(clock);
+    }
+
+    @Test
+    public void requestsInFlightFollowWeights() {
+        List<GptBackend> selected = new ArrayList<>();
+        for (int i = 0; i < 8; i++) {
+            selected.add(backendPool.select(config, Set.of()).orElseThrow());
+        }
+
+        assertEquals(6, Collections.frequency(selected, LARGE));
+        assertEquals(2, Collections.frequency(selected, SMALL));
+
+        backendPool.release(SMALL, false);
+        backendPool.release(SMALL, false);
+        assertEquals(SMALL, backendPool.select(config, Set.of()).orElseThrow());
+    }
+
+    @Test
+    public void roundRobinInterleavesWeights() {
+        when(config.getGptBackendSelection()).thenReturn(BackendSelection.ROUND_ROBIN);
+        List<GptBackend> selected = new ArrayList<>();
+        for (int i = 0; i < 4; i++) {
+            GptBackend backend = backendPool.select(config, Set.of()).orElseThrow();
+            backendPool.release(backend, false);
+            selected.add(backend);
+        }
+
+        assertEquals(List.of(LARGE, LARGE, SMALL, LARGE), selected);
+    }
+
+    @Test
+    public void unavailableBackendIsLeftOutUntilItIsDue() {
+        backendPool.select(config, Set.of());
+        backendPool.release(LARGE, true);
+
+        assertEquals(SMALL, backendPool.select(config, Set.of()).orElseThrow());
+        assertEquals(SMALL, backendPool.select(config, Set.of()).orElseThrow());
+        // With no healthy backend left, the one that is due back first is used anyway
+        assertEquals(LARGE, backendPool.select(config, Set.of(SMALL)).orElseThrow());
+        assertEquals(Optional.empty(), backendPool.select(config, Set.of(LARGE, SMALL)));
+
+        when(clock.instant()).thenReturn(NOW.plus(Duration.ofMinutes(1)));
+        assertEquals(LARGE, backendPool.select(config, Set.of()).orElseThrow());
+    }
+
+    @Test
+    public void gptDomainIsTheOnlyBackendByDefault() {
+        when(config.getGptBackends()).thenReturn(List.of());
+        when(config.getGptDomain()).thenReturn("https://api.openai.com");
+
+        assertEquals(List.of(GptBackend.of("https://api.openai.com")), LlmBackendPool.backendsOf(config));
+    }
+
+    @Test
+    public void backendOfAnotherModelIsNeverSelected() {
+        when(config.getGptModel()).thenReturn("gpt-4");
+
+        assertEquals(List.of(SMALL), LlmBackendPool.backendsOf(config));
+        assertEquals(Optional.of(SMALL), backendPool.select(config, Set.of()));
+        assertEquals(Optional.empty(), backendPool.select(config, Set.of(SMALL)));
+    }
+}
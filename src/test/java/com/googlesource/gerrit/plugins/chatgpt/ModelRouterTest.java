@@ -0,0 +1,49 @@
+package com.googlesource.gerrit.plugins.chatgpt;
+
+import com.googlesource.gerrit.plugins.chatgpt.config.ModelTier;
+import org.junit.Test;
+
+import java.util.List;
+import java.util.Optional;
+
+import static org.junit.Assert.assertEquals;
+
+public class ModelRouterTest {
+    private static final String PROMPT = "Review this patch set: ";
+    private static final String DOCS_DIFF = "diff --git a/docs/intro.md b/docs/intro.md\n" +
+            "--- a/docs/intro.md\n" +
+            "+++ b/docs/intro.md\n" +
+            "@@ -1,1 +1,1 @@\n" +
+            "-Hello\n" +
+            "+Hello, world";
+    private static final String CODE_DIFF = "diff --git a/Foo.java b/Foo.java\n" +
+            "--- a/Foo.java\n" +
+            "+++ b/Foo.java\n" +
+            "@@ -1,3 +1,3 @@\n" +
+            "-    int foo = 0;\n" +
+            "-    int bar = 0;\n" +
+            "-    int baz = 0;\n" +
+            "+    int foo = 1;\n" +
+            "+    int bar = 1;\n" +
+            "+    int baz = 1;";
+    private static final ModelTier DOCS = new ModelTier("docs-model", 1000, 0, List.of("**.md"));
+    private static final ModelTier FAST = new ModelTier("fast-model", 1000, 4, List.of());
+    private static final ModelTier LONG_CONTEXT = new ModelTier("long-context-model", 2000, 0, List.of());
+    private static final List<ModelTier> TIERS = List.of(DOCS, FAST, LONG_CONTEXT);
+
+    @Test
+    public void changeGoesToFirstTierItFits() {
+        assertEquals(Optional.of(DOCS), ModelRouter.route(TIERS, PROMPT, DOCS_DIFF));
+        // Six changed lines are too many for the fast tier
+        assertEquals(Optional.of(LONG_CONTEXT), ModelRouter.route(TIERS, PROMPT, CODE_DIFF));
+        assertEquals(Optional.of(LONG_CONTEXT), ModelRouter.route(TIERS, PROMPT, DOCS_DIFF + "\n" + CODE_DIFF));
+    }
+
+    @Test
+    public void changeThatExceedsEveryContextWindowFitsNoTier() {
+        String largeDiff = CODE_DIFF + "\n+" + "x".repeat(8000);
+
+        assertEquals(Optional.empty(), ModelRouter.route(TIERS, PROMPT, largeDiff));
+        assertEquals(2000, ModelRouter.maxTokens(TIERS));
+    }
+}
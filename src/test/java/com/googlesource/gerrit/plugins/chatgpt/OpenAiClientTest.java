@@ -0,0 +1,143 @@
+package com.googlesource.gerrit.plugins.chatgpt;
+
+import com.googlesource.gerrit.plugins.chatgpt.client.OpenAiClient;
+import com.googlesource.gerrit.plugins.chatgpt.client.UriResourceLocator;
+import com.googlesource.gerrit.plugins.chatgpt.config.BackendSelection;
+import com.googlesource.gerrit.plugins.chatgpt.config.Configuration;
+import com.googlesource.gerrit.plugins.chatgpt.config.GptBackend;
+import com.googlesource.gerrit.plugins.chatgpt.metrics.ReviewMetrics;
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static java.net.HttpURLConnection.HTTP_BAD_REQUEST;
+import static java.net.HttpURLConnection.HTTP_OK;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertThrows;
+import static org.junit.Assert.assertTrue;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+public class OpenAiClientTest {
+    private static final String HELLO_CHUNK = "data: {\"choices\":[{\"delta\":{\"content\":\"Hello\"},\"index\":0}]}\n\n";
+
+    private final RecordingMetricMaker metricMaker = new RecordingMetricMaker();
+    private final ReviewMetrics metrics = new ReviewMetrics(metricMaker);
+    private final AtomicInteger completionRequests = new AtomicInteger();
+    private HttpServer server;
+    private Configuration config;
+
+    @Before
+    public void before() throws IOException {
+        server = HttpServer.create(new InetSocketAddress("localhost", 0), 0);
+        server.start();
+        config = mock(Configuration.class);
+        when(config.getGptDomain()).thenReturn("http://localhost:" + server.getAddress().getPort());
+        when(config.getGptToken()).thenReturn("secret");
+        when(config.isGptStreamOutput()).thenReturn(true);
+        when(config.getProjectName()).thenReturn("myProject");
+        when(config.getGptModel()).thenReturn("gpt-4");
+    }
+
+    @After
+    public void after() {
+        server.stop(0);
+    }
+
+    @Test
+    public void streamBrokenOffAfterContentIsNotRetried() {
+        server.createContext(UriResourceLocator.chatCompletionsUri(), exchange -> {
+            completionRequests.incrementAndGet();
+            exchange.sendResponseHeaders(HTTP_OK, 0);
+            OutputStream body = exchange.getResponseBody();
+            body.write(HELLO_CHUNK.getBytes(StandardCharsets.UTF_8));
+            body.flush();
+            // Drops the connection in the middle of the chunked body
+            throw new IOException("Connection lost");
+        });
+        List<String> deltas = new CopyOnWriteArrayList<>();
+
+        assertThrows(IOException.class, () -> new OpenAiClient(metrics).ask(config, "myPatch", deltas::add));
+        assertEquals(List.of("Hello"), deltas);
+        assertEquals(1, completionRequests.get());
+    }
+
+    @Test
+    public void completionRecordsLatencyAndTokens() throws Exception {
+        server.createContext(UriResourceLocator.chatCompletionsUri(), exchange -> {
+            exchange.sendResponseHeaders(HTTP_OK, 0);
+            try (OutputStream body = exchange.getResponseBody()) {
+                body.write((HELLO_CHUNK + "data: [DONE]\n\n").getBytes(StandardCharsets.UTF_8));
+            }
+        });
+
+        assertEquals("Hello", new OpenAiClient(metrics).ask(config, "myPatch"));
+        awaitRecord("review/llm_latency myProject gpt-4 success");
+        List<String> records = metricMaker.getRecords();
+        assertTrue(records.contains("review/llm_time_to_first_token myProject gpt-4"));
+        assertTrue(records.contains("review/prompt_tokens myProject gpt-4"));
+        assertTrue(records.contains("review/completion_tokens myProject gpt-4"));
+    }
+
+    @Test
+    public void failedCompletionRecordsLatency() throws Exception {
+        server.createContext(UriResourceLocator.chatCompletionsUri(), exchange -> {
+            exchange.sendResponseHeaders(HTTP_BAD_REQUEST, -1);
+            exchange.close();
+        });
+
+        assertThrows(IOException.class, () -> new OpenAiClient(metrics).ask(config, "myPatch"));
+        awaitRecord("review/llm_latency myProject gpt-4 failure");
+    }
+
+    @Test
+    public void everyBackendIsRateLimitedOnItsOwnQuota() throws Exception {
+        String domain = "http://localhost:" + server.getAddress().getPort();
+        // Backend a reports its quota used up by other clients, backend b does not
+        server.createContext("/a" + UriResourceLocator.chatCompletionsUri(), exchange -> {
+            exchange.getResponseHeaders().add("x-ratelimit-remaining-requests", "0");
+            respondHello(exchange);
+        });
+        server.createContext("/b" + UriResourceLocator.chatCompletionsUri(), this::respondHello);
+        when(config.getGptBackends()).thenReturn(List.of(
+                GptBackend.of(domain + "/a"), GptBackend.of(domain + "/b")));
+        when(config.getGptBackendSelection()).thenReturn(BackendSelection.ROUND_ROBIN);
+        when(config.getGptRequestsPerMinute()).thenReturn(60);
+        OpenAiClient client = new OpenAiClient(metrics);
+
+        assertEquals("Hello", client.ask(config, "myPatch"));
+        long start = System.nanoTime();
+        assertEquals("Hello", client.ask(config, "myPatch"));
+        assertTrue(TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start) < 500);
+        start = System.nanoTime();
+        assertEquals("Hello", client.ask(config, "myPatch"));
+        assertTrue(TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start) >= 500);
+    }
+
+    private void respondHello(HttpExchange exchange) throws IOException {
+        exchange.sendResponseHeaders(HTTP_OK, 0);
+        try (OutputStream body = exchange.getResponseBody()) {
+            body.write((HELLO_CHUNK + "data: [DONE]\n\n").getBytes(StandardCharsets.UTF_8));
+        }
+    }
+
+    // The latency is recorded by the completing thread, which may run after the caller has seen the result
+    private void awaitRecord(String record) throws InterruptedException {
+        long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(5);
+        while (!metricMaker.getRecords().contains(record) && System.nanoTime() < deadline) {
+            Thread.sleep(10);
+        }
+        assertTrue(metricMaker.getRecords().toString(), metricMaker.getRecords().contains(record));
+    }
+}
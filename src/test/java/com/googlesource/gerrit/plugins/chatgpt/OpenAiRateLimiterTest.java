@@ -0,0 +1,77 @@
+package com.googlesource.gerrit.plugins.chatgpt;
+
+import com.googlesource.gerrit.plugins.chatgpt.client.OpenAiRateLimiter;
+import com.googlesource.gerrit.plugins.chatgpt.config.Configuration;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.net.http.HttpHeaders;
+import java.time.Clock;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.List;
+import java.util.Map;
+
+import static org.junit.Assert.assertEquals;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+public class OpenAiRateLimiterTest {
+    private static final Instant NOW = Instant.parse("2024-01-01T00:00:00Z");
+
+    private Configuration config;
+    private Clock clock;
+    private OpenAiRateLimiter rateLimiter;
+
+    @Before
+    public void before() {
+        config = mock(Configuration.class);
+        when(config.getGptRequestsPerMinute()).thenReturn(60);
+        when(config.getGptTokensPerMinute()).thenReturn(6000);
+        clock = mock(Clock.class);
+        when(clock.instant()).thenReturn(NOW);
+        rateLimiter = new OpenAiRateLimiter(clock);
+    }
+
+    @Test
+    public void requestsWaitUntilTheBucketRefills() {
+        for (int i = 0; i < 60; i++) {
+            assertEquals(Duration.ZERO, rateLimiter.reserve(config, 1));
+        }
+        assertEquals(Duration.ofSeconds(1), rateLimiter.reserve(config, 1));
+        // The request admitted in debt is paid back first
+        assertEquals(Duration.ofSeconds(2), rateLimiter.reserve(config, 1));
+
+        when(clock.instant()).thenReturn(NOW.plusSeconds(3));
+        assertEquals(Duration.ZERO, rateLimiter.reserve(config, 1));
+    }
+
+    @Test
+    public void tokensWaitForTheirShareOfTheMinute() {
+        assertEquals(Duration.ZERO, rateLimiter.reserve(config, 4000));
+        // 2000 tokens are missing, which take 20 seconds at 6000 tokens per minute
+        assertEquals(Duration.ofSeconds(20), rateLimiter.reserve(config, 4000));
+
+        when(clock.instant()).thenReturn(NOW.plusSeconds(60));
+        assertEquals(Duration.ZERO, rateLimiter.reserve(config, 4000));
+    }
+
+    @Test
+    public void chargedRequestsDelayLaterOnes() {
+        for (int i = 0; i < 60; i++) {
+            rateLimiter.charge(config, 1);
+        }
+
+        assertEquals(Duration.ofSeconds(1), rateLimiter.reserve(config, 1));
+    }
+
+    @Test
+    public void serverReportedQuotaLowersTheBucket() {
+        assertEquals(Duration.ZERO, rateLimiter.reserve(config, 1));
+        rateLimiter.syncWithServer(HttpHeaders.of(Map.of(
+                "x-ratelimit-remaining-requests", List.of("0"),
+                "x-ratelimit-remaining-tokens", List.of("malformed")), (name, value) -> true));
+
+        assertEquals(Duration.ofSeconds(1), rateLimiter.reserve(config, 1));
+    }
+}
@@ -0,0 +1,84 @@
+package com.googlesource.gerrit.plugins.chatgpt;
+
+import com.googlesource.gerrit.plugins.chatgpt.client.TokenEstimator;
+import org.junit.Test;
+
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class PatchSetChunkerTest {
+    private static final String COMMIT_MESSAGE = "Subject: [PATCH] Touch two files\n";
+    private static final String FOO_DIFF = "diff --git a/Foo.java b/Foo.java\n" +
+            "index 1111111..2222222 100644\n" +
+            "--- a/Foo.java\n" +
+            "+++ b/Foo.java\n" +
+            "@@ -1,1 +1,1 @@\n" +
+            "-    int foo = 0;\n" +
+            "+    int foo = 1;\n" +
+            "@@ -20,1 +20,1 @@\n" +
+            "-    int bar = 0;\n" +
+            "+    int bar = 1;";
+    private static final String BAZ_DIFF = "diff --git a/Baz.java b/Baz.java\n" +
+            "index 3333333..4444444 100644\n" +
+            "--- a/Baz.java\n" +
+            "+++ b/Baz.java\n" +
+            "@@ -5,1 +5,1 @@\n" +
+            "-    int baz = 0;\n" +
+            "+    int baz = 1;";
+    private static final String PATCH_SET = COMMIT_MESSAGE + FOO_DIFF + "\n" + BAZ_DIFF;
+
+    @Test
+    public void smallPatchSetIsOneChunk() {
+        List<PatchSetChunker.Chunk> chunks = PatchSetChunker.split(PATCH_SET, 1000);
+
+        assertEquals(1, chunks.size());
+        assertEquals(List.of("Foo.java", "Baz.java"), chunks.get(0).getFiles());
+        assertEquals(PATCH_SET, chunks.get(0).getContent());
+    }
+
+    @Test
+    public void filesAreSplitAtHunksWithinBudget() {
+        int maxTokens = TokenEstimator.estimate(COMMIT_MESSAGE + BAZ_DIFF) + 2;
+        List<PatchSetChunker.Chunk> chunks = PatchSetChunker.split(PATCH_SET, maxTokens);
+
+        assertEquals(3, chunks.size());
+        assertEquals(List.of("Foo.java"), chunks.get(0).getFiles());
+        assertEquals(List.of("Foo.java"), chunks.get(1).getFiles());
+        assertEquals(List.of("Baz.java"), chunks.get(2).getFiles());
+        assertEquals(COMMIT_MESSAGE + BAZ_DIFF, chunks.get(2).getContent());
+        for (PatchSetChunker.Chunk chunk : chunks) {
+            assertTrue(chunk.getContent().startsWith(COMMIT_MESSAGE + "diff --git"));
+            assertTrue(chunk.getContent().contains("+++ b/"));
+            assertTrue(TokenEstimator.estimate(chunk.getContent()) <= maxTokens);
+        }
+        assertTrue(chunks.get(0).getContent().contains("int foo"));
+        assertTrue(chunks.get(1).getContent().contains("int bar"));
+    }
+
+    @Test
+    public void emptyPatchSetHasNoChunks() {
+        assertEquals(List.of(), PatchSetChunker.split("", 1000));
+        assertEquals(List.of(), PatchSetChunker.split("\n", 1000));
+    }
+
+    @Test
+    public void reducedPatchSetIsSplitAtLines() {
+        String reducedPatchSet = "+    int foo = 1;\n+    int bar = 1;\n+    int baz = 1;";
+        List<PatchSetChunker.Chunk> chunks = PatchSetChunker.split(reducedPatchSet, 8);
+
+        assertEquals(3, chunks.size());
+        assertEquals("+    int bar = 1;", chunks.get(1).getContent());
+    }
+
+    @Test
+    public void linesThatExactlyFillTheBudgetShareAChunk() {
+        // Two lines and the newline between them take 15 characters, 4 tokens
+        List<PatchSetChunker.Chunk> chunks = PatchSetChunker.split("1234567\n1234567\n1234567", 4);
+
+        assertEquals(2, chunks.size());
+        assertEquals("1234567\n1234567", chunks.get(0).getContent());
+        assertEquals("1234567", chunks.get(1).getContent());
+    }
+}
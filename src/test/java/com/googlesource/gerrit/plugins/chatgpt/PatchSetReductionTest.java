@@ -0,0 +1,102 @@
+package com.googlesource.gerrit.plugins.chatgpt;
+
+import com.github.tomakehurst.wiremock.client.WireMock;
+import com.github.tomakehurst.wiremock.junit.WireMockRule;
+import com.google.common.net.HttpHeaders;
+import com.google.gerrit.metrics.DisabledMetricMaker;
+import com.google.gerrit.server.config.PluginConfig;
+import com.google.gerrit.server.git.GitRepositoryManager;
+import com.googlesource.gerrit.plugins.chatgpt.client.Deadline;
+import com.googlesource.gerrit.plugins.chatgpt.client.GerritClient;
+import com.googlesource.gerrit.plugins.chatgpt.client.GitDiffClient;
+import com.googlesource.gerrit.plugins.chatgpt.client.OpenAiClient;
+import com.googlesource.gerrit.plugins.chatgpt.config.Configuration;
+import com.googlesource.gerrit.plugins.chatgpt.metrics.ReviewMetrics;
+import org.apache.http.entity.ContentType;
+import org.eclipse.jgit.lib.Config;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.util.Base64;
+
+import static com.github.tomakehurst.wiremock.core.WireMockConfiguration.options;
+import static com.googlesource.gerrit.plugins.chatgpt.client.UriResourceLocator.gerritCurrentRevisionUri;
+import static com.googlesource.gerrit.plugins.chatgpt.client.UriResourceLocator.gerritPatchSetUri;
+import static java.net.HttpURLConnection.HTTP_OK;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.mockito.Mockito.mock;
+
+public class PatchSetReductionTest {
+    private static final String PLUGIN_NAME = "chatgpt-code-review-gerrit-plugin";
+    private static final String FULL_CHANGE_ID = "myProject~myBranchName~myChangeId";
+    private static final int PATCH_SET = 1;
+
+    @Rule
+    public WireMockRule wireMockRule = new WireMockRule(options().dynamicPort());
+
+    @Rule
+    public TemporaryFolder temporaryFolder = new TemporaryFolder();
+
+    private Config globalConfig;
+    private PatchSetReviewer patchSetReviewer;
+
+    @Before
+    public void before() {
+        globalConfig = new Config();
+        globalConfig.setString("plugin", PLUGIN_NAME, "gerritAuthBaseUrl", wireMockRule.baseUrl());
+        globalConfig.setString("plugin", PLUGIN_NAME, "gerritUserName", "gpt");
+        globalConfig.setString("plugin", PLUGIN_NAME, "gerritPassword", "secret");
+        globalConfig.setBoolean("plugin", PLUGIN_NAME, "patchSetReduction", true);
+        globalConfig.setBoolean("plugin", PLUGIN_NAME, "inlineComments", true);
+
+        ReviewMetrics metrics = new ReviewMetrics(new DisabledMetricMaker());
+        patchSetReviewer = new PatchSetReviewer(new GerritClient(metrics),
+                new GitDiffClient(mock(GitRepositoryManager.class)), new OpenAiClient(metrics),
+                new ReviewCache(temporaryFolder.getRoot().toPath()),
+                new ReviewHistory(temporaryFolder.getRoot().toPath()), new ReviewFilter(metrics), metrics);
+
+        WireMock.stubFor(WireMock.get(gerritCurrentRevisionUri(FULL_CHANGE_ID))
+                .willReturn(WireMock.aResponse()
+                        .withStatus(HTTP_OK)
+                        .withHeader(HttpHeaders.CONTENT_TYPE, ContentType.APPLICATION_JSON.toString())
+                        .withBody(")]}'\n{\"current_revision\":\"rev1\",\"revisions\":{\"rev1\":{\"_number\":" + PATCH_SET
+                                + "}}}")));
+        WireMock.stubFor(WireMock.get(gerritPatchSetUri(FULL_CHANGE_ID, PATCH_SET))
+                .willReturn(WireMock.aResponse()
+                        .withStatus(HTTP_OK)
+                        .withHeader(HttpHeaders.CONTENT_TYPE, ContentType.TEXT_PLAIN.toString())
+                        .withBody(Base64.getEncoder().encodeToString(("diff --git a/Foo.java b/Foo.java\n" +
+                                "--- a/Foo.java\n+++ b/Foo.java\n@@ -1,1 +1,1 @@\n-int count = 0;\n" +
+                                "+int count = 1;\n").getBytes()))));
+    }
+
+    @Test
+    public void reducedPatchSetIsReviewedWithoutInlineComments() throws Exception {
+        PatchSetReviewer.PreparedReview prepared = patchSetReviewer.prepare(createConfig(), FULL_CHANGE_ID, true,
+                Deadline.afterSeconds(10)).orElseThrow();
+
+        assertEquals("+int count = 1;", prepared.getPatchSet());
+        assertFalse(prepared.getConfig().isInlineComments());
+        assertFalse(prepared.getReviewConfig().isInlineComments());
+        assertFalse(prepared.getReviewConfig().getGptPrompt().contains(ReviewParser.INLINE_COMMENTS_PROMPT));
+    }
+
+    @Test
+    public void fullPatchSetIsReviewedWithInlineComments() throws Exception {
+        globalConfig.setBoolean("plugin", PLUGIN_NAME, "patchSetReduction", false);
+        PatchSetReviewer.PreparedReview prepared = patchSetReviewer.prepare(createConfig(), FULL_CHANGE_ID, true,
+                Deadline.afterSeconds(10)).orElseThrow();
+
+        assertTrue(prepared.getConfig().isInlineComments());
+        assertTrue(prepared.getReviewConfig().getGptPrompt().contains(ReviewParser.INLINE_COMMENTS_PROMPT));
+    }
+
+    private Configuration createConfig() {
+        return new Configuration(PluginConfig.createFromGerritConfig(PLUGIN_NAME, globalConfig),
+                PluginConfig.createFromGerritConfig(PLUGIN_NAME, new Config()), "myProject");
+    }
+}
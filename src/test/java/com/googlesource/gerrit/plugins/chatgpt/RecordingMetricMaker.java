@@ -0,0 +1,122 @@
+package com.googlesource.gerrit.plugins.chatgpt;
+
+import com.google.gerrit.extensions.registration.RegistrationHandle;
+import com.google.gerrit.metrics.CallbackMetric;
+import com.google.gerrit.metrics.CallbackMetric1;
+import com.google.gerrit.metrics.Counter2;
+import com.google.gerrit.metrics.Counter3;
+import com.google.gerrit.metrics.Description;
+import com.google.gerrit.metrics.DisabledMetricMaker;
+import com.google.gerrit.metrics.Field;
+import com.google.gerrit.metrics.Timer2;
+import com.google.gerrit.metrics.Timer3;
+
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Records every timer and counter value as "name field1 field2...", and every gauge value as "name field value", so
+ * tests can check what was measured. Gauges are only recorded when {@link #readCallbackMetrics()} is called.
+ */
+class RecordingMetricMaker extends DisabledMetricMaker {
+    private final List<String> records = new CopyOnWriteArrayList<>();
+    private final List<Runnable> triggers = new CopyOnWriteArrayList<>();
+
+    List<String> getRecords() {
+        return records;
+    }
+
+    /**
+     * Runs the triggers of the callback metrics, as a metrics backend does when it reads them.
+     */
+    void readCallbackMetrics() {
+        triggers.forEach(Runnable::run);
+    }
+
+    @Override
+    public <F1, F2> Timer2<F1, F2> newTimer(String name, Description desc, Field<F1> field1, Field<F2> field2) {
+        return new Timer2<>(name, field1, field2) {
+            @Override
+            protected void doRecord(F1 value1, F2 value2, long value, TimeUnit unit) {
+                add(name, value1, value2);
+            }
+
+            @Override
+            public void remove() {}
+        };
+    }
+
+    @Override
+    public <F1, F2, F3> Timer3<F1, F2, F3> newTimer(String name, Description desc, Field<F1> field1,
+                                                    Field<F2> field2, Field<F3> field3) {
+        return new Timer3<>(name, field1, field2, field3) {
+            @Override
+            protected void doRecord(F1 value1, F2 value2, F3 value3, long value, TimeUnit unit) {
+                add(name, value1, value2, value3);
+            }
+
+            @Override
+            public void remove() {}
+        };
+    }
+
+    @Override
+    public <F1, F2> Counter2<F1, F2> newCounter(String name, Description desc, Field<F1> field1, Field<F2> field2) {
+        return new Counter2<>() {
+            @Override
+            public void incrementBy(F1 value1, F2 value2, long value) {
+                add(name, value1, value2);
+            }
+
+            @Override
+            public void remove() {}
+        };
+    }
+
+    @Override
+    public <F1, F2, F3> Counter3<F1, F2, F3> newCounter(String name, Description desc, Field<F1> field1,
+                                                        Field<F2> field2, Field<F3> field3) {
+        return new Counter3<>() {
+            @Override
+            public void incrementBy(F1 value1, F2 value2, F3 value3, long value) {
+                add(name, value1, value2, value3);
+            }
+
+            @Override
+            public void remove() {}
+        };
+    }
+
+    @Override
+    public <F1, V> CallbackMetric1<F1, V> newCallbackMetric(String name, Class<V> valueClass, Description desc,
+                                                            Field<F1> field1) {
+        return new CallbackMetric1<>() {
+            @Override
+            public void set(F1 value1, V value) {
+                add(name, value1, value);
+            }
+
+            @Override
+            public void forceCreate(F1 value1) {}
+
+            @Override
+            public void remove() {}
+        };
+    }
+
+    @Override
+    public RegistrationHandle newTrigger(Set<CallbackMetric<?>> metrics, Runnable trigger) {
+        triggers.add(trigger);
+        return () -> triggers.remove(trigger);
+    }
+
+    private void add(String name, Object... fields) {
+        StringBuilder record = new StringBuilder(name);
+        for (Object field : fields) {
+            record.append(' ').append(field);
+        }
+        records.add(record.toString());
+    }
+}
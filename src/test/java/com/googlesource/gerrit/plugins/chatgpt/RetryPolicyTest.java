@@ -0,0 +1,117 @@
+package com.googlesource.gerrit.plugins.chatgpt;
+
+import com.github.tomakehurst.wiremock.client.WireMock;
+import com.github.tomakehurst.wiremock.junit.WireMockRule;
+import com.googlesource.gerrit.plugins.chatgpt.client.CircuitBreaker;
+import com.googlesource.gerrit.plugins.chatgpt.client.CircuitBreakerOpenException;
+import com.googlesource.gerrit.plugins.chatgpt.client.HttpClientWithRetry;
+import com.googlesource.gerrit.plugins.chatgpt.client.RetryPolicy;
+import org.junit.Rule;
+import org.junit.Test;
+
+import java.net.URI;
+import java.net.http.HttpHeaders;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.time.Duration;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+
+import static com.github.tomakehurst.wiremock.core.WireMockConfiguration.options;
+import static java.net.HttpURLConnection.HTTP_BAD_REQUEST;
+import static java.net.HttpURLConnection.HTTP_UNAVAILABLE;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertThrows;
+import static org.junit.Assert.assertTrue;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+public class RetryPolicyTest {
+
+    @Rule
+    public WireMockRule wireMockRule = new WireMockRule(options().dynamicPort());
+
+    private final RetryPolicy retryPolicy = RetryPolicy.forLlm();
+
+    @Test
+    public void classifiesStatusCodes() {
+        assertTrue(retryPolicy.isRetryable(429));
+        assertTrue(retryPolicy.isRetryable(503));
+        assertFalse(retryPolicy.isRetryable(400));
+        assertFalse(retryPolicy.isRetryable(401));
+        assertTrue(retryPolicy.isEndpointFailure(429));
+        assertFalse(retryPolicy.isEndpointFailure(404));
+    }
+
+    @Test
+    public void honorsServerHints() {
+        assertEquals(Optional.of(Duration.ofSeconds(7)), retryPolicy.serverHint(headers("Retry-After", "7")));
+        assertEquals(Optional.of(Duration.ofMillis(1500)), retryPolicy.serverHint(headers("retry-after-ms", "1500")));
+        assertEquals(Optional.of(Duration.ofSeconds(360)),
+                retryPolicy.serverHint(headers("x-ratelimit-reset-requests", "6m0s")));
+        assertEquals(Optional.of(Duration.ofMillis(20)),
+                retryPolicy.serverHint(headers("x-ratelimit-reset-tokens", "20ms")));
+        assertEquals(Optional.empty(), retryPolicy.serverHint(headers("x-ratelimit-reset-tokens", "soon")));
+    }
+
+    @Test
+    public void backsOffExponentiallyWithinBounds() {
+        for (int attempt = 2; attempt <= 10; attempt++) {
+            Duration delay = retryPolicy.delayBeforeAttempt(attempt, null);
+            assertFalse(delay.isNegative());
+            assertTrue(delay.compareTo(retryPolicy.getMaxDelay()) <= 0);
+        }
+    }
+
+    @Test
+    public void serverHintAndJitterStayWithinMaxDelay() {
+        HttpResponse<?> response = mock(HttpResponse.class);
+        when(response.headers()).thenReturn(headers("Retry-After", "3600"));
+
+        for (int attempt = 2; attempt <= 10; attempt++) {
+            assertEquals(retryPolicy.getMaxDelay(), retryPolicy.delayBeforeAttempt(attempt, response));
+        }
+    }
+
+    @Test
+    public void badRequestDoesNotResetCircuitBreaker() throws Exception {
+        HttpClientWithRetry client = new HttpClientWithRetry(
+                new RetryPolicy(1, Duration.ZERO, Duration.ZERO, 2, Duration.ofMinutes(1)));
+        HttpRequest request = HttpRequest.newBuilder(URI.create(wireMockRule.baseUrl() + "/completions")).build();
+
+        stubStatus(HTTP_UNAVAILABLE);
+        assertEquals(HTTP_UNAVAILABLE, client.execute(request).statusCode());
+        stubStatus(HTTP_BAD_REQUEST);
+        assertEquals(HTTP_BAD_REQUEST, client.execute(request).statusCode());
+        stubStatus(HTTP_UNAVAILABLE);
+        assertEquals(HTTP_UNAVAILABLE, client.execute(request).statusCode());
+
+        // The second unavailable response in a row opened the breaker
+        assertThrows(CircuitBreakerOpenException.class, () -> client.execute(request));
+    }
+
+    @Test
+    public void circuitBreakerOpensAndProbes() {
+        CircuitBreaker circuitBreaker = new CircuitBreaker("http://llm", 2, Duration.ZERO);
+        circuitBreaker.recordFailure(null);
+        assertEquals(CircuitBreaker.State.CLOSED, circuitBreaker.getState());
+        circuitBreaker.recordFailure(null);
+        assertEquals(CircuitBreaker.State.OPEN, circuitBreaker.getState());
+
+        assertTrue(circuitBreaker.tryAcquire());
+        assertEquals(CircuitBreaker.State.HALF_OPEN, circuitBreaker.getState());
+        assertFalse(circuitBreaker.tryAcquire());
+        circuitBreaker.recordSuccess();
+        assertEquals(CircuitBreaker.State.CLOSED, circuitBreaker.getState());
+    }
+
+    private void stubStatus(int status) {
+        wireMockRule.stubFor(WireMock.get("/completions").willReturn(WireMock.aResponse().withStatus(status)));
+    }
+
+    private static HttpHeaders headers(String name, String value) {
+        return HttpHeaders.of(Map.of(name, List.of(value)), (key, val) -> true);
+    }
+}
@@ -0,0 +1,93 @@
+package com.googlesource.gerrit.plugins.chatgpt;
+
+import com.googlesource.gerrit.plugins.chatgpt.config.Configuration;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.util.Optional;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotEquals;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+public class ReviewCacheTest {
+    private static final String PATCH_SET = "From 1111111 Mon Sep 17 00:00:00 2001\n" +
+            "Subject: [PATCH] Fix parsing\n\n" +
+            "diff --git a/Foo.java b/Foo.java\n" +
+            "index 1111111..2222222 100644\n" +
+            "@@ -10,3 +10,3 @@ class Foo {\n" +
+            "-    int x = 0;\n" +
+            "+    int x = 1;\n";
+    private static final String CHERRY_PICKED_PATCH_SET = "From 3333333 Mon Sep 18 00:00:00 2001\n" +
+            "Subject: [PATCH] Fix parsing on stable\n\n" +
+            "diff --git a/Foo.java b/Foo.java\n" +
+            "index 3333333..4444444 100644\n" +
+            "@@ -42,3 +42,3 @@ class Foo {\n" +
+            "-    int x = 0;\n" +
+            "+    int x = 1;\n";
+
+    @Rule
+    public TemporaryFolder temporaryFolder = new TemporaryFolder();
+
+    private Configuration config;
+
+    @Before
+    public void before() {
+        config = mock(Configuration.class);
+        when(config.getGptModel()).thenReturn(Configuration.DEFAULT_GPT_MODEL);
+        when(config.getGptPrompt()).thenReturn(Configuration.DEFAULT_GPT_PROMPT);
+        when(config.getGptTemperature()).thenReturn(1.0);
+        when(config.getReviewCacheSize()).thenReturn(10);
+        when(config.getReviewCacheTtlMinutes()).thenReturn(60);
+    }
+
+    @Test
+    public void identicalDiffsShareReview() {
+        ReviewCache reviewCache = new ReviewCache(temporaryFolder.getRoot().toPath());
+        String key = reviewCache.createKey(config, PATCH_SET);
+        assertEquals(key, reviewCache.createKey(config, CHERRY_PICKED_PATCH_SET));
+        assertNotEquals(key, reviewCache.createKey(config, PATCH_SET.replace("x = 1", "x = 2")));
+
+        assertEquals(Optional.empty(), reviewCache.get(config, key));
+        reviewCache.put(config, key, "Looks good");
+        assertEquals(Optional.of("Looks good"), reviewCache.get(config, key));
+        assertEquals(1, reviewCache.getHits());
+        assertEquals(1, reviewCache.getMisses());
+    }
+
+    @Test
+    public void inlineCommentsKeepHunkOffsetsInTheKey() {
+        when(config.isInlineComments()).thenReturn(true);
+        ReviewCache reviewCache = new ReviewCache(temporaryFolder.getRoot().toPath());
+
+        // The same comments would land on other lines of the cherry-picked file
+        assertNotEquals(reviewCache.createKey(config, PATCH_SET),
+                reviewCache.createKey(config, CHERRY_PICKED_PATCH_SET));
+        assertEquals(reviewCache.createKey(config, PATCH_SET), reviewCache.createKey(config,
+                PATCH_SET.replace("index 1111111..2222222", "index 5555555..6666666")));
+    }
+
+    @Test
+    public void diskTierSurvivesRestart() {
+        when(config.isReviewCacheDiskEnabled()).thenReturn(true);
+        ReviewCache reviewCache = new ReviewCache(temporaryFolder.getRoot().toPath());
+        String key = reviewCache.createKey(config, PATCH_SET);
+        reviewCache.put(config, key, "Looks good");
+
+        ReviewCache restartedCache = new ReviewCache(temporaryFolder.getRoot().toPath());
+        assertEquals(Optional.of("Looks good"), restartedCache.get(config, key));
+    }
+
+    @Test
+    public void expiredEntriesAreMissed() {
+        when(config.getReviewCacheTtlMinutes()).thenReturn(-1);
+        ReviewCache reviewCache = new ReviewCache(temporaryFolder.getRoot().toPath());
+        String key = reviewCache.createKey(config, PATCH_SET);
+        reviewCache.put(config, key, "Looks good");
+
+        assertEquals(Optional.empty(), reviewCache.get(config, key));
+    }
+}
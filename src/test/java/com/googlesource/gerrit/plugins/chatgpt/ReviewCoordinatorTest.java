@@ -0,0 +1,142 @@
+package com.googlesource.gerrit.plugins.chatgpt;
+
+import com.googlesource.gerrit.plugins.chatgpt.config.Configuration;
+import com.googlesource.gerrit.plugins.chatgpt.coordination.ReviewCoordinator;
+import com.googlesource.gerrit.plugins.chatgpt.coordination.SharedDirectoryReviewCoordinator;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.time.Clock;
+import java.time.Duration;
+import java.time.Instant;
+import java.time.ZoneId;
+import java.time.ZoneOffset;
+import java.util.Optional;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Stream;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+public class ReviewCoordinatorTest {
+    private static final String CLAIM_KEY = "myProject~myBranchName~myChangeId/1";
+    private static final Instant NOW = Instant.parse("2024-01-01T00:00:00Z");
+
+    @Rule
+    public TemporaryFolder temporaryFolder = new TemporaryFolder();
+
+    private Configuration config;
+
+    @Before
+    public void before() {
+        config = mock(Configuration.class);
+        when(config.getCoordinationDirectory()).thenReturn(temporaryFolder.getRoot().getPath());
+        when(config.getCoordinationLeaseSeconds()).thenReturn(60);
+    }
+
+    @Test
+    public void onlyOneNodeReviewsPatchSet() {
+        ReviewCoordinator first = new SharedDirectoryReviewCoordinator("first", fixedClock(NOW));
+        ReviewCoordinator second = new SharedDirectoryReviewCoordinator("second", fixedClock(NOW));
+
+        Optional<ReviewCoordinator.Lease> lease = first.tryClaim(config, CLAIM_KEY);
+        assertTrue(lease.isPresent());
+        assertEquals(Optional.empty(), second.tryClaim(config, CLAIM_KEY));
+        assertFalse(second.isDone(config, CLAIM_KEY));
+
+        lease.get().complete();
+        lease.get().close();
+        assertTrue(second.isDone(config, CLAIM_KEY));
+        assertEquals(Optional.empty(), second.tryClaim(config, CLAIM_KEY));
+    }
+
+    @Test
+    public void releasedReviewCanBeClaimedByAnotherNode() {
+        ReviewCoordinator first = new SharedDirectoryReviewCoordinator("first", fixedClock(NOW));
+        ReviewCoordinator second = new SharedDirectoryReviewCoordinator("second", fixedClock(NOW));
+
+        first.tryClaim(config, CLAIM_KEY).orElseThrow().close();
+
+        assertTrue(second.tryClaim(config, CLAIM_KEY).isPresent());
+    }
+
+    @Test
+    public void expiredLeaseOfDeadNodeIsTakenOver() {
+        ReviewCoordinator dead = new SharedDirectoryReviewCoordinator("dead", fixedClock(NOW));
+        ReviewCoordinator early = new SharedDirectoryReviewCoordinator("early", fixedClock(NOW.plusSeconds(30)));
+        ReviewCoordinator late = new SharedDirectoryReviewCoordinator("late",
+                fixedClock(NOW.plus(Duration.ofSeconds(61))));
+
+        assertTrue(dead.tryClaim(config, CLAIM_KEY).isPresent());
+
+        assertEquals(Optional.empty(), early.tryClaim(config, CLAIM_KEY));
+        assertTrue(late.tryClaim(config, CLAIM_KEY).isPresent());
+    }
+
+    @Test
+    public void leaseRenamedAwayDuringAnExpiryCheckIsStillRenewed() throws Exception {
+        when(config.getCoordinationLeaseSeconds()).thenReturn(1);
+        MutableClock clock = new MutableClock(NOW);
+        ReviewCoordinator.Lease lease = new SharedDirectoryReviewCoordinator("owner", clock)
+                .tryClaim(config, CLAIM_KEY).orElseThrow();
+        Path leaseFile;
+        try (Stream<Path> files = Files.list(temporaryFolder.getRoot().toPath())) {
+            leaseFile = files.filter(file -> file.toString().endsWith(".lease")).findFirst().orElseThrow();
+        }
+
+        // Another node renames the lease away while it checks the expiry, and gives it back since it is alive
+        Path checkedFile = leaseFile.resolveSibling(leaseFile.getFileName() + ".other.expired");
+        Files.move(leaseFile, checkedFile, StandardCopyOption.ATOMIC_MOVE);
+        // Long enough for a renewal, which runs every third of the lease, to find no lease
+        Thread.sleep(500);
+        Files.move(checkedFile, leaseFile, StandardCopyOption.ATOMIC_MOVE);
+
+        clock.setInstant(NOW.plusSeconds(10));
+        String renewedExpiry = Long.toString(NOW.plusSeconds(11).toEpochMilli());
+        long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(5);
+        while (!Files.readString(leaseFile).contains(renewedExpiry) && System.nanoTime() < deadline) {
+            Thread.sleep(50);
+        }
+        assertEquals("owner " + renewedExpiry, Files.readString(leaseFile).trim());
+        lease.close();
+    }
+
+    private static Clock fixedClock(Instant instant) {
+        return Clock.fixed(instant, ZoneOffset.UTC);
+    }
+
+    private static class MutableClock extends Clock {
+        private volatile Instant instant;
+
+        private MutableClock(Instant instant) {
+            this.instant = instant;
+        }
+
+        private void setInstant(Instant instant) {
+            this.instant = instant;
+        }
+
+        @Override
+        public ZoneId getZone() {
+            return ZoneOffset.UTC;
+        }
+
+        @Override
+        public Clock withZone(ZoneId zone) {
+            return this;
+        }
+
+        @Override
+        public Instant instant() {
+            return instant;
+        }
+    }
+}
@@ -0,0 +1,97 @@
+package com.googlesource.gerrit.plugins.chatgpt;
+
+import com.google.common.base.Suppliers;
+import com.google.gerrit.entities.BranchNameKey;
+import com.google.gerrit.entities.Change;
+import com.google.gerrit.entities.Project;
+import com.google.gerrit.extensions.client.ChangeKind;
+import com.google.gerrit.metrics.DisabledMetricMaker;
+import com.google.gerrit.server.config.PluginConfig;
+import com.google.gerrit.server.data.AccountAttribute;
+import com.google.gerrit.server.data.ChangeAttribute;
+import com.google.gerrit.server.data.PatchSetAttribute;
+import com.google.gerrit.server.events.PatchSetCreatedEvent;
+import com.googlesource.gerrit.plugins.chatgpt.client.PatchSetContent;
+import com.googlesource.gerrit.plugins.chatgpt.config.Configuration;
+import com.googlesource.gerrit.plugins.chatgpt.metrics.ReviewMetrics;
+import org.eclipse.jgit.lib.Config;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.Optional;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+public class ReviewFilterTest {
+    private static final String PLUGIN_NAME = "chatgpt-code-review-gerrit-plugin";
+    private static final Project.NameKey PROJECT_NAME = Project.nameKey("myProject");
+
+    private Configuration config;
+    private PatchSetAttribute patchSet;
+    private ChangeAttribute change;
+    private PatchSetCreatedEvent event;
+
+    @Before
+    public void before() {
+        Config globalConfig = new Config();
+        globalConfig.setString("plugin", PLUGIN_NAME, "skipUploaders", "ci-bot, release-bot");
+        globalConfig.setString("plugin", PLUGIN_NAME, "skipBranches", "release/*");
+        globalConfig.setString("plugin", PLUGIN_NAME, "skipFiles", "**.md");
+        config = new Configuration(PluginConfig.createFromGerritConfig(PLUGIN_NAME, globalConfig),
+                PluginConfig.createFromGerritConfig(PLUGIN_NAME, new Config()), PROJECT_NAME.get());
+
+        patchSet = new PatchSetAttribute();
+        patchSet.kind = ChangeKind.REWORK;
+        patchSet.uploader = new AccountAttribute();
+        patchSet.uploader.username = "jane";
+        change = new ChangeAttribute();
+        change.wip = false;
+        event = mock(PatchSetCreatedEvent.class);
+        event.patchSet = Suppliers.ofInstance(patchSet);
+        event.change = Suppliers.ofInstance(change);
+        when(event.getBranchNameKey()).thenReturn(BranchNameKey.create(PROJECT_NAME, "master"));
+        when(event.getChangeKey()).thenReturn(Change.key("myChangeId"));
+    }
+
+    @Test
+    public void reworkIsReviewed() {
+        assertTrue(new ReviewFilter(new ReviewMetrics(new DisabledMetricMaker())).accept(config, event));
+    }
+
+    @Test
+    public void patchSetsWithoutNewCodeAreSkippedByDefault() {
+        patchSet.kind = ChangeKind.TRIVIAL_REBASE;
+        assertEquals(Optional.of(ReviewFilter.Rule.CHANGE_KIND), ReviewFilter.check(config, event));
+        patchSet.kind = ChangeKind.NO_CODE_CHANGE;
+        assertEquals(Optional.of(ReviewFilter.Rule.CHANGE_KIND), ReviewFilter.check(config, event));
+
+        patchSet.kind = ChangeKind.REWORK;
+        change.wip = true;
+        assertEquals(Optional.of(ReviewFilter.Rule.WORK_IN_PROGRESS), ReviewFilter.check(config, event));
+    }
+
+    @Test
+    public void configuredRulesSkipUploadersAndBranches() {
+        patchSet.uploader.username = "ci-bot";
+        assertEquals(Optional.of(ReviewFilter.Rule.UPLOADER), ReviewFilter.check(config, event));
+
+        patchSet.uploader.username = "jane";
+        when(event.getBranchNameKey()).thenReturn(BranchNameKey.create(PROJECT_NAME, "release/1.0"));
+        assertEquals(Optional.of(ReviewFilter.Rule.BRANCH), ReviewFilter.check(config, event));
+    }
+
+    @Test
+    public void patchSetChangingOnlySkippedFilesIsSkipped() throws Exception {
+        ReviewFilter reviewFilter = new ReviewFilter(new ReviewMetrics(new DisabledMetricMaker()));
+        String docs = "diff --git a/README.md b/README.md\n+More docs\n" +
+                "diff --git a/docs/usage.md b/docs/usage.md\n+Even more docs\n";
+
+        assertFalse(reviewFilter.acceptFiles(config, "myChangeId", PatchSetContent.of(docs)));
+        assertTrue(reviewFilter.acceptFiles(config, "myChangeId", PatchSetContent.of(docs +
+                "diff --git a/src/Foo.java b/src/Foo.java\n+int count = 1;\n")));
+    }
+}
@@ -0,0 +1,71 @@
+package com.googlesource.gerrit.plugins.chatgpt;
+
+import com.googlesource.gerrit.plugins.chatgpt.listener.ReviewJournal;
+import com.googlesource.gerrit.plugins.chatgpt.listener.ReviewRequest;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.util.List;
+import java.util.Optional;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class ReviewJournalTest {
+    private static final long MAX_BYTES = 1024 * 1024;
+    private static final String CHANGE_ID = "myProject~myBranchName~myChangeId";
+    private static final String OTHER_CHANGE_ID = "myProject~myBranchName~otherChangeId";
+
+    @Rule
+    public TemporaryFolder temporaryFolder = new TemporaryFolder();
+
+    @Test
+    public void outstandingReviewsSurviveRestart() {
+        ReviewJournal reviewJournal = new ReviewJournal(temporaryFolder.getRoot().toPath());
+        ReviewJournal.Entry review = reviewJournal.accept(patchSetReview(CHANGE_ID), MAX_BYTES)
+                .orElseThrow();
+        reviewJournal.accept(question(OTHER_CHANGE_ID, "What does this do?"), MAX_BYTES);
+        reviewJournal.complete(review);
+
+        ReviewJournal restartedJournal = new ReviewJournal(temporaryFolder.getRoot().toPath());
+        List<ReviewJournal.Entry> outstanding = restartedJournal.getOutstanding();
+        assertEquals(1, outstanding.size());
+        assertEquals(OTHER_CHANGE_ID, outstanding.get(0).getRequest().getFullChangeId());
+        assertEquals("What does this do?", outstanding.get(0).getRequest().getQuestion());
+
+        ReviewJournal.Entry next = restartedJournal.accept(patchSetReview(CHANGE_ID), MAX_BYTES)
+                .orElseThrow();
+        assertTrue(next.getId() > outstanding.get(0).getId());
+    }
+
+    @Test
+    public void newerPatchSetReplacesOutstandingReview() {
+        ReviewJournal reviewJournal = new ReviewJournal(temporaryFolder.getRoot().toPath());
+        ReviewJournal.Entry older = reviewJournal.accept(patchSetReview(CHANGE_ID), MAX_BYTES)
+                .orElseThrow();
+        ReviewJournal.Entry newer = reviewJournal.accept(patchSetReview(CHANGE_ID), MAX_BYTES)
+                .orElseThrow();
+        reviewJournal.complete(older);
+
+        assertEquals(List.of(newer), new ReviewJournal(temporaryFolder.getRoot().toPath()).getOutstanding());
+    }
+
+    @Test
+    public void fullJournalRejectsReviews() {
+        ReviewJournal reviewJournal = new ReviewJournal(temporaryFolder.getRoot().toPath());
+        long maxBytes = 300;
+        assertTrue(reviewJournal.accept(question(CHANGE_ID, "Why?"), maxBytes).isPresent());
+
+        assertEquals(Optional.empty(), reviewJournal.accept(question(OTHER_CHANGE_ID, "Why?"), maxBytes));
+        assertEquals(1, reviewJournal.getOutstanding().size());
+    }
+
+    private static ReviewRequest patchSetReview(String fullChangeId) {
+        return new ReviewRequest("myProject", fullChangeId, fullChangeId, null, fullChangeId + "/1");
+    }
+
+    private static ReviewRequest question(String fullChangeId, String question) {
+        return new ReviewRequest("myProject", fullChangeId, null, question, fullChangeId + "/0/" + question);
+    }
+}
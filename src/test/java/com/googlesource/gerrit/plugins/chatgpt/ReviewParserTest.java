@@ -0,0 +1,67 @@
+package com.googlesource.gerrit.plugins.chatgpt;
+
+import com.googlesource.gerrit.plugins.chatgpt.client.ReviewInput;
+import org.junit.Test;
+
+import java.util.List;
+import java.util.Map;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+
+public class ReviewParserTest {
+    private static final String PATCH_SET = "diff --git a/src/Foo.java b/src/Foo.java\n" +
+            "--- a/src/Foo.java\n" +
+            "+++ b/src/Foo.java\n" +
+            "@@ -11,4 +11,5 @@\n" +
+            " l11\n" +
+            "-int count = 0;\n" +
+            "+int count = 1;\n" +
+            "+int limit = 2;\n" +
+            " l14\n" +
+            " l15\n";
+
+    @Test
+    public void commentsOnDiffLinesArePostedInline() {
+        String review = "```json\n{\"summary\": \"Looks fine.\", \"comments\": [" +
+                "{\"file\": \"src/Foo.java\", \"line\": 12, \"message\": \"Why 1?\"}," +
+                "{\"file\": \"src/Foo.java\", \"line\": 99, \"message\": \"Outside of the diff\"}," +
+                "{\"file\": \"src/Bar.java\", \"line\": 1, \"message\": \"Not in the change\"}]}\n```";
+
+        ReviewInput reviewInput = ReviewParser.toReviewInput(
+                List.of(new ReviewParser.ReviewPart(null, review)), PATCH_SET, true);
+
+        assertEquals("Looks fine.\n\nsrc/Foo.java:99: Outside of the diff\n\nsrc/Bar.java:1: Not in the change",
+                reviewInput.getMessage());
+        assertEquals(1, reviewInput.getComments().size());
+        assertEquals(12, reviewInput.getComments().get("src/Foo.java").get(0).getLine());
+        assertEquals("Why 1?", reviewInput.getComments().get("src/Foo.java").get(0).getMessage());
+    }
+
+    @Test
+    public void unstructuredAnswersBecomeTheMessage() {
+        ReviewInput reviewInput = ReviewParser.toReviewInput(List.of(
+                new ReviewParser.ReviewPart("Review of src/Foo.java:", "Looks fine. {maybe}"),
+                new ReviewParser.ReviewPart("Review of src/Bar.java:", "{\"summary\": \"Rename it.\"}")),
+                PATCH_SET, true);
+
+        assertEquals("Review of src/Foo.java:\nLooks fine. {maybe}\n\nReview of src/Bar.java:\nRename it.",
+                reviewInput.getMessage());
+        assertNull(reviewInput.getComments());
+    }
+
+    @Test
+    public void refusedInlineCommentsAreFoldedIntoTheMessage() {
+        ReviewInput reviewInput = ReviewInput.builder()
+                .message("Looks fine.")
+                .comments(Map.of("src/Foo.java", List.of(ReviewInput.CommentInput.builder()
+                        .line(12)
+                        .message("Why 1?")
+                        .build())))
+                .build();
+
+        ReviewInput withoutInlineComments = ReviewParser.withoutInlineComments(reviewInput);
+        assertEquals("Looks fine.\n\nsrc/Foo.java:12: Why 1?", withoutInlineComments.getMessage());
+        assertNull(withoutInlineComments.getComments());
+    }
+}
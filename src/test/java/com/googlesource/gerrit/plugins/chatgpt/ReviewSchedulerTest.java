@@ -0,0 +1,135 @@
+package com.googlesource.gerrit.plugins.chatgpt;
+
+import com.google.common.util.concurrent.Uninterruptibles;
+import com.googlesource.gerrit.plugins.chatgpt.config.Configuration;
+import com.googlesource.gerrit.plugins.chatgpt.listener.ReviewScheduler;
+import com.googlesource.gerrit.plugins.chatgpt.metrics.ReviewMetrics;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Collectors;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+public class ReviewSchedulerTest {
+
+    private final CountDownLatch release = new CountDownLatch(1);
+    private final ReviewMetrics metrics = mock(ReviewMetrics.class);
+    private ReviewScheduler reviewScheduler;
+    private Configuration config;
+
+    @Before
+    public void before() {
+        reviewScheduler = new ReviewScheduler(metrics);
+        config = mock(Configuration.class);
+        when(config.getMaxConcurrentReviews()).thenReturn(2);
+        when(config.getMaxConcurrentReviewsPerProject()).thenReturn(1);
+        when(config.getMaxQueuedReviewsPerProject()).thenReturn(1);
+    }
+
+    @After
+    public void after() {
+        release.countDown();
+    }
+
+    @Test
+    public void busyProjectDoesNotStarveOthers() throws Exception {
+        CompletableFuture<Void> first = reviewScheduler.submit(config, "monorepo", this::awaitRelease);
+        CompletableFuture<Void> second = reviewScheduler.submit(config, "monorepo", this::awaitRelease);
+        CompletableFuture<Void> other = reviewScheduler.submit(config, "small", () -> {});
+
+        other.get(5, TimeUnit.SECONDS);
+        assertFalse(first.isDone());
+        assertFalse(second.isDone());
+        ReviewScheduler.ProjectStats stats = reviewScheduler.getProjectStats().get("monorepo");
+        assertEquals(1, stats.getQueueDepth());
+        assertEquals(1, stats.getActiveWorkers());
+
+        release.countDown();
+        first.get(5, TimeUnit.SECONDS);
+        second.get(5, TimeUnit.SECONDS);
+    }
+
+    @Test
+    public void fullQueueShedsReviews() {
+        reviewScheduler.submit(config, "monorepo", this::awaitRelease);
+        reviewScheduler.submit(config, "monorepo", this::awaitRelease);
+        CompletableFuture<Void> shed = reviewScheduler.submit(config, "monorepo", this::awaitRelease);
+
+        assertTrue(shed.isCancelled());
+        assertEquals(1, reviewScheduler.getProjectStats().get("monorepo").getRejectedReviews());
+        verify(metrics).countRejection(config);
+    }
+
+    @Test
+    public void drainedProjectKeepsItsStatistics() throws Exception {
+        CompletableFuture<Void> first = reviewScheduler.submit(config, "monorepo", this::awaitRelease);
+        CompletableFuture<Void> second = reviewScheduler.submit(config, "monorepo", this::awaitRelease);
+        reviewScheduler.submit(config, "monorepo", this::awaitRelease);
+
+        release.countDown();
+        first.get(5, TimeUnit.SECONDS);
+        second.get(5, TimeUnit.SECONDS);
+        // The worker drops the queue right after completing the last review's future
+        long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(5);
+        while (reviewScheduler.getProjectStats().get("monorepo").getActiveWorkers() > 0
+                && System.nanoTime() < deadline) {
+            Thread.sleep(10);
+        }
+        ReviewScheduler.ProjectStats stats = reviewScheduler.getProjectStats().get("monorepo");
+        assertEquals(0, stats.getQueueDepth());
+        assertEquals(0, stats.getActiveWorkers());
+        assertEquals(2, stats.getStartedReviews());
+        assertEquals(1, stats.getRejectedReviews());
+    }
+
+    @Test
+    public void queuesAreReportedAsGauges() {
+        RecordingMetricMaker metricMaker = new RecordingMetricMaker();
+        ReviewScheduler scheduler = new ReviewScheduler(new ReviewMetrics(metricMaker));
+        scheduler.submit(config, "monorepo", this::awaitRelease);
+        scheduler.submit(config, "monorepo", this::awaitRelease);
+
+        metricMaker.readCallbackMetrics();
+        assertEquals(List.of("review/queue_depth monorepo 1", "review/active_workers monorepo 1"),
+                metricMaker.getRecords().stream().filter(record -> !record.startsWith("review/queue_wait"))
+                        .collect(Collectors.toList()));
+    }
+
+    @Test
+    public void newerRequestSupersedesPendingAndRunningReviews() throws Exception {
+        CountDownLatch interrupted = new CountDownLatch(1);
+        CompletableFuture<Void> running = reviewScheduler.submit(config, "project", "change", () -> {
+            Uninterruptibles.awaitUninterruptibly(release, 5, TimeUnit.SECONDS);
+            if (Thread.currentThread().isInterrupted()) {
+                interrupted.countDown();
+            }
+        });
+        CompletableFuture<Void> pending = reviewScheduler.submit(config, "project", "change", this::awaitRelease);
+        CompletableFuture<Void> newest = reviewScheduler.submit(config, "project", "change", () -> {});
+        release.countDown();
+
+        assertTrue(interrupted.await(5, TimeUnit.SECONDS));
+        running.get(5, TimeUnit.SECONDS);
+        assertTrue(pending.isCancelled());
+        newest.get(5, TimeUnit.SECONDS);
+    }
+
+    private void awaitRelease() {
+        try {
+            release.await(5, TimeUnit.SECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+}
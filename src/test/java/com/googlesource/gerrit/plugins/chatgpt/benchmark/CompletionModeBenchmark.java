@@ -0,0 +1,113 @@
+package com.googlesource.gerrit.plugins.chatgpt.benchmark;
+
+import com.github.tomakehurst.wiremock.WireMockServer;
+import com.github.tomakehurst.wiremock.client.WireMock;
+import com.google.common.io.Resources;
+import com.google.common.net.HttpHeaders;
+import com.google.gerrit.metrics.DisabledMetricMaker;
+import com.googlesource.gerrit.plugins.chatgpt.client.OpenAiClient;
+import com.googlesource.gerrit.plugins.chatgpt.client.UriResourceLocator;
+import com.googlesource.gerrit.plugins.chatgpt.config.Configuration;
+import com.googlesource.gerrit.plugins.chatgpt.metrics.ReviewMetrics;
+import org.apache.http.entity.ContentType;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.profile.GCProfiler;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.Options;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.TimeUnit;
+
+import static com.github.tomakehurst.wiremock.core.WireMockConfiguration.options;
+import static java.net.HttpURLConnection.HTTP_OK;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+/**
+ * Compares time and allocations per review between streamed and non-streamed completions,
+ * replaying recorded OpenAI responses from WireMock.
+ * It is not part of the regular build. Run {@link #main} after {@code mvn test-compile}.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@State(Scope.Benchmark)
+@Fork(1)
+@Warmup(iterations = 3, time = 5)
+@Measurement(iterations = 5, time = 5)
+public class CompletionModeBenchmark {
+    private static final String PATCH_SET = "+public static int stringToInt(String bar) throws Exception {";
+
+    private WireMockServer wireMockServer;
+    private OpenAiClient openAiClient;
+    private Configuration streamingConfig;
+    private Configuration nonStreamingConfig;
+
+    @Setup
+    public void setup() throws IOException {
+        wireMockServer = new WireMockServer(options().dynamicPort());
+        wireMockServer.start();
+        stubCompletion("\"stream\":true", ContentType.TEXT_PLAIN, "benchmark/completionStream.txt");
+        stubCompletion("\"stream\":false", ContentType.APPLICATION_JSON, "benchmark/completion.json");
+
+        openAiClient = new OpenAiClient(new ReviewMetrics(new DisabledMetricMaker()));
+        streamingConfig = createConfig(true);
+        nonStreamingConfig = createConfig(false);
+    }
+
+    @TearDown
+    public void tearDown() {
+        wireMockServer.stop();
+    }
+
+    @Benchmark
+    public String streaming() throws Exception {
+        return openAiClient.ask(streamingConfig, PATCH_SET);
+    }
+
+    @Benchmark
+    public String nonStreaming() throws Exception {
+        return openAiClient.ask(nonStreamingConfig, PATCH_SET);
+    }
+
+    private void stubCompletion(String requestBodyPart, ContentType contentType, String fixture) throws IOException {
+        String body = Resources.toString(Resources.getResource(fixture), StandardCharsets.UTF_8);
+        wireMockServer.stubFor(WireMock.post(WireMock.urlEqualTo(UriResourceLocator.chatCompletionsUri()))
+                .withRequestBody(WireMock.containing(requestBodyPart))
+                .willReturn(WireMock.aResponse()
+                        .withStatus(HTTP_OK)
+                        .withHeader(HttpHeaders.CONTENT_TYPE, contentType.toString())
+                        .withBody(body)));
+    }
+
+    private Configuration createConfig(boolean streamOutput) {
+        Configuration config = mock(Configuration.class);
+        when(config.getGptDomain()).thenReturn(wireMockServer.baseUrl());
+        when(config.getGptToken()).thenReturn("token");
+        when(config.getGptModel()).thenReturn(Configuration.DEFAULT_GPT_MODEL);
+        when(config.getGptPrompt()).thenReturn(Configuration.DEFAULT_GPT_PROMPT);
+        when(config.getGptTemperature()).thenReturn(1.0);
+        when(config.isGptStreamOutput()).thenReturn(streamOutput);
+        return config;
+    }
+
+    public static void main(String[] args) throws RunnerException {
+        Options options = new OptionsBuilder()
+                .include(CompletionModeBenchmark.class.getSimpleName())
+                .addProfiler(GCProfiler.class)
+                .build();
+        new Runner(options).run();
+    }
+}
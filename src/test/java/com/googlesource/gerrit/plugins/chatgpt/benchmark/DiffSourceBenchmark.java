@@ -0,0 +1,187 @@
+package com.googlesource.gerrit.plugins.chatgpt.benchmark;
+
+import com.github.tomakehurst.wiremock.WireMockServer;
+import com.github.tomakehurst.wiremock.client.WireMock;
+import com.google.common.net.HttpHeaders;
+import com.google.gerrit.metrics.DisabledMetricMaker;
+import com.google.gerrit.server.config.PluginConfig;
+import com.google.gerrit.server.git.GitRepositoryManager;
+import com.googlesource.gerrit.plugins.chatgpt.PatchSetReducer;
+import com.googlesource.gerrit.plugins.chatgpt.client.GerritClient;
+import com.googlesource.gerrit.plugins.chatgpt.client.GitDiffClient;
+import com.googlesource.gerrit.plugins.chatgpt.client.PatchSetContent;
+import com.googlesource.gerrit.plugins.chatgpt.client.PatchSetRevision;
+import com.googlesource.gerrit.plugins.chatgpt.client.UriResourceLocator;
+import com.googlesource.gerrit.plugins.chatgpt.config.Configuration;
+import com.googlesource.gerrit.plugins.chatgpt.metrics.ReviewMetrics;
+import org.apache.http.entity.ContentType;
+import org.eclipse.jgit.dircache.DirCache;
+import org.eclipse.jgit.dircache.DirCacheBuilder;
+import org.eclipse.jgit.dircache.DirCacheEntry;
+import org.eclipse.jgit.internal.storage.dfs.DfsRepositoryDescription;
+import org.eclipse.jgit.internal.storage.dfs.InMemoryRepository;
+import org.eclipse.jgit.lib.CommitBuilder;
+import org.eclipse.jgit.lib.Config;
+import org.eclipse.jgit.lib.Constants;
+import org.eclipse.jgit.lib.FileMode;
+import org.eclipse.jgit.lib.ObjectId;
+import org.eclipse.jgit.lib.ObjectInserter;
+import org.eclipse.jgit.lib.PersonIdent;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.profile.GCProfiler;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.Options;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+import java.io.IOException;
+import java.io.Reader;
+import java.nio.charset.StandardCharsets;
+import java.util.Base64;
+import java.util.concurrent.TimeUnit;
+
+import static com.github.tomakehurst.wiremock.core.WireMockConfiguration.options;
+import static java.net.HttpURLConnection.HTTP_OK;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+/**
+ * Compares time and allocations of fetching and reducing a patch set between the base64 patch downloaded from
+ * Gerrit, served by WireMock, and the diff formatted with JGit from a synthetic in-memory repository. Both sources
+ * deliver the same diff.
+ * It is not part of the regular build. Run {@link #main} after {@code mvn test-compile}.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@State(Scope.Benchmark)
+@Fork(1)
+@Warmup(iterations = 3, time = 5)
+@Measurement(iterations = 5, time = 5)
+public class DiffSourceBenchmark {
+    private static final String PLUGIN_NAME = "chatgpt-code-review-gerrit-plugin";
+    private static final String FULL_CHANGE_ID = "myProject~myBranchName~myChangeId";
+    private static final int LINES_PER_FILE = 200;
+
+    @Param({"100", "1000"})
+    private int changedFiles;
+
+    private WireMockServer wireMockServer;
+    private InMemoryRepository repo;
+    private Configuration config;
+    private GerritClient gerritClient;
+    private GitDiffClient gitDiffClient;
+    private PatchSetRevision revision;
+
+    @Setup
+    public void setup() throws Exception {
+        repo = new InMemoryRepository(new DfsRepositoryDescription("myProject"));
+        ObjectId parent = commit(null, 0);
+        revision = new PatchSetRevision(1, commit(parent, 1).name(), parent.name());
+        GitRepositoryManager repoManager = mock(GitRepositoryManager.class);
+        when(repoManager.openRepository(any())).thenAnswer(invocation -> {
+            repo.incrementOpen();
+            return repo;
+        });
+        gitDiffClient = new GitDiffClient(repoManager);
+
+        wireMockServer = new WireMockServer(options().dynamicPort());
+        wireMockServer.start();
+        config = createConfig(wireMockServer.baseUrl());
+        wireMockServer.stubFor(WireMock.get(UriResourceLocator.gerritPatchSetUri(FULL_CHANGE_ID))
+                .willReturn(WireMock.aResponse()
+                        .withStatus(HTTP_OK)
+                        .withHeader(HttpHeaders.CONTENT_TYPE, ContentType.TEXT_PLAIN.toString())
+                        .withBody(Base64.getEncoder().encodeToString(formatPatch()))));
+        gerritClient = new GerritClient(new ReviewMetrics(new DisabledMetricMaker()));
+    }
+
+    @TearDown
+    public void tearDown() {
+        wireMockServer.stop();
+    }
+
+    @Benchmark
+    public String rest() throws Exception {
+        try (PatchSetContent content = gerritClient.getPatchSetContent(config, FULL_CHANGE_ID);
+             Reader reader = content.openReader()) {
+            return PatchSetReducer.reduce(reader);
+        }
+    }
+
+    @Benchmark
+    public String git() throws Exception {
+        try (PatchSetContent content = gitDiffClient.getPatchSetContent(config, FULL_CHANGE_ID, revision);
+             Reader reader = content.openReader()) {
+            return PatchSetReducer.reduce(reader);
+        }
+    }
+
+    private byte[] formatPatch() throws IOException {
+        try (PatchSetContent content = gitDiffClient.getPatchSetContent(config, FULL_CHANGE_ID, revision)) {
+            return content.asString().getBytes(StandardCharsets.UTF_8);
+        }
+    }
+
+    private ObjectId commit(ObjectId parent, int version) throws IOException {
+        try (ObjectInserter inserter = repo.newObjectInserter()) {
+            DirCache index = DirCache.newInCore();
+            DirCacheBuilder builder = index.builder();
+            for (int file = 0; file < changedFiles; file++) {
+                StringBuilder source = new StringBuilder();
+                for (int line = 0; line < LINES_PER_FILE; line++) {
+                    // Every tenth line changes between the versions
+                    int value = line % 10 == 0 ? line + version : line;
+                    source.append("    private int field").append(line).append(" = ").append(value).append(";\n");
+                }
+                DirCacheEntry entry = new DirCacheEntry(String.format("src/File%05d.java", file));
+                entry.setFileMode(FileMode.REGULAR_FILE);
+                entry.setObjectId(inserter.insert(Constants.OBJ_BLOB,
+                        source.toString().getBytes(StandardCharsets.UTF_8)));
+                builder.add(entry);
+            }
+            builder.finish();
+
+            PersonIdent author = new PersonIdent("Jane", "jane@example.com");
+            CommitBuilder commit = new CommitBuilder();
+            commit.setTreeId(index.writeTree(inserter));
+            if (parent != null) {
+                commit.setParentId(parent);
+            }
+            commit.setAuthor(author);
+            commit.setCommitter(author);
+            commit.setMessage("Version " + version + "\n");
+            ObjectId id = inserter.insert(commit);
+            inserter.flush();
+            return id;
+        }
+    }
+
+    private static Configuration createConfig(String gerritUrl) {
+        Config globalConfig = new Config();
+        globalConfig.setString("plugin", PLUGIN_NAME, "gerritAuthBaseUrl", gerritUrl);
+        globalConfig.setString("plugin", PLUGIN_NAME, "gerritUserName", "gpt");
+        globalConfig.setString("plugin", PLUGIN_NAME, "gerritPassword", "secret");
+        return new Configuration(PluginConfig.createFromGerritConfig(PLUGIN_NAME, globalConfig),
+                PluginConfig.createFromGerritConfig(PLUGIN_NAME, new Config()), "myProject");
+    }
+
+    public static void main(String[] args) throws RunnerException {
+        Options options = new OptionsBuilder()
+                .include(DiffSourceBenchmark.class.getSimpleName())
+                .addProfiler(GCProfiler.class)
+                .build();
+        new Runner(options).run();
+    }
+}
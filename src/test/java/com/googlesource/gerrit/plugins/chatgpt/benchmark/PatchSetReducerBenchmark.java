@@ -0,0 +1,97 @@
+package com.googlesource.gerrit.plugins.chatgpt.benchmark;
+
+import com.google.common.io.Resources;
+import com.googlesource.gerrit.plugins.chatgpt.PatchSetReducer;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.profile.GCProfiler;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.Options;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+import java.io.IOException;
+import java.io.StringReader;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Collectors;
+
+/**
+ * Compares the single-pass patch set reducer with the former split/stream/join implementation on diffs of
+ * realistic sizes, built by repeating the reducePatchSet test fixture.
+ * It is not part of the regular build. Run {@link #main} after {@code mvn test-compile}.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@State(Scope.Benchmark)
+@Fork(1)
+@Warmup(iterations = 3, time = 5)
+@Measurement(iterations = 5, time = 5)
+public class PatchSetReducerBenchmark {
+    @Param({"64", "1024", "8192"})
+    private int patchSetKiB;
+
+    private String patchSet;
+
+    @Setup
+    public void setup() throws IOException {
+        String fixture = Resources.toString(Resources.getResource("reducePatchSet/patchSetInput.diff"),
+                StandardCharsets.UTF_8);
+        StringBuilder builder = new StringBuilder(patchSetKiB * 1024 + fixture.length());
+        while (builder.length() < patchSetKiB * 1024) {
+            builder.append(fixture).append('\n');
+        }
+        patchSet = builder.toString();
+        if (!legacyReducePatchSet(patchSet).equals(PatchSetReducer.reduce(patchSet))) {
+            throw new IllegalStateException("Reducers disagree");
+        }
+    }
+
+    @Benchmark
+    public String legacy() {
+        return legacyReducePatchSet(patchSet);
+    }
+
+    @Benchmark
+    public String singlePass() {
+        return PatchSetReducer.reduce(patchSet);
+    }
+
+    @Benchmark
+    public String singlePassFromReader() throws IOException {
+        return PatchSetReducer.reduce(new StringReader(patchSet));
+    }
+
+    private static String legacyReducePatchSet(String patchSet) {
+        Set<String> skipPrefixes = new HashSet<>(Arrays.asList(
+                "import", "-", "+package", "+import", "From", "Date:", "Subject:",
+                "Change-Id:", "diff --git", "index", "---", "+++", "@@", "Binary files differ"
+        ));
+
+        return Arrays.stream(patchSet.split("\n"))
+                .map(String::trim)
+                .filter(line -> skipPrefixes.stream().noneMatch(line::startsWith))
+                .filter(line -> !line.trim().isEmpty())
+                .collect(Collectors.joining("\n"));
+    }
+
+    public static void main(String[] args) throws RunnerException {
+        Options options = new OptionsBuilder()
+                .include(PatchSetReducerBenchmark.class.getSimpleName())
+                .addProfiler(GCProfiler.class)
+                .build();
+        new Runner(options).run();
+    }
+}
@@ -0,0 +1,124 @@
+package com.googlesource.gerrit.plugins.chatgpt.config;
+
+import com.google.gerrit.entities.Project;
+import com.google.gerrit.entities.RefNames;
+import com.google.gerrit.extensions.events.GitReferenceUpdatedListener;
+import com.google.gerrit.server.config.ConfigUpdatedEvent;
+import com.google.gerrit.server.config.PluginConfig;
+import com.google.gerrit.server.config.PluginConfigFactory;
+import com.google.gerrit.server.project.NoSuchProjectException;
+import org.eclipse.jgit.lib.Config;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.lang.reflect.Field;
+import java.lang.reflect.Modifier;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertSame;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+public class ConfigCreatorTest {
+    private static final String PLUGIN_NAME = "chatgpt-code-review-gerrit-plugin";
+    private static final Project.NameKey PROJECT_NAME = Project.nameKey("myProject");
+
+    private PluginConfigFactory configFactory;
+    private ConfigCreator configCreator;
+    private ConfigInvalidator configInvalidator;
+
+    @Before
+    public void before() throws NoSuchProjectException {
+        Config globalConfig = new Config();
+        globalConfig.setString("plugin", PLUGIN_NAME, "gptModel", "gpt-4");
+        globalConfig.setString("plugin", PLUGIN_NAME, "gptTemperature", "0.5");
+        Config projectConfig = new Config();
+        projectConfig.setString("plugin", PLUGIN_NAME, "gptTemperature", "0.2");
+        projectConfig.setBoolean("plugin", PLUGIN_NAME, "isEnabled", true);
+
+        configFactory = mock(PluginConfigFactory.class);
+        when(configFactory.getFromGerritConfig(PLUGIN_NAME))
+                .thenReturn(PluginConfig.createFromGerritConfig(PLUGIN_NAME, globalConfig));
+        when(configFactory.getFromProjectConfig(PROJECT_NAME, PLUGIN_NAME))
+                .thenReturn(PluginConfig.createFromGerritConfig(PLUGIN_NAME, projectConfig));
+        configCreator = new ConfigCreator(PLUGIN_NAME, configFactory);
+        configInvalidator = new ConfigInvalidator(configCreator);
+    }
+
+    @Test
+    public void resolvesProjectThenGlobalThenDefault() throws NoSuchProjectException {
+        Configuration config = configCreator.createConfig(PROJECT_NAME);
+
+        assertEquals(0.2, config.getGptTemperature(), 0);
+        assertEquals("gpt-4", config.getGptModel());
+        assertEquals(Configuration.DEFAULT_GPT_PROMPT, config.getGptPrompt());
+        assertEquals(true, config.isProjectEnable());
+
+        Configuration questionConfig = config.withGptPrompt("What does this do?");
+        assertEquals("What does this do?", questionConfig.getGptPrompt());
+        assertEquals("gpt-4", questionConfig.getGptModel());
+        assertEquals(Configuration.DEFAULT_GPT_PROMPT, config.getGptPrompt());
+    }
+
+    @Test
+    public void copiesCarryEveryOtherValue() throws Exception {
+        Configuration config = configCreator.createConfig(PROJECT_NAME);
+        Configuration tierConfig = config.withGptModel("gpt-4o-mini");
+
+        assertEquals("gpt-4o-mini", tierConfig.getGptModel());
+        for (Field field : Configuration.class.getDeclaredFields()) {
+            if (Modifier.isStatic(field.getModifiers()) || field.getName().equals("gptModel")) {
+                continue;
+            }
+            field.setAccessible(true);
+            assertEquals(field.getName(), field.get(config), field.get(tierConfig));
+        }
+    }
+
+    @Test
+    public void snapshotIsReloadedOnlyAfterConfigurationChanges() throws NoSuchProjectException {
+        Configuration config = configCreator.createConfig(PROJECT_NAME);
+        assertSame(config, configCreator.createConfig(PROJECT_NAME));
+
+        configInvalidator.onGitReferenceUpdated(refUpdated("refs/heads/master"));
+        assertSame(config, configCreator.createConfig(PROJECT_NAME));
+
+        configInvalidator.onGitReferenceUpdated(refUpdated(RefNames.REFS_CONFIG));
+        Configuration reloadedConfig = configCreator.createConfig(PROJECT_NAME);
+        assertNotSame(config, reloadedConfig);
+
+        configInvalidator.configUpdated(new ConfigUpdatedEvent(new Config(), new Config()));
+        assertNotSame(reloadedConfig, configCreator.createConfig(PROJECT_NAME));
+        verify(configFactory, times(3)).getFromProjectConfig(PROJECT_NAME, PLUGIN_NAME);
+    }
+
+    @Test
+    public void projectModelTiersReplaceGlobalModelTiers() throws Exception {
+        Config globalConfig = new Config();
+        globalConfig.setStringList("plugin", PLUGIN_NAME, "gptModelTier",
+                List.of("gpt-4o-mini maxTokens=8000 maxChangedLines=50", "gpt-4o maxTokens=120000"));
+        Config projectConfig = new Config();
+        projectConfig.setStringList("plugin", PLUGIN_NAME, "gptModelTier",
+                List.of("docs-model maxTokens=4000 files=**.md,**.txt", "invalid-tier"));
+        when(configFactory.getFromGerritConfig(PLUGIN_NAME))
+                .thenReturn(PluginConfig.createFromGerritConfig(PLUGIN_NAME, globalConfig));
+        when(configFactory.getFromProjectConfig(PROJECT_NAME, PLUGIN_NAME))
+                .thenReturn(PluginConfig.createFromGerritConfig(PLUGIN_NAME, projectConfig));
+
+        assertEquals(List.of(new ModelTier("docs-model", 4000, 0, List.of("**.md", "**.txt"))),
+                configCreator.createConfig(PROJECT_NAME).getGptModelTiers());
+        assertEquals(2, new Configuration(PluginConfig.createFromGerritConfig(PLUGIN_NAME, globalConfig),
+                PluginConfig.createFromGerritConfig(PLUGIN_NAME, new Config()), null).getGptModelTiers().size());
+    }
+
+    private GitReferenceUpdatedListener.Event refUpdated(String refName) {
+        GitReferenceUpdatedListener.Event event = mock(GitReferenceUpdatedListener.Event.class);
+        when(event.getProjectName()).thenReturn(PROJECT_NAME.get());
+        when(event.getRefName()).thenReturn(refName);
+        return event;
+    }
+}